@@ -8,7 +8,7 @@ import foundry.veil.impl.client.editor.LightEditor;
 import foundry.veil.impl.client.render.deferred.light.AreaLightRenderer;
 import foundry.veil.impl.client.render.deferred.light.DirectionalLightRenderer;
 import foundry.veil.impl.client.render.deferred.light.IndirectPointLightRenderer;
-import foundry.veil.impl.client.render.deferred.light.InstancedPointLightRenderer;
+import foundry.veil.impl.client.render.deferred.light.TiledPointLightRenderer;
 import foundry.veil.platform.registry.RegistrationProvider;
 import net.minecraft.client.Camera;
 import net.minecraft.client.multiplayer.ClientLevel;
@@ -35,8 +35,8 @@ public class LightTypeRegistry {
             Veil.LOGGER.info("Using Indirect Point Light Renderer");
             return new IndirectPointLightRenderer();
         } else {
-            Veil.LOGGER.info("Using Instanced Point Light Renderer");
-            return new InstancedPointLightRenderer();
+            Veil.LOGGER.info("Using Tiled Point Light Renderer");
+            return new TiledPointLightRenderer();
         }
     }, (level, camera) -> new PointLight().setTo(camera).setRadius(15.0F));
     public static final Supplier<LightType<AreaLight>> AREA = register("area", AreaLightRenderer::new, (level, camera) -> new AreaLight().setDistance(15.0F).setTo(camera));
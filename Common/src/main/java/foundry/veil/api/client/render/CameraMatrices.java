@@ -7,8 +7,6 @@ import org.lwjgl.system.NativeResource;
 
 import java.nio.ByteBuffer;
 
-import static org.lwjgl.opengl.GL31C.GL_UNIFORM_BUFFER;
-
 /**
  * Packages all camera matrices and shader uniforms to make shader management easier.
  *
@@ -40,7 +38,7 @@ public class CameraMatrices implements NativeResource {
      * Creates a new set of camera matrices.
      */
     public CameraMatrices() {
-        this.block = ShaderBlock.withSize(GL_UNIFORM_BUFFER, CameraMatrices.SIZE, CameraMatrices::write);
+        this.block = ShaderBlock.transientUniform(CameraMatrices.SIZE, CameraMatrices::write);
         this.projectionMatrix = new Matrix4f();
         this.inverseProjectionMatrix = new Matrix4f();
         this.viewMatrix = new Matrix4f();
@@ -1,5 +1,6 @@
 package foundry.veil.api.client.render;
 
+import foundry.veil.impl.client.render.FrustumBatchCuller;
 import net.minecraft.world.phys.AABB;
 import net.minecraft.world.phys.Vec3;
 import org.joml.*;
@@ -268,6 +269,32 @@ public interface CullFrustum {
      */
     boolean testLineSegment(double aX, double aY, double aZ, double bX, double bY, double bZ);
 
+    /**
+     * Tests many spheres against the frustum at once. This is significantly faster than calling {@link #testSphere(double, double, double, float)} for each sphere.
+     *
+     * @param spheres    Sphere data packed as <code>[x, y, z, radius]</code>
+     * @param count      The number of spheres to test
+     * @param visibility The bitset to write results into. Bit <code>i</code> is set if sphere <code>i</code> is inside the frustum.
+     *                   Must have at least <code>(count + 63) / 64</code> elements
+     * @return The number of spheres inside the frustum
+     */
+    default int testSpheres(double[] spheres, int count, long[] visibility) {
+        return FrustumBatchCuller.testSpheres(this.getPlanes(), this.getPosition(), spheres, count, visibility);
+    }
+
+    /**
+     * Tests many axis-aligned boxes against the frustum at once. This is significantly faster than calling {@link #testAab(double, double, double, double, double, double)} for each box.
+     *
+     * @param boxes      Box data packed as <code>[minX, minY, minZ, maxX, maxY, maxZ]</code>
+     * @param count      The number of boxes to test
+     * @param visibility The bitset to write results into. Bit <code>i</code> is set if box <code>i</code> is inside the frustum.
+     *                   Must have at least <code>(count + 63) / 64</code> elements
+     * @return The number of boxes inside the frustum
+     */
+    default int testAabs(double[] boxes, int count, long[] visibility) {
+        return FrustumBatchCuller.testAabs(this.getPlanes(), this.getPosition(), boxes, count, visibility);
+    }
+
     /**
      * @return The data for each plane in the frustum
      */
@@ -12,6 +12,7 @@ import foundry.veil.api.client.render.shader.program.ShaderProgram;
 import foundry.veil.api.opencl.VeilOpenCL;
 import foundry.veil.ext.VertexBufferExtension;
 import foundry.veil.impl.client.imgui.VeilImGuiImpl;
+import foundry.veil.impl.client.render.deferred.DeferredShaderStateCache;
 import foundry.veil.impl.client.render.pipeline.VeilUniformBlockState;
 import foundry.veil.impl.client.render.shader.ShaderProgramImpl;
 import net.minecraft.client.Minecraft;
@@ -37,6 +38,7 @@ import java.util.function.Supplier;
 import static org.lwjgl.opengl.GL11C.glGetInteger;
 import static org.lwjgl.opengl.GL30C.GL_MAX_COLOR_ATTACHMENTS;
 import static org.lwjgl.opengl.GL31C.GL_MAX_UNIFORM_BUFFER_BINDINGS;
+import static org.lwjgl.opengl.GL31C.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT;
 import static org.lwjgl.opengl.GL43C.*;
 import static org.lwjgl.opengl.GL44C.glBindTextures;
 
@@ -60,11 +62,28 @@ public final class VeilRenderSystem {
     private static final BooleanSupplier TRANSFORM_FEEDBACK_SUPPORTED = glCapability(caps -> caps.OpenGL40 || caps.GL_ARB_transform_feedback3);
     private static final BooleanSupplier TEXTURE_MULTIBIND_SUPPORTED = glCapability(caps -> caps.OpenGL44 || caps.glBindTextures != 0L);
     private static final BooleanSupplier SPARSE_BUFFERS_SUPPORTED = glCapability(caps -> caps.OpenGL44 || caps.GL_ARB_sparse_buffer);
+    private static final BooleanSupplier BUFFER_STORAGE_SUPPORTED = glCapability(caps -> caps.OpenGL44 || caps.GL_ARB_buffer_storage);
+    private static final BooleanSupplier COPY_IMAGE_SUPPORTED = glCapability(caps -> caps.OpenGL43 || caps.GL_ARB_copy_image);
+    private static final BooleanSupplier INVALIDATE_FRAMEBUFFER_SUPPORTED = glCapability(caps -> caps.OpenGL43 || caps.GL_ARB_invalidate_subdata);
+    private static final BooleanSupplier PROGRAM_BINARY_SUPPORTED = glCapability(caps -> (caps.OpenGL41 || caps.GL_ARB_get_program_binary) && glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0);
+    private static final BooleanSupplier PARALLEL_SHADER_COMPILE_SUPPORTED = glCapability(caps -> {
+        // 0xFFFFFFFF lets the driver pick the number of compiler threads
+        if (caps.GL_KHR_parallel_shader_compile) {
+            KHRParallelShaderCompile.glMaxShaderCompilerThreadsKHR(0xFFFFFFFF);
+            return true;
+        }
+        if (caps.GL_ARB_parallel_shader_compile) {
+            ARBParallelShaderCompile.glMaxShaderCompilerThreadsARB(0xFFFFFFFF);
+            return true;
+        }
+        return false;
+    });
     private static final IntSupplier MAX_COMBINED_TEXTURE_IMAGE_UNITS = VeilRenderSystem.glGetter(() -> glGetInteger(GL_MAX_COMBINED_TEXTURE_IMAGE_UNITS));
     private static final IntSupplier MAX_COLOR_ATTACHMENTS = VeilRenderSystem.glGetter(() -> glGetInteger(GL_MAX_COLOR_ATTACHMENTS));
     private static final IntSupplier MAX_SAMPLES = VeilRenderSystem.glGetter(() -> glGetInteger(GL_MAX_SAMPLES));
     private static final IntSupplier MAX_TRANSFORM_FEEDBACK_BUFFERS = VeilRenderSystem.glGetter(() -> TRANSFORM_FEEDBACK_SUPPORTED.getAsBoolean() ? glGetInteger(GL_MAX_TRANSFORM_FEEDBACK_BUFFERS) : 0);
     private static final IntSupplier MAX_UNIFORM_BUFFER_BINDINGS = VeilRenderSystem.glGetter(() -> glGetInteger(GL_MAX_UNIFORM_BUFFER_BINDINGS));
+    private static final IntSupplier UNIFORM_BUFFER_OFFSET_ALIGNMENT = VeilRenderSystem.glGetter(() -> glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT));
     private static final IntSupplier MAX_ATOMIC_COUNTER_BUFFER_BINDINGS = VeilRenderSystem.glGetter(() -> glGetInteger(GL_MAX_ATOMIC_COUNTER_BUFFER_BINDINGS));
     private static final IntSupplier MAX_SHADER_STORAGE_BUFFER_BINDINGS = VeilRenderSystem.glGetter(() -> glGetInteger(GL_MAX_SHADER_STORAGE_BUFFER_BINDINGS));
 
@@ -319,12 +338,23 @@ public final class VeilRenderSystem {
     }
 
     /**
-     * Clears all pending shader errors and re-queues uniform block ids to shaders.
+     * Clears all pending shader errors, cached deferred shaders, and unused shader objects.
      */
     @ApiStatus.Internal
     public static void finalizeShaderCompilation() {
         ERRORED_SHADERS.clear();
-        UNIFORM_BLOCK_STATE.queueUpload();
+        renderer.getShaderObjectCache().deleteUnused();
+        DeferredShaderStateCache.invalidate();
+    }
+
+    /**
+     * Sets the bindings of all named shader blocks in the specified program.
+     *
+     * @param program The program that was just linked
+     */
+    @ApiStatus.Internal
+    public static void applyShaderBlockBindings(ShaderProgram program) {
+        UNIFORM_BLOCK_STATE.apply(program);
     }
 
     /**
@@ -406,6 +436,44 @@ public final class VeilRenderSystem {
         return VeilRenderSystem.SPARSE_BUFFERS_SUPPORTED.getAsBoolean();
     }
 
+    /**
+     * @return Whether {@link ARBBufferStorage} is supported
+     */
+    public static boolean bufferStorageSupported() {
+        return VeilRenderSystem.BUFFER_STORAGE_SUPPORTED.getAsBoolean();
+    }
+
+    /**
+     * @return Whether {@link GL43C#glCopyImageSubData} is supported
+     */
+    public static boolean copyImageSupported() {
+        return VeilRenderSystem.COPY_IMAGE_SUPPORTED.getAsBoolean();
+    }
+
+    /**
+     * @return Whether {@link GL43C#glInvalidateFramebuffer} is supported
+     */
+    public static boolean invalidateFramebufferSupported() {
+        return VeilRenderSystem.INVALIDATE_FRAMEBUFFER_SUPPORTED.getAsBoolean();
+    }
+
+    /**
+     * @return Whether linked programs can be saved and loaded with {@link GL41C#glGetProgramBinary} and {@link GL41C#glProgramBinary}
+     */
+    public static boolean programBinarySupported() {
+        return VeilRenderSystem.PROGRAM_BINARY_SUPPORTED.getAsBoolean();
+    }
+
+    /**
+     * Checks whether shaders can be compiled in the background by the driver. The first call to this method
+     * allows the driver to use as many compiler threads as it wants.
+     *
+     * @return Whether {@link KHRParallelShaderCompile} or {@link ARBParallelShaderCompile} is supported
+     */
+    public static boolean parallelShaderCompileSupported() {
+        return VeilRenderSystem.PARALLEL_SHADER_COMPILE_SUPPORTED.getAsBoolean();
+    }
+
     /**
      * @return The GL maximum number of texture units that can be bound
      */
@@ -475,6 +543,13 @@ public final class VeilRenderSystem {
         return VeilRenderSystem.MAX_UNIFORM_BUFFER_BINDINGS.getAsInt();
     }
 
+    /**
+     * @return The GL alignment required for the offset of uniform buffer ranges
+     */
+    public static int uniformBufferOffsetAlignment() {
+        return VeilRenderSystem.UNIFORM_BUFFER_OFFSET_ALIGNMENT.getAsInt();
+    }
+
     /**
      * @return The GL maximum number of atomic counter buffers bindings available
      */
@@ -553,8 +628,7 @@ public final class VeilRenderSystem {
     }
 
     /**
-     * <p>Binds the specified block into the next available binding spot
-     * and updates all shaders if the binding index has changed.</p>
+     * <p>Binds the specified block into the binding spot reserved for it.</p>
      * <p><b>Make sure this is called before trying to use the block on this frame as it may have been overwritten.</b></p>
      *
      * @param block The block to bind
@@ -565,8 +639,8 @@ public final class VeilRenderSystem {
     }
 
     /**
-     * <p>Binds the specified block into the next available binding spot
-     * and updates all shaders if the binding index has changed.</p>
+     * <p>Binds the specified block into the binding spot reserved for the name.
+     * Shaders are only updated the first time a name is bound, since programs get the binding when they are linked.</p>
      * <p><b>Make sure this is called before trying to use the block on this frame as it may have been overwritten.</b></p>
      * <p>This binds the block and assigns it to shader values.</p>
      *
@@ -648,6 +722,12 @@ public final class VeilRenderSystem {
         VeilImGuiImpl.get().end();
         renderer.getFramebufferManager().clear();
         UNIFORM_BLOCK_STATE.clear();
+        renderer.getUniformRing().endFrame();
+        renderer.getFramebufferPool().endFrame();
+        renderer.getPixelReadbackManager().endFrame();
+        renderer.getFramebufferCopier().endFrame();
+        renderer.getShaderManager().prewarmVariants();
+        renderer.getDeferredRenderer().getDeferredShaderManager().prewarmVariants();
     }
 
     @ApiStatus.Internal
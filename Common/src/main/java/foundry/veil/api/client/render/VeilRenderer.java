@@ -1,25 +1,41 @@
 package foundry.veil.api.client.render;
 
+import foundry.veil.Veil;
 import foundry.veil.api.client.editor.EditorManager;
 import foundry.veil.api.client.render.deferred.VeilDeferredRenderer;
+import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
 import foundry.veil.api.client.render.framebuffer.FramebufferManager;
+import foundry.veil.api.client.render.occlusion.HiZBuffer;
 import foundry.veil.api.client.render.post.PostPipeline;
 import foundry.veil.api.client.render.post.PostProcessingManager;
 import foundry.veil.api.client.render.rendertype.layer.DynamicRenderTypeManager;
 import foundry.veil.api.client.render.shader.ShaderManager;
 import foundry.veil.api.client.render.shader.ShaderModificationManager;
 import foundry.veil.api.client.render.shader.definition.ShaderPreDefinitions;
+import foundry.veil.api.client.render.shader.definition.UniformRingBuffer;
 import foundry.veil.api.quasar.particle.ParticleSystemManager;
 import foundry.veil.ext.LevelRendererExtension;
 import foundry.veil.impl.client.imgui.VeilImGuiImpl;
+import foundry.veil.impl.client.render.PixelReadbackManager;
+import foundry.veil.impl.client.render.framebuffer.AdvancedFboCopyBackend;
+import foundry.veil.impl.client.render.framebuffer.FramebufferCopier;
+import foundry.veil.impl.client.render.framebuffer.FramebufferPool;
+import foundry.veil.impl.client.render.shader.ProgramBinaryCache;
+import foundry.veil.impl.client.render.shader.ShaderObjectCache;
+import foundry.veil.impl.client.render.shader.modifier.ShaderModificationCache;
 import foundry.veil.mixin.accessor.ReloadableResourceManagerAccessor;
 import net.minecraft.client.Minecraft;
 import net.minecraft.server.packs.resources.PreparableReloadListener;
 import net.minecraft.server.packs.resources.ReloadableResourceManager;
 import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
 import org.lwjgl.system.NativeResource;
 
+import java.nio.file.Path;
 import java.util.List;
+import java.util.function.Consumer;
+
+import static org.lwjgl.opengl.GL11C.*;
 
 /**
  * Manages the render pipeline for Veil.
@@ -39,14 +55,23 @@ public class VeilRenderer implements NativeResource {
     private final EditorManager editorManager;
     private final CameraMatrices cameraMatrices;
     private final GuiInfo guiInfo;
+    private final HiZBuffer hiZBuffer;
+    private final ProgramBinaryCache programBinaryCache;
+    private final ShaderObjectCache shaderObjectCache;
+    private final UniformRingBuffer uniformRing;
+    private final FramebufferPool framebufferPool;
+    private final PixelReadbackManager pixelReadbackManager;
+    private final FramebufferCopier<AdvancedFbo> framebufferCopier;
 
     @ApiStatus.Internal
     public VeilRenderer(ReloadableResourceManager resourceManager) {
-        this.shaderModificationManager = new ShaderModificationManager();
+        this.shaderModificationManager = new ShaderModificationManager(createShaderModificationCache());
         this.shaderPreDefinitions = new ShaderPreDefinitions();
         this.shaderManager = new ShaderManager(ShaderManager.PROGRAM_SET, this.shaderModificationManager, this.shaderPreDefinitions);
-        this.framebufferManager = new FramebufferManager();
+        this.framebufferPool = new FramebufferPool();
+        this.framebufferManager = new FramebufferManager(this.framebufferPool);
         this.postProcessingManager = new PostProcessingManager();
+        this.shaderManager.addCompileListener(this.postProcessingManager::markShaderCompiled);
         ShaderManager deferredShaderManager = new ShaderManager(ShaderManager.DEFERRED_SET, this.shaderModificationManager, this.shaderPreDefinitions);
         this.deferredRenderer = new VeilDeferredRenderer(deferredShaderManager, this.shaderPreDefinitions, this.framebufferManager, this.postProcessingManager);
         this.dynamicRenderTypeManager = new DynamicRenderTypeManager();
@@ -54,6 +79,12 @@ public class VeilRenderer implements NativeResource {
         this.editorManager = new EditorManager(resourceManager);
         this.cameraMatrices = new CameraMatrices();
         this.guiInfo = new GuiInfo();
+        this.hiZBuffer = new HiZBuffer();
+        this.programBinaryCache = createProgramBinaryCache();
+        this.shaderObjectCache = new ShaderObjectCache();
+        this.uniformRing = new UniformRingBuffer(UniformRingBuffer.DEFAULT_SIZE);
+        this.pixelReadbackManager = new PixelReadbackManager();
+        this.framebufferCopier = new FramebufferCopier<>(new AdvancedFboCopyBackend());
 
         List<PreparableReloadListener> listeners = ((ReloadableResourceManagerAccessor) resourceManager).getListeners();
 
@@ -144,6 +175,103 @@ public class VeilRenderer implements NativeResource {
         return this.guiInfo;
     }
 
+    /**
+     * @return The buffer transient uniform blocks are written into every frame
+     */
+    public UniformRingBuffer getUniformRing() {
+        return this.uniformRing;
+    }
+
+    /**
+     * @return The pool screen-sized and post-processing framebuffers are allocated from
+     */
+    @ApiStatus.Internal
+    public FramebufferPool getFramebufferPool() {
+        return this.framebufferPool;
+    }
+
+    /**
+     * @return The manager for asynchronous texture and framebuffer downloads
+     */
+    @ApiStatus.Internal
+    public PixelReadbackManager getPixelReadbackManager() {
+        return this.pixelReadbackManager;
+    }
+
+    /**
+     * @return The copier used to resolve framebuffers into each other
+     */
+    @ApiStatus.Internal
+    public FramebufferCopier<AdvancedFbo> getFramebufferCopier() {
+        return this.framebufferCopier;
+    }
+
+    /**
+     * @return The occlusion culling depth pyramid
+     */
+    public HiZBuffer getHiZBuffer() {
+        return this.hiZBuffer;
+    }
+
+    /**
+     * @return The on-disk cache for linked shader programs or <code>null</code> if program binaries are not supported
+     */
+    @ApiStatus.Internal
+    public @Nullable ProgramBinaryCache getProgramBinaryCache() {
+        return this.programBinaryCache;
+    }
+
+    /**
+     * @return The shader objects shared between all compiled programs
+     */
+    @ApiStatus.Internal
+    public ShaderObjectCache getShaderObjectCache() {
+        return this.shaderObjectCache;
+    }
+
+    @ApiStatus.Internal
+    public void addShaderDebugInfo(Consumer<String> consumer) {
+        this.shaderManager.addDebugInfo(consumer);
+        this.deferredRenderer.getDeferredShaderManager().addDebugInfo(consumer);
+        if (this.programBinaryCache != null) {
+            consumer.accept("Program Cache: " + this.programBinaryCache.getEntryCount() + " binaries (" + this.programBinaryCache.getSize() / 1024 + " KB), " + this.programBinaryCache.getHits() + " hits, " + this.programBinaryCache.getMisses() + " misses, " + this.programBinaryCache.getRejected() + " rejected");
+        } else {
+            consumer.accept("Program Cache: Unsupported");
+        }
+        consumer.accept("Shader Objects: " + this.shaderObjectCache.getSize() + " shaders (" + this.shaderObjectCache.getUnused() + " unused), " + this.shaderObjectCache.getHits() + " hits, " + this.shaderObjectCache.getMisses() + " misses");
+        consumer.accept("Uniform Ring: " + this.uniformRing.getUsed() / 1024 + " / " + this.uniformRing.getCapacity() / 1024 + " KB, " + this.uniformRing.getFramesInFlight() + " frames in flight" + (this.uniformRing.isPersistent() ? ", persistent" : ""));
+        ShaderModificationCache modificationCache = this.shaderModificationManager.getCache();
+        if (modificationCache != null) {
+            consumer.accept("Modification Cache: " + modificationCache.getSize() + " patches, " + modificationCache.getHits() + " hits, " + modificationCache.getMisses() + " misses");
+        }
+    }
+
+    private static @Nullable ShaderModificationCache createShaderModificationCache() {
+        if (System.getProperty("veil.disableShaderModificationCache") != null) {
+            Veil.LOGGER.info("Shader modification cache disabled");
+            return null;
+        }
+
+        // Patches don't depend on the driver, but are kept next to the program binaries so both can be deleted together
+        Path file = Minecraft.getInstance().gameDirectory.toPath().resolve(".veil").resolve("program_cache").resolve("shader_modifications.dat");
+        return new ShaderModificationCache(file);
+    }
+
+    private static @Nullable ProgramBinaryCache createProgramBinaryCache() {
+        if (System.getProperty("veil.disableProgramBinaryCache") != null) {
+            Veil.LOGGER.info("Program binary cache disabled");
+            return null;
+        }
+        if (!VeilRenderSystem.programBinarySupported()) {
+            Veil.LOGGER.info("Program binaries are not supported, shaders will always be compiled from source");
+            return null;
+        }
+
+        Path folder = Minecraft.getInstance().gameDirectory.toPath().resolve(".veil").resolve("program_cache");
+        String driver = glGetString(GL_VENDOR) + "\n" + glGetString(GL_RENDERER) + "\n" + glGetString(GL_VERSION);
+        return new ProgramBinaryCache(folder, driver, ProgramBinaryCache.DEFAULT_MAX_SIZE);
+    }
+
     /**
      * @return Whether ImGui can be used
      */
@@ -160,6 +288,7 @@ public class VeilRenderer implements NativeResource {
 
     @Override
     public void free() {
+        this.shaderModificationManager.saveCache();
         this.shaderManager.close();
         this.framebufferManager.free();
         this.postProcessingManager.free();
@@ -167,5 +296,10 @@ public class VeilRenderer implements NativeResource {
         this.quasarParticleManager.clear();
         this.cameraMatrices.free();
         this.guiInfo.free();
+        this.hiZBuffer.free();
+        this.shaderObjectCache.free();
+        this.uniformRing.free();
+        this.pixelReadbackManager.free();
+        this.framebufferPool.free();
     }
 }
@@ -2,6 +2,7 @@ package foundry.veil.api.client.render.deferred;
 
 import com.mojang.blaze3d.systems.RenderSystem;
 import foundry.veil.Veil;
+import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.VeilRenderer;
 import foundry.veil.api.client.render.deferred.light.renderer.LightRenderer;
 import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
@@ -11,6 +12,7 @@ import foundry.veil.api.client.render.post.PostPipeline;
 import foundry.veil.api.client.render.post.PostProcessingManager;
 import foundry.veil.api.client.render.shader.ShaderManager;
 import foundry.veil.api.client.render.shader.definition.ShaderPreDefinitions;
+import foundry.veil.impl.client.render.deferred.DeferredShaderStateCache;
 import net.minecraft.ChatFormatting;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.components.toasts.SystemToast;
@@ -115,6 +117,7 @@ public class VeilDeferredRenderer implements PreparableReloadListener, NativeRes
         this.state = RendererState.INACTIVE;
         this.deferredShaderManager.close();
         this.lightRenderer.free();
+        DeferredShaderStateCache.invalidate();
     }
 
     @ApiStatus.Internal
@@ -235,6 +238,18 @@ public class VeilDeferredRenderer implements PreparableReloadListener, NativeRes
         }
     }
 
+    @ApiStatus.Internal
+    public void renderShadows(float partialTicks) {
+        if (!this.isEnabled() || this.state == RendererState.DISABLED) {
+            return;
+        }
+
+        ProfilerFiller profiler = Minecraft.getInstance().getProfiler();
+        profiler.push("veil_shadows");
+        this.lightRenderer.renderShadows(partialTicks);
+        profiler.pop();
+    }
+
     @ApiStatus.Internal
     public void blit() {
         if (!this.isEnabled() || this.state == RendererState.DISABLED) {
@@ -302,6 +317,8 @@ public class VeilDeferredRenderer implements PreparableReloadListener, NativeRes
         consumer.accept("Vanilla Light: " + (vanillaLights ? ChatFormatting.GREEN + "On" : ChatFormatting.RED + "Off"));
         consumer.accept("Vanilla Entity Light: " + (vanillaEntityLights ? ChatFormatting.GREEN + "On" : ChatFormatting.RED + "Off"));
         this.lightRenderer.addDebugInfo(consumer);
+        DeferredShaderStateCache.addDebugInfo(consumer);
+        VeilRenderSystem.renderer().getHiZBuffer().addDebugInfo(consumer);
     }
 
     /**
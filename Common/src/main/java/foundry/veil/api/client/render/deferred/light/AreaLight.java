@@ -4,17 +4,19 @@ import foundry.veil.api.client.editor.EditorAttributeProvider;
 import foundry.veil.api.client.registry.LightTypeRegistry;
 import imgui.ImGui;
 import imgui.flag.ImGuiDataType;
+import imgui.type.ImBoolean;
 import imgui.type.ImDouble;
 import imgui.type.ImFloat;
 import net.minecraft.client.Camera;
 import net.minecraft.util.Mth;
 import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.ApiStatus;
 import org.joml.*;
 
 import java.lang.Math;
 import java.nio.ByteBuffer;
 
-public class AreaLight extends Light implements InstancedLight, PositionedLight<AreaLight>, EditorAttributeProvider {
+public class AreaLight extends Light implements InstancedLight, PositionedLight<AreaLight>, ShadowCaster, EditorAttributeProvider {
 
     private static final float MAX_ANGLE_SIZE = (float) (65535 / 2 / Math.PI);
 
@@ -27,6 +29,10 @@ public class AreaLight extends Light implements InstancedLight, PositionedLight<
     protected float angle;
     protected float distance;
 
+    protected boolean shadowCaster;
+    protected int shadowResolution;
+    private int shadowIndex;
+
     public AreaLight() {
         this.matrix = new Matrix4d();
         this.position = new Vector3d();
@@ -36,6 +42,10 @@ public class AreaLight extends Light implements InstancedLight, PositionedLight<
 
         this.angle = (float) Math.toRadians(45);
         this.distance = 1.0F;
+
+        this.shadowCaster = false;
+        this.shadowResolution = 256;
+        this.shadowIndex = -1;
     }
 
     @Override
@@ -52,6 +62,7 @@ public class AreaLight extends Light implements InstancedLight, PositionedLight<
 
         buffer.putShort((short) Mth.clamp((int) (this.angle * MAX_ANGLE_SIZE), 0, 65535));
         buffer.putFloat(this.distance);
+        buffer.putFloat(this.shadowIndex);
     }
 
     @Override
@@ -92,6 +103,23 @@ public class AreaLight extends Light implements InstancedLight, PositionedLight<
         return this.distance;
     }
 
+    @Override
+    public boolean isShadowCaster() {
+        return this.shadowCaster;
+    }
+
+    @Override
+    public int getShadowResolution() {
+        return this.shadowResolution;
+    }
+
+    /**
+     * @return The index of the shadow map this light samples or <code>-1</code> if it has no shadow
+     */
+    public int getShadowIndex() {
+        return this.shadowIndex;
+    }
+
     @Override
     public AreaLight setColor(float red, float green, float blue) {
         return (AreaLight) super.setColor(red, green, blue);
@@ -159,6 +187,36 @@ public class AreaLight extends Light implements InstancedLight, PositionedLight<
         return this;
     }
 
+    /**
+     * Sets whether this light casts shadows.
+     *
+     * @param shadowCaster Whether to render a shadow map for this light
+     */
+    public AreaLight setShadowCaster(boolean shadowCaster) {
+        this.shadowCaster = shadowCaster;
+        this.markDirty();
+        return this;
+    }
+
+    /**
+     * Sets the resolution of the shadow map for this light.
+     *
+     * @param shadowResolution The width and height of the shadow map in pixels
+     */
+    public AreaLight setShadowResolution(int shadowResolution) {
+        this.shadowResolution = shadowResolution;
+        this.markDirty();
+        return this;
+    }
+
+    @ApiStatus.Internal
+    public void setShadowIndex(int shadowIndex) {
+        if (this.shadowIndex != shadowIndex) {
+            this.shadowIndex = shadowIndex;
+            this.markDirty();
+        }
+    }
+
     @Override
     public Light setTo(Camera camera) {
         Vec3 pos = camera.getPosition();
@@ -179,6 +237,8 @@ public class AreaLight extends Light implements InstancedLight, PositionedLight<
         light.size.set(this.size);
         light.angle = this.angle;
         light.distance = this.distance;
+        light.shadowCaster = this.shadowCaster;
+        light.shadowResolution = this.shadowResolution;
         light.markDirty();
         return light;
     }
@@ -248,5 +308,10 @@ public class AreaLight extends Light implements InstancedLight, PositionedLight<
         if (ImGui.dragScalar("distance", ImGuiDataType.Float, editDistance, 0.02F, 0.0F)) {
             this.setDistance(editDistance.get());
         }
+
+        ImBoolean editShadowCaster = new ImBoolean(this.shadowCaster);
+        if (ImGui.checkbox("shadows", editShadowCaster)) {
+            this.setShadowCaster(editShadowCaster.get());
+        }
     }
 }
@@ -3,6 +3,7 @@ package foundry.veil.api.client.render.deferred.light;
 import foundry.veil.api.client.editor.EditorAttributeProvider;
 import foundry.veil.api.client.registry.LightTypeRegistry;
 import imgui.ImGui;
+import imgui.type.ImBoolean;
 import net.minecraft.client.Camera;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
@@ -10,12 +11,16 @@ import org.joml.Vector3fc;
 /**
  * Represents a light where all rays come from the same direction everywhere. (The sun)
  */
-public class DirectionalLight extends Light implements EditorAttributeProvider {
+public class DirectionalLight extends Light implements ShadowCaster, EditorAttributeProvider {
 
     protected final Vector3f direction;
+    protected boolean shadowCaster;
+    protected int shadowResolution;
 
     public DirectionalLight() {
         this.direction = new Vector3f(0.0F, -1.0F, 0.0F);
+        this.shadowCaster = false;
+        this.shadowResolution = 1024;
     }
 
     /**
@@ -25,6 +30,16 @@ public class DirectionalLight extends Light implements EditorAttributeProvider {
         return this.direction;
     }
 
+    @Override
+    public boolean isShadowCaster() {
+        return this.shadowCaster;
+    }
+
+    @Override
+    public int getShadowResolution() {
+        return this.shadowResolution;
+    }
+
     @Override
     public DirectionalLight setColor(float red, float green, float blue) {
         return (DirectionalLight) super.setColor(red, green, blue);
@@ -62,6 +77,28 @@ public class DirectionalLight extends Light implements EditorAttributeProvider {
         return this;
     }
 
+    /**
+     * Sets whether this light casts shadows. Only the first directional light casting shadows is used.
+     *
+     * @param shadowCaster Whether to render shadow cascades for this light
+     */
+    public DirectionalLight setShadowCaster(boolean shadowCaster) {
+        this.shadowCaster = shadowCaster;
+        this.markDirty();
+        return this;
+    }
+
+    /**
+     * Sets the resolution of each shadow cascade for this light.
+     *
+     * @param shadowResolution The width and height of each cascade in pixels
+     */
+    public DirectionalLight setShadowResolution(int shadowResolution) {
+        this.shadowResolution = shadowResolution;
+        this.markDirty();
+        return this;
+    }
+
     @Override
     public DirectionalLight setTo(Camera camera) {
         Vector3f look = camera.getLookVector();
@@ -77,7 +114,9 @@ public class DirectionalLight extends Light implements EditorAttributeProvider {
     public DirectionalLight clone() {
         return new DirectionalLight()
                 .setColor(this.color)
-                .setDirection(this.direction);
+                .setDirection(this.direction)
+                .setShadowCaster(this.shadowCaster)
+                .setShadowResolution(this.shadowResolution);
     }
 
     @Override
@@ -92,5 +131,10 @@ public class DirectionalLight extends Light implements EditorAttributeProvider {
         }
         ImGui.sameLine(0, ImGui.getStyle().getItemInnerSpacingX());
         ImGui.text("direction");
+
+        ImBoolean editShadowCaster = new ImBoolean(this.shadowCaster);
+        if (ImGui.checkbox("shadows", editShadowCaster)) {
+            this.setShadowCaster(editShadowCaster.get());
+        }
     }
 }
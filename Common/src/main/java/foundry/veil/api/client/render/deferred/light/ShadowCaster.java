@@ -0,0 +1,21 @@
+package foundry.veil.api.client.render.deferred.light;
+
+import foundry.veil.api.client.render.deferred.light.shadow.ShadowMapManager;
+
+/**
+ * A light that can optionally cast shadows using {@link ShadowMapManager}.
+ *
+ * @author Ocelot
+ */
+public interface ShadowCaster {
+
+    /**
+     * @return Whether this light should render and sample a shadow map
+     */
+    boolean isShadowCaster();
+
+    /**
+     * @return The requested width and height of the shadow map for this light in pixels
+     */
+    int getShadowResolution();
+}
@@ -7,6 +7,7 @@ import foundry.veil.api.client.render.CullFrustum;
 import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.deferred.light.IndirectLight;
 import foundry.veil.api.client.render.deferred.light.Light;
+import foundry.veil.api.client.render.occlusion.HiZBuffer;
 import foundry.veil.api.client.render.shader.VeilShaders;
 import foundry.veil.api.client.render.shader.definition.DynamicShaderBlock;
 import foundry.veil.api.client.render.shader.definition.ShaderBlock;
@@ -152,10 +153,11 @@ public abstract class IndirectLightRenderer<T extends Light & IndirectLight<T>>
         return frustum.getPosition().distanceSquared(light.getPosition()) <= radius * radius;
     }
 
-    private boolean isVisible(T light, CullFrustum frustum) {
+    private boolean isVisible(T light, CullFrustum frustum, HiZBuffer hiZ) {
         Vector3d position = light.getPosition();
-        float radius = light.getRadius();
-        return frustum.testSphere(position.x, position.y, position.z, radius * 1.414F);
+        float radius = light.getRadius() * 1.414F;
+        return frustum.testSphere(position.x, position.y, position.z, radius) &&
+                hiZ.testAab(position.x - radius, position.y - radius, position.z - radius, position.x + radius, position.y + radius, position.z + radius);
     }
 
     private void updateAllLights(List<T> lights) {
@@ -173,6 +175,7 @@ public abstract class IndirectLightRenderer<T extends Light & IndirectLight<T>>
     }
 
     private int updateVisibility(List<T> lights, CullFrustum frustum) {
+        HiZBuffer hiZ = VeilRenderSystem.renderer().getHiZBuffer();
         if (this.sizeVbo != 0) {
             VeilRenderSystem.setShader(VeilShaders.LIGHT_INDIRECT_SPHERE);
             ShaderProgram shader = VeilRenderSystem.getShader();
@@ -200,8 +203,10 @@ public abstract class IndirectLightRenderer<T extends Light & IndirectLight<T>>
                         values[i * 4 + 3] = plane.w();
                     }
                     shader.setFloats("FrustumPlanes", values);
+                    hiZ.apply(shader, frustum.getPosition());
 
                     shader.bind();
+                    shader.applyShaderSamplers(0);
 
                     glDispatchCompute(Math.min(lights.size(), VeilRenderSystem.maxComputeWorkGroupCountX()), 1, 1);
                     glMemoryBarrier(GL_BUFFER_UPDATE_BARRIER_BIT | GL_ATOMIC_COUNTER_BARRIER_BIT);
@@ -228,7 +233,7 @@ public abstract class IndirectLightRenderer<T extends Light & IndirectLight<T>>
 
             int index = 0;
             for (T light : lights) {
-                if (this.isVisible(light, frustum)) {
+                if (this.isVisible(light, frustum, hiZ)) {
                     if (this.lowResSize > 0) {
                         boolean highRes = this.shouldDrawHighResolution(light, frustum);
                         buffer.putInt(0, highRes ? this.highResSize : this.lowResSize);
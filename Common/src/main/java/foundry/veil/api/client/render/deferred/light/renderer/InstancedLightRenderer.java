@@ -6,10 +6,12 @@ import foundry.veil.api.client.render.CullFrustum;
 import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.deferred.light.InstancedLight;
 import foundry.veil.api.client.render.deferred.light.Light;
+import foundry.veil.impl.client.render.FrustumBatchCuller;
 import org.lwjgl.system.MemoryStack;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
@@ -32,6 +34,9 @@ public abstract class InstancedLightRenderer<T extends Light & InstancedLight> i
     private final List<T> visibleLights;
     private final VertexBuffer vbo;
     private final int instancedVbo;
+    private double[] bounds;
+    private long[] visibility;
+    private long[] lastVisibility;
 
     /**
      * Creates a new instanced light renderer with a resizeable light buffer.
@@ -42,6 +47,9 @@ public abstract class InstancedLightRenderer<T extends Light & InstancedLight> i
         this.lightSize = lightSize;
         this.maxLights = 100;
         this.visibleLights = new ArrayList<>();
+        this.bounds = new double[0];
+        this.visibility = new long[0];
+        this.lastVisibility = new long[0];
         this.vbo = new VertexBuffer(VertexBuffer.Usage.STATIC);
         this.instancedVbo = glGenBuffers();
 
@@ -83,13 +91,46 @@ public abstract class InstancedLightRenderer<T extends Light & InstancedLight> i
     protected abstract void clearRenderState(LightRenderer lightRenderer, List<T> lights);
 
     /**
-     * Checks whether the specified light can be seen in the specified frustum.
+     * Stores the axis-aligned box the specified light can influence. All lights are culled against the frustum at once using {@link CullFrustum#testAabs(double[], int, long[])}.
      *
-     * @param light   The light to check
-     * @param frustum The frustum to check visibility with
-     * @return Whether that light is visible
+     * @param light  The light to get the bounds of
+     * @param bounds The array to store <code>[minX, minY, minZ, maxX, maxY, maxZ]</code> into
+     * @param offset The index in the array to start storing at
      */
-    protected abstract boolean isVisible(T light, CullFrustum frustum);
+    protected abstract void getBoundingBox(T light, double[] bounds, int offset);
+
+    private boolean cullLights(List<T> lights, CullFrustum frustum) {
+        int count = lights.size();
+        int words = FrustumBatchCuller.getWordCount(count);
+        if (this.bounds.length < count * FrustumBatchCuller.AAB_STRIDE) {
+            this.bounds = new double[count * FrustumBatchCuller.AAB_STRIDE * 3 / 2];
+        }
+        if (this.visibility.length < words) {
+            this.visibility = new long[words * 3 / 2 + 1];
+            this.lastVisibility = Arrays.copyOf(this.lastVisibility, this.visibility.length);
+        }
+
+        for (int i = 0; i < count; i++) {
+            this.getBoundingBox(lights.get(i), this.bounds, i * FrustumBatchCuller.AAB_STRIDE);
+        }
+        frustum.testAabs(this.bounds, count, this.visibility);
+        VeilRenderSystem.renderer().getHiZBuffer().testAabs(this.bounds, count, this.visibility);
+        Arrays.fill(this.visibility, words, this.visibility.length, 0L);
+
+        this.visibleLights.clear();
+        for (int i = 0; i < count; i++) {
+            if (FrustumBatchCuller.isVisible(this.visibility, i)) {
+                this.visibleLights.add(lights.get(i));
+            }
+        }
+
+        // Lights are uploaded in visible order, so any change in the visible set shifts buffer indices
+        boolean changed = !Arrays.equals(this.visibility, this.lastVisibility);
+        long[] swap = this.lastVisibility;
+        this.lastVisibility = this.visibility;
+        this.visibility = swap;
+        return changed;
+    }
 
     private void updateAllLights(List<T> lights) {
         try (MemoryStack stack = MemoryStack.stackPush()) {
@@ -117,13 +158,7 @@ public abstract class InstancedLightRenderer<T extends Light & InstancedLight> i
 
     @Override
     public void prepareLights(LightRenderer lightRenderer, List<T> lights, Set<T> removedLights, CullFrustum frustum) {
-        this.visibleLights.clear();
-        for (T light : lights) {
-            if (this.isVisible(light, frustum)) {
-                this.visibleLights.add(light);
-            }
-        }
-
+        boolean visibilityChanged = this.cullLights(lights, frustum);
         if (this.visibleLights.isEmpty()) {
             return;
         }
@@ -138,7 +173,7 @@ public abstract class InstancedLightRenderer<T extends Light & InstancedLight> i
             glBufferData(GL_ARRAY_BUFFER, (long) this.maxLights * this.lightSize, GL_STREAM_DRAW);
         }
 
-        if (rebuild || !removedLights.isEmpty()) {
+        if (rebuild || visibilityChanged || !removedLights.isEmpty()) {
             this.updateAllLights(this.visibleLights);
         } else {
             try (MemoryStack stack = MemoryStack.stackPush()) {
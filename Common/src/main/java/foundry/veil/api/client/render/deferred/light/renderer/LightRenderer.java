@@ -6,6 +6,7 @@ import foundry.veil.api.client.registry.LightTypeRegistry;
 import foundry.veil.api.client.render.CullFrustum;
 import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.deferred.light.Light;
+import foundry.veil.api.client.render.deferred.light.shadow.ShadowMapManager;
 import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
 import foundry.veil.api.client.render.shader.program.ShaderProgram;
 import foundry.veil.impl.client.render.deferred.light.VanillaLightRenderer;
@@ -32,6 +33,7 @@ import java.util.function.Consumer;
 public class LightRenderer implements NativeResource {
 
     private final Map<LightTypeRegistry.LightType<?>, LightData<?>> lights;
+    private final ShadowMapManager shadowMapManager;
 
     private VanillaLightRenderer vanillaLightRenderer;
     private boolean vanillaLightEnabled;
@@ -43,6 +45,7 @@ public class LightRenderer implements NativeResource {
      */
     public LightRenderer() {
         this.lights = new HashMap<>();
+        this.shadowMapManager = new ShadowMapManager();
         this.vanillaLightEnabled = true;
         this.ambientOcclusionEnabled = true;
     }
@@ -66,8 +69,15 @@ public class LightRenderer implements NativeResource {
         shader.applyShaderSamplers(0);
     }
 
+    @ApiStatus.Internal
+    public void renderShadows(float partialTicks) {
+        this.shadowMapManager.render(this, partialTicks);
+    }
+
     @ApiStatus.Internal
     public void setup(CullFrustum frustum) {
+        this.shadowMapManager.captureCamera(VeilRenderSystem.renderer().getCameraMatrices());
+
         RenderSystem.enableBlend();
         RenderSystem.blendFuncSeparate(GlStateManager.SourceFactor.ONE,
                 GlStateManager.DestFactor.ONE,
@@ -194,6 +204,13 @@ public class LightRenderer implements NativeResource {
         return this.framebuffer;
     }
 
+    /**
+     * @return The manager for all light shadow maps
+     */
+    public ShadowMapManager getShadowMapManager() {
+        return this.shadowMapManager;
+    }
+
     /**
      * @return Whether the vanilla lighting is enabled
      */
@@ -212,6 +229,7 @@ public class LightRenderer implements NativeResource {
     public void free() {
         this.lights.values().forEach(LightData::free);
         this.lights.clear();
+        this.shadowMapManager.free();
         if (this.vanillaLightRenderer != null) {
             this.vanillaLightRenderer.free();
             this.vanillaLightRenderer = null;
@@ -223,6 +241,7 @@ public class LightRenderer implements NativeResource {
         int visible = this.lights.values().stream().mapToInt(data -> data.renderer.getVisibleLights()).sum();
         int all = this.lights.values().stream().mapToInt(data -> data.lights.size()).sum();
         consumer.accept("Lights: " + visible + " / " + all);
+        this.shadowMapManager.addDebugInfo(consumer);
     }
 
     @ApiStatus.Internal
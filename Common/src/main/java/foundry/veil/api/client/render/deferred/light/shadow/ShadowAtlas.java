@@ -0,0 +1,253 @@
+package foundry.veil.api.client.render.deferred.light.shadow;
+
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>Allocates square power-of-two tiles inside a single square shadow texture.</p>
+ * <p>Tiles are allocated from a quadtree, so freeing a tile merges it back with its siblings
+ * and the space can be re-used for larger tiles later. This class does not use any OpenGL state.</p>
+ *
+ * @author Ocelot
+ */
+public class ShadowAtlas {
+
+    private final int size;
+    private final int minTileSize;
+    private final Node root;
+    private int usedArea;
+    private int tiles;
+
+    /**
+     * Creates a new atlas allocator.
+     *
+     * @param size        The width and height of the atlas in pixels. Must be a power of two
+     * @param minTileSize The smallest tile that can be allocated. Must be a power of two
+     */
+    public ShadowAtlas(int size, int minTileSize) {
+        Validate.isTrue(size > 0 && Integer.bitCount(size) == 1, "Atlas size must be a power of two");
+        Validate.isTrue(minTileSize > 0 && Integer.bitCount(minTileSize) == 1, "Minimum tile size must be a power of two");
+        Validate.isTrue(minTileSize <= size, "Minimum tile size must be smaller than the atlas size");
+        this.size = size;
+        this.minTileSize = minTileSize;
+        this.root = new Node(0, 0, size);
+    }
+
+    /**
+     * Rounds the specified resolution to a size that can be allocated.
+     *
+     * @param resolution The requested tile resolution
+     * @return The actual tile size that would be allocated
+     */
+    public int getTileSize(int resolution) {
+        int tileSize = resolution <= 1 ? 1 : Integer.highestOneBit(resolution - 1) << 1;
+        return Math.max(this.minTileSize, tileSize);
+    }
+
+    /**
+     * Allocates a new tile with at least the specified resolution.
+     *
+     * @param resolution The requested width and height of the tile
+     * @return The allocated tile or <code>null</code> if there is no space left
+     */
+    public @Nullable Tile allocate(int resolution) {
+        int tileSize = this.getTileSize(resolution);
+        if (tileSize > this.size) {
+            return null;
+        }
+
+        Tile tile = this.root.allocate(tileSize, this.minTileSize);
+        if (tile != null) {
+            this.usedArea += tileSize * tileSize;
+            this.tiles++;
+        }
+        return tile;
+    }
+
+    /**
+     * Releases the specified tile so it can be allocated again.
+     *
+     * @param tile The tile to free
+     * @return Whether the tile was allocated in this atlas
+     */
+    public boolean free(Tile tile) {
+        if (this.root.free(tile)) {
+            this.usedArea -= tile.size() * tile.size();
+            this.tiles--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Frees all tiles in the atlas.
+     */
+    public void clear() {
+        this.root.reset();
+        this.usedArea = 0;
+        this.tiles = 0;
+    }
+
+    /**
+     * @return The width and height of the atlas in pixels
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return The smallest tile that can be allocated
+     */
+    public int getMinTileSize() {
+        return this.minTileSize;
+    }
+
+    /**
+     * @return The number of pixels currently allocated to tiles
+     */
+    public int getUsedArea() {
+        return this.usedArea;
+    }
+
+    /**
+     * @return The number of tiles currently allocated
+     */
+    public int getTileCount() {
+        return this.tiles;
+    }
+
+    /**
+     * A single allocated region of the atlas.
+     *
+     * @param x    The x position of the tile in pixels
+     * @param y    The y position of the tile in pixels
+     * @param size The width and height of the tile in pixels
+     */
+    public record Tile(int x, int y, int size) {
+
+        /**
+         * Calculates the normalized texture coordinates of this tile.
+         *
+         * @param atlasSize The size of the atlas this tile is in
+         * @param store     The array to store <code>[u0, v0, u1, v1]</code> into
+         * @return The store array
+         */
+        public float[] getUv(int atlasSize, float[] store) {
+            store[0] = (float) this.x / atlasSize;
+            store[1] = (float) this.y / atlasSize;
+            store[2] = (float) (this.x + this.size) / atlasSize;
+            store[3] = (float) (this.y + this.size) / atlasSize;
+            return store;
+        }
+    }
+
+    private static class Node {
+
+        private final int x;
+        private final int y;
+        private final int size;
+        private Node[] children;
+        private boolean allocated;
+
+        private Node(int x, int y, int size) {
+            this.x = x;
+            this.y = y;
+            this.size = size;
+        }
+
+        private boolean isFree() {
+            return !this.allocated && this.children == null;
+        }
+
+        private @Nullable Tile allocate(int tileSize, int minTileSize) {
+            if (this.allocated || this.size < tileSize) {
+                return null;
+            }
+
+            if (this.size == tileSize) {
+                if (this.children != null) {
+                    return null;
+                }
+                this.allocated = true;
+                return new Tile(this.x, this.y, this.size);
+            }
+
+            if (this.children == null) {
+                if (this.size / 2 < minTileSize) {
+                    return null;
+                }
+                int half = this.size / 2;
+                this.children = new Node[]{
+                        new Node(this.x, this.y, half),
+                        new Node(this.x + half, this.y, half),
+                        new Node(this.x, this.y + half, half),
+                        new Node(this.x + half, this.y + half, half)
+                };
+            }
+
+            // Fill partially used nodes first to keep large regions open for large tiles
+            for (Node child : this.children) {
+                if (child.children != null) {
+                    Tile tile = child.allocate(tileSize, minTileSize);
+                    if (tile != null) {
+                        return tile;
+                    }
+                }
+            }
+            for (Node child : this.children) {
+                if (child.isFree()) {
+                    Tile tile = child.allocate(tileSize, minTileSize);
+                    if (tile != null) {
+                        return tile;
+                    }
+                }
+            }
+
+            this.merge();
+            return null;
+        }
+
+        private boolean free(Tile tile) {
+            if (tile.x() < this.x || tile.y() < this.y || tile.x() >= this.x + this.size || tile.y() >= this.y + this.size) {
+                return false;
+            }
+
+            if (this.size == tile.size()) {
+                if (!this.allocated || this.x != tile.x() || this.y != tile.y()) {
+                    return false;
+                }
+                this.allocated = false;
+                return true;
+            }
+
+            if (this.children == null) {
+                return false;
+            }
+
+            for (Node child : this.children) {
+                if (child.free(tile)) {
+                    this.merge();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void merge() {
+            if (this.children == null) {
+                return;
+            }
+            for (Node child : this.children) {
+                if (!child.isFree()) {
+                    return;
+                }
+            }
+            this.children = null;
+        }
+
+        private void reset() {
+            this.children = null;
+            this.allocated = false;
+        }
+    }
+}
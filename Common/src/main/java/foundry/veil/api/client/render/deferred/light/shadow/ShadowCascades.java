@@ -0,0 +1,233 @@
+package foundry.veil.api.client.render.deferred.light.shadow;
+
+import org.apache.commons.lang3.Validate;
+import org.joml.*;
+
+import java.lang.Math;
+
+/**
+ * <p>Splits the camera frustum into several slices and fits an orthographic shadow projection around each of them.</p>
+ * <p>Each cascade is fit around the bounding sphere of its frustum slice, so the projection does not change size while the camera rotates.
+ * The cascade center is then snapped to a grid in light space so that small camera movements do not move the projection at all.
+ * This allows the shadow map of a cascade to be re-used until the camera moves far enough to reach the next grid position.</p>
+ *
+ * @author Ocelot
+ */
+public class ShadowCascades {
+
+    private final Cascade[] cascades;
+    private float splitLambda;
+    private float casterDistance;
+    private int snapTexels;
+
+    /**
+     * Creates a new set of cascades.
+     *
+     * @param count The number of cascades to split the view into
+     */
+    public ShadowCascades(int count) {
+        Validate.inclusiveBetween(1, 4, count, "Cascade count must be between 1 and 4");
+        this.cascades = new Cascade[count];
+        for (int i = 0; i < count; i++) {
+            this.cascades[i] = new Cascade();
+        }
+        this.splitLambda = 0.75F;
+        this.casterDistance = 64.0F;
+        this.snapTexels = 16;
+    }
+
+    /**
+     * Fits all cascades around the specified camera.
+     *
+     * @param cameraPosition The world position of the camera
+     * @param viewMatrix     The view rotation of the camera
+     * @param fov            The vertical field of view of the camera in radians
+     * @param aspect         The aspect ratio of the camera
+     * @param near           The near plane of the first cascade
+     * @param far            The maximum distance shadows are drawn at
+     * @param lightDirection The direction light travels in
+     * @param resolution     The resolution of each cascade shadow map
+     */
+    public void update(Vector3dc cameraPosition, Matrix4fc viewMatrix, float fov, float aspect, float near, float far, Vector3fc lightDirection, int resolution) {
+        Validate.isTrue(far > near, "Far plane must be greater than the near plane");
+        int count = this.cascades.length;
+        float tanHalfFov = (float) Math.tan(fov / 2.0F);
+        Vector3f forward = viewMatrix.positiveZ(new Vector3f()).negate();
+
+        Vector3f up = Math.abs(lightDirection.y()) > 0.99F ? new Vector3f(0.0F, 0.0F, 1.0F) : new Vector3f(0.0F, 1.0F, 0.0F);
+        Quaternionf orientation = new Quaternionf().lookAlong(lightDirection, up);
+        Quaterniondc rotation = new Quaterniond(orientation.x, orientation.y, orientation.z, orientation.w);
+        Quaterniondc inverseRotation = rotation.conjugate(new Quaterniond());
+
+        float sliceNear = near;
+        for (int i = 0; i < count; i++) {
+            float fraction = (float) (i + 1) / count;
+            float uniformSplit = near + (far - near) * fraction;
+            float logSplit = near * (float) Math.pow(far / near, fraction);
+            float sliceFar = i == count - 1 ? far : this.splitLambda * logSplit + (1.0F - this.splitLambda) * uniformSplit;
+
+            // Bounding sphere of the frustum slice. The center lies on the view axis
+            float nearRadiusSq = sliceNear * tanHalfFov * sliceNear * tanHalfFov * (1.0F + aspect * aspect);
+            float farRadiusSq = sliceFar * tanHalfFov * sliceFar * tanHalfFov * (1.0F + aspect * aspect);
+            float centerDistance = ((sliceFar * sliceFar + farRadiusSq) - (sliceNear * sliceNear + nearRadiusSq)) / (2.0F * (sliceFar - sliceNear));
+            centerDistance = Math.max(sliceNear, Math.min(sliceFar, centerDistance));
+            float radius = (float) Math.sqrt(Math.max((centerDistance - sliceNear) * (centerDistance - sliceNear) + nearRadiusSq, (sliceFar - centerDistance) * (sliceFar - centerDistance) + farRadiusSq));
+            radius = (float) Math.ceil(radius);
+
+            // Snap the center to a grid in light space to avoid re-rendering while the camera moves slightly
+            double step = 2.0 * radius / resolution * this.snapTexels;
+            Vector3d center = new Vector3d(forward).mul(centerDistance).add(cameraPosition);
+            center.rotate(rotation);
+            center.set(Math.floor(center.x / step) * step, Math.floor(center.y / step) * step, Math.floor(center.z / step) * step);
+            center.rotate(inverseRotation);
+
+            this.cascades[i].set(center, orientation, lightDirection, (float) (radius + step), this.casterDistance, sliceFar);
+            sliceNear = sliceFar;
+        }
+    }
+
+    /**
+     * Sets the blend between logarithmic and uniform cascade splits.
+     *
+     * @param splitLambda <code>0</code> for uniform splits and <code>1</code> for logarithmic splits
+     */
+    public void setSplitLambda(float splitLambda) {
+        this.splitLambda = Math.max(0.0F, Math.min(1.0F, splitLambda));
+    }
+
+    /**
+     * Sets how far behind each cascade geometry can be and still cast a shadow into it.
+     *
+     * @param casterDistance The distance in blocks
+     */
+    public void setCasterDistance(float casterDistance) {
+        this.casterDistance = Math.max(0.0F, casterDistance);
+    }
+
+    /**
+     * Sets how many texels the cascade center is snapped to. Larger values re-render cascades less often, but waste more of the shadow map.
+     *
+     * @param snapTexels The number of texels to snap to
+     */
+    public void setSnapTexels(int snapTexels) {
+        this.snapTexels = Math.max(1, snapTexels);
+    }
+
+    /**
+     * @return The number of cascades
+     */
+    public int getCount() {
+        return this.cascades.length;
+    }
+
+    /**
+     * @param index The index of the cascade to get
+     * @return The cascade at that index
+     */
+    public Cascade getCascade(int index) {
+        return this.cascades[index];
+    }
+
+    /**
+     * A single orthographic shadow projection.
+     */
+    public static class Cascade {
+
+        private final Vector3d center;
+        private final Vector3d position;
+        private final Quaternionf orientation;
+        private final Matrix4f projection;
+        private float radius;
+        private float depth;
+        private float split;
+        private boolean changed;
+
+        private Cascade() {
+            this.center = new Vector3d(Double.NaN);
+            this.position = new Vector3d();
+            this.orientation = new Quaternionf();
+            this.projection = new Matrix4f();
+        }
+
+        private void set(Vector3dc center, Quaternionfc orientation, Vector3fc lightDirection, float radius, float casterDistance, float split) {
+            float depth = 2.0F * radius + casterDistance;
+            this.changed = !this.center.equals(center) || !this.orientation.equals(orientation) || this.radius != radius || this.depth != depth;
+            this.center.set(center);
+            this.orientation.set(orientation);
+            this.radius = radius;
+            this.depth = depth;
+            this.split = split;
+            this.position.set(lightDirection).mul(-(radius + casterDistance)).add(center);
+            this.projection.setOrtho(-radius, radius, -radius, radius, 0.0F, depth);
+        }
+
+        /**
+         * Calculates the matrix to transform camera-relative positions into the clip space of this cascade.
+         *
+         * @param cameraPosition The position of the camera rendering the scene
+         * @param store          The matrix to store the result into
+         * @return The store matrix
+         */
+        public Matrix4f getShadowMatrix(Vector3dc cameraPosition, Matrix4f store) {
+            return store.set(this.projection)
+                    .rotate(this.orientation)
+                    .translate((float) (cameraPosition.x() - this.position.x), (float) (cameraPosition.y() - this.position.y), (float) (cameraPosition.z() - this.position.z));
+        }
+
+        /**
+         * @return The center of the sphere this cascade covers
+         */
+        public Vector3dc getCenter() {
+            return this.center;
+        }
+
+        /**
+         * @return The position of the camera to render this cascade from
+         */
+        public Vector3dc getPosition() {
+            return this.position;
+        }
+
+        /**
+         * @return The view rotation to render this cascade with
+         */
+        public Quaternionfc getOrientation() {
+            return this.orientation;
+        }
+
+        /**
+         * @return The orthographic projection of this cascade
+         */
+        public Matrix4fc getProjection() {
+            return this.projection;
+        }
+
+        /**
+         * @return The radius of the area this cascade covers
+         */
+        public float getRadius() {
+            return this.radius;
+        }
+
+        /**
+         * @return The total depth of the projection
+         */
+        public float getDepth() {
+            return this.depth;
+        }
+
+        /**
+         * @return The view distance this cascade ends at
+         */
+        public float getSplit() {
+            return this.split;
+        }
+
+        /**
+         * @return Whether the projection changed in the last update and the cascade needs to be rendered again
+         */
+        public boolean isChanged() {
+            return this.changed;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package foundry.veil.api.client.render.deferred.light.shadow;
+
+import com.mojang.blaze3d.platform.GlStateManager;
+import com.mojang.blaze3d.systems.RenderSystem;
+import foundry.veil.api.client.registry.LightTypeRegistry;
+import foundry.veil.api.client.render.CameraMatrices;
+import foundry.veil.api.client.render.VeilLevelPerspectiveRenderer;
+import foundry.veil.api.client.render.deferred.light.AreaLight;
+import foundry.veil.api.client.render.deferred.light.DirectionalLight;
+import foundry.veil.api.client.render.deferred.light.renderer.LightRenderer;
+import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
+import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+import org.joml.*;
+import org.lwjgl.system.NativeResource;
+
+import java.lang.Math;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static org.lwjgl.opengl.GL11C.*;
+import static org.lwjgl.opengl.GL12C.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL14C.GL_DEPTH_COMPONENT24;
+
+/**
+ * <p>Renders and caches shadow maps for lights implementing {@link foundry.veil.api.client.render.deferred.light.ShadowCaster}.</p>
+ * <p>All shadow maps are stored as tiles in a single depth atlas. The first directional light that casts shadows
+ * is split into {@link ShadowCascades}, and each area light gets a single perspective tile. Tiles are only rendered
+ * again when their projection changes or a chunk section inside their volume is rebuilt, and at most
+ * {@link #getTileBudget()} tiles are rendered each frame.</p>
+ * <p>Nothing is allocated or rendered until a light requests shadows.</p>
+ *
+ * @author Ocelot
+ */
+public class ShadowMapManager implements NativeResource {
+
+    public static final int ATLAS_SIZE = 4096;
+    public static final int MIN_TILE_SIZE = 64;
+    public static final int MAX_AREA_SHADOWS = 16;
+    public static final int CASCADES = 4;
+
+    private static final Matrix4f IDENTITY = new Matrix4f();
+
+    private final ShadowAtlas atlas;
+    private final ShadowTileCache<Object> cache;
+    private final ShadowCascades cascades;
+    private final Map<Object, Matrix4f> projections;
+    private final Int2ObjectMap<AdvancedFbo> scratchBuffers;
+    private final List<AreaLight> areaShadows;
+    private final Set<Object> activeKeys;
+    private final Matrix4f shadowMatrix;
+    private final float[] uv;
+
+    private final Vector3d cameraPosition;
+    private final Matrix4f cameraView;
+    private final Matrix4f cameraProjection;
+    private boolean cameraCaptured;
+
+    private DirectionalLight sun;
+    private int atlasTexture;
+    private int tileBudget;
+    private float shadowDistance;
+    private long frame;
+    private int renderedTiles;
+
+    public ShadowMapManager() {
+        this.atlas = new ShadowAtlas(ATLAS_SIZE, MIN_TILE_SIZE);
+        this.cache = new ShadowTileCache<>(this.atlas);
+        this.cascades = new ShadowCascades(CASCADES);
+        this.projections = new HashMap<>();
+        this.scratchBuffers = new Int2ObjectArrayMap<>();
+        this.areaShadows = new ArrayList<>();
+        this.activeKeys = new HashSet<>();
+        this.shadowMatrix = new Matrix4f();
+        this.uv = new float[4];
+
+        this.cameraPosition = new Vector3d();
+        this.cameraView = new Matrix4f();
+        this.cameraProjection = new Matrix4f();
+
+        this.atlasTexture = 0;
+        this.tileBudget = 2;
+        this.shadowDistance = 128.0F;
+    }
+
+    /**
+     * Stores the main camera so cascades can be fit around it the next frame.
+     *
+     * @param matrices The current main camera matrices
+     */
+    @ApiStatus.Internal
+    public void captureCamera(CameraMatrices matrices) {
+        Vec3 pos = Minecraft.getInstance().gameRenderer.getMainCamera().getPosition();
+        this.cameraPosition.set(pos.x, pos.y, pos.z);
+        this.cameraView.set(matrices.getViewMatrix());
+        this.cameraProjection.set(matrices.getProjectionMatrix());
+        this.cameraCaptured = true;
+    }
+
+    /**
+     * Updates which tiles are needed and renders the tiles that changed.
+     *
+     * @param lightRenderer The renderer to get lights from
+     * @param partialTicks  The percentage from last tick and this tick
+     */
+    @ApiStatus.Internal
+    public void render(LightRenderer lightRenderer, float partialTicks) {
+        this.renderedTiles = 0;
+        if (Minecraft.getInstance().level == null || VeilLevelPerspectiveRenderer.isRenderingPerspective()) {
+            return;
+        }
+
+        this.activeKeys.clear();
+        this.updateCascades(lightRenderer);
+        this.updateAreaLights(lightRenderer);
+        this.cache.retain(this.activeKeys);
+        this.projections.keySet().retainAll(this.activeKeys);
+
+        if (this.activeKeys.isEmpty()) {
+            this.freeTextures();
+            return;
+        }
+
+        List<Object> dirty = this.cache.poll(this.tileBudget, this.frame++);
+        if (dirty.isEmpty()) {
+            return;
+        }
+
+        this.createAtlas();
+        for (Object key : dirty) {
+            ShadowAtlas.Tile tile = this.cache.getTile(key);
+            if (tile == null) {
+                continue;
+            }
+
+            if (key instanceof ShadowCascades.Cascade cascade) {
+                this.renderTile(tile, cascade.getProjection(), cascade.getPosition(), cascade.getOrientation(), cascade.getDepth(), partialTicks);
+            } else if (key instanceof AreaLight light) {
+                this.renderTile(tile, getProjection(light, new Matrix4f()), light.getPosition(), getOrientation(light, new Quaternionf()), light.getDistance(), partialTicks);
+            }
+            this.renderedTiles++;
+        }
+    }
+
+    private void updateCascades(LightRenderer lightRenderer) {
+        this.sun = null;
+        for (DirectionalLight light : lightRenderer.getLights(LightTypeRegistry.DIRECTIONAL.get())) {
+            if (light.isShadowCaster()) {
+                this.sun = light;
+                break;
+            }
+        }
+        if (this.sun == null || !this.cameraCaptured) {
+            return;
+        }
+
+        float tanHalfFov = 1.0F / this.cameraProjection.m11();
+        float aspect = this.cameraProjection.m11() / this.cameraProjection.m00();
+        float far = Math.min(this.shadowDistance, Minecraft.getInstance().gameRenderer.getRenderDistance());
+        this.cascades.update(this.cameraPosition, this.cameraView, 2.0F * (float) Math.atan(tanHalfFov), aspect, 0.05F, Math.max(1.0F, far), this.sun.getDirection(), this.sun.getShadowResolution());
+
+        for (int i = 0; i < this.cascades.getCount(); i++) {
+            ShadowCascades.Cascade cascade = this.cascades.getCascade(i);
+            this.activeKeys.add(cascade);
+            if (this.cache.track(cascade, this.sun.getShadowResolution()) == null) {
+                continue;
+            }
+
+            Vector3dc center = cascade.getCenter();
+            double extent = cascade.getDepth();
+            this.cache.setBounds(cascade, center.x() - extent, center.y() - extent, center.z() - extent, center.x() + extent, center.y() + extent, center.z() + extent);
+            if (cascade.isChanged()) {
+                this.cache.markDirty(cascade);
+            }
+        }
+    }
+
+    private void updateAreaLights(LightRenderer lightRenderer) {
+        this.areaShadows.clear();
+        Quaternionf orientation = new Quaternionf();
+        for (AreaLight light : lightRenderer.getLights(LightTypeRegistry.AREA.get())) {
+            if (!light.isShadowCaster()) {
+                light.setShadowIndex(-1);
+                continue;
+            }
+
+            this.activeKeys.add(light);
+            if (this.cache.track(light, light.getShadowResolution()) == null) {
+                light.setShadowIndex(-1);
+                continue;
+            }
+
+            Vector3dc pos = light.getPosition();
+            float distance = light.getDistance();
+            this.cache.setBounds(light, pos.x() - distance, pos.y() - distance, pos.z() - distance, pos.x() + distance, pos.y() + distance, pos.z() + distance);
+
+            Matrix4f viewProjection = getProjection(light, new Matrix4f()).rotate(getOrientation(light, orientation));
+            if (!viewProjection.equals(this.projections.put(light, viewProjection))) {
+                this.cache.markDirty(light);
+            }
+
+            if (this.cache.isReady(light) && this.areaShadows.size() < MAX_AREA_SHADOWS) {
+                light.setShadowIndex(this.areaShadows.size());
+                this.areaShadows.add(light);
+            } else {
+                light.setShadowIndex(-1);
+            }
+        }
+    }
+
+    private static Matrix4f getProjection(AreaLight light, Matrix4f store) {
+        float fov = Math.max(0.1F, Math.min((float) Math.toRadians(160.0), 2.0F * light.getAngle()));
+        return store.setPerspective(fov, 1.0F, 0.05F, Math.max(0.1F, light.getDistance()));
+    }
+
+    private static Quaternionf getOrientation(AreaLight light, Quaternionf store) {
+        Quaternionf inverse = light.getOrientation().conjugate(store);
+        Vector3f direction = inverse.transform(new Vector3f(0.0F, 0.0F, 1.0F));
+        Vector3f up = inverse.transform(new Vector3f(0.0F, 1.0F, 0.0F));
+        return store.identity().lookAlong(direction, up);
+    }
+
+    private void renderTile(ShadowAtlas.Tile tile, Matrix4fc projection, Vector3dc position, Quaternionfc orientation, float distance, float partialTicks) {
+        AdvancedFbo scratch = this.scratchBuffers.computeIfAbsent(tile.size(), size -> AdvancedFbo.withSize(size, size)
+                .addColorRenderBuffer()
+                .setDepthRenderBuffer()
+                .build(true));
+
+        VeilLevelPerspectiveRenderer.render(scratch, IDENTITY, projection, position, orientation, Math.max(16.0F, distance), partialTicks);
+
+        scratch.bindRead();
+        RenderSystem.bindTexture(this.atlasTexture);
+        glCopyTexSubImage2D(GL_TEXTURE_2D, 0, tile.x(), tile.y(), 0, 0, tile.size(), tile.size());
+        RenderSystem.bindTexture(0);
+        AdvancedFbo.unbind();
+    }
+
+    private void createAtlas() {
+        if (this.atlasTexture != 0) {
+            return;
+        }
+
+        this.atlasTexture = GlStateManager._genTexture();
+        RenderSystem.bindTexture(this.atlasTexture);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_DEPTH_COMPONENT24, ATLAS_SIZE, ATLAS_SIZE, 0, GL_DEPTH_COMPONENT, GL_FLOAT, 0L);
+        RenderSystem.bindTexture(0);
+        this.cache.invalidateAll();
+    }
+
+    /**
+     * Sets the cascade uniforms for the specified directional light.
+     *
+     * @param shader The shader to apply uniforms to
+     * @param light  The light being drawn
+     */
+    @ApiStatus.Internal
+    public void applyDirectionalShadow(ShaderProgram shader, DirectionalLight light) {
+        if (light != this.sun || this.atlasTexture == 0) {
+            shader.setInt("ShadowCascadeCount", 0);
+            return;
+        }
+
+        int count = this.cascades.getCount();
+        float[] splits = new float[4];
+        for (int i = 0; i < count; i++) {
+            ShadowCascades.Cascade cascade = this.cascades.getCascade(i);
+            ShadowAtlas.Tile tile = this.cache.getTile(cascade);
+            if (tile == null || !this.cache.isReady(cascade)) {
+                count = i;
+                break;
+            }
+
+            tile.getUv(ATLAS_SIZE, this.uv);
+            shader.setMatrix("ShadowCascadeMatrices[" + i + "]", cascade.getShadowMatrix(this.cameraPosition, this.shadowMatrix));
+            shader.setVector("ShadowCascadeRects[" + i + "]", this.uv[0], this.uv[1], this.uv[2], this.uv[3]);
+            splits[i] = cascade.getSplit();
+        }
+
+        shader.setInt("ShadowCascadeCount", count);
+        shader.setVector("ShadowCascadeSplits", splits[0], splits[1], splits[2], splits[3]);
+    }
+
+    /**
+     * Sets the shadow uniforms for all area lights that have a shadow index.
+     *
+     * @param shader The shader to apply uniforms to
+     */
+    @ApiStatus.Internal
+    public void applyAreaShadows(ShaderProgram shader) {
+        for (int i = 0; i < this.areaShadows.size(); i++) {
+            AreaLight light = this.areaShadows.get(i);
+            ShadowAtlas.Tile tile = Objects.requireNonNull(this.cache.getTile(light));
+            Vector3dc pos = light.getPosition();
+
+            tile.getUv(ATLAS_SIZE, this.uv);
+            this.shadowMatrix.set(this.projections.get(light)).translate((float) (this.cameraPosition.x - pos.x()), (float) (this.cameraPosition.y - pos.y()), (float) (this.cameraPosition.z - pos.z()));
+            shader.setMatrix("AreaShadowMatrices[" + i + "]", this.shadowMatrix);
+            shader.setVector("AreaShadowRects[" + i + "]", this.uv[0], this.uv[1], this.uv[2], this.uv[3]);
+        }
+    }
+
+    /**
+     * Adds the shadow atlas to the samplers of the specified shader.
+     *
+     * @param shader The shader to add the sampler to
+     */
+    @ApiStatus.Internal
+    public void addSampler(ShaderProgram shader) {
+        shader.addSampler("ShadowAtlasSampler", this.atlasTexture);
+    }
+
+    /**
+     * Marks all shadows intersecting the specified chunk section as needing to be rendered again.
+     *
+     * @param sectionX The x position of the section
+     * @param sectionY The y position of the section
+     * @param sectionZ The z position of the section
+     */
+    public void invalidateSection(int sectionX, int sectionY, int sectionZ) {
+        double minX = sectionX << 4;
+        double minY = sectionY << 4;
+        double minZ = sectionZ << 4;
+        this.cache.invalidate(minX, minY, minZ, minX + 16, minY + 16, minZ + 16);
+    }
+
+    /**
+     * Marks every shadow as needing to be rendered again.
+     */
+    public void invalidateAll() {
+        this.cache.invalidateAll();
+    }
+
+    /**
+     * Sets the maximum number of shadow tiles to render each frame.
+     *
+     * @param tileBudget The number of tiles
+     */
+    public void setTileBudget(int tileBudget) {
+        this.tileBudget = Math.max(1, tileBudget);
+    }
+
+    /**
+     * Sets the maximum distance from the camera directional shadows are drawn.
+     *
+     * @param shadowDistance The distance in blocks
+     */
+    public void setShadowDistance(float shadowDistance) {
+        this.shadowDistance = shadowDistance;
+    }
+
+    /**
+     * @return The maximum number of shadow tiles to render each frame
+     */
+    public int getTileBudget() {
+        return this.tileBudget;
+    }
+
+    /**
+     * @return The maximum distance from the camera directional shadows are drawn
+     */
+    public float getShadowDistance() {
+        return this.shadowDistance;
+    }
+
+    /**
+     * @return The OpenGL id of the depth atlas or <code>0</code> if no shadows are being drawn
+     */
+    public int getAtlasTexture() {
+        return this.atlasTexture;
+    }
+
+    /**
+     * @return The directional light cascades are being drawn for
+     */
+    public @Nullable DirectionalLight getSun() {
+        return this.sun;
+    }
+
+    @ApiStatus.Internal
+    public void addDebugInfo(Consumer<String> consumer) {
+        if (this.cache.size() == 0) {
+            return;
+        }
+        int usage = (int) (100.0 * this.atlas.getUsedArea() / ((double) ATLAS_SIZE * ATLAS_SIZE));
+        consumer.accept("Shadows: " + this.renderedTiles + " rendered, " + this.cache.getDirtyCount() + " queued, " + this.atlas.getTileCount() + " tiles (" + usage + "%)");
+    }
+
+    private void freeTextures() {
+        if (this.atlasTexture != 0) {
+            RenderSystem.deleteTexture(this.atlasTexture);
+            this.atlasTexture = 0;
+        }
+        this.scratchBuffers.values().forEach(AdvancedFbo::free);
+        this.scratchBuffers.clear();
+    }
+
+    @Override
+    public void free() {
+        this.freeTextures();
+        this.cache.clear();
+        this.projections.clear();
+        this.areaShadows.clear();
+        this.sun = null;
+        this.cameraCaptured = false;
+    }
+}
@@ -0,0 +1,261 @@
+package foundry.veil.api.client.render.deferred.light.shadow;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * <p>Keeps track of which shadow tiles are still valid and which need to be rendered again.</p>
+ * <p>Each key owns a single tile in a {@link ShadowAtlas} and the world-space volume the shadow covers.
+ * Tiles are only marked for re-rendering when the key is moved, resized, or a world change intersects the volume.
+ * {@link #poll(int, long)} then hands out at most a fixed number of dirty tiles each frame so shadow updates
+ * are spread over multiple frames instead of stalling.</p>
+ *
+ * @param <T> The type of object that owns each tile
+ * @author Ocelot
+ */
+public class ShadowTileCache<T> {
+
+    private final ShadowAtlas atlas;
+    private final Map<T, Entry> entries;
+
+    public ShadowTileCache(ShadowAtlas atlas) {
+        this.atlas = atlas;
+        this.entries = new HashMap<>();
+    }
+
+    /**
+     * Allocates a tile for the specified key if it doesn't have one with the requested resolution yet.
+     *
+     * @param key        The owner of the tile
+     * @param resolution The requested resolution of the tile
+     * @return The tile allocated for the key or <code>null</code> if the atlas is full
+     */
+    public @Nullable ShadowAtlas.Tile track(T key, int resolution) {
+        Entry entry = this.entries.computeIfAbsent(key, unused -> new Entry());
+        int tileSize = this.atlas.getTileSize(resolution);
+        if (entry.tile != null && entry.tile.size() == tileSize) {
+            return entry.tile;
+        }
+
+        if (entry.tile != null) {
+            this.atlas.free(entry.tile);
+        }
+        entry.tile = this.atlas.allocate(resolution);
+        entry.dirty = true;
+        entry.lastRendered = -1;
+        return entry.tile;
+    }
+
+    /**
+     * Sets the world-space volume covered by the shadow of the specified key.
+     * The tile is only marked as dirty if the volume actually changed.
+     *
+     * @param key The owner of the tile
+     */
+    public void setBounds(T key, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            return;
+        }
+
+        if (entry.minX != minX || entry.minY != minY || entry.minZ != minZ || entry.maxX != maxX || entry.maxY != maxY || entry.maxZ != maxZ) {
+            entry.minX = minX;
+            entry.minY = minY;
+            entry.minZ = minZ;
+            entry.maxX = maxX;
+            entry.maxY = maxY;
+            entry.maxZ = maxZ;
+            entry.dirty = true;
+        }
+    }
+
+    /**
+     * Marks the tile of the specified key as needing to be rendered again.
+     *
+     * @param key The owner of the tile
+     */
+    public void markDirty(T key) {
+        Entry entry = this.entries.get(key);
+        if (entry != null) {
+            entry.dirty = true;
+        }
+    }
+
+    /**
+     * Marks all tiles with a volume intersecting the specified box as needing to be rendered again.
+     *
+     * @return The number of tiles that were invalidated
+     */
+    public int invalidate(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        int count = 0;
+        for (Entry entry : this.entries.values()) {
+            if (!entry.dirty && entry.intersects(minX, minY, minZ, maxX, maxY, maxZ)) {
+                entry.dirty = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Marks every tile as needing to be rendered again.
+     */
+    public void invalidateAll() {
+        for (Entry entry : this.entries.values()) {
+            entry.dirty = true;
+        }
+    }
+
+    /**
+     * Stops tracking the specified key and frees its tile.
+     *
+     * @param key The owner of the tile
+     */
+    public void remove(T key) {
+        Entry entry = this.entries.remove(key);
+        if (entry != null && entry.tile != null) {
+            this.atlas.free(entry.tile);
+        }
+    }
+
+    /**
+     * Removes all keys not contained in the specified set of keys.
+     *
+     * @param keys The keys to keep
+     */
+    public void retain(Collection<?> keys) {
+        Iterator<Map.Entry<T, Entry>> iterator = this.entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<T, Entry> mapEntry = iterator.next();
+            if (!keys.contains(mapEntry.getKey())) {
+                Entry entry = mapEntry.getValue();
+                if (entry.tile != null) {
+                    this.atlas.free(entry.tile);
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all keys and frees all tiles.
+     */
+    public void clear() {
+        for (Entry entry : this.entries.values()) {
+            if (entry.tile != null) {
+                this.atlas.free(entry.tile);
+            }
+        }
+        this.entries.clear();
+    }
+
+    /**
+     * Selects up to <code>budget</code> dirty tiles to render this frame and marks them as clean.
+     * Tiles that have never been rendered are always picked first, followed by the tiles that were rendered the longest time ago.
+     *
+     * @param budget The maximum number of tiles to render
+     * @param frame  The current frame index
+     * @return The keys to render shadows for
+     */
+    public List<T> poll(int budget, long frame) {
+        if (budget <= 0) {
+            return Collections.emptyList();
+        }
+
+        List<Map.Entry<T, Entry>> dirty = new ArrayList<>();
+        for (Map.Entry<T, Entry> mapEntry : this.entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            if (entry.dirty && entry.tile != null) {
+                dirty.add(mapEntry);
+            }
+        }
+        if (dirty.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        dirty.sort(Comparator.comparingLong(mapEntry -> mapEntry.getValue().lastRendered));
+
+        int count = Math.min(budget, dirty.size());
+        List<T> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map.Entry<T, Entry> mapEntry = dirty.get(i);
+            Entry entry = mapEntry.getValue();
+            entry.dirty = false;
+            entry.lastRendered = frame;
+            result.add(mapEntry.getKey());
+        }
+        return result;
+    }
+
+    /**
+     * @param key The owner of the tile
+     * @return The tile allocated for the key or <code>null</code> if the key has no tile
+     */
+    public @Nullable ShadowAtlas.Tile getTile(T key) {
+        Entry entry = this.entries.get(key);
+        return entry != null ? entry.tile : null;
+    }
+
+    /**
+     * @param key The owner of the tile
+     * @return Whether the tile for the key has valid shadow data that can be sampled
+     */
+    public boolean isReady(T key) {
+        Entry entry = this.entries.get(key);
+        return entry != null && entry.tile != null && entry.lastRendered >= 0;
+    }
+
+    /**
+     * @param key The owner of the tile
+     * @return Whether the tile for the key is waiting to be rendered
+     */
+    public boolean isDirty(T key) {
+        Entry entry = this.entries.get(key);
+        return entry != null && entry.dirty;
+    }
+
+    /**
+     * @return The number of tiles waiting to be rendered
+     */
+    public int getDirtyCount() {
+        int count = 0;
+        for (Entry entry : this.entries.values()) {
+            if (entry.dirty && entry.tile != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of keys currently being tracked
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return The atlas tiles are allocated from
+     */
+    public ShadowAtlas getAtlas() {
+        return this.atlas;
+    }
+
+    private static class Entry {
+
+        private ShadowAtlas.Tile tile;
+        private boolean dirty;
+        private long lastRendered = -1;
+        private double minX;
+        private double minY;
+        private double minZ;
+        private double maxX;
+        private double maxY;
+        private double maxZ;
+
+        private boolean intersects(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+            return this.minX < maxX && this.maxX > minX && this.minY < maxY && this.maxY > minY && this.minZ < maxZ && this.maxZ > minZ;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.mojang.blaze3d.pipeline.RenderTarget;
 import com.mojang.blaze3d.platform.Window;
 import com.mojang.blaze3d.systems.RenderSystem;
 import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.VeilRenderer;
 import foundry.veil.impl.client.render.AdvancedFboImpl;
 import net.minecraft.client.Minecraft;
 import org.apache.commons.lang3.Validate;
@@ -45,6 +46,20 @@ public interface AdvancedFbo extends NativeResource {
      */
     void clear();
 
+    /**
+     * Skips the automatic clear of this framebuffer for the current frame if it hasn't happened yet.
+     * This should only be called right before every pixel in the framebuffer is replaced.
+     */
+    default void skipAutoClear() {
+    }
+
+    /**
+     * Clears this framebuffer now if its automatic clear for the current frame hasn't happened yet.
+     * This has to be called before attachments are sampled or copied without binding this framebuffer.
+     */
+    default void applyAutoClear() {
+    }
+
     /**
      * Binds this framebuffer for read and draw requests.
      *
@@ -156,11 +171,7 @@ public interface AdvancedFbo extends NativeResource {
      * @param target The target framebuffer to copy data into
      */
     default void resolveToAdvancedFbo(AdvancedFbo target) {
-        this.resolveToFbo(target.getId(),
-                target.getWidth(),
-                target.getHeight(),
-                GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT,
-                GL_NEAREST);
+        this.resolveToAdvancedFbo(target, GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT, GL_NEAREST);
     }
 
     /**
@@ -171,7 +182,25 @@ public interface AdvancedFbo extends NativeResource {
      * @param filtering The filter to use if this framebuffer and the provided framebuffer are different sizes
      */
     default void resolveToAdvancedFbo(AdvancedFbo target, int mask, int filtering) {
-        this.resolveToFbo(target.getId(), target.getWidth(), target.getHeight(), mask, filtering);
+        RenderSystem.assertOnRenderThreadOrInit();
+
+        int clearMask = target.getClearMask();
+        if ((mask & clearMask) == clearMask) {
+            // Every buffer in the target is replaced, so it doesn't need to be cleared first
+            target.skipAutoClear();
+        }
+
+        VeilRenderer renderer = VeilRenderSystem.renderer();
+        if (renderer != null) {
+            // Attachments with matching formats can be copied directly instead of blitting
+            renderer.getFramebufferCopier().copy(this, target, mask, filtering);
+            return;
+        }
+
+        this.bindRead();
+        target.bindDraw(false);
+        glBlitFramebuffer(0, 0, this.getWidth(), this.getHeight(), 0, 0, target.getWidth(), target.getHeight(), mask, filtering);
+        AdvancedFbo.unbind();
     }
 
     /**
@@ -180,11 +209,7 @@ public interface AdvancedFbo extends NativeResource {
      * @param target The target framebuffer to copy data into
      */
     default void resolveToFramebuffer(RenderTarget target) {
-        this.resolveToFbo(target.frameBufferId,
-                target.viewWidth,
-                target.viewHeight,
-                GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT,
-                GL_NEAREST);
+        this.resolveToFramebuffer(target, GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT, GL_NEAREST);
     }
 
     /**
@@ -195,6 +220,10 @@ public interface AdvancedFbo extends NativeResource {
      * @param filtering The filter to use if this framebuffer and the provided framebuffer are different sizes
      */
     default void resolveToFramebuffer(RenderTarget target, int mask, int filtering) {
+        if (target instanceof AdvancedFboImpl.Wrapper wrapper) {
+            this.resolveToAdvancedFbo(wrapper.fbo(), mask, filtering);
+            return;
+        }
         this.resolveToFbo(target.frameBufferId, target.viewWidth, target.viewHeight, mask, filtering);
     }
 
@@ -222,6 +251,9 @@ public interface AdvancedFbo extends NativeResource {
     }
 
     /**
+     * Retrieves the OpenGL id of this framebuffer. Anything can draw into the framebuffer with the id, so it is
+     * cleared at the start of every frame instead of when it is first used from then on.
+     *
      * @return The id of this framebuffer or -1 if it has been deleted
      */
     int getId();
@@ -267,6 +299,7 @@ public interface AdvancedFbo extends NativeResource {
     /**
      * Checks the attachments for the specified slot.
      * If the amount of attachments is unknown, use {@link #hasColorAttachment(int)} to verify before calling this.
+     * Call {@link #applyAutoClear()} before sampling the attachment.
      *
      * @param attachment The attachment to get
      * @return The attachment in the specified attachment slot
@@ -327,6 +360,8 @@ public interface AdvancedFbo extends NativeResource {
     }
 
     /**
+     * Call {@link #applyAutoClear()} before sampling the attachment.
+     *
      * @return The depth attachment of this framebuffer
      * @throws IllegalArgumentException If there is no depth attachment in this framebuffer
      */
@@ -377,6 +412,8 @@ public interface AdvancedFbo extends NativeResource {
     }
 
     /**
+     * Wraps this framebuffer as a vanilla target. The target exposes the id of this framebuffer, see {@link #getId()}.
+     *
      * @return A {@link RenderTarget} that uses this advanced fbo as the target
      */
     RenderTarget toRenderTarget();
@@ -6,6 +6,9 @@ import com.mojang.serialization.Codec;
 import com.mojang.serialization.DataResult;
 import foundry.veil.Veil;
 import foundry.veil.api.CodecReloadListener;
+import foundry.veil.impl.client.render.AdvancedFboImpl;
+import foundry.veil.impl.client.render.framebuffer.FramebufferClearTracker;
+import foundry.veil.impl.client.render.framebuffer.FramebufferPool;
 import gg.moonflower.molangcompiler.api.MolangEnvironment;
 import gg.moonflower.molangcompiler.api.MolangRuntime;
 import net.minecraft.ResourceLocationException;
@@ -28,6 +31,9 @@ import static org.lwjgl.opengl.GL30.glBindFramebuffer;
  * <p>Manages all framebuffers and custom definitions specified in files.
  * All framebuffers except for the main one can be customized from the
  * <code>modid:pinwheel/framebuffers</code> folder in the assets.</p>
+ * <p>Framebuffers are cleared automatically the first time they are used each frame instead of all at once,
+ * so framebuffers that aren't used or are completely overwritten are never cleared. Framebuffers whose id was
+ * retrieved with {@link AdvancedFbo#getId()} are cleared at the start of every frame again.</p>
  *
  * @author Ocelot
  */
@@ -53,27 +59,42 @@ public class FramebufferManager extends CodecReloadListener<FramebufferDefinitio
     private final Map<ResourceLocation, AdvancedFbo> framebuffersView;
     private final Set<ResourceLocation> screenFramebuffers;
     private final Set<ResourceLocation> manualFramebuffers;
+    private final FramebufferPool pool;
+    private final FramebufferClearTracker clearTracker;
+    private final boolean lazyClear;
+    private int generation;
 
     /**
      * Creates a new instance of the framebuffer manager.
+     *
+     * @param pool The pool to allocate defined framebuffers from
      */
-    public FramebufferManager() {
+    @ApiStatus.Internal
+    public FramebufferManager(FramebufferPool pool) {
         super(FramebufferDefinition.CODEC, FRAMEBUFFER_LISTER);
+        this.pool = pool;
         this.framebufferDefinitions = new HashMap<>();
         this.framebuffers = new HashMap<>();
         this.framebuffersView = Collections.unmodifiableMap(this.framebuffers);
         this.screenFramebuffers = new HashSet<>();
         this.manualFramebuffers = new HashSet<>();
+        this.clearTracker = new FramebufferClearTracker();
+        this.lazyClear = System.getProperty("veil.disableLazyFramebufferClear") == null;
+        this.generation = 0;
     }
 
     private void initFramebuffer(ResourceLocation name, FramebufferDefinition definition, MolangEnvironment runtime) {
         try {
-            AdvancedFbo fbo = definition.createBuilder(runtime).build(true);
+            AdvancedFbo fbo = this.pool.acquire(definition, runtime);
             fbo.bindDraw(false);
             fbo.clear();
             this.framebuffers.put(name, fbo);
+            this.generation++;
             if (!definition.autoClear()) {
                 this.manualFramebuffers.add(name);
+            } else if (this.lazyClear && fbo instanceof AdvancedFboImpl impl) {
+                this.clearTracker.add(impl);
+                impl.setClearTracker(this.clearTracker);
             }
         } catch (Exception e) {
             Veil.LOGGER.error("Failed to initialize framebuffer: {}", name, e);
@@ -92,7 +113,9 @@ public class FramebufferManager extends CodecReloadListener<FramebufferDefinitio
             this.manualFramebuffers.remove(name);
             AdvancedFbo fbo = this.framebuffers.remove(name);
             if (fbo != null) {
-                fbo.free();
+                // Framebuffers that end up with the same size are given straight back
+                this.release(fbo);
+                this.generation++;
             }
 
             FramebufferDefinition definition = this.framebufferDefinitions.get(name);
@@ -103,17 +126,32 @@ public class FramebufferManager extends CodecReloadListener<FramebufferDefinitio
         AdvancedFbo.unbind();
     }
 
+    private void release(AdvancedFbo fbo) {
+        if (fbo instanceof AdvancedFboImpl impl && this.clearTracker.remove(impl)) {
+            impl.setClearTracker(null);
+        }
+        this.pool.release(fbo);
+    }
+
     @ApiStatus.Internal
     public void clear() {
-        RenderSystem.clearColor(0.0F, 0.0F, 0.0F, 0.0F);
-        this.framebuffers.forEach((name, fbo) -> {
-            if (this.manualFramebuffers.contains(name)) {
-                return;
+        // Tracked framebuffers are cleared when they are first used
+        this.clearTracker.endFrame();
+
+        boolean cleared = false;
+        for (Map.Entry<ResourceLocation, AdvancedFbo> entry : this.framebuffers.entrySet()) {
+            AdvancedFbo fbo = entry.getValue();
+            if (this.manualFramebuffers.contains(entry.getKey()) || fbo instanceof AdvancedFboImpl impl && this.clearTracker.isTracked(impl)) {
+                continue;
             }
 
+            if (!cleared) {
+                cleared = true;
+                RenderSystem.clearColor(0.0F, 0.0F, 0.0F, 0.0F);
+            }
             fbo.bindDraw(false);
             fbo.clear();
-        });
+        }
 
         // Manual unbind to restore the default mc state
         glBindFramebuffer(GL_FRAMEBUFFER, 0);
@@ -130,12 +168,14 @@ public class FramebufferManager extends CodecReloadListener<FramebufferDefinitio
         if (this.manualFramebuffers.add(name)) {
             AdvancedFbo oldBuffer = this.framebuffers.remove(name);
             if (oldBuffer != null) {
-                oldBuffer.free();
+                this.release(oldBuffer);
                 Veil.LOGGER.warn("Replaced defined framebuffer {} with manual buffer", name);
             }
         }
 
-        this.framebuffers.put(name, fbo);
+        if (this.framebuffers.put(name, fbo) != fbo) {
+            this.generation++;
+        }
     }
 
     /**
@@ -146,6 +186,7 @@ public class FramebufferManager extends CodecReloadListener<FramebufferDefinitio
      */
     public @Nullable AdvancedFbo removeFramebuffer(ResourceLocation name) {
         if (this.manualFramebuffers.remove(name)) {
+            this.generation++;
             return this.framebuffers.remove(name);
         }
         return null;
@@ -161,6 +202,21 @@ public class FramebufferManager extends CodecReloadListener<FramebufferDefinitio
         return this.framebuffers.get(name);
     }
 
+    /**
+     * @return A number that changes every time a framebuffer is added, removed, or replaced
+     */
+    public int getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * @return The tracker that clears framebuffers when they are first used
+     */
+    @ApiStatus.Internal
+    public FramebufferClearTracker getClearTracker() {
+        return this.clearTracker;
+    }
+
     /**
      * @return An immutable view of all custom framebuffers loaded
      */
@@ -196,9 +252,10 @@ public class FramebufferManager extends CodecReloadListener<FramebufferDefinitio
     @Override
     public void free() {
         this.framebuffers.keySet().removeAll(this.manualFramebuffers);
-        this.framebuffers.values().forEach(AdvancedFbo::free);
+        this.framebuffers.values().forEach(this::release);
         this.framebuffers.clear();
         this.manualFramebuffers.clear();
         this.screenFramebuffers.clear();
+        this.generation++;
     }
 }
@@ -0,0 +1,454 @@
+package foundry.veil.api.client.render.occlusion;
+
+import com.mojang.blaze3d.pipeline.RenderTarget;
+import com.mojang.blaze3d.platform.GlStateManager;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.*;
+import foundry.veil.Veil;
+import foundry.veil.api.client.render.CameraMatrices;
+import foundry.veil.api.client.render.VeilLevelPerspectiveRenderer;
+import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.deferred.VeilDeferredRenderer;
+import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
+import foundry.veil.api.client.render.framebuffer.VeilFramebuffers;
+import foundry.veil.api.client.render.shader.VeilShaders;
+import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import foundry.veil.api.client.render.shader.program.UniformHandle;
+import foundry.veil.api.client.render.shader.program.UniformType;
+import foundry.veil.impl.client.render.FrustumBatchCuller;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.ApiStatus;
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.NativeResource;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.function.Consumer;
+
+import static org.lwjgl.opengl.GL11C.*;
+import static org.lwjgl.opengl.GL12C.*;
+import static org.lwjgl.opengl.GL13C.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL30C.*;
+
+/**
+ * <p>Builds a hierarchical depth pyramid from the opaque depth buffer every frame and uses it to reject objects hidden behind terrain.</p>
+ * <p>Objects are always tested against the pyramid of the previous frame using the camera of the previous frame.
+ * This avoids waiting for the current frame to finish drawing, at the cost of objects that were just uncovered appearing one frame late.
+ * The GPU copy can be sampled by compute shaders using <code>#include veil:hiz</code> and {@link #apply(ShaderProgram, Vector3dc)}.
+ * A coarse level is read back to the CPU the first time a CPU test is done each frame.</p>
+ * <p>Nothing is built until something requests a test.</p>
+ *
+ * @author Ocelot
+ */
+public class HiZBuffer implements NativeResource {
+
+    public static final int CPU_MAX_WIDTH = 256;
+
+    private final Frame[] frames;
+    private final HiZPyramid pyramid;
+    private final Matrix4f viewProjection;
+    private final Vector3f cameraOffset;
+    private final Vector2i screenSize;
+    private final Reference2ObjectMap<ShaderProgram, Uniforms> uniforms;
+    private VertexBuffer quad;
+    private int framebuffer;
+    private int front;
+    private boolean enabled;
+    private boolean requested;
+    private boolean readback;
+
+    private int tested;
+    private int occluded;
+    private int lastTested;
+    private int lastOccluded;
+
+    public HiZBuffer() {
+        this.frames = new Frame[]{new Frame(), new Frame()};
+        this.pyramid = new HiZPyramid();
+        this.viewProjection = new Matrix4f();
+        this.cameraOffset = new Vector3f();
+        this.screenSize = new Vector2i();
+        this.uniforms = new Reference2ObjectOpenHashMap<>();
+        this.enabled = true;
+    }
+
+    /**
+     * Builds the pyramid for the current frame from the opaque depth buffer.
+     *
+     * @param matrices The camera the depth buffer was rendered with
+     */
+    @ApiStatus.Internal
+    public void update(CameraMatrices matrices) {
+        this.lastTested = this.tested;
+        this.lastOccluded = this.occluded;
+        this.tested = 0;
+        this.occluded = 0;
+        // Programs are replaced when shaders are reloaded
+        this.uniforms.keySet().removeIf(shader -> shader.getProgram() == 0);
+
+        // The pyramid built last frame is tested against from now on
+        this.front ^= 1;
+        this.readback = true;
+        if (!this.enabled || !this.requested) {
+            // Skipping a frame would leave an old pyramid to be tested against next frame
+            this.frames[this.front ^ 1].valid = false;
+            return;
+        }
+        this.requested = false;
+
+        int depthTexture;
+        int width;
+        int height;
+        VeilDeferredRenderer deferredRenderer = VeilRenderSystem.renderer().getDeferredRenderer();
+        AdvancedFbo opaque = VeilRenderSystem.renderer().getFramebufferManager().getFramebuffer(VeilFramebuffers.OPAQUE);
+        if (deferredRenderer.isActive() && opaque != null && opaque.isDepthTextureAttachment()) {
+            opaque.applyAutoClear();
+            depthTexture = opaque.getDepthTextureAttachment().getId();
+            width = opaque.getWidth();
+            height = opaque.getHeight();
+        } else {
+            RenderTarget mainTarget = Minecraft.getInstance().getMainRenderTarget();
+            depthTexture = mainTarget.getDepthTextureId();
+            width = mainTarget.width;
+            height = mainTarget.height;
+        }
+
+        ShaderProgram shader = VeilRenderSystem.setShader(VeilShaders.HIZ_DOWNSAMPLE);
+        if (shader == null || depthTexture == 0) {
+            this.frames[this.front ^ 1].valid = false;
+            return;
+        }
+
+        Frame frame = this.frames[this.front ^ 1];
+        Vec3 pos = Minecraft.getInstance().gameRenderer.getMainCamera().getPosition();
+        frame.cameraPosition.set(pos.x, pos.y, pos.z);
+        frame.viewProjection.set(matrices.getProjectionMatrix()).mul(matrices.getViewMatrix());
+        frame.resize(width, height);
+        this.build(shader, frame, depthTexture);
+        frame.valid = true;
+    }
+
+    private void build(ShaderProgram shader, Frame frame, int depthTexture) {
+        if (this.framebuffer == 0) {
+            this.framebuffer = glGenFramebuffers();
+            this.quad = createQuad();
+        }
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer viewport = stack.mallocInt(4);
+            glGetIntegerv(GL_VIEWPORT, viewport);
+            int drawFramebuffer = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+            int readFramebuffer = glGetInteger(GL_READ_FRAMEBUFFER_BINDING);
+
+            RenderSystem.disableDepthTest();
+            RenderSystem.depthMask(false);
+            RenderSystem.disableBlend();
+            RenderSystem.activeTexture(GL_TEXTURE0);
+            glBindFramebuffer(GL_FRAMEBUFFER, this.framebuffer);
+            shader.bind();
+            shader.setInt("DepthSampler", 0);
+            this.quad.bind();
+
+            int sourceWidth = frame.screenWidth;
+            int sourceHeight = frame.screenHeight;
+            for (int level = 0; level < frame.levels; level++) {
+                int width = Math.max(1, frame.width >> level);
+                int height = Math.max(1, frame.height >> level);
+                if (level == 0) {
+                    RenderSystem.bindTexture(depthTexture);
+                } else {
+                    // Only expose the previous level, so reading it while writing the next one is not a feedback loop
+                    RenderSystem.bindTexture(frame.texture);
+                    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, level - 1);
+                    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, level - 1);
+                }
+
+                glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, frame.texture, level);
+                GlStateManager._viewport(0, 0, width, height);
+                shader.setVectorI("SourceSize", sourceWidth, sourceHeight);
+                this.quad.draw();
+
+                sourceWidth = width;
+                sourceHeight = height;
+            }
+
+            RenderSystem.bindTexture(frame.texture);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, frame.levels - 1);
+            RenderSystem.bindTexture(0);
+
+            VertexBuffer.unbind();
+            ShaderProgram.unbind();
+            glBindFramebuffer(GL_DRAW_FRAMEBUFFER, drawFramebuffer);
+            glBindFramebuffer(GL_READ_FRAMEBUFFER, readFramebuffer);
+            GlStateManager._viewport(viewport.get(0), viewport.get(1), viewport.get(2), viewport.get(3));
+            RenderSystem.depthMask(true);
+            RenderSystem.enableDepthTest();
+        }
+    }
+
+    private static VertexBuffer createQuad() {
+        BufferBuilder bufferBuilder = RenderSystem.renderThreadTesselator().getBuilder();
+        bufferBuilder.begin(VertexFormat.Mode.TRIANGLE_STRIP, DefaultVertexFormat.POSITION);
+        bufferBuilder.vertex(-1, 1, 0).endVertex();
+        bufferBuilder.vertex(-1, -1, 0).endVertex();
+        bufferBuilder.vertex(1, 1, 0).endVertex();
+        bufferBuilder.vertex(1, -1, 0).endVertex();
+
+        VertexBuffer vbo = new VertexBuffer(VertexBuffer.Usage.STATIC);
+        vbo.bind();
+        vbo.upload(bufferBuilder.end());
+        VertexBuffer.unbind();
+        return vbo;
+    }
+
+    private HiZPyramid getPyramid(Frame frame) {
+        if (this.readback) {
+            this.readback = false;
+
+            // Read back the first level small enough to test quickly. The rest of the levels are built on the CPU
+            int level = 0;
+            while (level < frame.levels - 1 && Math.max(1, frame.width >> level) > CPU_MAX_WIDTH) {
+                level++;
+            }
+            int width = Math.max(1, frame.width >> level);
+            int height = Math.max(1, frame.height >> level);
+
+            FloatBuffer buffer = MemoryUtil.memAllocFloat(width * height);
+            try {
+                RenderSystem.bindTexture(frame.texture);
+                glGetTexImage(GL_TEXTURE_2D, level, GL_RED, GL_FLOAT, buffer);
+                RenderSystem.bindTexture(0);
+                this.pyramid.set(frame.screenWidth, frame.screenHeight, level + 1, width, height, buffer);
+            } finally {
+                MemoryUtil.memFree(buffer);
+            }
+        }
+        return this.pyramid;
+    }
+
+    /**
+     * Checks whether the specified box could be visible on the CPU.
+     *
+     * @return Whether the box is potentially visible
+     */
+    public boolean testAab(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        // The pyramid is built from the main camera, so it says nothing about what other perspectives can see
+        if (VeilLevelPerspectiveRenderer.isRenderingPerspective()) {
+            return true;
+        }
+
+        this.requested = true;
+        Frame frame = this.frames[this.front];
+        if (!this.enabled || !frame.valid) {
+            return true;
+        }
+
+        Vector3dc camera = frame.cameraPosition;
+        boolean visible = this.getPyramid(frame).testAab(frame.viewProjection,
+                (float) (minX - camera.x()), (float) (minY - camera.y()), (float) (minZ - camera.z()),
+                (float) (maxX - camera.x()), (float) (maxY - camera.y()), (float) (maxZ - camera.z()));
+        this.tested++;
+        if (!visible) {
+            this.occluded++;
+        }
+        return visible;
+    }
+
+    /**
+     * Tests all boxes that are marked as visible in the specified bitset and clears the ones that are occluded.
+     * This is intended to be run after {@link foundry.veil.api.client.render.CullFrustum#testAabs(double[], int, long[])}.
+     *
+     * @param boxes      Box data packed as <code>[minX, minY, minZ, maxX, maxY, maxZ]</code>
+     * @param count      The number of boxes to test
+     * @param visibility The visibility bitset to update
+     * @return The number of boxes that are still visible
+     */
+    public int testAabs(double[] boxes, int count, long[] visibility) {
+        boolean perspective = VeilLevelPerspectiveRenderer.isRenderingPerspective();
+        int visible = 0;
+        for (int i = 0; i < count; i++) {
+            if (!FrustumBatchCuller.isVisible(visibility, i)) {
+                continue;
+            }
+            if (perspective) {
+                visible++;
+                continue;
+            }
+
+            int offset = i * FrustumBatchCuller.AAB_STRIDE;
+            if (this.testAab(boxes[offset], boxes[offset + 1], boxes[offset + 2], boxes[offset + 3], boxes[offset + 4], boxes[offset + 5])) {
+                visible++;
+            } else {
+                visibility[i >>> 6] &= ~(1L << i);
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Sets the uniforms and sampler used by <code>testHiZ</code> in <code>#include veil:hiz</code>.
+     * {@link ShaderProgram#applyShaderSamplers(int)} must be called after this to bind the pyramid.
+     *
+     * @param shader         The shader to apply uniforms to
+     * @param cameraPosition The position positions passed to <code>testHiZ</code> are relative to
+     */
+    public void apply(ShaderProgram shader, Vector3dc cameraPosition) {
+        boolean perspective = VeilLevelPerspectiveRenderer.isRenderingPerspective();
+        if (!perspective) {
+            this.requested = true;
+        }
+        Frame frame = this.frames[this.front];
+        Uniforms uniforms = this.getUniforms(shader);
+        if (!this.enabled || !frame.valid || perspective) {
+            shader.removeSampler("HiZSampler");
+            uniforms.levels.set(0);
+            return;
+        }
+
+        // These are set for every shader that tests visibility each frame, so handles skip values that didn't change
+        Vector3dc camera = frame.cameraPosition;
+        shader.addSampler("HiZSampler", frame.texture);
+        uniforms.viewProjection.set(this.viewProjection.set(frame.viewProjection));
+        uniforms.cameraOffset.set(this.cameraOffset.set(cameraPosition.x() - camera.x(), cameraPosition.y() - camera.y(), cameraPosition.z() - camera.z()));
+        uniforms.screenSize.set(this.screenSize.set(frame.screenWidth, frame.screenHeight));
+        uniforms.levels.set(frame.levels);
+    }
+
+    private Uniforms getUniforms(ShaderProgram shader) {
+        int generation = shader.getUniformGeneration();
+        Uniforms uniforms = this.uniforms.get(shader);
+        if (uniforms == null || uniforms.generation != generation) {
+            uniforms = new Uniforms(generation,
+                    shader.getUniformHandle("HiZViewProjection", UniformType.MAT4),
+                    shader.getUniformHandle("HiZCameraOffset", UniformType.VEC3),
+                    shader.getUniformHandle("HiZScreenSize", UniformType.IVEC2),
+                    shader.getUniformHandle("HiZLevels", UniformType.INT));
+            this.uniforms.put(shader, uniforms);
+        }
+        return uniforms;
+    }
+
+    /**
+     * Sets whether occlusion culling is done. When disabled, every test reports objects as visible.
+     *
+     * @param enabled Whether to enable occlusion culling
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            this.frames[0].valid = false;
+            this.frames[1].valid = false;
+        }
+    }
+
+    /**
+     * @return Whether occlusion culling is done
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * @return Whether there is a pyramid from the previous frame to test against
+     */
+    public boolean isReady() {
+        return this.enabled && this.frames[this.front].valid;
+    }
+
+    @ApiStatus.Internal
+    public void addDebugInfo(Consumer<String> consumer) {
+        if (this.isReady() && this.lastTested > 0) {
+            consumer.accept("Hi-Z: " + this.lastOccluded + "/" + this.lastTested + " occluded");
+        }
+    }
+
+    @Override
+    public void free() {
+        for (Frame frame : this.frames) {
+            frame.free();
+        }
+        this.pyramid.clear();
+        this.uniforms.clear();
+        if (this.framebuffer != 0) {
+            glDeleteFramebuffers(this.framebuffer);
+            this.framebuffer = 0;
+        }
+        if (this.quad != null) {
+            this.quad.close();
+            this.quad = null;
+        }
+    }
+
+    private record Uniforms(int generation,
+                            UniformHandle<Matrix4fc> viewProjection,
+                            UniformHandle<Vector3fc> cameraOffset,
+                            UniformHandle<Vector2ic> screenSize,
+                            UniformHandle<Integer> levels) {
+    }
+
+    private static class Frame implements NativeResource {
+
+        private final Matrix4f viewProjection;
+        private final Vector3d cameraPosition;
+        private int texture;
+        private int screenWidth;
+        private int screenHeight;
+        private int width;
+        private int height;
+        private int levels;
+        private boolean valid;
+
+        private Frame() {
+            this.viewProjection = new Matrix4f();
+            this.cameraPosition = new Vector3d();
+        }
+
+        private void resize(int screenWidth, int screenHeight) {
+            if (this.texture != 0 && this.screenWidth == screenWidth && this.screenHeight == screenHeight) {
+                return;
+            }
+
+            this.free();
+            this.screenWidth = screenWidth;
+            this.screenHeight = screenHeight;
+            this.width = Math.max(1, screenWidth >> 1);
+            this.height = Math.max(1, screenHeight >> 1);
+            this.levels = HiZPyramid.getLevelCount(this.width, this.height);
+
+            this.texture = GlStateManager._genTexture();
+            RenderSystem.bindTexture(this.texture);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST_MIPMAP_NEAREST);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, this.levels - 1);
+            for (int i = 0; i < this.levels; i++) {
+                glTexImage2D(GL_TEXTURE_2D, i, GL_R32F, Math.max(1, this.width >> i), Math.max(1, this.height >> i), 0, GL_RED, GL_FLOAT, 0L);
+            }
+            RenderSystem.bindTexture(0);
+            Veil.LOGGER.debug("Created {}x{} Hi-Z pyramid with {} levels", this.width, this.height, this.levels);
+        }
+
+        @Override
+        public void free() {
+            if (this.texture != 0) {
+                RenderSystem.deleteTexture(this.texture);
+                this.texture = 0;
+            }
+            this.valid = false;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package foundry.veil.api.client.render.occlusion;
+
+import org.apache.commons.lang3.Validate;
+import org.joml.Matrix4fc;
+
+import java.nio.FloatBuffer;
+
+/**
+ * <p>A CPU copy of a hierarchical depth pyramid. Each texel stores the farthest depth of the texels it covers in the level below it.</p>
+ * <p>Levels follow the OpenGL mipmap size rules, so a level is always half the size of the previous one, rounded down.
+ * When a level has an odd size, the last texel also covers the extra row or column. This keeps every level
+ * conservative and allows any screen pixel to be found in a level by shifting it.</p>
+ *
+ * @author Ocelot
+ */
+public class HiZPyramid {
+
+    private static final int MAX_TEST_SPAN = 3;
+
+    private float[][] levels;
+    private int[] widths;
+    private int[] heights;
+    private int screenWidth;
+    private int screenHeight;
+    private int baseShift;
+
+    public HiZPyramid() {
+        this.levels = new float[0][];
+        this.widths = new int[0];
+        this.heights = new int[0];
+    }
+
+    /**
+     * Sets the pyramid from a full resolution depth image.
+     *
+     * @param width  The width of the image
+     * @param height The height of the image
+     * @param depth  The depth values in rows from the bottom of the screen up
+     */
+    public void set(int width, int height, float[] depth) {
+        Validate.isTrue(depth.length >= width * height, "Expected " + width * height + " depth values");
+        this.resize(width, height, 0, width, height);
+        System.arraycopy(depth, 0, this.levels[0], 0, width * height);
+        this.buildMips();
+    }
+
+    /**
+     * Sets the pyramid from an already reduced level of a larger pyramid.
+     *
+     * @param screenWidth  The width of the original depth image
+     * @param screenHeight The height of the original depth image
+     * @param baseShift    The number of times the original image was halved to get the provided level
+     * @param width        The width of the provided level
+     * @param height       The height of the provided level
+     * @param depth        The depth values of the level
+     */
+    public void set(int screenWidth, int screenHeight, int baseShift, int width, int height, FloatBuffer depth) {
+        Validate.isTrue(depth.remaining() >= width * height, "Expected " + width * height + " depth values");
+        this.resize(screenWidth, screenHeight, baseShift, width, height);
+        depth.get(depth.position(), this.levels[0], 0, width * height);
+        this.buildMips();
+    }
+
+    private void resize(int screenWidth, int screenHeight, int baseShift, int width, int height) {
+        Validate.isTrue(width > 0 && height > 0, "Pyramid size must be positive");
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        this.baseShift = baseShift;
+
+        int count = getLevelCount(width, height);
+        if (this.levels.length != count || this.widths[0] != width || this.heights[0] != height) {
+            this.levels = new float[count][];
+            this.widths = new int[count];
+            this.heights = new int[count];
+            for (int i = 0; i < count; i++) {
+                this.widths[i] = Math.max(1, width >> i);
+                this.heights[i] = Math.max(1, height >> i);
+                this.levels[i] = new float[this.widths[i] * this.heights[i]];
+            }
+        }
+    }
+
+    private void buildMips() {
+        for (int i = 1; i < this.levels.length; i++) {
+            downsample(this.levels[i - 1], this.widths[i - 1], this.heights[i - 1], this.levels[i], this.widths[i], this.heights[i]);
+        }
+    }
+
+    /**
+     * Reduces a depth image to the next level by keeping the farthest depth of each block.
+     *
+     * @param src       The source depth values
+     * @param srcWidth  The width of the source
+     * @param srcHeight The height of the source
+     * @param dst       The array to store the reduced depth values into
+     * @param dstWidth  The width of the destination. Must be <code>max(1, srcWidth / 2)</code>
+     * @param dstHeight The height of the destination. Must be <code>max(1, srcHeight / 2)</code>
+     */
+    public static void downsample(float[] src, int srcWidth, int srcHeight, float[] dst, int dstWidth, int dstHeight) {
+        for (int y = 0; y < dstHeight; y++) {
+            int y0 = Math.min(y * 2, srcHeight - 1);
+            int y1 = y == dstHeight - 1 ? srcHeight - 1 : y * 2 + 1;
+            for (int x = 0; x < dstWidth; x++) {
+                int x0 = Math.min(x * 2, srcWidth - 1);
+                int x1 = x == dstWidth - 1 ? srcWidth - 1 : x * 2 + 1;
+
+                float depth = 0.0F;
+                for (int sy = y0; sy <= y1; sy++) {
+                    for (int sx = x0; sx <= x1; sx++) {
+                        depth = Math.max(depth, src[sx + sy * srcWidth]);
+                    }
+                }
+                dst[x + y * dstWidth] = depth;
+            }
+        }
+    }
+
+    /**
+     * @param width  The width of the first level
+     * @param height The height of the first level
+     * @return The number of levels in a full pyramid of that size
+     */
+    public static int getLevelCount(int width, int height) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+    }
+
+    /**
+     * <p>Checks whether the specified box could be visible. This is conservative, so boxes are only rejected when
+     * they are entirely behind the depth stored in the pyramid.</p>
+     * <p>Boxes that cross the near plane or are outside the screen are always considered visible, since frustum culling handles those.</p>
+     *
+     * @param viewProjection The matrix the pyramid was rendered with. Positions are relative to the camera
+     * @return Whether the box is potentially visible
+     */
+    public boolean testAab(Matrix4fc viewProjection, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        if (this.levels.length == 0) {
+            return true;
+        }
+
+        float ndcMinX = Float.POSITIVE_INFINITY;
+        float ndcMinY = Float.POSITIVE_INFINITY;
+        float ndcMaxX = Float.NEGATIVE_INFINITY;
+        float ndcMaxY = Float.NEGATIVE_INFINITY;
+        float ndcMinZ = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < 8; i++) {
+            float x = (i & 1) == 0 ? minX : maxX;
+            float y = (i & 2) == 0 ? minY : maxY;
+            float z = (i & 4) == 0 ? minZ : maxZ;
+            float w = viewProjection.m03() * x + viewProjection.m13() * y + viewProjection.m23() * z + viewProjection.m33();
+            if (w <= 1.0E-4F) {
+                return true;
+            }
+
+            float invW = 1.0F / w;
+            float clipX = (viewProjection.m00() * x + viewProjection.m10() * y + viewProjection.m20() * z + viewProjection.m30()) * invW;
+            float clipY = (viewProjection.m01() * x + viewProjection.m11() * y + viewProjection.m21() * z + viewProjection.m31()) * invW;
+            float clipZ = (viewProjection.m02() * x + viewProjection.m12() * y + viewProjection.m22() * z + viewProjection.m32()) * invW;
+            ndcMinX = Math.min(ndcMinX, clipX);
+            ndcMinY = Math.min(ndcMinY, clipY);
+            ndcMaxX = Math.max(ndcMaxX, clipX);
+            ndcMaxY = Math.max(ndcMaxY, clipY);
+            ndcMinZ = Math.min(ndcMinZ, clipZ);
+        }
+
+        if (ndcMaxX < -1.0F || ndcMinX > 1.0F || ndcMaxY < -1.0F || ndcMinY > 1.0F) {
+            return true;
+        }
+
+        int x0 = this.toPixel(ndcMinX, this.screenWidth);
+        int y0 = this.toPixel(ndcMinY, this.screenHeight);
+        int x1 = this.toPixel(ndcMaxX, this.screenWidth);
+        int y1 = this.toPixel(ndcMaxY, this.screenHeight);
+
+        // Find the first level where the box only covers a few texels
+        int level = 0;
+        int shift = this.baseShift;
+        while (level < this.levels.length - 1 && (((x1 >> shift) - (x0 >> shift)) > MAX_TEST_SPAN || ((y1 >> shift) - (y0 >> shift)) > MAX_TEST_SPAN)) {
+            level++;
+            shift++;
+        }
+
+        float depth = this.getMaxDepth(level, x0 >> shift, y0 >> shift, x1 >> shift, y1 >> shift);
+        return ndcMinZ * 0.5F + 0.5F <= depth;
+    }
+
+    private int toPixel(float ndc, int size) {
+        return Math.max(0, Math.min(size - 1, (int) Math.floor((ndc * 0.5F + 0.5F) * size)));
+    }
+
+    /**
+     * Finds the farthest depth in a rectangle of texels. Coordinates past the last texel are clamped to it.
+     *
+     * @param level The level to sample
+     * @param x0    The first texel x
+     * @param y0    The first texel y
+     * @param x1    The last texel x, inclusive
+     * @param y1    The last texel y, inclusive
+     * @return The farthest depth in the area
+     */
+    public float getMaxDepth(int level, int x0, int y0, int x1, int y1) {
+        int width = this.widths[level];
+        int height = this.heights[level];
+        float[] data = this.levels[level];
+        x0 = Math.min(x0, width - 1);
+        y0 = Math.min(y0, height - 1);
+        x1 = Math.min(x1, width - 1);
+        y1 = Math.min(y1, height - 1);
+
+        float depth = 0.0F;
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                depth = Math.max(depth, data[x + y * width]);
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * @return The number of levels in this pyramid
+     */
+    public int getLevelCount() {
+        return this.levels.length;
+    }
+
+    /**
+     * @param level The level to get the size of
+     * @return The width of that level in texels
+     */
+    public int getWidth(int level) {
+        return this.widths[level];
+    }
+
+    /**
+     * @param level The level to get the size of
+     * @return The height of that level in texels
+     */
+    public int getHeight(int level) {
+        return this.heights[level];
+    }
+
+    /**
+     * @return Whether this pyramid has any depth data
+     */
+    public boolean isEmpty() {
+        return this.levels.length == 0;
+    }
+
+    /**
+     * Removes all depth data.
+     */
+    public void clear() {
+        this.levels = new float[0][];
+        this.widths = new int[0];
+        this.heights = new int[0];
+    }
+}
@@ -272,6 +272,13 @@ public interface PostPipeline extends MutableUniformAccess, NativeResource {
          */
         void setFramebuffer(ResourceLocation name, AdvancedFbo framebuffer);
 
+        /**
+         * Removes the framebuffer set to a name, so it can no longer be accessed by later stages.
+         *
+         * @param name The name of the framebuffer to remove
+         */
+        void removeFramebuffer(ResourceLocation name);
+
         /**
          * Applies each sampler to the specified shader.
          *
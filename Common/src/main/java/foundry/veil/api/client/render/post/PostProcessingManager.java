@@ -12,11 +12,24 @@ import foundry.veil.Veil;
 import foundry.veil.VeilClient;
 import foundry.veil.api.CodecReloadListener;
 import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.VeilRenderer;
 import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
 import foundry.veil.api.client.render.framebuffer.VeilFramebuffers;
+import foundry.veil.api.client.render.post.stage.BlitPostStage;
 import foundry.veil.api.client.render.post.stage.CompositePostPipeline;
+import foundry.veil.api.client.render.post.stage.CopyPostStage;
+import foundry.veil.api.client.render.post.stage.DepthFunctionPostStage;
+import foundry.veil.api.client.render.post.stage.FramebufferPostStage;
+import foundry.veil.api.client.render.post.stage.MaskPostStage;
+import foundry.veil.api.client.render.shader.ShaderManager;
 import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import foundry.veil.api.client.render.shader.texture.FramebufferSource;
+import foundry.veil.api.client.render.shader.texture.ShaderTextureSource;
+import foundry.veil.impl.client.render.pipeline.FusedBlitPostStage;
+import foundry.veil.impl.client.render.pipeline.PostExecutionPlan;
 import foundry.veil.impl.client.render.pipeline.PostPipelineContext;
+import foundry.veil.impl.client.render.pipeline.PostStageFuser;
+import foundry.veil.impl.client.render.pipeline.PostTargetUsage;
 import foundry.veil.platform.VeilClientPlatform;
 import net.minecraft.client.Minecraft;
 import net.minecraft.resources.FileToIdConverter;
@@ -32,9 +45,9 @@ import org.lwjgl.system.NativeResource;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.*;
+import java.util.function.Consumer;
 
-import static org.lwjgl.opengl.GL11C.GL_ALWAYS;
-import static org.lwjgl.opengl.GL11C.GL_LEQUAL;
+import static org.lwjgl.opengl.GL11C.*;
 
 /**
  * <p>Manages all post pipelines.</p>
@@ -45,12 +58,20 @@ import static org.lwjgl.opengl.GL11C.GL_LEQUAL;
  */
 public class PostProcessingManager extends CodecReloadListener<CompositePostPipeline> implements NativeResource {
 
-    private static final Comparator<ProfileEntry> PIPELINE_SORTER = Comparator.comparingInt(ProfileEntry::getPriority).reversed();
-
     private final PostPipelineContext context;
     private final List<ProfileEntry> activePipelines;
     private final List<ProfileEntry> activePipelinesView;
+    private final Map<ResourceLocation, ProfileEntry> activeIndex;
     private final Map<ResourceLocation, PostPipeline> pipelines;
+    private final Map<ResourceLocation, CompositePostPipeline> loadedPipelines;
+    private final List<ShaderProgram> generatedShaders;
+    private final Set<ResourceLocation> changedShaders;
+    private final Set<ResourceLocation> editedShaders;
+    private PostExecutionPlan<PostPipeline> plan;
+    private PostExecutionPlan<PostPipeline> postAccessPlan;
+    private int postAccessShaderGeneration;
+    private int postAccessFramebufferGeneration;
+    private int postAccess;
 
     /**
      * Creates a new instance of the post-processing manager.
@@ -58,9 +79,15 @@ public class PostProcessingManager extends CodecReloadListener<CompositePostPipe
     public PostProcessingManager() {
         super(CompositePostPipeline.CODEC, FileToIdConverter.json("pinwheel/post"));
         this.context = new PostPipelineContext();
-        this.activePipelines = new LinkedList<>();
+        this.activePipelines = new ArrayList<>();
         this.activePipelinesView = Collections.unmodifiableList(this.activePipelines);
+        this.activeIndex = new HashMap<>();
         this.pipelines = new HashMap<>();
+        this.loadedPipelines = new HashMap<>();
+        this.generatedShaders = new ArrayList<>();
+        this.changedShaders = new HashSet<>();
+        this.editedShaders = new HashSet<>();
+        this.plan = null;
     }
 
     /**
@@ -70,7 +97,7 @@ public class PostProcessingManager extends CodecReloadListener<CompositePostPipe
      * @return Whether that pipeline is active
      */
     public boolean isActive(ResourceLocation pipeline) {
-        return this.activePipelines.stream().anyMatch(entry -> entry.pipeline.equals(pipeline));
+        return this.activeIndex.containsKey(pipeline);
     }
 
     /**
@@ -93,11 +120,18 @@ public class PostProcessingManager extends CodecReloadListener<CompositePostPipe
      * @return Whether the pipeline was added or had a priority change
      */
     public boolean add(int priority, ResourceLocation pipeline) {
-        if (this.activePipelines.stream().anyMatch(entry -> entry.priority == priority && entry.pipeline.equals(pipeline))) {
+        ProfileEntry entry = this.activeIndex.get(pipeline);
+        if (entry != null && entry.priority == priority) {
             return false;
         }
-        this.activePipelines.removeIf(entry -> entry.pipeline.equals(pipeline));
-        this.activePipelines.add(new ProfileEntry(pipeline, priority));
+        if (entry != null) {
+            this.activePipelines.remove(entry);
+        }
+
+        entry = new ProfileEntry(pipeline, priority);
+        this.activePipelines.add(entry);
+        this.activeIndex.put(pipeline, entry);
+        this.plan = null;
         return true;
     }
 
@@ -108,7 +142,14 @@ public class PostProcessingManager extends CodecReloadListener<CompositePostPipe
      * @return If the pipeline was previously active
      */
     public boolean remove(ResourceLocation pipeline) {
-        return this.activePipelines.removeIf(entry -> entry.pipeline.equals(pipeline));
+        ProfileEntry entry = this.activeIndex.remove(pipeline);
+        if (entry == null) {
+            return false;
+        }
+
+        this.activePipelines.remove(entry);
+        this.plan = null;
+        return true;
     }
 
     /**
@@ -141,36 +182,112 @@ public class PostProcessingManager extends CodecReloadListener<CompositePostPipe
         RenderSystem.depthMask(false);
     }
 
+    /**
+     * Marks the specified shader as compiled again, so pipelines merged from it are merged again before they run next.
+     *
+     * @param shader The id of the shader that changed
+     */
+    @ApiStatus.Internal
+    public void markShaderCompiled(ResourceLocation shader) {
+        // Compiling from source replaces any changes made in the shader editor
+        this.editedShaders.remove(shader);
+        this.changedShaders.add(shader);
+    }
+
+    /**
+     * Marks the specified shader as changed outside the shader manager. Stages using it are no longer merged until
+     * it is compiled again, so the changes are visible.
+     *
+     * @param shader The id of the shader that changed
+     */
+    @ApiStatus.Internal
+    public void markShaderEdited(ResourceLocation shader) {
+        this.editedShaders.add(shader);
+        this.changedShaders.add(shader);
+    }
+
+    private void fuseChangedPipelines() {
+        if (this.changedShaders.isEmpty()) {
+            return;
+        }
+
+        ResourceManager resourceManager = Minecraft.getInstance().getResourceManager();
+        boolean changed = false;
+        for (Map.Entry<ResourceLocation, PostPipeline> entry : this.pipelines.entrySet()) {
+            CompositePostPipeline loaded = this.loadedPipelines.get(entry.getKey());
+            if (loaded != null && this.usesChangedShader(entry.getValue())) {
+                entry.getValue().free();
+                entry.setValue(PostStageFuser.fuse(entry.getKey(), loaded, resourceManager, this.editedShaders));
+                changed = true;
+            }
+        }
+        this.changedShaders.clear();
+
+        if (changed) {
+            this.generatedShaders.clear();
+            this.pipelines.values().forEach(this::collectGeneratedShaders);
+            this.plan = null;
+        }
+    }
+
+    private boolean usesChangedShader(PostPipeline pipeline) {
+        if (pipeline instanceof CompositePostPipeline composite) {
+            for (PostPipeline stage : composite.getStages()) {
+                if (this.usesChangedShader(stage)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (pipeline instanceof FusedBlitPostStage fused) {
+            for (ResourceLocation source : fused.getSources()) {
+                if (this.changedShaders.contains(source)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        // Stages that weren't merged might be able to merge now
+        return pipeline instanceof BlitPostStage blit && this.changedShaders.contains(blit.getShaderId());
+    }
+
     @ApiStatus.Internal
     public void runPipeline() {
         if (this.activePipelines.isEmpty()) {
             return;
         }
 
+        this.fuseChangedPipelines();
+
+        // The plan only changes when pipelines are added, removed, reloaded, or change priority
+        PostExecutionPlan<PostPipeline> plan = this.plan;
+        if (plan == null || !plan.isValid(this.activePipelines)) {
+            plan = this.plan = PostExecutionPlan.compile(this.activePipelines, this.pipelines::get);
+        }
+
+        VeilClientPlatform platform = VeilClient.clientPlatform();
         AdvancedFbo postFramebuffer = VeilRenderSystem.renderer().getFramebufferManager().getFramebuffer(VeilFramebuffers.POST);
-        if (postFramebuffer != null) {
+        // Event listeners can read and write the post framebuffer between pipelines
+        int access = platform.hasVeilPostProcessingListeners() ? PostTargetUsage.UNKNOWN : this.getPostAccess(plan);
+        if (postFramebuffer != null && PostTargetUsage.needsCopyIn(access)) {
             AdvancedFbo.getMainFramebuffer().resolveToAdvancedFbo(postFramebuffer);
         }
 
-        VeilClientPlatform platform = VeilClient.clientPlatform();
         this.context.begin();
         this.setup();
         int activeTexture = GlStateManager._getActiveTexture();
 
-        this.activePipelines.sort(PIPELINE_SORTER);
-        for (ProfileEntry entry : this.activePipelines) {
-            ResourceLocation id = entry.getPipeline();
-            PostPipeline pipeline = this.pipelines.get(id);
-            if (pipeline != null) {
-                platform.preVeilPostProcessing(id, pipeline, this.context);
-                try {
-                    pipeline.apply(this.context);
-                    this.clearPipeline();
-                } catch (Exception e) {
-                    Veil.LOGGER.error("Error running pipeline {}", id, e);
-                }
-                platform.postVeilPostProcessing(id, pipeline, this.context);
+        for (int i = 0; i < plan.size(); i++) {
+            ResourceLocation id = plan.getId(i);
+            PostPipeline pipeline = plan.getPipeline(i);
+            platform.preVeilPostProcessing(id, pipeline, this.context);
+            try {
+                pipeline.apply(this.context);
+                this.clearPipeline();
+            } catch (Exception e) {
+                Veil.LOGGER.error("Error running pipeline {}", id, e);
             }
+            platform.postVeilPostProcessing(id, pipeline, this.context);
         }
 
         RenderSystem.activeTexture(activeTexture);
@@ -178,7 +295,7 @@ public class PostProcessingManager extends CodecReloadListener<CompositePostPipe
         this.context.end();
 
         if (postFramebuffer != null) {
-            postFramebuffer.resolveToFramebuffer(Minecraft.getInstance().getMainRenderTarget());
+            this.resolvePost(postFramebuffer, access);
         }
     }
 
@@ -199,7 +316,8 @@ public class PostProcessingManager extends CodecReloadListener<CompositePostPipe
      */
     public void runPipeline(PostPipeline pipeline, boolean resolvePost) {
         AdvancedFbo postFramebuffer = resolvePost ? VeilRenderSystem.renderer().getFramebufferManager().getFramebuffer(VeilFramebuffers.POST) : null;
-        if (postFramebuffer != null) {
+        int access = postFramebuffer != null ? this.getPostAccess(pipeline, Collections.emptySet()) : PostTargetUsage.UNKNOWN;
+        if (postFramebuffer != null && PostTargetUsage.needsCopyIn(access)) {
             AdvancedFbo.getMainFramebuffer().resolveToAdvancedFbo(postFramebuffer);
         }
 
@@ -219,8 +337,96 @@ public class PostProcessingManager extends CodecReloadListener<CompositePostPipe
         this.context.end();
 
         if (postFramebuffer != null) {
-            postFramebuffer.resolveToFramebuffer(Minecraft.getInstance().getMainRenderTarget());
+            this.resolvePost(postFramebuffer, access);
+        }
+    }
+
+    private void resolvePost(AdvancedFbo postFramebuffer, int access) {
+        if (PostTargetUsage.needsCopyOut(access)) {
+            // Most stages can't write depth, so it only has to go back if a stage could have changed it
+            int mask = PostTargetUsage.needsDepthCopyOut(access) ? GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT : GL_COLOR_BUFFER_BIT;
+            postFramebuffer.resolveToFramebuffer(Minecraft.getInstance().getMainRenderTarget(), mask, GL_NEAREST);
+        }
+        // Everything is copied in again before the post framebuffer is used next
+        VeilRenderSystem.renderer().getFramebufferCopier().invalidate(postFramebuffer, GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+    }
+
+    private int getPostAccess(PostExecutionPlan<PostPipeline> plan) {
+        // Blit shaders can sample the post framebuffer and missing framebuffers fall back to it, so reloads can change the result
+        VeilRenderer renderer = VeilRenderSystem.renderer();
+        int shaderGeneration = renderer.getShaderManager().getGeneration();
+        int framebufferGeneration = renderer.getFramebufferManager().getGeneration();
+        if (this.postAccessPlan != plan || this.postAccessShaderGeneration != shaderGeneration || this.postAccessFramebufferGeneration != framebufferGeneration) {
+            this.postAccessPlan = plan;
+            this.postAccessShaderGeneration = shaderGeneration;
+            this.postAccessFramebufferGeneration = framebufferGeneration;
+
+            int access = PostTargetUsage.NONE;
+            for (int i = 0; i < plan.size(); i++) {
+                access = PostTargetUsage.then(access, this.getPostAccess(plan.getPipeline(i), Collections.emptySet()));
+            }
+            this.postAccess = access;
         }
+        return this.postAccess;
+    }
+
+    private int getPostAccess(PostPipeline pipeline, Set<ResourceLocation> localFramebuffers) {
+        if (pipeline instanceof CompositePostPipeline composite) {
+            Set<ResourceLocation> framebuffers = localFramebuffers;
+            if (!composite.getFramebuffers().isEmpty()) {
+                framebuffers = new HashSet<>(localFramebuffers);
+                framebuffers.addAll(composite.getFramebuffers().keySet());
+            }
+
+            int access = readsPost(composite.getTextures().values()) ? PostTargetUsage.READ : PostTargetUsage.NONE;
+            for (PostPipeline stage : composite.getStages()) {
+                access = PostTargetUsage.then(access, this.getPostAccess(stage, framebuffers));
+            }
+            return access;
+        }
+
+        if (pipeline instanceof FramebufferPostStage stage) {
+            boolean read = VeilFramebuffers.POST.equals(stage.getIn());
+            if (stage instanceof BlitPostStage blit) {
+                ShaderProgram shader = blit.getShader();
+                read |= shader != null && readsPost(shader.getDefinition().textures().values());
+                // Scaled stages use the depth of the post framebuffer for upsampling
+                read |= blit.isCheckerboard() || blit.getResolution() != BlitPostStage.FULL_RESOLUTION;
+            }
+
+            int access = read ? PostTargetUsage.READ : PostTargetUsage.NONE;
+            ResourceLocation out = stage.getOut();
+            if (VeilFramebuffers.POST.equals(out)) {
+                int write = PostTargetUsage.write(stage.clearOut());
+                if (stage instanceof CopyPostStage copy && copy.copyDepth()) {
+                    write |= PostTargetUsage.DEPTH;
+                }
+                return PostTargetUsage.then(access, write);
+            }
+            if (!localFramebuffers.contains(out) && !VeilRenderSystem.renderer().getFramebufferManager().getFramebuffers().containsKey(out)) {
+                // Unknown framebuffers might be defined by another pipeline, so this can't be treated as replacing everything
+                return PostTargetUsage.then(access, PostTargetUsage.write(false));
+            }
+            return access;
+        }
+
+        if (pipeline instanceof DepthFunctionPostStage) {
+            return PostTargetUsage.NONE;
+        }
+        if (pipeline instanceof MaskPostStage mask) {
+            // Clears and draws after this only replace some channels, and any of them could write depth
+            return mask.depth() ? PostTargetUsage.READ | PostTargetUsage.DEPTH : PostTargetUsage.READ;
+        }
+        return PostTargetUsage.UNKNOWN;
+    }
+
+    private static boolean readsPost(Collection<ShaderTextureSource> textures) {
+        for (ShaderTextureSource texture : textures) {
+            if (texture instanceof FramebufferSource source && VeilFramebuffers.POST.equals(source.name())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private CompositePostPipeline loadPipeline(Resource resource) throws IOException {
@@ -291,14 +497,46 @@ public class PostProcessingManager extends CodecReloadListener<CompositePostPipe
     protected void apply(@NotNull Map<ResourceLocation, CompositePostPipeline> data, @NotNull ResourceManager resourceManager, @NotNull ProfilerFiller profilerFiller) {
         this.pipelines.values().forEach(PostPipeline::free);
         this.pipelines.clear();
-        this.pipelines.putAll(data);
+        this.loadedPipelines.clear();
+        this.loadedPipelines.putAll(data);
+        this.changedShaders.clear();
+        // Merging stages compiles shaders, so it has to happen here on the render thread
+        data.forEach((id, pipeline) -> this.pipelines.put(id, PostStageFuser.fuse(id, pipeline, resourceManager, this.editedShaders)));
+        this.generatedShaders.clear();
+        this.pipelines.values().forEach(this::collectGeneratedShaders);
+        this.plan = null;
         Veil.LOGGER.info("Loaded {} post pipelines", this.pipelines.size());
     }
 
+    private void collectGeneratedShaders(PostPipeline pipeline) {
+        if (pipeline instanceof CompositePostPipeline composite) {
+            for (PostPipeline stage : composite.getStages()) {
+                this.collectGeneratedShaders(stage);
+            }
+        } else if (pipeline instanceof FusedBlitPostStage fused) {
+            this.generatedShaders.add(fused.getShader());
+        }
+    }
+
+    /**
+     * Sets a global shader value in all shaders generated for post pipelines.
+     * These shaders aren't part of any {@link ShaderManager}, so they have to be updated separately.
+     *
+     * @param setter The setter for shaders
+     */
+    @ApiStatus.Internal
+    public void setGlobal(Consumer<ShaderProgram> setter) {
+        this.generatedShaders.forEach(setter);
+    }
+
     @Override
     public void free() {
         this.pipelines.values().forEach(PostPipeline::free);
         this.pipelines.clear();
+        this.loadedPipelines.clear();
+        this.generatedShaders.clear();
+        this.changedShaders.clear();
+        this.plan = null;
         this.context.free();
     }
 
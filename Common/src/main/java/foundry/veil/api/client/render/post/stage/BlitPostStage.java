@@ -5,9 +5,14 @@ import com.mojang.serialization.codecs.RecordCodecBuilder;
 import foundry.veil.Veil;
 import foundry.veil.api.client.registry.PostPipelineStageRegistry;
 import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
 import foundry.veil.api.client.render.framebuffer.FramebufferManager;
 import foundry.veil.api.client.render.post.PostPipeline;
+import foundry.veil.api.client.render.shader.ShaderManager;
 import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import foundry.veil.api.molang.MolangExpressionCodec;
+import foundry.veil.impl.client.render.pipeline.ScaledPostRenderer;
+import gg.moonflower.molangcompiler.api.MolangExpression;
 import net.minecraft.resources.ResourceLocation;
 import org.jetbrains.annotations.Nullable;
 import org.joml.*;
@@ -16,19 +21,29 @@ import java.util.Optional;
 
 /**
  * A basic stage that draws a quad to the output using a specified shader.
+ * <p>Expensive stages can set <code>resolution</code> to draw at a fraction of the output size and be upsampled
+ * afterward, or <code>checkerboard</code> to only shade half the pixels every frame.</p>
  *
  * @author Ocelot
  */
 public class BlitPostStage extends FramebufferPostStage {
 
+    public static final MolangExpression FULL_RESOLUTION = MolangExpression.of(1.0F);
     public static final Codec<BlitPostStage> CODEC = RecordCodecBuilder.create(instance -> instance.group(
             ResourceLocation.CODEC.fieldOf("shader").forGetter(BlitPostStage::getShaderId),
             FramebufferManager.FRAMEBUFFER_CODEC.optionalFieldOf("in").forGetter(stage -> Optional.ofNullable(stage.getIn())),
             FramebufferManager.FRAMEBUFFER_CODEC.fieldOf("out").forGetter(BlitPostStage::getOut),
-            Codec.BOOL.optionalFieldOf("clear", true).forGetter(BlitPostStage::clearOut)
-    ).apply(instance, (shader, in, out, clear) -> new BlitPostStage(shader, in.orElse(null), out, clear)));
+            Codec.BOOL.optionalFieldOf("clear", true).forGetter(BlitPostStage::clearOut),
+            MolangExpressionCodec.CODEC.optionalFieldOf("resolution", FULL_RESOLUTION).forGetter(BlitPostStage::getResolution),
+            Codec.BOOL.optionalFieldOf("checkerboard", false).forGetter(BlitPostStage::isCheckerboard)
+    ).apply(instance, (shader, in, out, clear, resolution, checkerboard) -> new BlitPostStage(shader, in.orElse(null), out, clear, resolution, checkerboard)));
 
     private final ResourceLocation shader;
+    private final MolangExpression resolution;
+    private final boolean checkerboard;
+    private final ScaledPostRenderer scaledRenderer;
+    private ShaderProgram cachedShader;
+    private int shaderGeneration;
     private boolean printedError;
 
     /**
@@ -41,13 +56,33 @@ public class BlitPostStage extends FramebufferPostStage {
      * @param clear  Whether to clear the output before drawing
      */
     public BlitPostStage(ResourceLocation shader, @Nullable ResourceLocation in, ResourceLocation out, boolean clear) {
+        this(shader, in, out, clear, FULL_RESOLUTION, false);
+    }
+
+    /**
+     * Creates a new blit post stage that applies the specified shader at a different resolution.
+     *
+     * @param shader       The shader to apply
+     * @param in           The framebuffer to use as <code>DiffuseSampler0</code>-<code>DiffuseSampler7</code>
+     *                     and <code>DiffuseDepthSampler</code>
+     * @param out          The framebuffer to write into
+     * @param clear        Whether to clear the output before drawing
+     * @param resolution   The scale to draw at compared to the output. <code>q.screen_width</code> and <code>q.screen_height</code> are the size of the output
+     * @param checkerboard Whether to only shade half the pixels every frame and reconstruct the rest from the previous frame
+     */
+    public BlitPostStage(ResourceLocation shader, @Nullable ResourceLocation in, ResourceLocation out, boolean clear, MolangExpression resolution, boolean checkerboard) {
         super(in, out, clear);
         this.shader = shader;
+        this.resolution = resolution;
+        this.checkerboard = checkerboard;
+        this.scaledRenderer = checkerboard || resolution != FULL_RESOLUTION ? new ScaledPostRenderer(resolution, checkerboard) : null;
+        this.cachedShader = null;
+        this.shaderGeneration = -1;
     }
 
     @Override
     public void apply(Context context) {
-        ShaderProgram shader = VeilRenderSystem.renderer().getShaderManager().getShader(this.shader);
+        ShaderProgram shader = this.getShader();
         if (shader == null) {
             if (!this.printedError) {
                 this.printedError = true;
@@ -56,15 +91,33 @@ public class BlitPostStage extends FramebufferPostStage {
             return;
         }
 
+        AdvancedFbo out = context.getFramebufferOrDraw(this.getOut());
+        if (this.scaledRenderer != null) {
+            AdvancedFbo in = this.getIn() != null ? context.getFramebuffer(this.getIn()) : null;
+            this.scaledRenderer.render(context, in, out, this.clearOut(), (target, clear) -> this.draw(context, shader, target, clear));
+            return;
+        }
+
+        this.draw(context, shader, out, this.clearOut());
+    }
+
+    private void draw(Context context, ShaderProgram shader, AdvancedFbo out, boolean clear) {
         shader.bind();
         shader.applyRenderSystem();
         shader.addRenderSystemTextures();
         context.applySamplers(shader);
-        this.setupFramebuffer(context, shader);
+        this.setupFramebuffer(context, shader, out, clear);
         shader.applyShaderSamplers(context, 0);
         context.drawScreenQuad();
     }
 
+    @Override
+    public void free() {
+        if (this.scaledRenderer != null) {
+            this.scaledRenderer.free();
+        }
+    }
+
     @Override
     public PostPipelineStageRegistry.PipelineType<? extends PostPipeline> getType() {
         return PostPipelineStageRegistry.BLIT.get();
@@ -276,7 +329,14 @@ public class BlitPostStage extends FramebufferPostStage {
      * @return The shader this stage should use
      */
     public @Nullable ShaderProgram getShader() {
-        return VeilRenderSystem.renderer().getShaderManager().getShader(this.shader);
+        // Programs are only replaced when shaders are reloaded, so the lookup is only done once per reload
+        ShaderManager shaderManager = VeilRenderSystem.renderer().getShaderManager();
+        int generation = shaderManager.getGeneration();
+        if (this.shaderGeneration != generation) {
+            this.shaderGeneration = generation;
+            this.cachedShader = shaderManager.getShader(this.shader);
+        }
+        return this.cachedShader;
     }
 
     /**
@@ -285,4 +345,18 @@ public class BlitPostStage extends FramebufferPostStage {
     public ResourceLocation getShaderId() {
         return this.shader;
     }
+
+    /**
+     * @return The scale this stage draws at compared to the output
+     */
+    public MolangExpression getResolution() {
+        return this.resolution;
+    }
+
+    /**
+     * @return Whether this stage only shades half the pixels every frame
+     */
+    public boolean isCheckerboard() {
+        return this.checkerboard;
+    }
 }
@@ -3,21 +3,32 @@ package foundry.veil.api.client.render.post.stage;
 import com.mojang.serialization.Codec;
 import com.mojang.serialization.codecs.RecordCodecBuilder;
 import foundry.veil.api.client.registry.PostPipelineStageRegistry;
+import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
 import foundry.veil.api.client.render.framebuffer.FramebufferDefinition;
 import foundry.veil.api.client.render.post.PostPipeline;
+import foundry.veil.api.client.render.shader.program.ProgramDefinition;
+import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import foundry.veil.api.client.render.shader.texture.FramebufferSource;
 import foundry.veil.api.client.render.shader.texture.ShaderTextureSource;
+import foundry.veil.impl.client.render.framebuffer.FramebufferAliasSolver;
+import foundry.veil.impl.client.render.framebuffer.FramebufferPool;
 import gg.moonflower.molangcompiler.api.MolangRuntime;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
 import org.joml.*;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 /**
  * A pipeline that runs all child pipelines in order.
+ * <p>Framebuffers defined by the pipeline are allocated from a shared pool. Framebuffers that are completely
+ * overwritten by the first stage that uses them and don't set <code>autoClear</code> to <code>false</code> only
+ * exist while they are used, so they can share textures with each other and with other pipelines. Those framebuffers
+ * can't be accessed by name after the pipeline finishes.</p>
  */
 public class CompositePostPipeline implements PostPipeline {
 
@@ -39,18 +50,29 @@ public class CompositePostPipeline implements PostPipeline {
     private final PostPipeline[] stages;
     private final Map<String, ShaderTextureSource> textures;
     private final Map<ResourceLocation, FramebufferDefinition> framebufferDefinitions;
-    private final Map<ResourceLocation, AdvancedFbo> framebuffers;
+    private final ResourceLocation[] framebufferNames;
     private final int priority;
     private final boolean replace;
+    private final AdvancedFbo[] previousFramebuffers;
+    private final ShaderProgram[] stageShaders;
+    private final int[] stageShaderGenerations;
 
     private int screenWidth = -1;
     private int screenHeight = -1;
+    private MolangRuntime runtime;
+    private FramebufferAliasSolver.Result aliasing;
+    private FramebufferPool.Key[] slotKeys;
+    private FramebufferDefinition[] slotDefinitions;
+    private AdvancedFbo[] slotFramebuffers;
 
     private CompositePostPipeline(PostPipeline[] stages, Map<String, ShaderTextureSource> textures, Map<ResourceLocation, FramebufferDefinition> framebufferDefinitions, int priority, boolean replace) {
         this.stages = stages;
         this.textures = textures;
         this.framebufferDefinitions = framebufferDefinitions;
-        this.framebuffers = new HashMap<>();
+        this.framebufferNames = framebufferDefinitions.keySet().toArray(ResourceLocation[]::new);
+        this.previousFramebuffers = new AdvancedFbo[this.framebufferNames.length];
+        this.stageShaders = new ShaderProgram[stages.length];
+        this.stageShaderGenerations = new int[stages.length];
         this.priority = priority;
         this.replace = replace;
     }
@@ -66,27 +88,205 @@ public class CompositePostPipeline implements PostPipeline {
         this(stages, textures, framebufferDefinitions, 1000, false);
     }
 
+    /**
+     * Creates a copy of this pipeline that runs different stages.
+     *
+     * @param stages                 The pipelines to run in order
+     * @param framebufferDefinitions The definitions of framebuffers to create for use in the stages
+     * @return A new pipeline with the same textures, priority, and replace flag
+     */
+    @ApiStatus.Internal
+    public CompositePostPipeline withStages(PostPipeline[] stages, Map<ResourceLocation, FramebufferDefinition> framebufferDefinitions) {
+        return new CompositePostPipeline(stages, this.textures, framebufferDefinitions, this.priority, this.replace);
+    }
+
     @Override
     public void apply(Context context) {
-        AdvancedFbo main = context.getDrawFramebuffer();
-        if (this.screenWidth != main.getWidth() || this.screenHeight != main.getHeight()) {
-            this.screenWidth = main.getWidth();
-            this.screenHeight = main.getHeight();
-            this.framebuffers.values().forEach(AdvancedFbo::free);
-            this.framebuffers.clear();
+        FramebufferPool pool = VeilRenderSystem.renderer().getFramebufferPool();
+        if (this.framebufferNames.length > 0) {
+            AdvancedFbo main = context.getDrawFramebuffer();
+            // Blit shaders can sample framebuffers, so the lifetimes can change when shaders are recompiled
+            boolean shadersChanged = this.updateStageShaders();
+            if (this.screenWidth != main.getWidth() || this.screenHeight != main.getHeight() || shadersChanged) {
+                this.screenWidth = main.getWidth();
+                this.screenHeight = main.getHeight();
+                this.allocateFramebuffers(pool);
+            }
+
+            boolean[] shared = this.aliasing.shared();
+            for (int i = 0; i < shared.length; i++) {
+                if (shared[i]) {
+                    this.slotFramebuffers[i] = pool.acquire(this.slotKeys[i], this.slotDefinitions[i], this.runtime);
+                }
+            }
 
-            MolangRuntime runtime = MolangRuntime.runtime()
-                    .setQuery("screen_width", this.screenWidth)
-                    .setQuery("screen_height", this.screenHeight)
-                    .create();
-            this.framebufferDefinitions.forEach((name, definition) -> this.framebuffers.put(name, definition.createBuilder(runtime).build(true)));
+            int[] slots = this.aliasing.slots();
+            for (int i = 0; i < this.framebufferNames.length; i++) {
+                if (shared[slots[i]]) {
+                    this.previousFramebuffers[i] = context.getFramebuffer(this.framebufferNames[i]);
+                }
+                context.setFramebuffer(this.framebufferNames[i], this.slotFramebuffers[slots[i]]);
+            }
         }
 
-        this.framebuffers.forEach(context::setFramebuffer);
         this.textures.forEach((name, texture) -> context.setSampler(name, texture.getId(context)));
-        for (PostPipeline pipeline : this.stages) {
-            pipeline.apply(context);
+        try {
+            for (PostPipeline pipeline : this.stages) {
+                pipeline.apply(context);
+            }
+        } finally {
+            // Shared framebuffers are only needed while this pipeline runs, so the next pipeline can use them
+            if (this.aliasing != null) {
+                boolean[] shared = this.aliasing.shared();
+                int[] slots = this.aliasing.slots();
+                for (int i = 0; i < this.framebufferNames.length; i++) {
+                    if (shared[slots[i]]) {
+                        // Anything outside this pipeline would see the framebuffer after another pipeline reuses it
+                        AdvancedFbo previous = this.previousFramebuffers[i];
+                        if (previous != null) {
+                            context.setFramebuffer(this.framebufferNames[i], previous);
+                            this.previousFramebuffers[i] = null;
+                        } else {
+                            context.removeFramebuffer(this.framebufferNames[i]);
+                        }
+                    }
+                }
+                for (int i = 0; i < shared.length; i++) {
+                    if (shared[i] && this.slotFramebuffers[i] != null) {
+                        pool.release(this.slotFramebuffers[i]);
+                        this.slotFramebuffers[i] = null;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean updateStageShaders() {
+        boolean changed = false;
+        for (int i = 0; i < this.stages.length; i++) {
+            if (this.stages[i] instanceof BlitPostStage blit) {
+                // The uniform generation changes every time a program is recompiled or switches variant
+                ShaderProgram shader = blit.getShader();
+                int generation = shader != null ? shader.getUniformGeneration() : 0;
+                if (this.stageShaders[i] != shader || this.stageShaderGenerations[i] != generation) {
+                    this.stageShaders[i] = shader;
+                    this.stageShaderGenerations[i] = generation;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private void allocateFramebuffers(FramebufferPool pool) {
+        this.releaseFramebuffers(pool);
+        this.runtime = MolangRuntime.runtime()
+                .setQuery("screen_width", this.screenWidth)
+                .setQuery("screen_height", this.screenHeight)
+                .create();
+
+        FramebufferPool.Key[] keys = new FramebufferPool.Key[this.framebufferNames.length];
+        List<FramebufferAliasSolver.Resource> resources = this.getFramebufferLifetimes(keys);
+        this.aliasing = FramebufferAliasSolver.solve(resources);
+
+        int slotCount = this.aliasing.slotCount();
+        int[] slots = this.aliasing.slots();
+        this.slotKeys = new FramebufferPool.Key[slotCount];
+        this.slotDefinitions = new FramebufferDefinition[slotCount];
+        this.slotFramebuffers = new AdvancedFbo[slotCount];
+        for (int i = 0; i < slots.length; i++) {
+            this.slotKeys[slots[i]] = keys[i];
+            this.slotDefinitions[slots[i]] = this.framebufferDefinitions.get(this.framebufferNames[i]);
+        }
+
+        boolean[] shared = this.aliasing.shared();
+        for (int i = 0; i < slotCount; i++) {
+            if (!shared[i]) {
+                this.slotFramebuffers[i] = pool.acquire(this.slotKeys[i], this.slotDefinitions[i], this.runtime);
+            }
+        }
+    }
+
+    private void releaseFramebuffers(FramebufferPool pool) {
+        if (this.slotFramebuffers == null) {
+            return;
+        }
+
+        // Released in reverse so acquiring them again in order hands back the same framebuffers
+        for (int i = this.slotFramebuffers.length - 1; i >= 0; i--) {
+            if (this.slotFramebuffers[i] != null) {
+                pool.release(this.slotFramebuffers[i]);
+                this.slotFramebuffers[i] = null;
+            }
+        }
+    }
+
+    private List<FramebufferAliasSolver.Resource> getFramebufferLifetimes(FramebufferPool.Key[] keys) {
+        Object2IntMap<ResourceLocation> indices = new Object2IntOpenHashMap<>(this.framebufferNames.length);
+        indices.defaultReturnValue(-1);
+        for (int i = 0; i < this.framebufferNames.length; i++) {
+            indices.put(this.framebufferNames[i], i);
+        }
+
+        int[] firstUse = new int[this.framebufferNames.length];
+        int[] lastUse = new int[this.framebufferNames.length];
+        boolean[] persistent = new boolean[this.framebufferNames.length];
+        Arrays.fill(firstUse, -1);
+        Arrays.fill(lastUse, -1);
+
+        // Global textures are bound for the entire pipeline
+        for (ShaderTextureSource texture : this.textures.values()) {
+            if (texture instanceof FramebufferSource source) {
+                int index = indices.getInt(source.name());
+                if (index != -1) {
+                    persistent[index] = true;
+                }
+            }
+        }
+
+        boolean unknownStages = false;
+        for (int stage = 0; stage < this.stages.length; stage++) {
+            PostPipeline pipeline = this.stages[stage];
+            if (pipeline instanceof FramebufferPostStage framebufferStage) {
+                useFramebuffer(indices.getInt(framebufferStage.getIn()), stage, false, firstUse, lastUse, persistent);
+                if (framebufferStage instanceof BlitPostStage blit) {
+                    ShaderProgram shader = blit.getShader();
+                    ProgramDefinition definition = shader != null ? shader.getDefinition() : null;
+                    if (definition != null) {
+                        for (ShaderTextureSource texture : definition.textures().values()) {
+                            if (texture instanceof FramebufferSource source) {
+                                useFramebuffer(indices.getInt(source.name()), stage, false, firstUse, lastUse, persistent);
+                            }
+                        }
+                    }
+                }
+                useFramebuffer(indices.getInt(framebufferStage.getOut()), stage, framebufferStage.clearOut(), firstUse, lastUse, persistent);
+            } else if (!(pipeline instanceof MaskPostStage) && !(pipeline instanceof DepthFunctionPostStage)) {
+                // There is no way to know what framebuffers other stages use
+                unknownStages = true;
+            }
+        }
+
+        List<FramebufferAliasSolver.Resource> resources = new ArrayList<>(this.framebufferNames.length);
+        for (int i = 0; i < this.framebufferNames.length; i++) {
+            FramebufferDefinition definition = this.framebufferDefinitions.get(this.framebufferNames[i]);
+            keys[i] = FramebufferPool.Key.of(definition, this.runtime);
+            resources.add(new FramebufferAliasSolver.Resource(keys[i], firstUse[i], lastUse[i], keys[i].size(), unknownStages || persistent[i] || !definition.autoClear()));
         }
+        return resources;
+    }
+
+    private static void useFramebuffer(int index, int stage, boolean overwrite, int[] firstUse, int[] lastUse, boolean[] persistent) {
+        if (index == -1) {
+            return;
+        }
+
+        // Anything that isn't completely overwritten the first time it's used depends on the previous frame
+        if (firstUse[index] == -1) {
+            firstUse[index] = stage;
+            persistent[index] |= !overwrite;
+        }
+        lastUse[index] = stage;
     }
 
     @Override
@@ -94,8 +294,12 @@ public class CompositePostPipeline implements PostPipeline {
         for (PostPipeline pipeline : this.stages) {
             pipeline.free();
         }
-        this.framebuffers.values().forEach(AdvancedFbo::free);
-        this.framebuffers.clear();
+        this.releaseFramebuffers(VeilRenderSystem.renderer().getFramebufferPool());
+        this.slotFramebuffers = null;
+        this.aliasing = null;
+        Arrays.fill(this.stageShaders, null);
+        this.screenWidth = -1;
+        this.screenHeight = -1;
     }
 
     @Override
@@ -315,6 +519,22 @@ public class CompositePostPipeline implements PostPipeline {
         return this.framebufferDefinitions;
     }
 
+    /**
+     * @return The framebuffers defined by this pipeline in the order used by {@link #getAliasing()}
+     */
+    @ApiStatus.Internal
+    public ResourceLocation[] getFramebufferNames() {
+        return this.framebufferNames;
+    }
+
+    /**
+     * @return The allocations framebuffers were assigned the last time they were allocated or <code>null</code> if the pipeline hasn't run yet
+     */
+    @ApiStatus.Internal
+    public @Nullable FramebufferAliasSolver.Result getAliasing() {
+        return this.aliasing;
+    }
+
     /**
      * @return The priority of this pipeline
      */
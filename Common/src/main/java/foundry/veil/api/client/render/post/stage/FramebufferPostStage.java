@@ -39,15 +39,30 @@ public abstract class FramebufferPostStage implements PostPipeline {
      * @param shader  The shader to set input samplers to
      */
     protected void setupFramebuffer(Context context, ShaderProgram shader) {
+        this.setupFramebuffer(context, shader, context.getFramebufferOrDraw(this.out), this.clear);
+    }
+
+    /**
+     * Applies the input framebuffer textures and binds the specified framebuffer instead of the output.
+     *
+     * @param context The context for post-processing
+     * @param shader  The shader to set input samplers to
+     * @param out     The framebuffer to draw into
+     * @param clear   Whether to clear the framebuffer before drawing
+     */
+    protected void setupFramebuffer(Context context, ShaderProgram shader, AdvancedFbo out, boolean clear) {
         AdvancedFbo in = this.in != null ? context.getFramebuffer(this.in) : null;
-        AdvancedFbo out = context.getFramebufferOrDraw(this.out);
 
         if (in != null) {
             shader.setFramebufferSamplers(in);
         }
 
+        if (clear) {
+            // The output is cleared right after, so the automatic clear would be wasted
+            out.skipAutoClear();
+        }
         out.bind(true);
-        if (this.clear) {
+        if (clear) {
             RenderSystem.clearColor(0.0F, 0.0F, 0.0F, 0.0F);
             out.clear();
         }
@@ -28,6 +28,13 @@ public record CompiledShader(@Nullable ResourceLocation sourceFile,
      * Applies the additional attributes of this shader to the specified program.
      */
     public void apply(ShaderProgram program) {
-        this.uniformBindings.forEach(program::setInt);
+        this.uniformBindings.forEach((name, binding) -> {
+            // Uniform blocks declared with a binding are stored under the name of the block
+            if (program.hasUniformBlock(name)) {
+                program.setUniformBlock(name, binding);
+            } else {
+                program.setInt(name, binding);
+            }
+        });
     }
 }
@@ -0,0 +1,36 @@
+package foundry.veil.api.client.render.shader;
+
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shader source code that has been run through all pre-processors, but not compiled yet.
+ *
+ * @param sourceFile             The source file this shader was loaded from or <code>null</code> if the shader has no file
+ * @param type                   The OpenGL type of shader
+ * @param source                 The final GLSL source code
+ * @param uniformBindings        The bindings set by the shader
+ * @param definitionDependencies The shader pre-definitions this shader is dependent on
+ * @param includes               All shader imports included in this file
+ * @author Ocelot
+ */
+public record ProcessedShader(@Nullable ResourceLocation sourceFile,
+                              int type,
+                              String source,
+                              Map<String, Integer> uniformBindings,
+                              Set<String> definitionDependencies,
+                              Set<ResourceLocation> includes) {
+
+    /**
+     * Creates a compiled shader with the same attributes as this shader.
+     *
+     * @param id The OpenGL id of the compiled shader or <code>0</code> if the program was loaded from a binary
+     * @return A new compiled shader
+     */
+    public CompiledShader toCompiled(int id) {
+        return new CompiledShader(this.sourceFile, id, this.uniformBindings, this.definitionDependencies, this.includes);
+    }
+}
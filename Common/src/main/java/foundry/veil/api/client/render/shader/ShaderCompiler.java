@@ -1,5 +1,7 @@
 package foundry.veil.api.client.render.shader;
 
+import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.VeilRenderer;
 import foundry.veil.api.client.render.shader.definition.ShaderPreDefinitions;
 import foundry.veil.api.client.render.shader.processor.ShaderPreProcessor;
 import foundry.veil.api.client.render.shader.program.ProgramDefinition;
@@ -21,9 +23,52 @@ import java.io.IOException;
  */
 public interface ShaderCompiler extends NativeResource {
 
+    /**
+     * Runs the sources read from file through all pre-processors without compiling them.
+     *
+     * @param context The context for processing the shader
+     * @param type    The type of shader to process
+     * @param id      The id of the shader source to process
+     * @return The processed shader source
+     * @throws IOException     If the file could not be found or an error occurs processing the shader source
+     * @throws ShaderException If the shader source is invalid
+     */
+    ProcessedShader preprocess(Context context, int type, ResourceLocation id) throws IOException, ShaderException;
+
+    /**
+     * Runs the specified sources through all pre-processors without compiling them.
+     *
+     * @param context The context for processing the shader
+     * @param type    The type of shader to process
+     * @param source  The source of the shader to process
+     * @return The processed shader source
+     * @throws IOException     If an error occurs processing the shader source
+     * @throws ShaderException If the shader source is invalid
+     */
+    ProcessedShader preprocess(Context context, int type, String source) throws IOException, ShaderException;
+
+    /**
+     * Creates a new shader from already processed sources.
+     * The shader will automatically be deleted at some point in the future.
+     *
+     * @param shader The processed shader to compile
+     * @return A new shader that can be attached to programs
+     * @throws ShaderException If an error occurs compiling the shader
+     */
+    CompiledShader compile(ProcessedShader shader) throws ShaderException;
+
+    /**
+     * Hints that the specified shader will be compiled soon. Compilers may use this to start compiling
+     * shaders before they are needed so drivers can compile several shaders at once.
+     *
+     * @param shader The processed shader that will be compiled
+     * @throws ShaderException If the shader can never be compiled
+     */
+    default void queue(ProcessedShader shader) throws ShaderException {
+    }
+
     /**
      * Creates a new shader and attempts to attach sources read from file to it.
-     * The sources are read from
      * The shader will automatically be deleted at some point in the future.
      *
      * @param context The context for compiling the shader
@@ -33,7 +78,9 @@ public interface ShaderCompiler extends NativeResource {
      * @throws IOException     If the file could not be found.
      * @throws ShaderException If an error occurs compiling the shader
      */
-    CompiledShader compile(Context context, int type, ResourceLocation id) throws IOException, ShaderException;
+    default CompiledShader compile(Context context, int type, ResourceLocation id) throws IOException, ShaderException {
+        return this.compile(this.preprocess(context, type, id));
+    }
 
     /**
      * Creates a new shader and attempts to attach the specified sources to it.
@@ -46,7 +93,9 @@ public interface ShaderCompiler extends NativeResource {
      * @throws IOException     If an error occurs processing the shader source
      * @throws ShaderException If an error occurs compiling the shader
      */
-    CompiledShader compile(Context context, int type, String source) throws IOException, ShaderException;
+    default CompiledShader compile(Context context, int type, String source) throws IOException, ShaderException {
+        return this.compile(this.preprocess(context, type, source));
+    }
 
     /**
      * Adds the specified pre-processor to the end of the stack.
@@ -87,7 +136,8 @@ public interface ShaderCompiler extends NativeResource {
      * @return cached shader compiler
      */
     static ShaderCompiler cached(@Nullable ResourceProvider provider) {
-        return new CachedShaderCompiler(provider);
+        VeilRenderer renderer = VeilRenderSystem.renderer();
+        return new CachedShaderCompiler(provider, renderer != null ? renderer.getShaderObjectCache() : null);
     }
 
     /**
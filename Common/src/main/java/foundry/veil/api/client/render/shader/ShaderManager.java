@@ -13,6 +13,14 @@ import foundry.veil.api.client.render.shader.definition.ShaderPreDefinitions;
 import foundry.veil.api.client.render.shader.processor.ShaderModifyProcessor;
 import foundry.veil.api.client.render.shader.program.ProgramDefinition;
 import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import foundry.veil.impl.client.render.shader.DefinitionDependencyIndex;
+import foundry.veil.impl.client.render.shader.PreparedShaderCompiler;
+import foundry.veil.impl.client.render.shader.ProgramBinaryCache;
+import foundry.veil.impl.client.render.shader.ProgramPreprocessor;
+import foundry.veil.impl.client.render.shader.ShaderCompileProfiler;
+import foundry.veil.impl.client.render.shader.ShaderProgramImpl;
+import foundry.veil.impl.client.render.shader.ShaderVariantIndex;
+import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import net.minecraft.Util;
 import net.minecraft.client.Minecraft;
@@ -25,6 +33,7 @@ import net.minecraft.server.packs.resources.ResourceProvider;
 import net.minecraft.util.GsonHelper;
 import net.minecraft.util.profiling.InactiveProfiler;
 import net.minecraft.util.profiling.ProfilerFiller;
+import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
@@ -60,6 +69,9 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
     public static final ShaderSourceSet PROGRAM_SET = new ShaderSourceSet("pinwheel/shaders/program");
     public static final ShaderSourceSet DEFERRED_SET = new ShaderSourceSet("pinwheel/shaders/deferred");
 
+    private static final boolean PREWARM_VARIANTS = System.getProperty("veil.disableShaderVariantPrewarm") == null;
+    private static final int MAX_PREWARM_QUEUE = 64;
+
     private static final Map<Integer, String> TYPES = Map.of(
             GL_VERTEX_SHADER, "vertex",
             GL_TESS_CONTROL_SHADER, "tesselation_control",
@@ -75,8 +87,18 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
     private final Map<ResourceLocation, ShaderProgram> shaders;
     private final Map<ResourceLocation, ShaderProgram> shadersView;
     private final Set<ResourceLocation> dirtyShaders;
+    private final Map<ResourceLocation, Set<ResourceLocation>> programIncludes;
+    private final Map<ResourceLocation, Set<ResourceLocation>> includeDependents;
+    private final DefinitionDependencyIndex definitionDependencies;
+    private final ShaderVariantIndex variantIndex;
+    private final Set<ResourceLocation> variantShaders;
+    private final Deque<PrewarmRequest> prewarmQueue;
+    private final Set<Consumer<ResourceLocation>> compileListeners;
     private CompletableFuture<Void> reloadFuture;
     private CompletableFuture<Void> recompileFuture;
+    private CompletableFuture<Void> prewarmFuture;
+    private ReloadMetrics lastMetrics;
+    private int generation;
 
     /**
      * Creates a new shader manager.
@@ -93,17 +115,84 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
         this.shaders = new HashMap<>();
         this.shadersView = Collections.unmodifiableMap(this.shaders);
         this.dirtyShaders = new HashSet<>();
+        this.programIncludes = new HashMap<>();
+        this.includeDependents = new HashMap<>();
+        this.definitionDependencies = new DefinitionDependencyIndex();
+        this.variantIndex = new ShaderVariantIndex();
+        this.variantShaders = new HashSet<>();
+        this.prewarmQueue = new ArrayDeque<>();
+        this.compileListeners = new HashSet<>();
         this.reloadFuture = CompletableFuture.completedFuture(null);
         this.recompileFuture = CompletableFuture.completedFuture(null);
+        this.prewarmFuture = CompletableFuture.completedFuture(null);
+        this.lastMetrics = new ReloadMetrics(0, 0, 0, 0, 0, 0);
+        this.generation = 0;
     }
 
     private void onDefinitionChanged(String definition) {
-        this.shaders.values().forEach(shader -> {
-            if (shader.getDefinitionDependencies().contains(definition)) {
-                Veil.LOGGER.debug("{} changed, recompiling {}", definition, shader.getId());
-                this.scheduleRecompile(shader.getId());
+        // Changes are applied on the next loop iteration so setting several definitions at once only recompiles each program once
+        if (this.definitionDependencies.markChanged(definition)) {
+            Minecraft.getInstance().tell(this::applyDefinitionChanges);
+        }
+    }
+
+    private void applyDefinitionChanges() {
+        Set<ResourceLocation> changed = this.definitionDependencies.drainChanged();
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        boolean dirty = false;
+        for (ResourceLocation id : changed) {
+            ShaderProgram shader = this.shaders.get(id);
+            if (shader == null) {
+                continue;
             }
-        });
+
+            // Programs that were already compiled with the new values only need to switch to that variant
+            if (shader instanceof ShaderProgramImpl impl && impl.getDefinition() != null) {
+                if (impl.selectVariant(this.getVariantKey(impl.getDefinition()))) {
+                    Veil.LOGGER.debug("Definitions changed, switched variant of {}", id);
+                    this.queuePrewarm(impl);
+                    this.compileListeners.forEach(listener -> listener.accept(id));
+                    continue;
+                }
+
+                Veil.LOGGER.debug("Definitions changed, compiling new variant of {}", id);
+                dirty |= this.markDirty(id, true);
+                continue;
+            }
+
+            Veil.LOGGER.debug("Definitions changed, recompiling {}", id);
+            dirty |= this.markDirty(id, false);
+        }
+
+        if (dirty && this.recompileFuture.isDone()) {
+            this.scheduleRecompile(0);
+        }
+    }
+
+    private ShaderVariantIndex.Key getVariantKey(ProgramDefinition definition) {
+        return this.variantIndex.getKey(Arrays.asList(definition.definitions()), this.definitions::getDefinition);
+    }
+
+    private void queuePrewarm(ShaderProgramImpl program) {
+        ProgramDefinition definition = program.getDefinition();
+        if (!PREWARM_VARIANTS || definition == null || program.getVariantKey() == null) {
+            return;
+        }
+
+        for (ShaderVariantIndex.Variant variant : this.variantIndex.getNeighbors(Arrays.asList(definition.definitions()), this.definitions::getDefinition)) {
+            if (this.prewarmQueue.size() >= MAX_PREWARM_QUEUE) {
+                return;
+            }
+            if (!program.hasVariant(variant.key())) {
+                PrewarmRequest request = new PrewarmRequest(program.getId(), variant);
+                if (!this.prewarmQueue.contains(request)) {
+                    this.prewarmQueue.add(request);
+                }
+            }
+        }
     }
 
     private ProgramDefinition parseDefinition(ResourceLocation id, ResourceProvider provider) throws IOException {
@@ -126,6 +215,9 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
 
     private void readShader(ResourceManager resourceManager, Map<ResourceLocation, ProgramDefinition> definitions, Map<ResourceLocation, Resource> shaderSources, ResourceLocation id) {
         Set<ResourceLocation> checkedSources = new HashSet<>();
+        ShaderCompileProfiler profiler = ShaderCompileProfiler.get();
+        ResourceLocation previous = profiler.pushProgram(id);
+        long start = profiler.begin();
 
         try {
             ProgramDefinition definition = this.parseDefinition(id, resourceManager);
@@ -152,12 +244,17 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
             }
         } catch (IOException | IllegalArgumentException | JsonParseException e) {
             Veil.LOGGER.error("Couldn't parse shader {} from {}", id, this.sourceSet.getShaderDefinitionLister().idToFile(id), e);
+        } finally {
+            profiler.end(start, ShaderCompileProfiler.EventType.READ, id);
+            profiler.popProgram(previous);
         }
     }
 
     private Map<ResourceLocation, Resource> readIncludes(ResourceManager resourceManager) {
         Map<ResourceLocation, Resource> shaderSources = new HashMap<>();
         Set<ResourceLocation> checkedSources = new HashSet<>();
+        ShaderCompileProfiler profiler = ShaderCompileProfiler.get();
+        long start = profiler.begin();
 
         for (Map.Entry<ResourceLocation, Resource> entry : INCLUDE_LISTER.listMatchingResources(resourceManager).entrySet()) {
             ResourceLocation location = entry.getKey();
@@ -179,13 +276,29 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
             }
         }
 
+        profiler.end(start, ShaderCompileProfiler.EventType.READ, "includes");
         return shaderSources;
     }
 
+    private ShaderCompiler.Context createContext(ProgramDefinition definition) {
+        return new ShaderCompiler.Context(this.definitions, this.sourceSet, definition);
+    }
+
     private void compile(ShaderProgram program, ProgramDefinition definition, ShaderCompiler compiler) {
+        this.compile(program, definition, compiler, null, false);
+    }
+
+    private void compile(ShaderProgram program, ProgramDefinition definition, ShaderCompiler compiler, @Nullable ShaderVariantIndex.Key variant, boolean keepVariants) {
         ResourceLocation id = program.getId();
+        ShaderCompileProfiler profiler = ShaderCompileProfiler.get();
+        ResourceLocation previous = profiler.pushProgram(id);
+        long start = profiler.begin();
         try {
-            program.compile(new ShaderCompiler.Context(this.definitions, this.sourceSet, definition), compiler);
+            if (program instanceof ShaderProgramImpl impl) {
+                impl.compile(this.createContext(definition), compiler, variant, keepVariants);
+            } else {
+                program.compile(this.createContext(definition), compiler);
+            }
         } catch (ShaderException e) {
             Veil.LOGGER.error("Failed to create shader {}: {}", id, e.getMessage());
             String error = e.getGlError();
@@ -194,11 +307,93 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
             }
         } catch (Exception e) {
             Veil.LOGGER.error("Failed to create shader: {}", id, e);
+        } finally {
+            profiler.end(start, ShaderCompileProfiler.EventType.PROGRAM, id);
+            profiler.popProgram(previous);
+        }
+        this.compileListeners.forEach(listener -> listener.accept(id));
+    }
+
+    private void updateIncludes(ResourceLocation id, ShaderProgram program, @Nullable ProgramPreprocessor.Result result) {
+        Set<ResourceLocation> includes = new HashSet<>();
+        if (result != null) {
+            if (result.error() != null) {
+                // Keep the old includes so fixing an include still recompiles this program
+                return;
+            }
+            for (ProcessedShader shader : result.shaders().values()) {
+                includes.addAll(shader.includes());
+            }
+        } else {
+            for (CompiledShader shader : program.getShaders().values()) {
+                includes.addAll(shader.includes());
+            }
+        }
+
+        this.removeIncludes(id);
+        if (!includes.isEmpty()) {
+            this.programIncludes.put(id, includes);
+            for (ResourceLocation include : includes) {
+                this.includeDependents.computeIfAbsent(include, unused -> new HashSet<>()).add(id);
+            }
+        }
+    }
+
+    private void updateDefinitionDependencies(ResourceLocation id, ShaderProgram program, @Nullable ProgramPreprocessor.Result result) {
+        Set<String> definitions = new HashSet<>();
+        if (result != null) {
+            if (result.error() != null) {
+                // Keep the old definitions so fixing the program with a definition still recompiles it
+                return;
+            }
+            for (ProcessedShader shader : result.shaders().values()) {
+                definitions.addAll(shader.definitionDependencies());
+            }
+        } else {
+            for (CompiledShader shader : program.getShaders().values()) {
+                definitions.addAll(shader.definitionDependencies());
+            }
+        }
+        this.definitionDependencies.set(id, definitions);
+    }
+
+    private void removeIncludes(ResourceLocation id) {
+        Set<ResourceLocation> oldIncludes = this.programIncludes.remove(id);
+        if (oldIncludes == null) {
+            return;
+        }
+
+        for (ResourceLocation include : oldIncludes) {
+            Set<ResourceLocation> dependents = this.includeDependents.get(include);
+            if (dependents != null && dependents.remove(id) && dependents.isEmpty()) {
+                this.includeDependents.remove(include);
+            }
         }
     }
 
-    private ShaderCompiler addProcessors(ShaderCompiler compiler) {
-        return compiler.addDefaultProcessors().addPreprocessor(new ShaderModifyProcessor(this.shaderModificationManager));
+    private ShaderCompiler addProcessors(ShaderCompiler compiler, @Nullable ShaderModificationManager.Preparations modifiers) {
+        return compiler.addDefaultProcessors().addPreprocessor(new ShaderModifyProcessor(this.shaderModificationManager, modifiers));
+    }
+
+    /**
+     * Creates a compiler that processes sources the same way as programs in this manager.
+     *
+     * @param provider The source of resources
+     * @return A new compiler with the default processors and shader modifications
+     */
+    @ApiStatus.Internal
+    public ShaderCompiler createCompiler(ResourceProvider provider) {
+        return this.addProcessors(ShaderCompiler.direct(provider), null);
+    }
+
+    /**
+     * Adds a listener for when a program is compiled again or switches to another variant.
+     *
+     * @param listener The callback for the id of the program that changed
+     */
+    @ApiStatus.Internal
+    public void addCompileListener(Consumer<ResourceLocation> listener) {
+        this.compileListeners.add(listener);
     }
 
     /**
@@ -208,7 +403,7 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
      * @param provider The source of resources
      */
     public void recompile(ResourceLocation id, ResourceProvider provider) {
-        try (ShaderCompiler compiler = this.addProcessors(ShaderCompiler.direct(provider))) {
+        try (ShaderCompiler compiler = this.addProcessors(ShaderCompiler.direct(provider), null)) {
             this.recompile(id, provider, compiler);
         }
     }
@@ -229,11 +424,46 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
 
         try {
             this.compile(program, this.parseDefinition(id, provider), compiler);
+            this.updateIncludes(id, program, null);
+            this.updateDefinitionDependencies(id, program, null);
         } catch (Exception e) {
             Veil.LOGGER.error("Failed to read shader definition: {}", id, e);
         }
     }
 
+    /**
+     * Retrieves all programs that include the specified file, either directly or through other includes.
+     *
+     * @param include The id of the include file
+     * @return A view of the programs that depend on the include
+     */
+    public Set<ResourceLocation> getIncludeDependents(ResourceLocation include) {
+        Set<ResourceLocation> dependents = this.includeDependents.get(include);
+        return dependents != null ? Collections.unmodifiableSet(dependents) : Collections.emptySet();
+    }
+
+    /**
+     * Retrieves all programs that depend on the specified shader pre-definition.
+     *
+     * @param definition The name of the definition
+     * @return The programs that are recompiled when the definition changes
+     */
+    public Set<ResourceLocation> getDefinitionDependents(String definition) {
+        return this.definitionDependencies.getDependents(definition);
+    }
+
+    /**
+     * Schedules a recompilation of every program that includes the specified file.
+     *
+     * @param include The id of the include file that changed
+     */
+    public void scheduleIncludeRecompile(ResourceLocation include) {
+        Set<ResourceLocation> dependents = this.includeDependents.get(include);
+        if (dependents != null) {
+            new ArrayList<>(dependents).forEach(this::scheduleRecompile);
+        }
+    }
+
     /**
      * Sets a global shader value.
      *
@@ -253,6 +483,13 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
         return this.shaders.get(id);
     }
 
+    /**
+     * @return A number that changes every time programs are added or removed. Programs can be cached until this changes
+     */
+    public int getGeneration() {
+        return this.generation;
+    }
+
     /**
      * @return All shader programs registered
      */
@@ -267,7 +504,9 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
         return this.sourceSet;
     }
 
-    private ReloadState prepare(ResourceManager resourceManager, Collection<ResourceLocation> shaders) {
+    private ReloadState prepare(ResourceManager resourceManager, Collection<ResourceLocation> shaders, @Nullable ShaderModificationManager.Preparations modifiers) {
+        long profileStart = ShaderCompileProfiler.get().begin();
+        long start = System.nanoTime();
         Map<ResourceLocation, ProgramDefinition> definitions = new HashMap<>();
         Map<ResourceLocation, Resource> shaderSources = new HashMap<>();
 
@@ -276,43 +515,133 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
         }
         shaderSources.putAll(this.readIncludes(resourceManager));
 
-        return new ReloadState(definitions, shaderSources);
+        return new ReloadState(definitions, shaderSources, Collections.emptyMap(), Collections.emptyMap(), modifiers, System.nanoTime() - start, 0, profileStart);
     }
 
-    private void apply(ShaderManager.ReloadState reloadState) {
-        this.shaders.values().forEach(ShaderProgram::free);
-        this.shaders.clear();
+    private CompletableFuture<ReloadState> preprocess(ReloadState reloadState, Executor executor) {
+        // Pre-processing is only string manipulation, so every program can be processed at the same time
+        long start = System.nanoTime();
+        ResourceProvider sourceProvider = reloadState.sourceProvider();
+        Map<ResourceLocation, ShaderVariantIndex.Key> variants = this.getVariantKeys(reloadState.definitions());
+        return ProgramPreprocessor.preprocess(reloadState.definitions(), this::createContext, () -> this.addProcessors(ShaderCompiler.direct(sourceProvider), reloadState.modifiers()), executor)
+                .thenApply(programs -> {
+                    // Definitions can change while shaders are being processed, so only keep keys that are still correct
+                    Map<ResourceLocation, ShaderVariantIndex.Key> current = this.getVariantKeys(reloadState.definitions());
+                    variants.entrySet().removeIf(entry -> !entry.getValue().equals(current.get(entry.getKey())));
+                    return new ReloadState(reloadState.definitions(), reloadState.shaderSources(), programs, variants, reloadState.modifiers(), reloadState.readTime(), System.nanoTime() - start, reloadState.profileStart());
+                });
+    }
+
+    private Map<ResourceLocation, ShaderVariantIndex.Key> getVariantKeys(Map<ResourceLocation, ProgramDefinition> definitions) {
+        Map<ResourceLocation, ShaderVariantIndex.Key> keys = new HashMap<>(definitions.size());
+        for (Map.Entry<ResourceLocation, ProgramDefinition> entry : definitions.entrySet()) {
+            keys.put(entry.getKey(), this.getVariantKey(entry.getValue()));
+        }
+        return keys;
+    }
+
+    private void compile(ReloadState reloadState, Map<ResourceLocation, ShaderProgram> programs, Set<ResourceLocation> keepVariants) {
+        ProgramBinaryCache binaryCache = VeilRenderSystem.renderer().getProgramBinaryCache();
+        int binaryHits = binaryCache != null ? binaryCache.getHits() : 0;
+        long start = System.nanoTime();
+
+        try (PreparedShaderCompiler compiler = new PreparedShaderCompiler(this.addProcessors(ShaderCompiler.cached(reloadState.sourceProvider()), reloadState.modifiers()))) {
+            // Submit every shader before checking any results so drivers with background compilation can work on all of them at once
+            if (VeilRenderSystem.parallelShaderCompileSupported()) {
+                ShaderCompileProfiler profiler = ShaderCompileProfiler.get();
+                for (Map.Entry<ResourceLocation, ProgramPreprocessor.Result> entry : reloadState.programs().entrySet()) {
+                    ResourceLocation previous = profiler.pushProgram(entry.getKey());
+                    this.queue(entry.getValue(), compiler, binaryCache);
+                    profiler.popProgram(previous);
+                }
+            }
 
-        ResourceProvider sourceProvider = loc -> Optional.ofNullable(reloadState.shaderSources().get(loc));
-        try (ShaderCompiler compiler = this.addProcessors(ShaderCompiler.cached(sourceProvider))) {
-            for (Map.Entry<ResourceLocation, ProgramDefinition> entry : reloadState.definitions().entrySet()) {
+            for (Map.Entry<ResourceLocation, ShaderProgram> entry : programs.entrySet()) {
                 ResourceLocation id = entry.getKey();
-                ShaderProgram program = ShaderProgram.create(id);
-                this.compile(program, entry.getValue(), compiler);
-                this.shaders.put(id, program);
+                ProgramPreprocessor.Result result = reloadState.programs().get(id);
+                compiler.setProgram(result);
+                this.compile(entry.getValue(), reloadState.definitions().get(id), compiler, reloadState.variants().get(id), keepVariants.contains(id));
+                this.updateIncludes(id, entry.getValue(), result);
+                this.updateDefinitionDependencies(id, entry.getValue(), result);
             }
         }
 
         VeilRenderSystem.finalizeShaderCompilation();
-
-        Veil.LOGGER.info("Loaded {} shaders from: {}", this.shaders.size(), this.sourceSet.getFolder());
+        ShaderCompileProfiler.get().end(reloadState.profileStart(), ShaderCompileProfiler.EventType.RELOAD, this.sourceSet.getFolder());
+
+        this.lastMetrics = new ReloadMetrics(programs.size(),
+                binaryCache != null ? binaryCache.getHits() - binaryHits : 0,
+                reloadState.programs().values().stream().mapToInt(result -> result.shaders().size()).sum(),
+                reloadState.readTime(),
+                reloadState.preprocessTime(),
+                System.nanoTime() - start);
     }
 
-    private void applyRecompile(ShaderManager.ReloadState reloadState, Collection<ResourceLocation> shaders) {
-        ResourceProvider sourceProvider = loc -> Optional.ofNullable(reloadState.shaderSources().get(loc));
-        try (ShaderCompiler compiler = this.addProcessors(ShaderCompiler.cached(sourceProvider))) {
-            for (Map.Entry<ResourceLocation, ProgramDefinition> entry : reloadState.definitions().entrySet()) {
-                ResourceLocation id = entry.getKey();
-                ShaderProgram program = this.getShader(id);
-                if (program == null) {
-                    Veil.LOGGER.warn("Failed to recompile shader: {}", id);
-                    continue;
-                }
-                this.compile(program, entry.getValue(), compiler);
+    private void queue(ProgramPreprocessor.Result result, ShaderCompiler compiler, @Nullable ProgramBinaryCache binaryCache) {
+        if (result.error() != null) {
+            return;
+        }
+
+        // Shaders are never compiled for programs that will be loaded from a binary
+        if (binaryCache != null) {
+            Int2ObjectMap<String> sources = new Int2ObjectArrayMap<>(result.shaders().size());
+            for (Int2ObjectMap.Entry<ProcessedShader> entry : result.shaders().int2ObjectEntrySet()) {
+                sources.put(entry.getIntKey(), entry.getValue().source());
+            }
+            if (binaryCache.contains(binaryCache.getKey(sources))) {
+                return;
             }
         }
 
-        VeilRenderSystem.finalizeShaderCompilation();
+        for (ProcessedShader shader : result.shaders().values()) {
+            try {
+                compiler.queue(shader);
+            } catch (ShaderException ignored) {
+                // The error is reported when the program is compiled
+            }
+        }
+    }
+
+    private void apply(ShaderManager.ReloadState reloadState) {
+        this.shaders.values().forEach(ShaderProgram::free);
+        this.shaders.clear();
+        this.programIncludes.clear();
+        this.includeDependents.clear();
+        this.definitionDependencies.clear();
+
+        // The variant index is kept since the variant keys for these programs were already created with it
+        this.prewarmQueue.clear();
+        synchronized (this.dirtyShaders) {
+            this.variantShaders.clear();
+        }
+
+        for (ResourceLocation id : reloadState.definitions().keySet()) {
+            this.shaders.put(id, ShaderProgram.create(id));
+        }
+        this.generation++;
+        this.compile(reloadState, this.shaders, Collections.emptySet());
+
+        ReloadMetrics metrics = this.lastMetrics;
+        Veil.LOGGER.info("Loaded {} shaders from: {} in {} ms ({} from program binary cache)", this.shaders.size(), this.sourceSet.getFolder(), String.format("%.1f", metrics.totalTime() / 1_000_000.0), metrics.binaryPrograms());
+        Veil.LOGGER.debug("Shader reload phases for {}: read {} ms, preprocess {} shaders {} ms, compile {} ms", this.sourceSet.getFolder(), String.format("%.1f", metrics.readTime() / 1_000_000.0), metrics.shaders(), String.format("%.1f", metrics.preprocessTime() / 1_000_000.0), String.format("%.1f", metrics.compileTime() / 1_000_000.0));
+    }
+
+    private void applyRecompile(ShaderManager.ReloadState reloadState, Collection<ResourceLocation> shaders, Set<ResourceLocation> keepVariants) {
+        Map<ResourceLocation, ShaderProgram> programs = new HashMap<>();
+        for (ResourceLocation id : reloadState.definitions().keySet()) {
+            ShaderProgram program = this.getShader(id);
+            if (program == null) {
+                Veil.LOGGER.warn("Failed to recompile shader: {}", id);
+                continue;
+            }
+            programs.put(id, program);
+        }
+        this.compile(reloadState, programs, keepVariants);
+        for (ResourceLocation id : keepVariants) {
+            if (programs.get(id) instanceof ShaderProgramImpl impl) {
+                this.queuePrewarm(impl);
+            }
+        }
 
         Veil.LOGGER.info("Recompiled {} shaders from: {}", shaders.size(), this.sourceSet.getFolder());
     }
@@ -325,12 +654,18 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
             }
 
             Set<ResourceLocation> shaders;
+            Set<ResourceLocation> keepVariants;
             synchronized (this.dirtyShaders) {
                 shaders = new HashSet<>(this.dirtyShaders);
+                // Programs only recompiled because of a definition change keep their other variants, since the sources are the same
+                keepVariants = new HashSet<>(this.variantShaders);
                 this.dirtyShaders.clear();
+                this.variantShaders.clear();
             }
-            this.recompileFuture = CompletableFuture.supplyAsync(() -> this.prepare(client.getResourceManager(), shaders), Util.backgroundExecutor())
-                    .thenAcceptAsync(state -> this.applyRecompile(state, shaders), client)
+            Executor executor = Util.backgroundExecutor();
+            this.recompileFuture = CompletableFuture.supplyAsync(() -> this.prepare(client.getResourceManager(), shaders, null), executor)
+                    .thenCompose(state -> this.preprocess(state, executor))
+                    .thenAcceptAsync(state -> this.applyRecompile(state, shaders, keepVariants), client)
                     .handle((value, e) -> {
                         if (e != null) {
                             Veil.LOGGER.error("Error recompiling shaders", e);
@@ -359,10 +694,7 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
      * @param shader The shader to recompile
      */
     public void scheduleRecompile(ResourceLocation shader) {
-        synchronized (this.dirtyShaders) {
-            this.dirtyShaders.add(shader);
-        }
-
+        this.markDirty(shader, false);
         if (!this.recompileFuture.isDone()) {
             return;
         }
@@ -370,20 +702,37 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
         this.scheduleRecompile(0);
     }
 
+    private boolean markDirty(ResourceLocation shader, boolean variant) {
+        synchronized (this.dirtyShaders) {
+            if (!variant) {
+                this.variantShaders.remove(shader);
+            } else if (this.dirtyShaders.contains(shader)) {
+                // The sources are already being recompiled, so the other variants are removed anyway
+                return false;
+            } else {
+                this.variantShaders.add(shader);
+            }
+            return this.dirtyShaders.add(shader);
+        }
+    }
+
     @Override
     public CompletableFuture<Void> reload(PreparationBarrier preparationBarrier, ResourceManager resourceManager, ProfilerFiller prepareProfiler, ProfilerFiller applyProfiler, Executor backgroundExecutor, Executor gameExecutor) {
         if (this.reloadFuture != null && !this.reloadFuture.isDone()) {
             return this.reloadFuture.thenCompose(preparationBarrier::wait);
         }
-        return this.reloadFuture = this.recompileFuture.thenCompose(
-                unused -> CompletableFuture.supplyAsync(() -> {
+        // Modifiers are only applied after the barrier, so the ones being loaded in this reload are used directly
+        CompletableFuture<ShaderModificationManager.Preparations> modifiers = this.shaderModificationManager.getPreparations();
+        return this.reloadFuture = this.recompileFuture.thenCompose(unused -> modifiers).thenCompose(
+                preparations -> CompletableFuture.supplyAsync(() -> {
                             FileToIdConverter lister = this.sourceSet.getShaderDefinitionLister();
                             Set<ResourceLocation> shaderIds = lister.listMatchingResources(resourceManager).keySet()
                                     .stream()
                                     .map(lister::fileToId)
                                     .collect(Collectors.toSet());
-                            return this.prepare(resourceManager, shaderIds);
+                            return this.prepare(resourceManager, shaderIds, preparations);
                         }, backgroundExecutor)
+                        .thenCompose(state -> this.preprocess(state, backgroundExecutor))
                         .thenCompose(preparationBarrier::wait)
                         .thenAcceptAsync(this::apply, gameExecutor));
     }
@@ -421,6 +770,60 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
                 gameExecutor);
     }
 
+    /**
+     * Compiles the next variant that is likely to be used soon. Only a single program is processed at a time,
+     * and nothing is done while shaders are being reloaded or recompiled.
+     */
+    @ApiStatus.Internal
+    public void prewarmVariants() {
+        if (this.prewarmQueue.isEmpty() || !this.prewarmFuture.isDone() || !this.recompileFuture.isDone() || !this.reloadFuture.isDone()) {
+            return;
+        }
+
+        PrewarmRequest request = this.prewarmQueue.poll();
+        ResourceLocation id = request.id();
+        if (!(this.shaders.get(id) instanceof ShaderProgramImpl program) || program.getDefinition() == null || program.hasVariant(request.variant().key())) {
+            return;
+        }
+
+        // The variant is processed with its own copy of the definitions so the current values are never changed
+        ShaderPreDefinitions definitions = this.definitions.copy();
+        for (String name : program.getDefinition().definitions()) {
+            String value = request.variant().values().get(name);
+            if (value != null) {
+                definitions.set(name, value);
+            } else {
+                definitions.remove(name);
+            }
+        }
+
+        Minecraft client = Minecraft.getInstance();
+        Executor executor = Util.backgroundExecutor();
+        this.prewarmFuture = CompletableFuture.supplyAsync(() -> this.prepare(client.getResourceManager(), Set.of(id), null), executor)
+                .thenCompose(state -> ProgramPreprocessor.preprocess(state.definitions(), definition -> new ShaderCompiler.Context(definitions, this.sourceSet, definition), () -> this.addProcessors(ShaderCompiler.direct(state.sourceProvider()), state.modifiers()), executor)
+                        .thenApply(programs -> new ReloadState(state.definitions(), state.shaderSources(), programs, Collections.emptyMap(), state.modifiers(), state.readTime(), 0, state.profileStart())))
+                .thenAcceptAsync(state -> {
+                    ProgramDefinition definition = state.definitions().get(id);
+                    ProgramPreprocessor.Result result = state.programs().get(id);
+                    if (definition == null || result == null || result.error() != null || this.shaders.get(id) != program) {
+                        return;
+                    }
+
+                    try (PreparedShaderCompiler compiler = new PreparedShaderCompiler(this.addProcessors(ShaderCompiler.cached(state.sourceProvider()), state.modifiers()))) {
+                        compiler.setProgram(result);
+                        program.prewarm(new ShaderCompiler.Context(definitions, this.sourceSet, definition), compiler, request.variant().key());
+                        Veil.LOGGER.debug("Compiled variant {} of {}", request.variant().values(), id);
+                    } catch (Exception e) {
+                        Veil.LOGGER.debug("Failed to compile variant {} of {}", request.variant().values(), id, e);
+                    }
+                    VeilRenderSystem.renderer().getShaderObjectCache().deleteUnused();
+                }, client)
+                .exceptionally(e -> {
+                    Veil.LOGGER.error("Error compiling shader variant", e);
+                    return null;
+                });
+    }
+
     /**
      * @return The current future for full shader reload status
      */
@@ -446,13 +849,77 @@ public class ShaderManager implements PreparableReloadListener, Closeable {
         return value != null ? value : "0x" + Integer.toHexString(type);
     }
 
+    /**
+     * @return Timings for the last time shaders were loaded or recompiled
+     */
+    public ReloadMetrics getLastMetrics() {
+        return this.lastMetrics;
+    }
+
+    @ApiStatus.Internal
+    public void addDebugInfo(Consumer<String> consumer) {
+        ReloadMetrics metrics = this.lastMetrics;
+        consumer.accept(this.sourceSet.getFolder() + ": " + this.shaders.size() + " shaders in " + String.format("%.1f", metrics.totalTime() / 1_000_000.0) + " ms, " + metrics.binaryPrograms() + " from binary");
+        int variants = 0;
+        for (ShaderProgram program : this.shaders.values()) {
+            if (program instanceof ShaderProgramImpl impl) {
+                variants += impl.getVariantCount();
+            }
+        }
+        consumer.accept("Variants: " + variants + " compiled, " + this.prewarmQueue.size() + " queued");
+        consumer.accept("Read " + String.format("%.1f", metrics.readTime() / 1_000_000.0) + " ms, Preprocess " + String.format("%.1f", metrics.preprocessTime() / 1_000_000.0) + " ms, Compile " + String.format("%.1f", metrics.compileTime() / 1_000_000.0) + " ms");
+    }
+
     @Override
     public void close() {
+        this.prewarmQueue.clear();
         this.shaders.values().forEach(ShaderProgram::free);
         this.shaders.clear();
+        this.generation++;
+        this.programIncludes.clear();
+        this.includeDependents.clear();
+        this.definitionDependencies.clear();
+    }
+
+    /**
+     * Timings for each phase of a shader reload. All times are in nanoseconds.
+     *
+     * @param programs       The number of programs compiled
+     * @param binaryPrograms The number of programs loaded from the program binary cache
+     * @param shaders        The number of shaders processed
+     * @param readTime       The time spent reading shader files
+     * @param preprocessTime The time spent running pre-processors on background threads
+     * @param compileTime    The time spent compiling and linking on the render thread
+     */
+    public record ReloadMetrics(int programs,
+                                int binaryPrograms,
+                                int shaders,
+                                long readTime,
+                                long preprocessTime,
+                                long compileTime) {
+
+        /**
+         * @return The total time spent in all phases
+         */
+        public long totalTime() {
+            return this.readTime + this.preprocessTime + this.compileTime;
+        }
     }
 
     private record ReloadState(Map<ResourceLocation, ProgramDefinition> definitions,
-                               Map<ResourceLocation, Resource> shaderSources) {
+                               Map<ResourceLocation, Resource> shaderSources,
+                               Map<ResourceLocation, ProgramPreprocessor.Result> programs,
+                               Map<ResourceLocation, ShaderVariantIndex.Key> variants,
+                               @Nullable ShaderModificationManager.Preparations modifiers,
+                               long readTime,
+                               long preprocessTime,
+                               long profileStart) {
+
+        public ResourceProvider sourceProvider() {
+            return loc -> Optional.ofNullable(this.shaderSources.get(loc));
+        }
+    }
+
+    private record PrewarmRequest(ResourceLocation id, ShaderVariantIndex.Variant variant) {
     }
 }
@@ -1,16 +1,18 @@
 package foundry.veil.api.client.render.shader;
 
 import foundry.veil.Veil;
+import foundry.veil.impl.client.render.shader.ShaderCompileProfiler;
 import foundry.veil.impl.client.render.shader.modifier.InputShaderModification;
 import foundry.veil.impl.client.render.shader.modifier.ReplaceShaderModification;
 import foundry.veil.impl.client.render.shader.modifier.ShaderModification;
+import foundry.veil.impl.client.render.shader.modifier.ShaderModificationCache;
 import foundry.veil.impl.client.render.shader.modifier.SimpleShaderModification;
 import net.minecraft.resources.FileToIdConverter;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.PreparableReloadListener;
 import net.minecraft.server.packs.resources.Resource;
 import net.minecraft.server.packs.resources.ResourceManager;
 import net.minecraft.server.packs.resources.ResourceProvider;
-import net.minecraft.server.packs.resources.SimplePreparableReloadListener;
 import net.minecraft.util.StringUtil;
 import net.minecraft.util.profiling.ProfilerFiller;
 import org.apache.commons.io.IOUtils;
@@ -18,8 +20,11 @@ import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.io.Reader;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
 /**
@@ -27,7 +32,7 @@ import java.util.regex.Pattern;
  *
  * @author Ocelot
  */
-public class ShaderModificationManager extends SimplePreparableReloadListener<ShaderModificationManager.Preparations> {
+public class ShaderModificationManager implements PreparableReloadListener {
 
     public static final FileToIdConverter MODIFIER_LISTER = new FileToIdConverter("pinwheel/shader_modifiers", ".txt");
     private static final Map<String, String> NEXT_STAGES = Map.of(
@@ -36,11 +41,24 @@ public class ShaderModificationManager extends SimplePreparableReloadListener<Sh
     );
     private static final Pattern OUT_PATTERN = Pattern.compile("out ");
 
-    private Map<ResourceLocation, List<ShaderModification>> shaders;
-    private Map<ShaderModification, ResourceLocation> names;
+    private final ShaderModificationCache cache;
+    private Preparations modifiers;
+    private CompletableFuture<Preparations> preparations;
 
     public ShaderModificationManager() {
-        this.shaders = Collections.emptyMap();
+        this(null);
+    }
+
+    /**
+     * Creates a new modification manager.
+     *
+     * @param cache The cache to store modification patches in or <code>null</code> to always search shader sources
+     */
+    @ApiStatus.Internal
+    public ShaderModificationManager(@Nullable ShaderModificationCache cache) {
+        this.cache = cache;
+        this.modifiers = new Preparations(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+        this.preparations = CompletableFuture.completedFuture(this.modifiers);
     }
 
     /**
@@ -53,11 +71,30 @@ public class ShaderModificationManager extends SimplePreparableReloadListener<Sh
      * @see ShaderModification
      */
     public String applyModifiers(ResourceLocation shaderId, String source, int flags) {
-        for (ShaderModification modification : this.getModifiers(shaderId)) {
+        return this.applyModifiers(this.modifiers, shaderId, source, flags);
+    }
+
+    /**
+     * Applies the specified set of shader modifiers to the specified shader source.
+     *
+     * @param modifiers The modifiers to apply
+     * @param shaderId  The id of the shader to get modifiers for
+     * @param source    The shader source text
+     * @param flags     Additional flags for applying
+     * @return The modified shader source
+     */
+    @ApiStatus.Internal
+    public String applyModifiers(Preparations modifiers, ResourceLocation shaderId, String source, int flags) {
+        ShaderCompileProfiler profiler = ShaderCompileProfiler.get();
+        for (ShaderModification modification : modifiers.shaders().getOrDefault(shaderId, Collections.emptyList())) {
+            long start = profiler.begin();
             try {
-                source = modification.inject(source, flags);
+                String hash = modifiers.hashes().get(modification);
+                source = this.cache != null && hash != null ? this.cache.inject(modification, hash, source, flags) : modification.inject(source, flags);
             } catch (Exception e) {
-                Veil.LOGGER.error("Failed to apply modification {} to shader instance {}. Skipping", this.names.get(modification), shaderId, e);
+                Veil.LOGGER.error("Failed to apply modification {} to shader instance {}. Skipping", modifiers.names().get(modification), shaderId, e);
+            } finally {
+                profiler.end(start, ShaderCompileProfiler.EventType.MODIFY, modifiers.names().get(modification));
             }
         }
         return source;
@@ -70,7 +107,18 @@ public class ShaderModificationManager extends SimplePreparableReloadListener<Sh
      * @return The modifiers applied to the specified shader
      */
     public Collection<ShaderModification> getModifiers(ResourceLocation shaderId) {
-        return this.shaders.getOrDefault(shaderId, Collections.emptyList());
+        return this.modifiers.shaders().getOrDefault(shaderId, Collections.emptyList());
+    }
+
+    /**
+     * Shader managers run pre-processors before the resource reload barrier, so they have to use the modifiers
+     * being loaded instead of the ones that are currently applied.
+     *
+     * @return A future for the modifiers that will be applied once the current reload finishes
+     */
+    @ApiStatus.Internal
+    public CompletableFuture<Preparations> getPreparations() {
+        return this.preparations;
     }
 
     private @Nullable ResourceLocation getNextStage(ResourceLocation shader, ResourceProvider resourceProvider) {
@@ -89,9 +137,20 @@ public class ShaderModificationManager extends SimplePreparableReloadListener<Sh
     }
 
     @Override
-    protected @NotNull Preparations prepare(@NotNull ResourceManager resourceManager, @NotNull ProfilerFiller profilerFiller) {
+    public @NotNull CompletableFuture<Void> reload(@NotNull PreparationBarrier preparationBarrier, @NotNull ResourceManager resourceManager, @NotNull ProfilerFiller prepareProfiler, @NotNull ProfilerFiller applyProfiler, @NotNull Executor backgroundExecutor, @NotNull Executor gameExecutor) {
+        // Listeners are reloaded in order, so this is set before any shader manager starts pre-processing
+        CompletableFuture<Preparations> preparations = CompletableFuture.supplyAsync(() -> this.prepare(resourceManager, prepareProfiler), backgroundExecutor);
+        this.preparations = preparations;
+        return preparations.thenCompose(preparationBarrier::wait)
+                .thenAcceptAsync(value -> this.apply(value, resourceManager, applyProfiler), gameExecutor);
+    }
+
+    private Preparations prepare(@NotNull ResourceManager resourceManager, @NotNull ProfilerFiller profilerFiller) {
+        this.saveCache();
+
         Map<ResourceLocation, List<ShaderModification>> modifiers = new HashMap<>();
         Map<ShaderModification, ResourceLocation> names = new HashMap<>();
+        Map<ShaderModification, String> hashes = new HashMap<>();
 
         for (Map.Entry<ResourceLocation, Resource> entry : MODIFIER_LISTER.listMatchingResources(resourceManager).entrySet()) {
             ResourceLocation file = entry.getKey();
@@ -106,7 +165,9 @@ public class ShaderModificationManager extends SimplePreparableReloadListener<Sh
 
                 ResourceLocation shaderId = new ResourceLocation(parts[0], parts[1]);
                 try (Reader reader = entry.getValue().openAsReader()) {
-                    ShaderModification modification = ShaderModification.parse(IOUtils.toString(reader), shaderId.getPath().endsWith(".vsh"));
+                    String source = IOUtils.toString(reader);
+                    boolean vertex = shaderId.getPath().endsWith(".vsh");
+                    ShaderModification modification = ShaderModification.parse(source, vertex);
                     List<ShaderModification> modifications = modifiers.computeIfAbsent(shaderId, name -> new LinkedList<>());
 
                     if (modification instanceof ReplaceShaderModification) {
@@ -117,6 +178,7 @@ public class ShaderModificationManager extends SimplePreparableReloadListener<Sh
                         modifications.add(modification);
                     }
                     names.put(modification, id);
+                    hashes.put(modification, ShaderModificationCache.hash(source, vertex));
                 }
             } catch (Exception e) {
                 Veil.LOGGER.error("Couldn't parse data file {} from {}", id, file, e);
@@ -148,22 +210,50 @@ public class ShaderModificationManager extends SimplePreparableReloadListener<Sh
                 InputShaderModification input = new InputShaderModification(simpleMod.getPriority(), () -> OUT_PATTERN.matcher(simpleMod.fillPlaceholders(simpleMod.getOutput())).replaceAll("in "));
                 modifiers.computeIfAbsent(nextStage, unused -> new LinkedList<>()).add(input);
                 names.put(input, names.get(simpleMod));
+
+                // Placeholders in the output are only known after injecting, so the patch can't be reused
+                if (ShaderModification.PLACEHOLDER_PATTERN.matcher(output).find()) {
+                    hashes.remove(simpleMod);
+                }
             }
         }
         modifiers.values().forEach(modifications -> modifications.sort(Comparator.comparingInt(ShaderModification::getPriority).thenComparing(names::get)));
 
-        return new Preparations(modifiers, names);
+        return new Preparations(Collections.unmodifiableMap(modifiers), Collections.unmodifiableMap(names), Collections.unmodifiableMap(hashes));
     }
 
-    @Override
-    protected void apply(@NotNull Preparations preparations, @NotNull ResourceManager resourceManager, @NotNull ProfilerFiller profilerFiller) {
-        this.shaders = Collections.unmodifiableMap(preparations.shaders);
-        this.names = Collections.unmodifiableMap(preparations.names);
-        Veil.LOGGER.info("Loaded {} shader modifications", this.names.size());
+    private void apply(@NotNull Preparations preparations, @NotNull ResourceManager resourceManager, @NotNull ProfilerFiller profilerFiller) {
+        this.modifiers = preparations;
+        Veil.LOGGER.info("Loaded {} shader modifications", preparations.names().size());
+    }
+
+    /**
+     * Writes all modification patches used since the last save to disk.
+     */
+    @ApiStatus.Internal
+    public void saveCache() {
+        if (this.cache == null) {
+            return;
+        }
+
+        try {
+            this.cache.save();
+        } catch (IOException e) {
+            Veil.LOGGER.error("Failed to save shader modification cache", e);
+        }
+    }
+
+    /**
+     * @return The cache for modification patches or <code>null</code> if patches are not cached
+     */
+    @ApiStatus.Internal
+    public @Nullable ShaderModificationCache getCache() {
+        return this.cache;
     }
 
     @ApiStatus.Internal
     public record Preparations(Map<ResourceLocation, List<ShaderModification>> shaders,
-                               Map<ShaderModification, ResourceLocation> names) {
+                               Map<ShaderModification, ResourceLocation> names,
+                               Map<ShaderModification, String> hashes) {
     }
 }
@@ -17,11 +17,18 @@ public final class VeilShaders {
     public static final ResourceLocation LIGHT_AMBIENT = light("ambient");
     public static final ResourceLocation LIGHT_DIRECTIONAL = light("directional");
     public static final ResourceLocation LIGHT_POINT = light("point");
+    public static final ResourceLocation LIGHT_POINT_TILED = light("point_tiled");
     public static final ResourceLocation LIGHT_AREA = light("area");
     public static final ResourceLocation LIGHT_VANILLA_LIGHTMAP = light("vanilla_lightmap");
     public static final ResourceLocation LIGHT_SKY = light("sky");
     public static final ResourceLocation LIGHT_INDIRECT_SPHERE = light("indirect_sphere");
 
+    public static final ResourceLocation HIZ_DOWNSAMPLE = Veil.veilPath("hiz_downsample");
+
+    public static final ResourceLocation POST_BILATERAL_UPSAMPLE = post("bilateral_upsample");
+    public static final ResourceLocation POST_CHECKERBOARD_MASK = post("checkerboard_mask");
+    public static final ResourceLocation POST_CHECKERBOARD_RESOLVE = post("checkerboard_resolve");
+
     private static ResourceLocation quasar(String name) {
         return Veil.veilPath("quasar/" + name);
     }
@@ -29,4 +36,8 @@ public final class VeilShaders {
     private static ResourceLocation light(String name) {
         return Veil.veilPath("light/" + name);
     }
+
+    private static ResourceLocation post(String name) {
+        return Veil.veilPath("post/" + name);
+    }
 }
@@ -2,14 +2,18 @@ package foundry.veil.api.client.render.shader.definition;
 
 import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.impl.client.render.shader.definition.DynamicShaderBlockImpl;
+import foundry.veil.impl.client.render.shader.definition.RingShaderBlockImpl;
 import foundry.veil.impl.client.render.shader.definition.SizedShaderBlockImpl;
 import foundry.veil.impl.client.render.shader.definition.WrapperShaderBlockImpl;
 import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix4fc;
+import org.joml.Vector4fc;
 import org.lwjgl.system.NativeResource;
 
 import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * <p>Defines a block of memory on the GPU that can be referenced as a uniform block.</p>
@@ -17,6 +21,8 @@ import java.util.function.BiConsumer;
  * <p>{@link VeilRenderSystem#bind(CharSequence, ShaderBlock)} updates the data
  * if it has previously been changed with {@link #update(Object)}.</p>
  * <p>The end result is a lazy buffer that only updates contents when the Java data has been changed.</p>
+ * <p>Individual fields can be changed with {@link #write(long, int, Consumer)} without serializing the whole value.
+ * Only the bytes that were written are uploaded the next time the block is bound.</p>
  *
  * @param <T> The type of object to serialize
  * @author Ocelot
@@ -36,6 +42,20 @@ public interface ShaderBlock<T> extends NativeResource {
         return new SizedShaderBlockImpl<>(binding, size, serializer);
     }
 
+    /**
+     * Creates a new uniform block that writes every new value into the {@link UniformRingBuffer} instead of
+     * updating a buffer of its own. This should be used for data that changes every frame or several times per frame.
+     * Parts of the block can't be written with {@link #write(long, int, Consumer)}.
+     *
+     * @param size       The size of the block in bytes
+     * @param serializer The serializer to fill the buffer
+     * @param <T>        The type of data to write
+     * @return A new shader block
+     */
+    static <T> ShaderBlock<T> transientUniform(int size, BiConsumer<T, ByteBuffer> serializer) {
+        return new RingShaderBlockImpl<>(size, serializer);
+    }
+
     /**
      * Creates a new shader block with a dynamically-changing size. The initial size is set to <code>256</code>.
      *
@@ -95,4 +115,57 @@ public interface ShaderBlock<T> extends NativeResource {
      */
     @Nullable
     T getValue();
+
+    /**
+     * Writes part of this block without serializing the whole value. The value returned by {@link #getValue()}
+     * is not changed, so written data is replaced the next time the value is set.
+     *
+     * @param offset The offset into the block in bytes
+     * @param size   The number of bytes to write
+     * @param writer Fills a buffer of <code>size</code> bytes starting at position <code>0</code>
+     * @throws UnsupportedOperationException If this block can't be written to
+     */
+    default void write(long offset, int size, Consumer<ByteBuffer> writer) {
+        throw new UnsupportedOperationException("Shader block cannot be written to");
+    }
+
+    /**
+     * Writes a single int into this block.
+     *
+     * @param offset The offset into the block in bytes
+     * @param value  The value to write
+     */
+    default void writeInt(long offset, int value) {
+        this.write(offset, Integer.BYTES, buffer -> buffer.putInt(0, value));
+    }
+
+    /**
+     * Writes a single float into this block.
+     *
+     * @param offset The offset into the block in bytes
+     * @param value  The value to write
+     */
+    default void writeFloat(long offset, float value) {
+        this.write(offset, Float.BYTES, buffer -> buffer.putFloat(0, value));
+    }
+
+    /**
+     * Writes a vec4 into this block.
+     *
+     * @param offset The offset into the block in bytes
+     * @param value  The value to write
+     */
+    default void writeVector(long offset, Vector4fc value) {
+        this.write(offset, Float.BYTES * 4, value::get);
+    }
+
+    /**
+     * Writes a mat4 into this block.
+     *
+     * @param offset The offset into the block in bytes
+     * @param value  The value to write
+     */
+    default void writeMatrix(long offset, Matrix4fc value) {
+        this.write(offset, Float.BYTES * 16, value::get);
+    }
 }
@@ -3,13 +3,16 @@ package foundry.veil.api.client.render.shader.definition;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 /**
  * <p>Manages pre-defined variables and data in java that can be applied to shaders.</p>
  * <p>Regular definitions are added with {@link #define(String)}, {@link #define(String, String)},
  * and {@link #set(String, String)}. These schedule a shader recompilation every time they are set
- * so shaders can remain up-to-date. </p>
+ * so shaders can remain up-to-date. Shaders that were already compiled with the new values switch to
+ * that compiled variant instead of recompiling.</p>
+ * <p>Definitions can be read from any thread so shaders can be processed in the background.</p>
  */
 public class ShaderPreDefinitions {
 
@@ -23,9 +26,9 @@ public class ShaderPreDefinitions {
      */
     public ShaderPreDefinitions() {
         this.definitionCallbacks = new HashSet<>();
-        this.definitions = new HashMap<>();
+        this.definitions = new ConcurrentHashMap<>();
         this.definitionsView = Collections.unmodifiableMap(this.definitions);
-        this.staticDefinitions = new HashMap<>();
+        this.staticDefinitions = new ConcurrentHashMap<>();
     }
 
     private String getDefinition(String name, @Nullable String definition) {
@@ -136,6 +139,18 @@ public class ShaderPreDefinitions {
         return this.definitions.get(name);
     }
 
+    /**
+     * Creates a copy of all definitions without any listeners. Changes to the copy don't affect these definitions.
+     *
+     * @return A new set of predefinitions with the same values
+     */
+    public ShaderPreDefinitions copy() {
+        ShaderPreDefinitions copy = new ShaderPreDefinitions();
+        copy.definitions.putAll(this.definitions);
+        copy.staticDefinitions.putAll(this.staticDefinitions);
+        return copy;
+    }
+
     /**
      * @return A view of all definitions
      */
@@ -0,0 +1,219 @@
+package foundry.veil.api.client.render.shader.definition;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.impl.client.render.shader.definition.UniformRingAllocator;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.ApiStatus;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.NativeResource;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import static org.lwjgl.opengl.GL15C.*;
+import static org.lwjgl.opengl.GL30C.*;
+import static org.lwjgl.opengl.GL31C.GL_UNIFORM_BUFFER;
+import static org.lwjgl.opengl.GL32C.*;
+import static org.lwjgl.opengl.GL44C.GL_MAP_COHERENT_BIT;
+import static org.lwjgl.opengl.GL44C.GL_MAP_PERSISTENT_BIT;
+import static org.lwjgl.opengl.GL44C.glBufferStorage;
+
+/**
+ * <p>A single large uniform buffer that short-lived uniform data is written into every frame.</p>
+ * <p>Each write gets a new range of the buffer aligned to <code>GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT</code> and is bound
+ * with <code>glBindBufferRange</code>, so data still being read by the GPU is never overwritten and the driver never
+ * has to stall or copy the buffer. Each frame is guarded by a fence and its ranges are reused once the GPU finishes
+ * with it. If buffer storage is supported, the buffer is persistently mapped and data is written directly into it.</p>
+ *
+ * @author Ocelot
+ */
+public class UniformRingBuffer implements NativeResource {
+
+    /**
+     * The default size of the ring in bytes.
+     */
+    public static final int DEFAULT_SIZE = 1024 * 1024;
+
+    private static final long FENCE_TIMEOUT = 1_000_000_000L;
+
+    private final int size;
+    private final LongArrayFIFOQueue fences;
+    private UniformRingAllocator allocator;
+    private int buffer;
+    private long mapped;
+    private ByteBuffer scratch;
+    private int frame;
+
+    /**
+     * Creates a new ring. The buffer is created the first time data is written.
+     *
+     * @param size The size of the ring in bytes
+     */
+    public UniformRingBuffer(int size) {
+        this.size = size;
+        this.fences = new LongArrayFIFOQueue();
+        this.allocator = null;
+        this.buffer = 0;
+        this.mapped = 0L;
+        this.scratch = null;
+        this.frame = 0;
+    }
+
+    private void create() {
+        this.allocator = new UniformRingAllocator(this.size, VeilRenderSystem.uniformBufferOffsetAlignment());
+        long capacity = this.allocator.getCapacity();
+
+        this.buffer = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, this.buffer);
+        if (VeilRenderSystem.bufferStorageSupported()) {
+            int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+            glBufferStorage(GL_UNIFORM_BUFFER, capacity, flags);
+            this.mapped = nglMapBufferRange(GL_UNIFORM_BUFFER, 0L, capacity, flags);
+        } else {
+            glBufferData(GL_UNIFORM_BUFFER, capacity, GL_STREAM_DRAW);
+        }
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+    }
+
+    private void waitForOldestFrame() {
+        long fence = this.fences.dequeueLong();
+        while (glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT) == GL_TIMEOUT_EXPIRED) {
+            Thread.onSpinWait();
+        }
+        glDeleteSync(fence);
+        this.allocator.releaseFrame();
+    }
+
+    /**
+     * Allocates a new range of the ring and fills it.
+     *
+     * @param size   The number of bytes to write
+     * @param writer Fills a buffer of <code>size</code> bytes starting at position <code>0</code>
+     * @return The offset of the data in the ring or <code>-1</code> if the data is larger than the ring
+     */
+    public long write(int size, Consumer<ByteBuffer> writer) {
+        RenderSystem.assertOnRenderThreadOrInit();
+        if (this.buffer == 0) {
+            this.create();
+        }
+
+        long offset = this.allocator.allocate(size);
+        while (offset == -1 && !this.fences.isEmpty()) {
+            // The ring is full, so the only option is to wait for the GPU to finish an old frame
+            this.waitForOldestFrame();
+            offset = this.allocator.allocate(size);
+        }
+        if (offset == -1) {
+            return -1;
+        }
+
+        if (this.mapped != 0L) {
+            writer.accept(MemoryUtil.memByteBuffer(this.mapped + offset, size));
+        } else {
+            if (this.scratch == null) {
+                this.scratch = MemoryUtil.memAlloc(size);
+            } else if (this.scratch.capacity() < size) {
+                this.scratch = MemoryUtil.memRealloc(this.scratch, size);
+            }
+
+            ByteBuffer data = this.scratch.clear().limit(size);
+            writer.accept(data);
+            glBindBuffer(GL_UNIFORM_BUFFER, this.buffer);
+            nglBufferSubData(GL_UNIFORM_BUFFER, offset, size, MemoryUtil.memAddress0(data));
+            glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        }
+        return offset;
+    }
+
+    /**
+     * Binds a range previously returned by {@link #write(int, Consumer)}.
+     *
+     * @param index  The uniform buffer binding to bind to
+     * @param offset The offset of the data in the ring
+     * @param size   The number of bytes to bind
+     */
+    public void bind(int index, long offset, int size) {
+        Validate.inclusiveBetween(0, VeilRenderSystem.maxUniformBuffersBindings(), index);
+        glBindBufferRange(GL_UNIFORM_BUFFER, index, this.buffer, offset, size);
+    }
+
+    /**
+     * Finishes the current frame and reuses the memory of frames the GPU is done with.
+     * The previous frame is always kept, so data bound last frame stays valid until it is written again.
+     */
+    @ApiStatus.Internal
+    public void endFrame() {
+        this.frame++;
+        if (this.buffer == 0) {
+            return;
+        }
+
+        if (this.allocator.endFrame()) {
+            this.fences.enqueue(glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0));
+        }
+        while (this.fences.size() > 1) {
+            int status = glClientWaitSync(this.fences.firstLong(), 0, 0L);
+            if (status != GL_ALREADY_SIGNALED && status != GL_CONDITION_SATISFIED) {
+                break;
+            }
+
+            glDeleteSync(this.fences.dequeueLong());
+            this.allocator.releaseFrame();
+        }
+    }
+
+    /**
+     * @return The number of frames that have finished. Data written in an earlier frame has to be written again
+     */
+    public int getFrame() {
+        return this.frame;
+    }
+
+    /**
+     * @return Whether the buffer is persistently mapped
+     */
+    public boolean isPersistent() {
+        return this.mapped != 0L;
+    }
+
+    /**
+     * @return The number of bytes currently in use by the CPU or GPU
+     */
+    public long getUsed() {
+        return this.allocator != null ? this.allocator.getUsed() : 0;
+    }
+
+    /**
+     * @return The size of the ring in bytes
+     */
+    public long getCapacity() {
+        return this.allocator != null ? this.allocator.getCapacity() : this.size;
+    }
+
+    /**
+     * @return The number of frames the GPU may still be reading from
+     */
+    public int getFramesInFlight() {
+        return this.fences.size();
+    }
+
+    @Override
+    public void free() {
+        while (!this.fences.isEmpty()) {
+            glDeleteSync(this.fences.dequeueLong());
+        }
+        if (this.buffer != 0) {
+            // Deleting the buffer also unmaps it
+            glDeleteBuffers(this.buffer);
+            this.buffer = 0;
+            this.mapped = 0L;
+        }
+        if (this.scratch != null) {
+            MemoryUtil.memFree(this.scratch);
+            this.scratch = null;
+        }
+        this.allocator = null;
+    }
+}
@@ -9,6 +9,7 @@ import java.util.regex.Pattern;
 
 /**
  * Adds support for <code>layout(binding = #)</code> in the shader source without needing shader version 420.
+ * <p>The bindings of samplers and uniform blocks are removed from the source and set when the program is linked.</p>
  *
  * @author Ocelot
  */
@@ -1,11 +1,14 @@
 package foundry.veil.api.client.render.shader.processor;
 
 import foundry.veil.api.client.render.shader.ShaderManager;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.ResourceLocationException;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.packs.resources.Resource;
 import net.minecraft.server.packs.resources.ResourceProvider;
 import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -13,6 +16,9 @@ import java.util.*;
 
 /**
  * Processes a shader to add imports.
+ * <p>Each source is scanned once and split into plain text and <code>#include</code> directives. The scan is cached
+ * for every import, so files included by many shaders are only split into lines the first time they are used.
+ * <code>#line</code> directives are inserted around every import so compile errors point at the correct file and line.</p>
  *
  * @author Ocelot
  */
@@ -23,8 +29,9 @@ public class ShaderImportProcessor implements ShaderPreProcessor {
     private final ResourceProvider resourceProvider;
     private final Set<ResourceLocation> addedImports;
     private final Map<ResourceLocation, String> imports;
-    private final List<ResourceLocation> importOrder;
-    private int layer;
+    private final Object2IntMap<ResourceLocation> importOrder;
+    private final Map<ResourceLocation, ParsedSource> parsedImports;
+    private int sourceNumber;
 
     /**
      * Creates a new import processor that loads import files from the specified resource provider.
@@ -35,8 +42,9 @@ public class ShaderImportProcessor implements ShaderPreProcessor {
         this.resourceProvider = resourceProvider;
         this.addedImports = new HashSet<>();
         this.imports = new HashMap<>();
-        this.importOrder = new ArrayList<>();
-        this.layer = 0;
+        this.importOrder = new Object2IntOpenHashMap<>();
+        this.parsedImports = new HashMap<>();
+        this.sourceNumber = 0;
     }
 
     @Override
@@ -46,52 +54,70 @@ public class ShaderImportProcessor implements ShaderPreProcessor {
 
     @Override
     public String modify(Context context) throws IOException {
-        List<String> inputLines = context.getInput().lines().toList();
-        List<String> output = new LinkedList<>();
+        String input = context.getInput();
+        ParsedSource source = this.parse(context.getName(), input);
+        if (source.includes.length == 0) {
+            return source.text(0);
+        }
+
+        SourceBuilder output = new SourceBuilder(input.length() + input.length() / 2);
+        for (int i = 0; i < source.includes.length; i++) {
+            output.append(source.text(i));
+
+            Include include = source.includes[i];
+            if (include.error != null) {
+                throw new IOException("Invalid import: " + include.directive, include.error);
+            }
 
-        for (String line : inputLines) {
-            if (!line.startsWith(ShaderImportProcessor.INCLUDE_KEY)) {
-                output.add(line);
+            ResourceLocation id = include.id;
+            context.addInclude(id);
+
+            // Only read and process the import if it hasn't been added yet
+            if (!this.addedImports.add(id)) {
+                // Keep an empty line so the line numbers after this stay correct
+                output.append("");
                 continue;
             }
 
             try {
-                String trimmedImport = line.substring(ShaderImportProcessor.INCLUDE_KEY.length()).trim();
-                ResourceLocation source = new ResourceLocation(trimmedImport);
-                context.addInclude(source);
-
-                // Only read and process the import if it hasn't been added yet
-                if (!this.addedImports.add(source)) {
-                    continue;
+                String importString = this.imports.get(id);
+                if (importString == null) {
+                    importString = this.loadImport(id);
+                    this.imports.put(id, importString);
+                    this.importOrder.put(id, this.importOrder.size() + 1);
                 }
 
+                int parentSource = this.sourceNumber;
+                int importSource = this.importOrder.getInt(id);
+                output.append("#line 0 " + importSource);
+                this.sourceNumber = importSource;
                 try {
-                    if (!this.imports.containsKey(source)) {
-                        this.imports.put(source, this.loadImport(source));
-                        this.importOrder.add(source);
-                    }
-
-                    String importString = this.imports.get(source);
-                    if (importString == null) {
-                        throw new IOException("Import previously failed to load");
-                    }
-
-                    long lineNumber = String.join("\n", output).lines().filter(s -> !s.startsWith("#line")).count() + 2;
-                    int sourceNumber = this.importOrder.indexOf(source) + 1;
-                    output.add("#line 0 " + sourceNumber);
-                    this.layer++;
-                    output.add(context.modify(source, importString));
-                    this.layer--;
-                    output.add("#line " + lineNumber + " " + (this.layer == 0 ? 0 : sourceNumber));
-                } catch (Exception e) {
-                    throw new IOException("Failed to add import: " + line, e);
+                    output.append(context.modify(id, importString));
+                } finally {
+                    this.sourceNumber = parentSource;
                 }
-            } catch (ResourceLocationException e) {
-                throw new IOException("Invalid import: " + line, e);
+                output.append("#line " + (include.line + 1) + " " + parentSource);
+            } catch (Exception e) {
+                throw new IOException("Failed to add import: " + include.directive, e);
             }
         }
+        output.append(source.text(source.includes.length));
 
-        return String.join("\n", output);
+        return output.toString();
+    }
+
+    private ParsedSource parse(@Nullable ResourceLocation name, String input) {
+        if (name == null) {
+            return ParsedSource.parse(input);
+        }
+
+        // Imports are usually passed back unchanged, so the identity check in equals makes this cheap
+        ParsedSource parsed = this.parsedImports.get(name);
+        if (parsed == null || !parsed.input.equals(input)) {
+            parsed = ParsedSource.parse(input);
+            this.parsedImports.put(name, parsed);
+        }
+        return parsed;
     }
 
     private String loadImport(ResourceLocation source) throws IOException {
@@ -100,4 +126,86 @@ public class ShaderImportProcessor implements ShaderPreProcessor {
             return IOUtils.toString(reader);
         }
     }
+
+    /**
+     * A source file split around each <code>#include</code> directive.
+     *
+     * @param input    The original source
+     * @param texts    The text before each include and after the last include, or <code>null</code> if there were no lines
+     * @param includes Each include in the order they appear
+     */
+    private record ParsedSource(String input, String[] texts, Include[] includes) {
+
+        public String text(int index) {
+            return this.texts[index];
+        }
+
+        public static ParsedSource parse(String input) {
+            List<String> texts = new ArrayList<>();
+            List<Include> includes = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            boolean empty = true;
+            int lineNumber = 0;
+
+            Iterator<String> lines = input.lines().iterator();
+            while (lines.hasNext()) {
+                String line = lines.next();
+                lineNumber++;
+                if (!line.startsWith(INCLUDE_KEY)) {
+                    if (!empty) {
+                        text.append('\n');
+                    }
+                    text.append(line);
+                    empty = false;
+                    continue;
+                }
+
+                texts.add(empty ? null : text.toString());
+                text.setLength(0);
+                empty = true;
+
+                String trimmedImport = line.substring(INCLUDE_KEY.length()).trim();
+                try {
+                    includes.add(new Include(new ResourceLocation(trimmedImport), lineNumber, line, null));
+                } catch (ResourceLocationException e) {
+                    includes.add(new Include(null, lineNumber, line, e));
+                }
+            }
+            texts.add(empty ? (includes.isEmpty() ? "" : null) : text.toString());
+
+            return new ParsedSource(input, texts.toArray(String[]::new), includes.toArray(Include[]::new));
+        }
+    }
+
+    private record Include(@Nullable ResourceLocation id, int line, String directive, @Nullable ResourceLocationException error) {
+    }
+
+    /**
+     * Joins lines with new line characters.
+     */
+    private static class SourceBuilder {
+
+        private final StringBuilder builder;
+        private boolean started;
+
+        private SourceBuilder(int capacity) {
+            this.builder = new StringBuilder(capacity);
+        }
+
+        public void append(@Nullable String text) {
+            if (text == null) {
+                return;
+            }
+            if (this.started) {
+                this.builder.append('\n');
+            }
+            this.builder.append(text);
+            this.started = true;
+        }
+
+        @Override
+        public String toString() {
+            return this.builder.toString();
+        }
+    }
 }
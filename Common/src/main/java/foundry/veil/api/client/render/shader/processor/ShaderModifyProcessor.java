@@ -5,6 +5,8 @@ import foundry.veil.api.client.render.shader.ShaderModificationManager;
 import foundry.veil.impl.client.render.shader.modifier.ShaderModification;
 import net.minecraft.resources.FileToIdConverter;
 import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.util.HashSet;
@@ -18,10 +20,23 @@ import java.util.Set;
 public class ShaderModifyProcessor implements ShaderPreProcessor {
 
     private final ShaderModificationManager shaderModificationManager;
+    private final ShaderModificationManager.Preparations modifiers;
     private final Set<ResourceLocation> appliedModifications;
 
     public ShaderModifyProcessor(ShaderModificationManager shaderModificationManager) {
+        this(shaderModificationManager, null);
+    }
+
+    /**
+     * Creates a processor that applies a specific set of modifiers.
+     *
+     * @param shaderModificationManager The manager to apply modifiers with
+     * @param modifiers                 The modifiers to apply or <code>null</code> to use the currently loaded modifiers
+     */
+    @ApiStatus.Internal
+    public ShaderModifyProcessor(ShaderModificationManager shaderModificationManager, @Nullable ShaderModificationManager.Preparations modifiers) {
         this.shaderModificationManager = shaderModificationManager;
+        this.modifiers = modifiers;
         this.appliedModifications = new HashSet<>();
     }
 
@@ -38,6 +53,8 @@ public class ShaderModifyProcessor implements ShaderPreProcessor {
         }
         int flags = context.isSourceFile() ? ShaderModification.APPLY_VERSION | ShaderModification.ALLOW_OUT : 0;
         FileToIdConverter converter = context.isSourceFile() ? context.getConverter() : ShaderManager.INCLUDE_LISTER;
-        return context.modify(context.getName(), this.shaderModificationManager.applyModifiers(converter.idToFile(name), context.getInput(), flags));
+        ResourceLocation file = converter.idToFile(name);
+        String source = this.modifiers != null ? this.shaderModificationManager.applyModifiers(this.modifiers, file, context.getInput(), flags) : this.shaderModificationManager.applyModifiers(file, context.getInput(), flags);
+        return context.modify(context.getName(), source);
     }
 }
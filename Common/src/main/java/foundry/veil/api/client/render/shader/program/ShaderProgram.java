@@ -8,6 +8,7 @@ import foundry.veil.impl.client.render.shader.ShaderProgramImpl;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import net.minecraft.client.renderer.ShaderInstance;
 import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.joml.*;
 import org.lwjgl.system.MemoryStack;
@@ -69,6 +70,37 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
      */
     int getProgram();
 
+    /**
+     * Retrieves a handle to the uniform with the specified name. Handles stay valid when the program is recompiled,
+     * so they should be retrieved once and kept. By default, a new handle is created every call.
+     *
+     * @param name The name of the uniform
+     * @param type The type of value in the uniform
+     * @param <T>  The type of value in the uniform
+     * @return A handle to set the uniform with
+     * @throws IllegalArgumentException If a handle for the uniform was already created with a different type
+     */
+    default <T> UniformHandle<T> getUniformHandle(CharSequence name, UniformType<T> type) {
+        return new UniformHandle<>(this, name.toString(), type);
+    }
+
+    /**
+     * @return A number that changes every time uniform locations could change, for example when the program is recompiled.
+     * By default, this is the OpenGL id of the program
+     */
+    default int getUniformGeneration() {
+        return this.getProgram();
+    }
+
+    /**
+     * Called when a uniform is set by name so handles to the same uniform upload their next value again.
+     *
+     * @param location The location of the uniform that was set
+     */
+    @ApiStatus.Internal
+    default void invalidateUniformHandles(int location) {
+    }
+
     @Override
     default float getFloat(CharSequence name) {
         return glGetUniformf(this.getProgram(), this.getUniform(name));
@@ -232,6 +264,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
     default void setFloat(CharSequence name, float value) {
         int location = this.getUniform(name);
         if (location != -1) {
+            this.invalidateUniformHandles(location);
             glProgramUniform1f(this.getProgram(), location, value);
         }
     }
@@ -240,6 +273,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
     default void setVector(CharSequence name, float x, float y) {
         int location = this.getUniform(name);
         if (location != -1) {
+            this.invalidateUniformHandles(location);
             glProgramUniform2f(this.getProgram(), location, x, y);
         }
     }
@@ -248,6 +282,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
     default void setVector(CharSequence name, float x, float y, float z) {
         int location = this.getUniform(name);
         if (location != -1) {
+            this.invalidateUniformHandles(location);
             glProgramUniform3f(this.getProgram(), location, x, y, z);
         }
     }
@@ -256,6 +291,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
     default void setVector(CharSequence name, float x, float y, float z, float w) {
         int location = this.getUniform(name);
         if (location != -1) {
+            this.invalidateUniformHandles(location);
             glProgramUniform4f(this.getProgram(), location, x, y, z, w);
         }
     }
@@ -264,6 +300,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
     default void setInt(CharSequence name, int value) {
         int location = this.getUniform(name);
         if (location != -1) {
+            this.invalidateUniformHandles(location);
             glProgramUniform1i(this.getProgram(), location, value);
         }
     }
@@ -272,6 +309,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
     default void setVectorI(CharSequence name, int x, int y) {
         int location = this.getUniform(name);
         if (location != -1) {
+            this.invalidateUniformHandles(location);
             glProgramUniform2i(this.getProgram(), location, x, y);
         }
     }
@@ -280,6 +318,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
     default void setVectorI(CharSequence name, int x, int y, int z) {
         int location = this.getUniform(name);
         if (location != -1) {
+            this.invalidateUniformHandles(location);
             glProgramUniform3i(this.getProgram(), location, x, y, z);
         }
     }
@@ -288,6 +327,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
     default void setVectorI(CharSequence name, int x, int y, int z, int w) {
         int location = this.getUniform(name);
         if (location != -1) {
+            this.invalidateUniformHandles(location);
             glProgramUniform4i(this.getProgram(), location, x, y, z, w);
         }
     }
@@ -296,6 +336,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
     default void setFloats(CharSequence name, float... values) {
         int location = this.getUniform(name);
         if (location != -1) {
+            this.invalidateUniformHandles(location);
             glProgramUniform1fv(this.getProgram(), location, values);
         }
     }
@@ -306,6 +347,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
         if (location == -1) {
             return;
         }
+        this.invalidateUniformHandles(location);
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             FloatBuffer buffer = stack.mallocFloat(values.length * 2);
@@ -322,6 +364,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
         if (location == -1) {
             return;
         }
+        this.invalidateUniformHandles(location);
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             FloatBuffer buffer = stack.mallocFloat(values.length * 3);
@@ -338,6 +381,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
         if (location == -1) {
             return;
         }
+        this.invalidateUniformHandles(location);
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             FloatBuffer buffer = stack.mallocFloat(values.length * 4);
@@ -352,6 +396,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
     default void setInts(CharSequence name, int... values) {
         int location = this.getUniform(name);
         if (location != -1) {
+            this.invalidateUniformHandles(location);
             glProgramUniform1iv(this.getProgram(), location, values);
         }
     }
@@ -362,6 +407,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
         if (location == -1) {
             return;
         }
+        this.invalidateUniformHandles(location);
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             IntBuffer buffer = stack.mallocInt(values.length * 2);
@@ -378,6 +424,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
         if (location == -1) {
             return;
         }
+        this.invalidateUniformHandles(location);
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             IntBuffer buffer = stack.mallocInt(values.length * 3);
@@ -394,6 +441,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
         if (location == -1) {
             return;
         }
+        this.invalidateUniformHandles(location);
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             IntBuffer buffer = stack.mallocInt(values.length * 4);
@@ -410,6 +458,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
         if (location == -1) {
             return;
         }
+        this.invalidateUniformHandles(location);
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             FloatBuffer buffer = stack.mallocFloat(2 * 2);
@@ -424,6 +473,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
         if (location == -1) {
             return;
         }
+        this.invalidateUniformHandles(location);
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             FloatBuffer buffer = stack.mallocFloat(3 * 3);
@@ -438,6 +488,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
         if (location == -1) {
             return;
         }
+        this.invalidateUniformHandles(location);
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             FloatBuffer buffer = stack.mallocFloat(3 * 2);
@@ -452,6 +503,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
         if (location == -1) {
             return;
         }
+        this.invalidateUniformHandles(location);
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             FloatBuffer buffer = stack.mallocFloat(4 * 4);
@@ -466,6 +518,7 @@ public interface ShaderProgram extends NativeResource, MutableUniformAccess, Tex
         if (location == -1) {
             return;
         }
+        this.invalidateUniformHandles(location);
 
         try (MemoryStack stack = MemoryStack.stackPush()) {
             FloatBuffer buffer = stack.mallocFloat(4 * 3);
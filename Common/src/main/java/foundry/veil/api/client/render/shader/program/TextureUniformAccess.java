@@ -30,6 +30,7 @@ public interface TextureUniformAccess {
      * @param framebuffer The framebuffer to bind samplers from
      */
     default void setFramebufferSamplers(AdvancedFbo framebuffer) {
+        framebuffer.applyAutoClear();
         for (int i = 0; i < framebuffer.getColorAttachments(); i++) {
             if (!framebuffer.isColorTextureAttachment(i)) {
                 continue;
@@ -0,0 +1,105 @@
+package foundry.veil.api.client.render.shader.program;
+
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * A uniform in a shader program that can be set without looking up the uniform by name every time.
+ * <p>The location is looked up again automatically after the program is recompiled. The last uploaded value is stored,
+ * so setting the same value multiple times only uploads it once. Handles are retrieved with
+ * {@link ShaderProgram#getUniformHandle(CharSequence, UniformType)} and should be kept by the caller.</p>
+ *
+ * @param <T> The type of value in the uniform
+ * @author Ocelot
+ */
+public final class UniformHandle<T> {
+
+    private final ShaderProgram program;
+    private final String name;
+    private final UniformType<T> type;
+    private int generation;
+    private int location;
+    private T shadow;
+    private boolean uploaded;
+
+    @ApiStatus.Internal
+    public UniformHandle(ShaderProgram program, String name, UniformType<T> type) {
+        this.program = program;
+        this.name = name;
+        this.type = type;
+        this.generation = -1;
+        this.location = -1;
+    }
+
+    /**
+     * @return The location of this uniform in the current program or <code>-1</code> if it does not exist
+     */
+    public int getLocation() {
+        int generation = this.program.getUniformGeneration();
+        if (this.generation != generation) {
+            this.generation = generation;
+            this.location = this.program.getUniform(this.name);
+            this.uploaded = false;
+        }
+        return this.location;
+    }
+
+    /**
+     * @return Whether this uniform exists in the current program
+     */
+    public boolean isValid() {
+        return this.getLocation() != -1;
+    }
+
+    /**
+     * Sets the value of this uniform. Nothing is uploaded if the value is the same as the last value set.
+     *
+     * @param value The value to set
+     */
+    public void set(T value) {
+        int location = this.getLocation();
+        if (location == -1) {
+            return;
+        }
+        if (this.uploaded && this.type.matches(this.shadow, value)) {
+            return;
+        }
+
+        this.type.upload(this.program.getProgram(), location, value);
+        this.shadow = this.type.copy(value, this.shadow);
+        this.uploaded = true;
+    }
+
+    /**
+     * Forgets the last uploaded value so the next value is always uploaded.
+     * This must be called if the uniform was changed without using this handle.
+     */
+    public void invalidate() {
+        this.uploaded = false;
+    }
+
+    /**
+     * @return The program this uniform is in
+     */
+    public ShaderProgram getProgram() {
+        return this.program;
+    }
+
+    /**
+     * @return The name of the uniform
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return The type of value in the uniform
+     */
+    public UniformType<T> getType() {
+        return this.type;
+    }
+
+    @Override
+    public String toString() {
+        return "UniformHandle[" + this.type + " " + this.name + "]";
+    }
+}
@@ -0,0 +1,193 @@
+package foundry.veil.api.client.render.shader.program;
+
+import org.jetbrains.annotations.Nullable;
+import org.joml.*;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL41C.*;
+
+/**
+ * The type of value set with a {@link UniformHandle}. Each type knows how to upload a value and how to remember
+ * the last uploaded value so setting the same value again can be skipped.
+ *
+ * @param <T> The type of value to set
+ * @author Ocelot
+ */
+public final class UniformType<T> {
+
+    public static final UniformType<Float> FLOAT = new UniformType<>("float",
+            (shadow, value) -> Float.floatToIntBits(shadow) == Float.floatToIntBits(value),
+            (value, shadow) -> value,
+            (program, location, value) -> glProgramUniform1f(program, location, value));
+    public static final UniformType<Integer> INT = new UniformType<>("int",
+            (shadow, value) -> shadow.intValue() == value.intValue(),
+            (value, shadow) -> value,
+            (program, location, value) -> glProgramUniform1i(program, location, value));
+    public static final UniformType<Vector2fc> VEC2 = new UniformType<>("vec2",
+            (shadow, value) -> shadow.equals(value.x(), value.y()),
+            (value, shadow) -> shadow != null ? ((Vector2f) shadow).set(value) : new Vector2f(value),
+            (program, location, value) -> glProgramUniform2f(program, location, value.x(), value.y()));
+    public static final UniformType<Vector3fc> VEC3 = new UniformType<>("vec3",
+            (shadow, value) -> shadow.equals(value.x(), value.y(), value.z()),
+            (value, shadow) -> shadow != null ? ((Vector3f) shadow).set(value) : new Vector3f(value),
+            (program, location, value) -> glProgramUniform3f(program, location, value.x(), value.y(), value.z()));
+    public static final UniformType<Vector4fc> VEC4 = new UniformType<>("vec4",
+            (shadow, value) -> shadow.equals(value.x(), value.y(), value.z(), value.w()),
+            (value, shadow) -> shadow != null ? ((Vector4f) shadow).set(value) : new Vector4f(value),
+            (program, location, value) -> glProgramUniform4f(program, location, value.x(), value.y(), value.z(), value.w()));
+    public static final UniformType<Vector2ic> IVEC2 = new UniformType<>("ivec2",
+            (shadow, value) -> shadow.equals(value.x(), value.y()),
+            (value, shadow) -> shadow != null ? ((Vector2i) shadow).set(value) : new Vector2i(value),
+            (program, location, value) -> glProgramUniform2i(program, location, value.x(), value.y()));
+    public static final UniformType<Vector3ic> IVEC3 = new UniformType<>("ivec3",
+            (shadow, value) -> shadow.equals(value.x(), value.y(), value.z()),
+            (value, shadow) -> shadow != null ? ((Vector3i) shadow).set(value) : new Vector3i(value),
+            (program, location, value) -> glProgramUniform3i(program, location, value.x(), value.y(), value.z()));
+    public static final UniformType<Vector4ic> IVEC4 = new UniformType<>("ivec4",
+            (shadow, value) -> shadow.equals(value.x(), value.y(), value.z(), value.w()),
+            (value, shadow) -> shadow != null ? ((Vector4i) shadow).set(value) : new Vector4i(value),
+            (program, location, value) -> glProgramUniform4i(program, location, value.x(), value.y(), value.z(), value.w()));
+    public static final UniformType<Matrix2fc> MAT2 = new UniformType<>("mat2",
+            (shadow, value) -> shadow.equals(value, 0.0F),
+            (value, shadow) -> shadow != null ? ((Matrix2f) shadow).set(value) : new Matrix2f(value),
+            (program, location, value) -> {
+                try (MemoryStack stack = MemoryStack.stackPush()) {
+                    FloatBuffer buffer = stack.mallocFloat(2 * 2);
+                    value.get(buffer);
+                    glProgramUniformMatrix2fv(program, location, false, buffer);
+                }
+            });
+    public static final UniformType<Matrix3fc> MAT3 = new UniformType<>("mat3",
+            (shadow, value) -> shadow.equals(value, 0.0F),
+            (value, shadow) -> shadow != null ? ((Matrix3f) shadow).set(value) : new Matrix3f(value),
+            (program, location, value) -> {
+                try (MemoryStack stack = MemoryStack.stackPush()) {
+                    FloatBuffer buffer = stack.mallocFloat(3 * 3);
+                    value.get(buffer);
+                    glProgramUniformMatrix3fv(program, location, false, buffer);
+                }
+            });
+    public static final UniformType<Matrix3x2fc> MAT3X2 = new UniformType<>("mat3x2",
+            (shadow, value) -> shadow.equals(value, 0.0F),
+            (value, shadow) -> shadow != null ? ((Matrix3x2f) shadow).set(value) : new Matrix3x2f(value),
+            (program, location, value) -> {
+                try (MemoryStack stack = MemoryStack.stackPush()) {
+                    FloatBuffer buffer = stack.mallocFloat(3 * 2);
+                    value.get(buffer);
+                    glProgramUniformMatrix3x2fv(program, location, false, buffer);
+                }
+            });
+    public static final UniformType<Matrix4fc> MAT4 = new UniformType<>("mat4",
+            (shadow, value) -> shadow.equals(value, 0.0F),
+            (value, shadow) -> shadow != null ? ((Matrix4f) shadow).set(value) : new Matrix4f(value),
+            (program, location, value) -> {
+                try (MemoryStack stack = MemoryStack.stackPush()) {
+                    FloatBuffer buffer = stack.mallocFloat(4 * 4);
+                    value.get(buffer);
+                    glProgramUniformMatrix4fv(program, location, false, buffer);
+                }
+            });
+    public static final UniformType<Matrix4x3fc> MAT4X3 = new UniformType<>("mat4x3",
+            (shadow, value) -> shadow.equals(value, 0.0F),
+            (value, shadow) -> shadow != null ? ((Matrix4x3f) shadow).set(value) : new Matrix4x3f(value),
+            (program, location, value) -> {
+                try (MemoryStack stack = MemoryStack.stackPush()) {
+                    FloatBuffer buffer = stack.mallocFloat(4 * 3);
+                    value.get(buffer);
+                    glProgramUniformMatrix4x3fv(program, location, false, buffer);
+                }
+            });
+
+    private final String name;
+    private final Comparator<T> comparator;
+    private final Copier<T> copier;
+    private final Uploader<T> uploader;
+
+    /**
+     * Creates a new uniform type.
+     *
+     * @param name       The name of the type, used for errors
+     * @param comparator Checks if the last uploaded value is the same as a new value
+     * @param copier     Stores a copy of an uploaded value
+     * @param uploader   Uploads values to a program
+     */
+    public UniformType(String name, Comparator<T> comparator, Copier<T> copier, Uploader<T> uploader) {
+        this.name = name;
+        this.comparator = comparator;
+        this.copier = copier;
+        this.uploader = uploader;
+    }
+
+    /**
+     * Checks if a value is the same as the last uploaded value.
+     *
+     * @param shadow The copy of the last uploaded value
+     * @param value  The new value
+     * @return Whether uploading the new value would not change anything
+     */
+    public boolean matches(T shadow, T value) {
+        return this.comparator.matches(shadow, value);
+    }
+
+    /**
+     * Stores a copy of the specified value.
+     *
+     * @param value  The value to copy
+     * @param shadow The previous copy to reuse or <code>null</code> to create a new one
+     * @return The copy of the value
+     */
+    public T copy(T value, @Nullable T shadow) {
+        return this.copier.copy(value, shadow);
+    }
+
+    /**
+     * Uploads a value to the specified program.
+     *
+     * @param program  The id of the program to upload to
+     * @param location The location of the uniform
+     * @param value    The value to upload
+     */
+    public void upload(int program, int location, T value) {
+        this.uploader.upload(program, location, value);
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    /**
+     * Checks if a new value is the same as the last uploaded value.
+     *
+     * @param <T> The type of value
+     */
+    @FunctionalInterface
+    public interface Comparator<T> {
+
+        boolean matches(T shadow, T value);
+    }
+
+    /**
+     * Copies a value so it won't change if the caller modifies it.
+     *
+     * @param <T> The type of value
+     */
+    @FunctionalInterface
+    public interface Copier<T> {
+
+        T copy(T value, @Nullable T shadow);
+    }
+
+    /**
+     * Uploads a value to a uniform in a program.
+     *
+     * @param <T> The type of value
+     */
+    @FunctionalInterface
+    public interface Uploader<T> {
+
+        void upload(int program, int location, T value);
+    }
+}
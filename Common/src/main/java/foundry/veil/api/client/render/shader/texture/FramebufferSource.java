@@ -34,6 +34,7 @@ public record FramebufferSource(ResourceLocation name,
             return 0;
         }
 
+        framebuffer.applyAutoClear();
         if (this.depth) {
             return framebuffer.isDepthTextureAttachment() ? framebuffer.getDepthTextureAttachment().getId() : 0;
         }
@@ -1,11 +1,15 @@
 package foundry.veil.api.client.util;
 
+import com.mojang.blaze3d.systems.RenderSystem;
+import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
 import net.minecraft.Util;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.renderer.texture.AbstractTexture;
 import net.minecraft.client.renderer.texture.MissingTextureAtlasSprite;
 import net.minecraft.resources.ResourceLocation;
-import org.lwjgl.system.MemoryUtil;
+import org.jetbrains.annotations.ApiStatus;
+import org.lwjgl.system.NativeResource;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -19,19 +23,68 @@ import java.util.concurrent.CompletionException;
 import static org.lwjgl.opengl.GL11C.*;
 import static org.lwjgl.opengl.GL12C.GL_TEXTURE_BASE_LEVEL;
 import static org.lwjgl.opengl.GL12C.GL_TEXTURE_MAX_LEVEL;
-import static org.lwjgl.stb.STBImageWrite.stbi_flip_vertically_on_write;
-import static org.lwjgl.stb.STBImageWrite.stbi_write_png;
+import static org.lwjgl.opengl.GL15C.*;
+import static org.lwjgl.opengl.GL21C.GL_PIXEL_PACK_BUFFER;
+import static org.lwjgl.stb.STBImageWrite.*;
 
 /**
  * Properly downloads textures from OpenGL and writes them to a file asynchronously.
+ * <p>Pixels are copied into pixel pack buffers and only mapped once the GPU has finished writing them, which is
+ * usually a frame later. Images are then encoded directly from the mapped memory on the IO pool.</p>
  *
  * @author Ocelot
  */
 public final class TextureDownloader {
 
+    // The flip flag in stb is global, so writes can't overlap
+    private static final Object WRITE_LOCK = new Object();
+
     private TextureDownloader() {
     }
 
+    /**
+     * Downloads a level of the specified texture without waiting for the GPU.
+     *
+     * @param texture  The id of the texture to download
+     * @param level    The mipmap level to download
+     * @param floating Whether to download the pixels as floats instead of unsigned bytes
+     * @return A future for the downloaded image. It completes on the render thread once the GPU has finished copying the pixels
+     */
+    public static CompletableFuture<Image> download(int texture, int level, boolean floating) {
+        RenderSystem.assertOnRenderThreadOrInit();
+        glBindTexture(GL_TEXTURE_2D, texture);
+        boolean depth = glGetTexLevelParameteri(GL_TEXTURE_2D, level, GL_TEXTURE_INTERNAL_FORMAT) == GL_DEPTH_COMPONENT;
+        return VeilRenderSystem.renderer().getPixelReadbackManager().readTexture(texture, level, depth ? GL_DEPTH_COMPONENT : GL_RGBA, depth ? 1 : 4, floating);
+    }
+
+    /**
+     * Downloads a color attachment of the specified framebuffer without waiting for the GPU.
+     *
+     * @param framebuffer The framebuffer to download
+     * @param attachment  The color attachment to download
+     * @param floating    Whether to download the pixels as floats instead of unsigned bytes
+     * @return A future for the downloaded image. It completes on the render thread once the GPU has finished copying the pixels
+     */
+    public static CompletableFuture<Image> downloadColor(AdvancedFbo framebuffer, int attachment, boolean floating) {
+        if (!framebuffer.hasColorAttachment(attachment)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Framebuffer has no color attachment " + attachment));
+        }
+        return VeilRenderSystem.renderer().getPixelReadbackManager().readFramebuffer(framebuffer, attachment, GL_RGBA, 4, floating);
+    }
+
+    /**
+     * Downloads the depth attachment of the specified framebuffer as floats without waiting for the GPU.
+     *
+     * @param framebuffer The framebuffer to download
+     * @return A future for the downloaded image. It completes on the render thread once the GPU has finished copying the pixels
+     */
+    public static CompletableFuture<Image> downloadDepth(AdvancedFbo framebuffer) {
+        if (!framebuffer.hasDepthAttachment()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Framebuffer has no depth attachment"));
+        }
+        return VeilRenderSystem.renderer().getPixelReadbackManager().readFramebuffer(framebuffer, -1, GL_DEPTH_COMPONENT, 1, true);
+    }
+
     /**
      * Writes the specified texture to file with the specified name. If the texture specifies mipmap levels, then the file name will be <code>name-#.png</code>.
      *
@@ -42,6 +95,23 @@ public final class TextureDownloader {
      * @return A future for when all texture levels have been downloaded and saved
      */
     public static CompletableFuture<?> save(String name, Path outputFolder, int texture, boolean flip) {
+        return save(name, outputFolder, texture, flip, false);
+    }
+
+    /**
+     * Writes the specified texture to file with the specified name as a Radiance HDR image. If the texture specifies mipmap levels, then the file name will be <code>name-#.hdr</code>.
+     *
+     * @param name         The name of the file to save to
+     * @param outputFolder The folder to place the file in
+     * @param texture      The id of the texture to download
+     * @param flip         Whether to flip the image on write
+     * @return A future for when all texture levels have been downloaded and saved
+     */
+    public static CompletableFuture<?> saveHdr(String name, Path outputFolder, int texture, boolean flip) {
+        return save(name, outputFolder, texture, flip, true);
+    }
+
+    private static CompletableFuture<?> save(String name, Path outputFolder, int texture, boolean flip, boolean hdr) {
         glBindTexture(GL_TEXTURE_2D, texture);
         int base = glGetTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL);
         int max = glGetTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL);
@@ -51,7 +121,7 @@ public final class TextureDownloader {
 
         List<CompletableFuture<?>> result = new ArrayList<>(max - base + 1);
         for (int level = base; level <= max; level++) {
-            Path outputFile = outputFolder.resolve(name + (base == max ? "" : "-" + level) + ".png");
+            Path outputFile = outputFolder.resolve(name + (base == max ? "" : "-" + level) + (hdr ? ".hdr" : ".png"));
             if (!Files.exists(outputFile)) {
                 try {
                     Files.createFile(outputFile);
@@ -61,29 +131,37 @@ public final class TextureDownloader {
                 }
             }
 
-            int width = glGetTexLevelParameteri(GL_TEXTURE_2D, level, GL_TEXTURE_WIDTH);
-            int height = glGetTexLevelParameteri(GL_TEXTURE_2D, level, GL_TEXTURE_HEIGHT);
-            int format = glGetTexLevelParameteri(GL_TEXTURE_2D, level, GL_TEXTURE_INTERNAL_FORMAT);
-
-            boolean floating = format == GL_DEPTH_COMPONENT;
-            int components = floating ? 1 : 4;
-            ByteBuffer image = MemoryUtil.memAlloc(width * height * components);
-            glGetTexImage(GL_TEXTURE_2D, level, floating ? GL_DEPTH_COMPONENT : GL_RGBA, GL_UNSIGNED_BYTE, image);
-
-            CompletableFuture<?> future = CompletableFuture.runAsync(() ->
-            {
-                stbi_flip_vertically_on_write(flip);
-                boolean success = stbi_write_png(outputFile.toString(), width, height, components, image, 0);
-                MemoryUtil.memFree(image);
-                if (!success) {
-                    throw new CompletionException(new IOException("Failed to write image to: " + outputFile));
+            result.add(download(texture, level, hdr).thenAcceptAsync(image -> {
+                try {
+                    if (!write(outputFile, image, flip)) {
+                        throw new CompletionException(new IOException("Failed to write image to: " + outputFile));
+                    }
+                } finally {
+                    image.free();
                 }
-            }, Util.ioPool());
-            result.add(future);
+            }, Util.ioPool()));
         }
         return CompletableFuture.allOf(result.toArray(CompletableFuture[]::new));
     }
 
+    /**
+     * Writes the specified image to a file. Floating point images are written as Radiance HDR and all others as PNG.
+     *
+     * @param outputFile The file to write to
+     * @param image      The image to write
+     * @param flip       Whether to flip the image on write
+     * @return Whether the image was written successfully
+     */
+    public static boolean write(Path outputFile, Image image, boolean flip) {
+        synchronized (WRITE_LOCK) {
+            stbi_flip_vertically_on_write(flip);
+            if (image.isFloating()) {
+                return stbi_write_hdr(outputFile.toString(), image.getWidth(), image.getHeight(), image.getComponents(), image.getPixels().asFloatBuffer());
+            }
+            return stbi_write_png(outputFile.toString(), image.getWidth(), image.getHeight(), image.getComponents(), image.getPixels(), 0);
+        }
+    }
+
     /**
      * Writes the specified texture to file with the specified name. If the texture specifies mipmap levels, then the file name will be <code>name-#.png</code>.
      *
@@ -110,4 +188,92 @@ public final class TextureDownloader {
         AbstractTexture abstractTexture = Minecraft.getInstance().getTextureManager().getTexture(texture);
         return save(name, outputFolder, abstractTexture != null ? abstractTexture : MissingTextureAtlasSprite.getTexture(), flip);
     }
+
+    /**
+     * Pixels downloaded from the GPU. The pixels are mapped directly from a pixel pack buffer and are tightly packed
+     * starting from the bottom row. They can be read from any thread until {@link #free()} is called.
+     */
+    public static final class Image implements NativeResource {
+
+        private final int buffer;
+        private final ByteBuffer pixels;
+        private final int width;
+        private final int height;
+        private final int components;
+        private final boolean floating;
+        private boolean freed;
+
+        @ApiStatus.Internal
+        public Image(int buffer, ByteBuffer pixels, int width, int height, int components, boolean floating) {
+            this.buffer = buffer;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+            this.components = components;
+            this.floating = floating;
+            this.freed = false;
+        }
+
+        /**
+         * @return The width of the image in pixels
+         */
+        public int getWidth() {
+            return this.width;
+        }
+
+        /**
+         * @return The height of the image in pixels
+         */
+        public int getHeight() {
+            return this.height;
+        }
+
+        /**
+         * @return The number of components in each pixel
+         */
+        public int getComponents() {
+            return this.components;
+        }
+
+        /**
+         * @return Whether each component is a float instead of an unsigned byte
+         */
+        public boolean isFloating() {
+            return this.floating;
+        }
+
+        /**
+         * @return The mapped pixel data
+         */
+        public ByteBuffer getPixels() {
+            if (this.freed) {
+                throw new IllegalStateException("Image has been freed");
+            }
+            return this.pixels;
+        }
+
+        /**
+         * Unmaps and deletes the pixel buffer. If this is called off the render thread, the buffer is deleted on the next frame.
+         */
+        @Override
+        public synchronized void free() {
+            if (this.freed) {
+                return;
+            }
+            this.freed = true;
+
+            if (RenderSystem.isOnRenderThread()) {
+                this.delete();
+            } else {
+                RenderSystem.recordRenderCall(this::delete);
+            }
+        }
+
+        private void delete() {
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, this.buffer);
+            glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+            glDeleteBuffers(this.buffer);
+        }
+    }
 }
@@ -54,6 +54,8 @@ public class ParticleEmitter {
     private final Vector3d position;
     private final Vector3d offset;
     private final List<QuasarParticle> particles;
+    private final double[] renderBounds;
+    private boolean unbounded;
 
     private int maxLifetime;
     private boolean loop;
@@ -80,6 +82,7 @@ public class ParticleEmitter {
         this.position = new Vector3d();
         this.offset = new Vector3d();
         this.particles = new ArrayList<>();
+        this.renderBounds = new double[6];
 
         this.maxLifetime = data.maxLifetime();
         this.loop = data.loop();
@@ -195,6 +198,7 @@ public class ParticleEmitter {
                 particle.onRemove();
             }
         }
+        this.updateRenderBounds();
 
 //        if (this.removed) {
 //            this.cancelTasks();
@@ -210,6 +214,53 @@ public class ParticleEmitter {
 //        }
     }
 
+    private void updateRenderBounds() {
+        double minX = this.position.x;
+        double minY = this.position.y;
+        double minZ = this.position.z;
+        double maxX = this.position.x;
+        double maxY = this.position.y;
+        double maxZ = this.position.z;
+        this.unbounded = false;
+        for (QuasarParticle particle : this.particles) {
+            RenderData renderData = particle.getRenderData();
+            // Trails can stretch anywhere, so they are never culled
+            if (!renderData.getTrails().isEmpty()) {
+                this.unbounded = true;
+                return;
+            }
+
+            // Particles are interpolated towards their next position while rendering, so include a tick of movement
+            Vector3d pos = particle.getPosition();
+            double radius = Math.max(particle.getRadius(), renderData.getRenderRadius()) + particle.getVelocity().length();
+            minX = Math.min(minX, pos.x - radius);
+            minY = Math.min(minY, pos.y - radius);
+            minZ = Math.min(minZ, pos.z - radius);
+            maxX = Math.max(maxX, pos.x + radius);
+            maxY = Math.max(maxY, pos.y + radius);
+            maxZ = Math.max(maxZ, pos.z + radius);
+        }
+
+        this.renderBounds[0] = minX;
+        this.renderBounds[1] = minY;
+        this.renderBounds[2] = minZ;
+        this.renderBounds[3] = maxX;
+        this.renderBounds[4] = maxY;
+        this.renderBounds[5] = maxZ;
+    }
+
+    /**
+     * Retrieves the box around all particles of this emitter as of the last tick.
+     *
+     * @param store  The array to store the box into as <code>[minX, minY, minZ, maxX, maxY, maxZ]</code>
+     * @param offset The index to start writing at
+     * @return Whether the box is valid. Emitters with trails have no box and are always drawn
+     */
+    public boolean getRenderBounds(double[] store, int offset) {
+        System.arraycopy(this.renderBounds, 0, store, offset, this.renderBounds.length);
+        return !this.unbounded;
+    }
+
     // TODO move to renderer
     @ApiStatus.Internal
     public void render(PoseStack poseStack, MultiBufferSource bufferSource, Camera camera, float partialTicks) {
@@ -4,9 +4,11 @@ import com.mojang.blaze3d.vertex.PoseStack;
 import foundry.veil.Veil;
 import foundry.veil.api.TickTaskScheduler;
 import foundry.veil.api.client.render.CullFrustum;
+import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.quasar.data.ParticleEmitterData;
 import foundry.veil.api.quasar.data.QuasarParticles;
 import foundry.veil.impl.TickTaskSchedulerImpl;
+import foundry.veil.impl.client.render.FrustumBatchCuller;
 import net.minecraft.client.Camera;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.multiplayer.ClientLevel;
@@ -30,6 +32,10 @@ public class ParticleSystemManager {
     private final List<ParticleEmitter> particleEmitters;
     private final Set<ResourceLocation> invalidEmitters;
     private final AtomicInteger particleCount;
+    private double[] bounds;
+    private long[] visibility;
+    private long[] unbounded;
+    private int visibleEmitters;
 
     private ClientLevel level;
     private TickTaskSchedulerImpl scheduler;
@@ -39,6 +45,9 @@ public class ParticleSystemManager {
         this.invalidEmitters = new HashSet<>();
 
         this.particleCount = new AtomicInteger();
+        this.bounds = new double[0];
+        this.visibility = new long[0];
+        this.unbounded = new long[0];
         this.level = null;
         this.scheduler = null;
     }
@@ -106,8 +115,39 @@ public class ParticleSystemManager {
         // TODO store emitters per-chunk and fetch them from the renderer
 
         this.particleEmitters.sort(Comparator.comparingDouble(a -> -a.getPosition().distanceSquared(camera.getPosition().x, camera.getPosition().y, camera.getPosition().z)));
-        for (ParticleEmitter emitter : this.particleEmitters) {
-            emitter.render(poseStack, bufferSource, camera, partialTicks);
+        this.cullEmitters(frustum);
+        for (int i = 0; i < this.particleEmitters.size(); i++) {
+            if (FrustumBatchCuller.isVisible(this.visibility, i)) {
+                this.particleEmitters.get(i).render(poseStack, bufferSource, camera, partialTicks);
+            }
+        }
+    }
+
+    private void cullEmitters(CullFrustum frustum) {
+        int count = this.particleEmitters.size();
+        int words = FrustumBatchCuller.getWordCount(count);
+        if (this.bounds.length < count * FrustumBatchCuller.AAB_STRIDE) {
+            this.bounds = new double[count * FrustumBatchCuller.AAB_STRIDE * 3 / 2];
+        }
+        if (this.visibility.length < words) {
+            this.visibility = new long[words * 3 / 2 + 1];
+            this.unbounded = new long[this.visibility.length];
+        }
+
+        Arrays.fill(this.unbounded, 0L);
+        for (int i = 0; i < count; i++) {
+            if (!this.particleEmitters.get(i).getRenderBounds(this.bounds, i * FrustumBatchCuller.AAB_STRIDE)) {
+                this.unbounded[i >>> 6] |= 1L << i;
+            }
+        }
+
+        frustum.testAabs(this.bounds, count, this.visibility);
+        VeilRenderSystem.renderer().getHiZBuffer().testAabs(this.bounds, count, this.visibility);
+
+        this.visibleEmitters = 0;
+        for (int i = 0; i < words; i++) {
+            this.visibility[i] |= this.unbounded[i];
+            this.visibleEmitters += Long.bitCount(this.visibility[i]);
         }
     }
 
@@ -151,4 +191,11 @@ public class ParticleSystemManager {
     public int getParticleCount() {
         return this.particleCount.get();
     }
+
+    /**
+     * @return The number of emitters that passed frustum and occlusion culling last frame
+     */
+    public int getVisibleEmitterCount() {
+        return this.visibleEmitters;
+    }
 }
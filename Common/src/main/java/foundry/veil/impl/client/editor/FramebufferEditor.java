@@ -8,7 +8,14 @@ import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
 import foundry.veil.api.client.render.framebuffer.AdvancedFboTextureAttachment;
 import foundry.veil.api.client.render.framebuffer.FramebufferAttachmentDefinition;
 import foundry.veil.api.client.render.framebuffer.FramebufferManager;
+import foundry.veil.api.client.render.post.PostPipeline;
+import foundry.veil.api.client.render.post.PostProcessingManager;
+import foundry.veil.api.client.render.post.stage.CompositePostPipeline;
 import foundry.veil.api.client.util.TextureDownloader;
+import foundry.veil.impl.client.render.framebuffer.FramebufferAliasSolver;
+import foundry.veil.impl.client.render.framebuffer.FramebufferClearTracker;
+import foundry.veil.impl.client.render.framebuffer.FramebufferCopier;
+import foundry.veil.impl.client.render.framebuffer.FramebufferPool;
 import imgui.ImGui;
 import net.minecraft.Util;
 import net.minecraft.client.Minecraft;
@@ -46,6 +53,19 @@ public class FramebufferEditor extends SingleWindowEditor {
     protected void renderComponents() {
         VeilRenderer renderer = VeilRenderSystem.renderer();
 
+        FramebufferPool pool = renderer.getFramebufferPool();
+        ImGui.text("Pool: %d framebuffers (%.1f MB), %d idle, %d hits, %d misses".formatted(pool.getAllocated(), pool.getAllocatedBytes() / 1048576.0, pool.getIdle(), pool.getHits(), pool.getMisses()));
+        FramebufferClearTracker clearTracker = renderer.getFramebufferManager().getClearTracker();
+        ImGui.text("Automatic Clears: %d issued, %d skipped last frame".formatted(clearTracker.getClearsIssued(), clearTracker.getClearsSkipped()));
+        FramebufferCopier<AdvancedFbo> copier = renderer.getFramebufferCopier();
+        ImGui.text("Copies: %d blits, %d direct copies (%.1f MB) last frame".formatted(copier.getBlits(), copier.getImageCopies(), copier.getBytesCopied() / 1048576.0));
+        if (ImGui.collapsingHeader("Post Framebuffer Aliasing")) {
+            PostProcessingManager postProcessingManager = renderer.getPostProcessingManager();
+            for (ResourceLocation id : postProcessingManager.getPipelines()) {
+                this.drawAliasing(id.toString(), postProcessingManager.getPipeline(id));
+            }
+        }
+
         if (ImGui.beginTabBar("Framebuffers")) {
             FramebufferManager framebufferManager = renderer.getFramebufferManager();
             for (Map.Entry<ResourceLocation, AdvancedFbo> entry : framebufferManager.getFramebuffers().entrySet()) {
@@ -98,6 +118,27 @@ public class FramebufferEditor extends SingleWindowEditor {
         }
     }
 
+    private void drawAliasing(String name, @Nullable PostPipeline pipeline) {
+        if (!(pipeline instanceof CompositePostPipeline composite)) {
+            return;
+        }
+
+        FramebufferAliasSolver.Result aliasing = composite.getAliasing();
+        ResourceLocation[] names = composite.getFramebufferNames();
+        if (aliasing != null && names.length > 0) {
+            ImGui.text("%s: %d framebuffers in %d allocations, %.1f MB saved".formatted(name, names.length, aliasing.slotCount(), aliasing.savedBytes() / 1048576.0));
+            int[] slots = aliasing.slots();
+            boolean[] shared = aliasing.shared();
+            for (int i = 0; i < names.length; i++) {
+                ImGui.bulletText("%s -> #%d%s".formatted(names[i], slots[i], shared[slots[i]] ? "" : " (persistent)"));
+            }
+        }
+
+        for (PostPipeline stage : composite.getStages()) {
+            this.drawAliasing(name, stage);
+        }
+    }
+
     private void drawBuffers(String name, @Nullable AdvancedFbo buffer) {
         ImGui.beginDisabled(buffer == null);
         if (ImGui.beginTabItem(name)) {
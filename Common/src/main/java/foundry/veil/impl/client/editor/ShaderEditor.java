@@ -6,17 +6,27 @@ import foundry.veil.api.client.imgui.CodeEditor;
 import foundry.veil.api.client.imgui.VeilImGuiUtil;
 import foundry.veil.api.client.imgui.VeilLanguageDefinitions;
 import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.VeilRenderer;
+import foundry.veil.api.client.render.shader.ShaderException;
+import foundry.veil.api.client.render.shader.ShaderManager;
 import foundry.veil.api.client.render.shader.definition.ShaderPreDefinitions;
 import foundry.veil.api.client.render.shader.program.ShaderProgram;
 import foundry.veil.impl.client.imgui.VeilImGuiImpl;
+import foundry.veil.impl.client.render.shader.ShaderCompileProfiler;
+import foundry.veil.impl.client.render.shader.ShaderProgramImpl;
 import foundry.veil.impl.compat.IrisShaderMap;
 import foundry.veil.mixin.accessor.GameRendererAccessor;
 import foundry.veil.mixin.accessor.LevelRendererAccessor;
 import foundry.veil.mixin.accessor.PostChainAccessor;
 import imgui.ImGui;
+import imgui.ImGuiTableColumnSortSpecs;
+import imgui.ImGuiTableSortSpecs;
 import imgui.flag.ImGuiCol;
 import imgui.flag.ImGuiInputTextFlags;
+import imgui.flag.ImGuiSortDirection;
 import imgui.flag.ImGuiStyleVar;
+import imgui.flag.ImGuiTableColumnFlags;
+import imgui.flag.ImGuiTableFlags;
 import imgui.type.ImBoolean;
 import imgui.type.ImString;
 import it.unimi.dsi.fastutil.ints.Int2IntArrayMap;
@@ -24,6 +34,7 @@ import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntRBTreeMap;
+import net.minecraft.Util;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.renderer.EffectInstance;
 import net.minecraft.client.renderer.PostChain;
@@ -36,6 +47,11 @@ import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.function.BooleanSupplier;
 import java.util.function.ObjIntConsumer;
@@ -54,6 +70,18 @@ public class ShaderEditor extends SingleWindowEditor implements ResourceManagerR
 
     private static final Pattern ERROR_PARSER = Pattern.compile("ERROR: (\\d+):(\\d+): (.+)");
     private static final Pattern LINE_DIRECTIVE_PARSER = Pattern.compile("#line\\s+(\\d+)\\s*(\\d+)?");
+    private static final String[] PROFILE_COLUMNS = {"Program", "Read", "Preprocess", "Modify", "Compile", "Link", "Total", "Hits", "Misses", "Timeline"};
+    private static final List<Comparator<ShaderCompileProfiler.ProgramSummary>> PROFILE_COMPARATORS = List.of(
+            Comparator.comparing(summary -> summary.getProgram().toString()),
+            Comparator.comparingLong(summary -> summary.getTime(ShaderCompileProfiler.EventType.READ)),
+            Comparator.comparingLong(summary -> summary.getTime(ShaderCompileProfiler.EventType.PREPROCESS)),
+            Comparator.comparingLong(summary -> summary.getTime(ShaderCompileProfiler.EventType.MODIFY)),
+            Comparator.comparingLong(summary -> summary.getTime(ShaderCompileProfiler.EventType.COMPILE)),
+            Comparator.comparingLong(summary -> summary.getTime(ShaderCompileProfiler.EventType.LINK)),
+            Comparator.comparingLong(ShaderCompileProfiler.ProgramSummary::getTotalTime),
+            Comparator.comparingInt(ShaderCompileProfiler.ProgramSummary::getCacheHits),
+            Comparator.comparingInt(ShaderCompileProfiler.ProgramSummary::getCacheMisses),
+            Comparator.comparingLong(ShaderCompileProfiler.ProgramSummary::getStart));
 
     private final CodeEditor codeEditor;
     private final Object2IntMap<ResourceLocation> shaders;
@@ -70,6 +98,13 @@ public class ShaderEditor extends SingleWindowEditor implements ResourceManagerR
     private int editProgramId;
     private int editShaderId;
 
+    private final ImBoolean profilerOpen;
+    private List<ShaderCompileProfiler.ProgramSummary> profileSummaries;
+    private int profileEventCount;
+    private long profileStart;
+    private long profileEnd;
+    private boolean profileSortDirty;
+
     public ShaderEditor() {
         this.shaders = new Object2IntRBTreeMap<>((a, b) -> {
             int compare = a.getNamespace().compareTo(b.getNamespace());
@@ -100,7 +135,11 @@ public class ShaderEditor extends SingleWindowEditor implements ResourceManagerR
                 String log = glGetProgramInfoLog(this.editProgramId);
                 parseErrors(source, log).forEach(errorConsumer);
                 System.out.println(log);
+                return;
             }
+
+            // Merged post stages use their own program, so the stages have to run separately to show the changes
+            VeilRenderSystem.renderer().getPostProcessingManager().markShaderEdited(this.selectedProgram.name());
         });
         this.codeEditor.getEditor().setLanguageDefinition(VeilLanguageDefinitions.glsl());
 
@@ -115,12 +154,20 @@ public class ShaderEditor extends SingleWindowEditor implements ResourceManagerR
         this.editSourceOpen = new ImBoolean();
         this.editProgramId = 0;
         this.editShaderId = 0;
+
+        this.profilerOpen = new ImBoolean();
+        this.profileSummaries = new ArrayList<>();
+        this.profileEventCount = 0;
+        this.profileStart = 0;
+        this.profileEnd = 0;
+        this.profileSortDirty = false;
     }
 
     private void setSelectedProgram(@Nullable ResourceLocation name) {
         if (name != null && this.shaders.containsKey(name)) {
             int program = this.shaders.getInt(name);
             if (glIsProgram(program)) {
+                attachBinarySources(name, program);
                 int[] attachedShaders = new int[glGetProgrami(program, GL_ATTACHED_SHADERS)];
                 glGetAttachedShaders(program, null, attachedShaders);
 
@@ -139,6 +186,21 @@ public class ShaderEditor extends SingleWindowEditor implements ResourceManagerR
         this.selectedProgram = null;
     }
 
+    private static void attachBinarySources(ResourceLocation name, int program) {
+        VeilRenderer renderer = VeilRenderSystem.renderer();
+        for (ShaderManager shaderManager : List.of(renderer.getShaderManager(), renderer.getDeferredRenderer().getDeferredShaderManager())) {
+            // Programs loaded from the binary cache have no shaders to show until they are compiled from source
+            if (shaderManager.getShaders().get(name) instanceof ShaderProgramImpl impl && impl.getProgram() == program) {
+                try {
+                    impl.attachBinarySources();
+                } catch (ShaderException e) {
+                    Veil.LOGGER.error("Failed to compile sources for program: {}", name, e);
+                }
+                return;
+            }
+        }
+    }
+
     private void setEditShaderSource(int program, int shader) {
         this.editSourceOpen.set(true);
         this.editProgramId = program;
@@ -237,6 +299,9 @@ public class ShaderEditor extends SingleWindowEditor implements ResourceManagerR
             if (ImGui.tabItemButton("Refresh")) {
                 this.reloadShaders();
             }
+            if (ImGui.tabItemButton("Profiler")) {
+                this.profilerOpen.set(!this.profilerOpen.get());
+            }
             for (TabSource source : sources) {
                 if (!source.visible.getAsBoolean()) {
                     continue;
@@ -365,6 +430,123 @@ public class ShaderEditor extends SingleWindowEditor implements ResourceManagerR
         super.render();
 
         this.codeEditor.renderWindow();
+        if (this.profilerOpen.get()) {
+            this.renderProfiler();
+        }
+    }
+
+    private void renderProfiler() {
+        ImGui.setNextWindowSizeConstraints(600, 300, Float.MAX_VALUE, Float.MAX_VALUE);
+        if (ImGui.begin("Shader Compile Profiler", this.profilerOpen)) {
+            ShaderCompileProfiler profiler = ShaderCompileProfiler.get();
+            if (ImGui.checkbox("Record", profiler.isEnabled())) {
+                profiler.setEnabled(!profiler.isEnabled());
+            }
+            ImGui.sameLine();
+            if (ImGui.button("Clear")) {
+                profiler.clear();
+            }
+
+            int eventCount = profiler.getEventCount();
+            ImGui.sameLine();
+            ImGui.beginDisabled(eventCount == 0);
+            if (ImGui.button("Export Trace")) {
+                this.exportTrace(profiler);
+            }
+            ImGui.endDisabled();
+
+            int dropped = profiler.getDropped();
+            ImGui.sameLine();
+            ImGui.text(eventCount + " events" + (dropped > 0 ? " (" + dropped + " dropped)" : ""));
+
+            // Summaries are only recreated when new events are recorded
+            if (eventCount != this.profileEventCount) {
+                this.profileEventCount = eventCount;
+                this.profileSummaries = profiler.getSummaries();
+                this.profileStart = profiler.getOrigin();
+                this.profileEnd = this.profileStart;
+                for (ShaderCompileProfiler.ProgramSummary summary : this.profileSummaries) {
+                    this.profileEnd = Math.max(this.profileEnd, summary.getEnd());
+                }
+                this.profileSortDirty = true;
+            }
+
+            int flags = ImGuiTableFlags.Sortable | ImGuiTableFlags.Resizable | ImGuiTableFlags.RowBg | ImGuiTableFlags.BordersV | ImGuiTableFlags.ScrollY;
+            if (ImGui.beginTable("##profile", PROFILE_COLUMNS.length, flags)) {
+                ImGui.tableSetupScrollFreeze(1, 1);
+                for (int i = 0; i < PROFILE_COLUMNS.length; i++) {
+                    int columnFlags = switch (i) {
+                        case 0, 9 -> ImGuiTableColumnFlags.WidthStretch;
+                        case 6 -> ImGuiTableColumnFlags.WidthFixed | ImGuiTableColumnFlags.DefaultSort | ImGuiTableColumnFlags.PreferSortDescending;
+                        default -> ImGuiTableColumnFlags.WidthFixed | ImGuiTableColumnFlags.PreferSortDescending;
+                    };
+                    ImGui.tableSetupColumn(PROFILE_COLUMNS[i], columnFlags);
+                }
+                ImGui.tableHeadersRow();
+
+                ImGuiTableSortSpecs sortSpecs = ImGui.tableGetSortSpecs();
+                if (sortSpecs != null && (sortSpecs.isSpecsDirty() || this.profileSortDirty) && sortSpecs.getSpecsCount() > 0) {
+                    ImGuiTableColumnSortSpecs spec = sortSpecs.getSpecs()[0];
+                    Comparator<ShaderCompileProfiler.ProgramSummary> comparator = PROFILE_COMPARATORS.get(spec.getColumnIndex());
+                    this.profileSummaries.sort(spec.getSortDirection() == ImGuiSortDirection.Descending ? comparator.reversed() : comparator);
+                    sortSpecs.setSpecsDirty(false);
+                    this.profileSortDirty = false;
+                }
+
+                for (ShaderCompileProfiler.ProgramSummary summary : this.profileSummaries) {
+                    ImGui.tableNextRow();
+                    ImGui.tableNextColumn();
+                    VeilImGuiUtil.resourceLocation(summary.getProgram());
+                    this.profileTime(summary.getTime(ShaderCompileProfiler.EventType.READ));
+                    this.profileTime(summary.getTime(ShaderCompileProfiler.EventType.PREPROCESS));
+                    this.profileTime(summary.getTime(ShaderCompileProfiler.EventType.MODIFY));
+                    this.profileTime(summary.getTime(ShaderCompileProfiler.EventType.COMPILE));
+                    this.profileTime(summary.getTime(ShaderCompileProfiler.EventType.LINK));
+                    this.profileTime(summary.getTotalTime());
+                    ImGui.tableNextColumn();
+                    ImGui.text(Integer.toString(summary.getCacheHits()));
+                    ImGui.tableNextColumn();
+                    ImGui.text(Integer.toString(summary.getCacheMisses()));
+
+                    // Each program is drawn as a bar from its first to its last event
+                    ImGui.tableNextColumn();
+                    float width = ImGui.getContentRegionAvailX();
+                    float height = ImGui.getTextLineHeight();
+                    float x = ImGui.getCursorScreenPosX();
+                    float y = ImGui.getCursorScreenPosY();
+                    double length = Math.max(1, this.profileEnd - this.profileStart);
+                    float minX = x + (float) ((summary.getStart() - this.profileStart) / length * width);
+                    float maxX = Math.max(minX + 1, x + (float) ((summary.getEnd() - this.profileStart) / length * width));
+                    ImGui.getWindowDrawList().addRectFilled(minX, y, maxX, y + height, ImGui.getColorU32(ImGuiCol.PlotHistogram));
+                    ImGui.dummy(width, height);
+                    if (ImGui.isItemHovered()) {
+                        ImGui.setTooltip(String.format("%.2f ms - %.2f ms", (summary.getStart() - this.profileStart) / 1_000_000.0, (summary.getEnd() - this.profileStart) / 1_000_000.0));
+                    }
+                }
+                ImGui.endTable();
+            }
+        }
+        ImGui.end();
+    }
+
+    private void profileTime(long time) {
+        ImGui.tableNextColumn();
+        ImGui.text(String.format("%.2f ms", time / 1_000_000.0));
+    }
+
+    private void exportTrace(ShaderCompileProfiler profiler) {
+        Path outputFolder = Minecraft.getInstance().gameDirectory.toPath().resolve("debug-out");
+        Path file = outputFolder.resolve("shader_compile_" + Util.getFilenameFormattedDateTime() + ".json");
+        try {
+            Files.createDirectories(outputFolder);
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                profiler.writeChromeTrace(writer);
+            }
+            Veil.LOGGER.info("Saved shader compile trace to {}", file);
+            Util.getPlatform().openFile(outputFolder.toFile());
+        } catch (IOException e) {
+            Veil.LOGGER.error("Failed to save shader compile trace", e);
+        }
     }
 
     private void openShaderButton(String name, int type) {
@@ -8,11 +8,14 @@ import com.mojang.blaze3d.systems.RenderSystem;
 import foundry.veil.api.client.render.VeilRenderBridge;
 import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
 import foundry.veil.api.client.render.framebuffer.AdvancedFboAttachment;
+import foundry.veil.impl.client.render.framebuffer.FramebufferClearTracker;
 import net.minecraft.client.Minecraft;
 import org.apache.commons.lang3.Validate;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.MemoryStack;
 
+import java.nio.ByteBuffer;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
@@ -52,7 +55,10 @@ import static org.lwjgl.opengl.GL30C.GL_FRAMEBUFFER_UNSUPPORTED;
  * @author Ocelot
  */
 @ApiStatus.Internal
-public class AdvancedFboImpl implements AdvancedFbo {
+public class AdvancedFboImpl implements AdvancedFbo, FramebufferClearTracker.Target {
+
+    private static final float[] CLEAR_COLOR = {0.0F, 0.0F, 0.0F, 0.0F};
+    private static final float[] CLEAR_DEPTH = {1.0F};
 
     private static final Map<Integer, String> ERRORS = Map.of(
             GL_FRAMEBUFFER_INCOMPLETE_ATTACHMENT, "GL_FRAMEBUFFER_INCOMPLETE_ATTACHMENT",
@@ -75,6 +81,7 @@ public class AdvancedFboImpl implements AdvancedFbo {
     private final int clearMask;
     private final int[] drawBuffers;
     private final Supplier<Wrapper> wrapper;
+    private FramebufferClearTracker clearTracker;
 
     public AdvancedFboImpl(int width, int height, AdvancedFboAttachment[] colorAttachments, @Nullable AdvancedFboAttachment depthAttachment) {
         this.id = -1;
@@ -95,6 +102,7 @@ public class AdvancedFboImpl implements AdvancedFbo {
                 .map(i -> GL_COLOR_ATTACHMENT0 + i)
                 .toArray();
         this.wrapper = Suppliers.memoize(() -> new Wrapper(this));
+        this.clearTracker = null;
     }
 
     @Override
@@ -134,16 +142,81 @@ public class AdvancedFboImpl implements AdvancedFbo {
         }
     }
 
+    @Override
+    public void skipAutoClear() {
+        if (this.clearTracker != null) {
+            this.clearTracker.overwrite(this);
+        }
+    }
+
+    @Override
+    public void applyAutoClear() {
+        if (this.clearTracker != null) {
+            this.clearTracker.beforeRead(this);
+        }
+    }
+
+    @Override
+    public void clearNow(boolean bound) {
+        int previous = bound ? this.id : glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+        if (!bound) {
+            glBindFramebuffer(GL_DRAW_FRAMEBUFFER, this.id);
+        }
+
+        // The clear can happen in the middle of a frame, so anything that would limit it has to be disabled
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            ByteBuffer colorMask = stack.malloc(4);
+            glGetBooleanv(GL_COLOR_WRITEMASK, colorMask);
+            boolean depthMask = glGetBoolean(GL_DEPTH_WRITEMASK);
+            boolean scissor = glIsEnabled(GL_SCISSOR_TEST);
+
+            GlStateManager._colorMask(true, true, true, true);
+            GlStateManager._depthMask(true);
+            GlStateManager._disableScissorTest();
+            for (int i = 0; i < this.colorAttachments.length; i++) {
+                glClearBufferfv(GL_COLOR, i, CLEAR_COLOR);
+            }
+            if (this.depthAttachment != null) {
+                glClearBufferfv(GL_DEPTH, 0, CLEAR_DEPTH);
+            }
+
+            GlStateManager._colorMask(colorMask.get(0) != 0, colorMask.get(1) != 0, colorMask.get(2) != 0, colorMask.get(3) != 0);
+            GlStateManager._depthMask(depthMask);
+            if (scissor) {
+                GlStateManager._enableScissorTest();
+            }
+        }
+
+        if (!bound) {
+            glBindFramebuffer(GL_DRAW_FRAMEBUFFER, previous);
+        }
+    }
+
+    /**
+     * Sets the tracker that clears this framebuffer the first time it is used each frame.
+     *
+     * @param clearTracker The tracker or <code>null</code> to stop clearing automatically
+     */
+    public void setClearTracker(@Nullable FramebufferClearTracker clearTracker) {
+        this.clearTracker = clearTracker;
+    }
+
     @Override
     public void bind(boolean setViewport) {
         glBindFramebuffer(GL_FRAMEBUFFER, this.id);
         if (setViewport) {
             RenderSystem.viewport(0, 0, this.width, this.height);
         }
+        if (this.clearTracker != null) {
+            this.clearTracker.beforeWrite(this);
+        }
     }
 
     @Override
     public void bindRead() {
+        if (this.clearTracker != null) {
+            this.clearTracker.beforeRead(this);
+        }
         glBindFramebuffer(GL_READ_FRAMEBUFFER, this.id);
     }
 
@@ -153,6 +226,9 @@ public class AdvancedFboImpl implements AdvancedFbo {
         if (setViewport) {
             RenderSystem.viewport(0, 0, this.width, this.height);
         }
+        if (this.clearTracker != null) {
+            this.clearTracker.beforeWrite(this);
+        }
     }
 
     @Override
@@ -172,9 +248,26 @@ public class AdvancedFboImpl implements AdvancedFbo {
 
     @Override
     public int getId() {
+        this.releaseClearTracker();
         return this.id;
     }
 
+    private void releaseClearTracker() {
+        if (this.clearTracker != null) {
+            // Writes through the raw id never reach the tracker, so the framebuffer manager has to clear this every frame
+            this.clearTracker.release(this);
+            this.clearTracker = null;
+        }
+    }
+
+    /**
+     * Binds this framebuffer for drawing without applying the automatic clear or releasing the id.
+     */
+    @ApiStatus.Internal
+    public void bindDrawUntracked() {
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, this.id);
+    }
+
     @Override
     public int getWidth() {
         return this.width;
@@ -223,6 +316,7 @@ public class AdvancedFboImpl implements AdvancedFbo {
 
     @Override
     public Wrapper toRenderTarget() {
+        this.releaseClearTracker();
         return this.wrapper.get();
     }
 
@@ -0,0 +1,208 @@
+package foundry.veil.impl.client.render;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.joml.Math;
+import org.joml.Matrix4fc;
+import org.joml.Vector3dc;
+import org.joml.Vector4f;
+import org.joml.Vector4fc;
+
+/**
+ * <p>Tests many spheres or boxes against the six planes of a frustum at once.</p>
+ * <p>Objects are processed in blocks of 64. Each block is first converted to camera-relative floats in
+ * separate arrays, then every plane is tested against the whole block in a tight branch-free loop the JIT can vectorize.
+ * The results are packed into one <code>long</code> word per block.
+ * The math is identical to {@link org.joml.FrustumIntersection}, so the results match the single-object tests exactly.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class FrustumBatchCuller {
+
+    public static final int SPHERE_STRIDE = 4;
+    public static final int AAB_STRIDE = 6;
+
+    private static final int BLOCK_SIZE = 64;
+    private static final ThreadLocal<Block> BLOCK = ThreadLocal.withInitial(Block::new);
+
+    private FrustumBatchCuller() {
+    }
+
+    /**
+     * Extracts the six normalized frustum planes from the specified matrix in the same order and precision as {@link org.joml.FrustumIntersection}.
+     *
+     * @param m     The model-view-projection matrix
+     * @param store The array to store the six planes into
+     * @return The store array
+     */
+    public static Vector4f[] extractPlanes(Matrix4fc m, Vector4f[] store) {
+        setPlane(store[0], m.m03() + m.m00(), m.m13() + m.m10(), m.m23() + m.m20(), m.m33() + m.m30());
+        setPlane(store[1], m.m03() - m.m00(), m.m13() - m.m10(), m.m23() - m.m20(), m.m33() - m.m30());
+        setPlane(store[2], m.m03() + m.m01(), m.m13() + m.m11(), m.m23() + m.m21(), m.m33() + m.m31());
+        setPlane(store[3], m.m03() - m.m01(), m.m13() - m.m11(), m.m23() - m.m21(), m.m33() - m.m31());
+        setPlane(store[4], m.m03() + m.m02(), m.m13() + m.m12(), m.m23() + m.m22(), m.m33() + m.m32());
+        setPlane(store[5], m.m03() - m.m02(), m.m13() - m.m12(), m.m23() - m.m22(), m.m33() - m.m32());
+        return store;
+    }
+
+    private static void setPlane(Vector4f plane, float x, float y, float z, float w) {
+        float invl = Math.invsqrt(x * x + y * y + z * z);
+        plane.set(x * invl, y * invl, z * invl, w * invl);
+    }
+
+    /**
+     * Tests packed spheres against the specified planes.
+     *
+     * @param planes     The six frustum planes relative to the camera
+     * @param camera     The position of the camera
+     * @param spheres    Sphere data packed as <code>[x, y, z, radius]</code>
+     * @param count      The number of spheres to test
+     * @param visibility The bitset to write results into. Bit <code>i</code> is set if sphere <code>i</code> is visible
+     * @return The number of visible spheres
+     */
+    public static int testSpheres(Vector4fc[] planes, Vector3dc camera, double[] spheres, int count, long[] visibility) {
+        validate(spheres.length, count, SPHERE_STRIDE, visibility);
+        Block block = BLOCK.get();
+        double camX = camera.x();
+        double camY = camera.y();
+        double camZ = camera.z();
+
+        int visible = 0;
+        for (int start = 0; start < count; start += BLOCK_SIZE) {
+            int size = java.lang.Math.min(BLOCK_SIZE, count - start);
+            float[] x = block.a;
+            float[] y = block.b;
+            float[] z = block.c;
+            float[] r = block.d;
+            int[] inside = block.inside;
+
+            for (int i = 0; i < size; i++) {
+                int offset = (start + i) * SPHERE_STRIDE;
+                x[i] = (float) (spheres[offset] - camX);
+                y[i] = (float) (spheres[offset + 1] - camY);
+                z[i] = (float) (spheres[offset + 2] - camZ);
+                r[i] = (float) spheres[offset + 3];
+                inside[i] = 1;
+            }
+
+            for (Vector4fc plane : planes) {
+                float px = plane.x();
+                float py = plane.y();
+                float pz = plane.z();
+                float pw = plane.w();
+                for (int i = 0; i < size; i++) {
+                    inside[i] &= px * x[i] + py * y[i] + pz * z[i] + pw >= -r[i] ? 1 : 0;
+                }
+            }
+
+            visible += pack(inside, size, visibility, start);
+        }
+        return visible;
+    }
+
+    /**
+     * Tests packed axis-aligned boxes against the specified planes.
+     *
+     * @param planes     The six frustum planes relative to the camera
+     * @param camera     The position of the camera
+     * @param boxes      Box data packed as <code>[minX, minY, minZ, maxX, maxY, maxZ]</code>
+     * @param count      The number of boxes to test
+     * @param visibility The bitset to write results into. Bit <code>i</code> is set if box <code>i</code> is visible
+     * @return The number of visible boxes
+     */
+    public static int testAabs(Vector4fc[] planes, Vector3dc camera, double[] boxes, int count, long[] visibility) {
+        validate(boxes.length, count, AAB_STRIDE, visibility);
+        Block block = BLOCK.get();
+        double camX = camera.x();
+        double camY = camera.y();
+        double camZ = camera.z();
+
+        int visible = 0;
+        for (int start = 0; start < count; start += BLOCK_SIZE) {
+            int size = java.lang.Math.min(BLOCK_SIZE, count - start);
+            float[] minX = block.a;
+            float[] minY = block.b;
+            float[] minZ = block.c;
+            float[] maxX = block.d;
+            float[] maxY = block.e;
+            float[] maxZ = block.f;
+            int[] inside = block.inside;
+
+            for (int i = 0; i < size; i++) {
+                int offset = (start + i) * AAB_STRIDE;
+                minX[i] = (float) (boxes[offset] - camX);
+                minY[i] = (float) (boxes[offset + 1] - camY);
+                minZ[i] = (float) (boxes[offset + 2] - camZ);
+                maxX[i] = (float) (boxes[offset + 3] - camX);
+                maxY[i] = (float) (boxes[offset + 4] - camY);
+                maxZ[i] = (float) (boxes[offset + 5] - camZ);
+                inside[i] = 1;
+            }
+
+            for (Vector4fc plane : planes) {
+                float px = plane.x();
+                float py = plane.y();
+                float pz = plane.z();
+                float pw = -plane.w();
+                // Pick the corner furthest along the plane normal once per plane instead of per box
+                float[] cx = px < 0 ? minX : maxX;
+                float[] cy = py < 0 ? minY : maxY;
+                float[] cz = pz < 0 ? minZ : maxZ;
+                for (int i = 0; i < size; i++) {
+                    inside[i] &= px * cx[i] + py * cy[i] + pz * cz[i] >= pw ? 1 : 0;
+                }
+            }
+
+            visible += pack(inside, size, visibility, start);
+        }
+        return visible;
+    }
+
+    /**
+     * Checks whether the specified bit is set in a visibility bitset.
+     *
+     * @param visibility The bitset words
+     * @param index      The index of the object
+     * @return Whether the object is visible
+     */
+    public static boolean isVisible(long[] visibility, int index) {
+        return (visibility[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @param count The number of objects to test
+     * @return The number of <code>long</code> words required to store the visibility of that many objects
+     */
+    public static int getWordCount(int count) {
+        return (count + 63) >>> 6;
+    }
+
+    private static int pack(int[] inside, int size, long[] visibility, int start) {
+        long word = 0;
+        for (int i = 0; i < size; i++) {
+            word |= (long) inside[i] << i;
+        }
+        visibility[start >>> 6] = word;
+        return Long.bitCount(word);
+    }
+
+    private static void validate(int length, int count, int stride, long[] visibility) {
+        if (count < 0 || (long) count * stride > length) {
+            throw new IndexOutOfBoundsException("Expected " + count * stride + " values, but only " + length + " were provided");
+        }
+        if (visibility.length < getWordCount(count)) {
+            throw new IndexOutOfBoundsException("Visibility bitset needs " + getWordCount(count) + " words, but only has " + visibility.length);
+        }
+    }
+
+    private static class Block {
+
+        private final float[] a = new float[BLOCK_SIZE];
+        private final float[] b = new float[BLOCK_SIZE];
+        private final float[] c = new float[BLOCK_SIZE];
+        private final float[] d = new float[BLOCK_SIZE];
+        private final float[] e = new float[BLOCK_SIZE];
+        private final float[] f = new float[BLOCK_SIZE];
+        private final int[] inside = new int[BLOCK_SIZE];
+    }
+}
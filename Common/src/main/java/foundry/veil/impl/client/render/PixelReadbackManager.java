@@ -0,0 +1,173 @@
+package foundry.veil.impl.client.render;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import foundry.veil.Veil;
+import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
+import foundry.veil.api.client.util.TextureDownloader;
+import org.jetbrains.annotations.ApiStatus;
+import org.lwjgl.system.NativeResource;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import static org.lwjgl.opengl.GL11C.*;
+import static org.lwjgl.opengl.GL15C.*;
+import static org.lwjgl.opengl.GL21C.GL_PIXEL_PACK_BUFFER;
+import static org.lwjgl.opengl.GL30C.GL_COLOR_ATTACHMENT0;
+import static org.lwjgl.opengl.GL30C.GL_MAP_READ_BIT;
+import static org.lwjgl.opengl.GL30C.glMapBufferRange;
+import static org.lwjgl.opengl.GL32C.*;
+
+/**
+ * Downloads pixels into pixel pack buffers and maps them once the GPU has written them, so the render thread never
+ * waits for a download to finish.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class PixelReadbackManager implements NativeResource {
+
+    private final ReadbackQueue<Readback> queue;
+
+    public PixelReadbackManager() {
+        this.queue = new ReadbackQueue<>();
+    }
+
+    private static int createBuffer(long size) {
+        int buffer = glGenBuffers();
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, buffer);
+        glBufferData(GL_PIXEL_PACK_BUFFER, size, GL_STREAM_READ);
+        return buffer;
+    }
+
+    private static long getSize(int width, int height, int components, boolean floating) {
+        return (long) width * height * components * (floating ? Float.BYTES : Byte.BYTES);
+    }
+
+    /**
+     * Starts downloading a level of the specified texture.
+     *
+     * @param texture    The id of the texture to download
+     * @param level      The mipmap level to download
+     * @param format     The format to download the pixels in
+     * @param components The number of components in the format
+     * @param floating   Whether to download the pixels as floats instead of unsigned bytes
+     * @return A future for the downloaded pixels. It completes on the render thread
+     */
+    public CompletableFuture<TextureDownloader.Image> readTexture(int texture, int level, int format, int components, boolean floating) {
+        RenderSystem.assertOnRenderThreadOrInit();
+        glBindTexture(GL_TEXTURE_2D, texture);
+        int width = glGetTexLevelParameteri(GL_TEXTURE_2D, level, GL_TEXTURE_WIDTH);
+        int height = glGetTexLevelParameteri(GL_TEXTURE_2D, level, GL_TEXTURE_HEIGHT);
+        long size = getSize(width, height, components, floating);
+
+        int buffer = createBuffer(size);
+        int alignment = glGetInteger(GL_PACK_ALIGNMENT);
+        glPixelStorei(GL_PACK_ALIGNMENT, 1);
+        glGetTexImage(GL_TEXTURE_2D, level, format, floating ? GL_FLOAT : GL_UNSIGNED_BYTE, 0L);
+        glPixelStorei(GL_PACK_ALIGNMENT, alignment);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+        return this.enqueue(buffer, size, width, height, components, floating);
+    }
+
+    /**
+     * Starts downloading an attachment of the specified framebuffer.
+     *
+     * @param framebuffer The framebuffer to download
+     * @param attachment  The color attachment to download or <code>-1</code> to download the depth attachment
+     * @param format      The format to download the pixels in
+     * @param components  The number of components in the format
+     * @param floating    Whether to download the pixels as floats instead of unsigned bytes
+     * @return A future for the downloaded pixels. It completes on the render thread
+     */
+    public CompletableFuture<TextureDownloader.Image> readFramebuffer(AdvancedFbo framebuffer, int attachment, int format, int components, boolean floating) {
+        RenderSystem.assertOnRenderThreadOrInit();
+        int width = framebuffer.getWidth();
+        int height = framebuffer.getHeight();
+        long size = getSize(width, height, components, floating);
+
+        int buffer = createBuffer(size);
+        int alignment = glGetInteger(GL_PACK_ALIGNMENT);
+        glPixelStorei(GL_PACK_ALIGNMENT, 1);
+        framebuffer.bindRead();
+        if (attachment >= 0) {
+            glReadBuffer(GL_COLOR_ATTACHMENT0 + attachment);
+        }
+        glReadPixels(0, 0, width, height, format, floating ? GL_FLOAT : GL_UNSIGNED_BYTE, 0L);
+        if (attachment > 0) {
+            // Resolving framebuffers reads from the first attachment
+            glReadBuffer(GL_COLOR_ATTACHMENT0);
+        }
+        AdvancedFbo.unbindRead();
+        glPixelStorei(GL_PACK_ALIGNMENT, alignment);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+        return this.enqueue(buffer, size, width, height, components, floating);
+    }
+
+    private CompletableFuture<TextureDownloader.Image> enqueue(int buffer, long size, int width, int height, int components, boolean floating) {
+        CompletableFuture<TextureDownloader.Image> future = new CompletableFuture<>();
+        long fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        this.queue.add(new Readback(future, fence, buffer, size, width, height, components, floating));
+        return future;
+    }
+
+    /**
+     * Maps all downloads the GPU has finished and completes their futures.
+     */
+    public void endFrame() {
+        this.queue.endFrame(PixelReadbackManager::isFinished, PixelReadbackManager::complete);
+    }
+
+    private static boolean isFinished(Readback readback) {
+        int status = glClientWaitSync(readback.fence, GL_SYNC_FLUSH_COMMANDS_BIT, 0L);
+        return status == GL_ALREADY_SIGNALED || status == GL_CONDITION_SATISFIED;
+    }
+
+    private static void complete(Readback readback) {
+        glDeleteSync(readback.fence);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, readback.buffer);
+        ByteBuffer pixels = glMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, readback.size, GL_MAP_READ_BIT);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+        if (pixels == null) {
+            glDeleteBuffers(readback.buffer);
+            readback.future.completeExceptionally(new IllegalStateException("Failed to map pixel pack buffer"));
+            return;
+        }
+
+        TextureDownloader.Image image = new TextureDownloader.Image(readback.buffer, pixels, readback.width, readback.height, readback.components, readback.floating);
+        try {
+            readback.future.complete(image);
+        } catch (Throwable t) {
+            Veil.LOGGER.error("Error completing pixel readback", t);
+        }
+    }
+
+    /**
+     * @return The number of downloads the GPU hasn't finished yet
+     */
+    public int getPending() {
+        return this.queue.size();
+    }
+
+    @Override
+    public void free() {
+        this.queue.clear(readback -> {
+            glDeleteSync(readback.fence);
+            glDeleteBuffers(readback.buffer);
+            readback.future.cancel(false);
+        });
+    }
+
+    private record Readback(CompletableFuture<TextureDownloader.Image> future,
+                            long fence,
+                            int buffer,
+                            long size,
+                            int width,
+                            int height,
+                            int components,
+                            boolean floating) {
+    }
+}
@@ -0,0 +1,81 @@
+package foundry.veil.impl.client.render;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Holds GPU readbacks until the GPU has finished writing them.
+ * <p>Readbacks are only checked starting from the frame after they were queued, so the GPU has time to finish
+ * without the CPU waiting on it. The GPU finishes work in the order it was submitted, so checking stops at the
+ * first readback that isn't done yet.</p>
+ *
+ * @param <T> The type of readback
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class ReadbackQueue<T> {
+
+    private final ArrayDeque<Entry<T>> pending;
+    private int frame;
+
+    public ReadbackQueue() {
+        this.pending = new ArrayDeque<>();
+        this.frame = 0;
+    }
+
+    /**
+     * Queues a readback that was submitted this frame.
+     *
+     * @param value The readback to wait for
+     */
+    public void add(T value) {
+        this.pending.addLast(new Entry<>(value, this.frame));
+    }
+
+    /**
+     * Finishes the current frame and completes all readbacks from earlier frames the GPU is done with.
+     *
+     * @param finished Checks whether the GPU has finished a readback
+     * @param complete Called for each finished readback in the order they were queued
+     * @return The number of readbacks completed
+     */
+    public int endFrame(Predicate<T> finished, Consumer<T> complete) {
+        int completed = 0;
+        while (!this.pending.isEmpty()) {
+            Entry<T> entry = this.pending.peekFirst();
+            if (entry.frame >= this.frame || !finished.test(entry.value)) {
+                break;
+            }
+
+            this.pending.pollFirst();
+            complete.accept(entry.value);
+            completed++;
+        }
+        this.frame++;
+        return completed;
+    }
+
+    /**
+     * Removes all pending readbacks.
+     *
+     * @param discard Called for each readback that was removed
+     */
+    public void clear(Consumer<T> discard) {
+        while (!this.pending.isEmpty()) {
+            discard.accept(this.pending.pollFirst().value);
+        }
+    }
+
+    /**
+     * @return The number of readbacks waiting on the GPU
+     */
+    public int size() {
+        return this.pending.size();
+    }
+
+    private record Entry<T>(T value, int frame) {
+    }
+}
@@ -12,13 +12,16 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Objects;
+import java.util.function.Consumer;
 
+/**
+ * Replaces vanilla and veil shaders with their deferred variants while the deferred renderer is active.
+ * All instances share a single identity map from shader to deferred program, which is cleared when shaders reload.
+ */
 @ApiStatus.Internal
 public class DeferredShaderStateCache {
 
-    private Object veil$oldShader;
-    private ShaderProgram veil$deferredShader;
-    private boolean printedError;
+    private static final IdentityLookupCache<Object, ShaderProgram> DEFERRED_SHADERS = new IdentityLookupCache<>(DeferredShaderStateCache::findDeferredShader);
 
     /**
      * Sets up the render state for the specified shader instance.
@@ -63,28 +66,11 @@ public class DeferredShaderStateCache {
     @Contract("null -> null")
     public ShaderInstance getShader(@Nullable ShaderInstance shaderInstance) {
         if (shaderInstance == null || !VeilRenderSystem.renderer().getDeferredRenderer().isActive()) {
-            this.veil$oldShader = null;
-            this.veil$deferredShader = null;
             return shaderInstance;
         }
 
-        if (!Objects.equals(this.veil$oldShader, shaderInstance)) {
-            this.veil$oldShader = shaderInstance;
-            ResourceLocation id = new ResourceLocation(shaderInstance.getName());
-            this.veil$deferredShader = VeilRenderSystem.renderer().getDeferredRenderer().getDeferredShaderManager().getShader(id);
-
-            if (Veil.platform().isDevelopmentEnvironment()) {
-                if (this.veil$deferredShader != null) {
-                    this.printedError = false;
-                } else {
-                    if (!this.printedError) {
-                        Veil.LOGGER.warn("Failed to find deferred shader for vanilla shader: {}", id);
-                        this.printedError = true;
-                    }
-                }
-            }
-        }
-        return this.veil$deferredShader != null ? this.veil$deferredShader.toShaderInstance() : shaderInstance;
+        ShaderProgram deferredShader = DEFERRED_SHADERS.get(shaderInstance);
+        return deferredShader != null ? deferredShader.toShaderInstance() : shaderInstance;
     }
 
     /**
@@ -96,26 +82,30 @@ public class DeferredShaderStateCache {
     @Contract("null -> null")
     public ShaderProgram getShader(@Nullable ShaderProgram shaderProgram) {
         if (shaderProgram == null || !VeilRenderSystem.renderer().getDeferredRenderer().isActive()) {
-            this.veil$oldShader = null;
-            this.veil$deferredShader = null;
             return shaderProgram;
         }
 
-        if (!Objects.equals(this.veil$oldShader, shaderProgram)) {
-            this.veil$oldShader = shaderProgram;
-            this.veil$deferredShader = VeilRenderSystem.renderer().getDeferredRenderer().getDeferredShaderManager().getShader(shaderProgram.getId());
+        return Objects.requireNonNullElse(DEFERRED_SHADERS.get(shaderProgram), shaderProgram);
+    }
 
-            if (Veil.platform().isDevelopmentEnvironment()) {
-                if (this.veil$deferredShader != null) {
-                    this.printedError = false;
-                } else {
-                    if (!this.printedError) {
-                        Veil.LOGGER.warn("Failed to find deferred shader for veil shader: {}", shaderProgram.getId());
-                        this.printedError = true;
-                    }
-                }
-            }
+    private static @Nullable ShaderProgram findDeferredShader(Object shader) {
+        boolean veilShader = shader instanceof ShaderProgram;
+        ResourceLocation id = veilShader ? ((ShaderProgram) shader).getId() : new ResourceLocation(((ShaderInstance) shader).getName());
+        ShaderProgram deferredShader = VeilRenderSystem.renderer().getDeferredRenderer().getDeferredShaderManager().getShader(id);
+        if (deferredShader == null && Veil.platform().isDevelopmentEnvironment()) {
+            Veil.LOGGER.warn("Failed to find deferred shader for {} shader: {}", veilShader ? "veil" : "vanilla", id);
         }
-        return Objects.requireNonNullElse(this.veil$deferredShader, shaderProgram);
+        return deferredShader;
+    }
+
+    /**
+     * Clears all cached deferred shaders. This must be called whenever vanilla, veil, or deferred shaders are reloaded.
+     */
+    public static void invalidate() {
+        DEFERRED_SHADERS.clear();
+    }
+
+    public static void addDebugInfo(Consumer<String> consumer) {
+        consumer.accept("Shader Cache: " + DEFERRED_SHADERS.size() + " shaders, " + DEFERRED_SHADERS.getHits() + " hits, " + DEFERRED_SHADERS.getMisses() + " misses");
     }
 }
@@ -0,0 +1,82 @@
+package foundry.veil.impl.client.render.deferred;
+
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Function;
+
+/**
+ * Caches the result of a lookup by the identity of the key. Keys without a value are cached as well,
+ * so the resolver is only called once for each key until the cache is cleared.
+ *
+ * @param <K> The type of keys
+ * @param <V> The type of values
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class IdentityLookupCache<K, V> {
+
+    private static final Object MISSING = new Object();
+
+    private final Reference2ObjectMap<K, Object> values;
+    private final Function<K, V> resolver;
+    private long hits;
+    private long misses;
+
+    public IdentityLookupCache(Function<K, V> resolver) {
+        this.values = new Reference2ObjectOpenHashMap<>();
+        this.resolver = resolver;
+    }
+
+    /**
+     * Retrieves the value for the specified key, resolving it if this key has not been seen yet.
+     *
+     * @param key The key to get the value of
+     * @return The cached value or <code>null</code> if the resolver had no value for the key
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable V get(K key) {
+        Object value = this.values.get(key);
+        if (value == null) {
+            this.misses++;
+            V resolved = this.resolver.apply(key);
+            this.values.put(key, resolved != null ? resolved : MISSING);
+            return resolved;
+        }
+
+        this.hits++;
+        return value != MISSING ? (V) value : null;
+    }
+
+    /**
+     * Removes all cached values and resets the hit and miss counters.
+     */
+    public void clear() {
+        this.values.clear();
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /**
+     * @return The number of lookups that were already cached
+     */
+    public long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return The number of lookups that had to be resolved
+     */
+    public long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * @return The number of cached keys
+     */
+    public int size() {
+        return this.values.size();
+    }
+}
@@ -5,13 +5,14 @@ import com.mojang.blaze3d.vertex.BufferBuilder;
 import com.mojang.blaze3d.vertex.DefaultVertexFormat;
 import com.mojang.blaze3d.vertex.Tesselator;
 import com.mojang.blaze3d.vertex.VertexFormat;
-import foundry.veil.api.client.render.CullFrustum;
 import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.deferred.light.AreaLight;
 import foundry.veil.api.client.render.deferred.light.renderer.InstancedLightRenderer;
 import foundry.veil.api.client.render.deferred.light.renderer.LightRenderer;
 import foundry.veil.api.client.render.deferred.light.renderer.LightTypeRenderer;
+import foundry.veil.api.client.render.deferred.light.shadow.ShadowMapManager;
 import foundry.veil.api.client.render.shader.VeilShaders;
+import foundry.veil.api.client.render.shader.program.ShaderProgram;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 import org.joml.Vector2f;
@@ -29,7 +30,7 @@ import static org.lwjgl.opengl.GL33C.glVertexAttribDivisor;
 public class AreaLightRenderer extends InstancedLightRenderer<AreaLight> {
 
     public AreaLightRenderer() {
-        super(Float.BYTES * 22 + 2);
+        super(Float.BYTES * 23 + 2);
     }
 
     @Override
@@ -51,6 +52,7 @@ public class AreaLightRenderer extends InstancedLightRenderer<AreaLight> {
         glEnableVertexAttribArray(6);
         glEnableVertexAttribArray(7);
         glEnableVertexAttribArray(8);
+        glEnableVertexAttribArray(9);
 
         glVertexAttribPointer(1, 4, GL_FLOAT, false, this.lightSize, 0);
         glVertexAttribPointer(2, 4, GL_FLOAT, false, this.lightSize, Float.BYTES * 4);
@@ -61,6 +63,7 @@ public class AreaLightRenderer extends InstancedLightRenderer<AreaLight> {
         glVertexAttribPointer(6, 2, GL_FLOAT, false, this.lightSize, Float.BYTES * 19); // size
         glVertexAttribPointer(7, 1, GL_UNSIGNED_SHORT, true, this.lightSize, Float.BYTES * 21); // angle
         glVertexAttribPointer(8, 1, GL_FLOAT, false, this.lightSize, Float.BYTES * 21 + 2); // distance
+        glVertexAttribPointer(9, 1, GL_FLOAT, false, this.lightSize, Float.BYTES * 22 + 2); // shadow index
 
         glVertexAttribDivisor(1, 1);
         glVertexAttribDivisor(2, 1);
@@ -70,11 +73,19 @@ public class AreaLightRenderer extends InstancedLightRenderer<AreaLight> {
         glVertexAttribDivisor(6, 1);
         glVertexAttribDivisor(7, 1);
         glVertexAttribDivisor(8, 1);
+        glVertexAttribDivisor(9, 1);
     }
 
     @Override
     protected void setupRenderState(@NotNull LightRenderer lightRenderer, @NotNull List<AreaLight> lights) {
-        VeilRenderSystem.setShader(VeilShaders.LIGHT_AREA);
+        ShaderProgram shader = VeilRenderSystem.setShader(VeilShaders.LIGHT_AREA);
+        if (shader == null) {
+            return;
+        }
+
+        ShadowMapManager shadowMapManager = lightRenderer.getShadowMapManager();
+        shadowMapManager.addSampler(shader);
+        shadowMapManager.applyAreaShadows(shader);
     }
 
     @Override
@@ -83,17 +94,16 @@ public class AreaLightRenderer extends InstancedLightRenderer<AreaLight> {
 
     // the bounding box here isn't particularly tight, but it should always encapsulate the light's area.
     @Override
-    protected boolean isVisible(AreaLight light, CullFrustum frustum) {
+    protected void getBoundingBox(AreaLight light, double[] bounds, int offset) {
         Vector2f size = light.getSize();
         float distance = light.getDistance();
         Vector3d position = light.getPosition();
         float radius = Math.max(size.x, size.y) + distance;
-        double minX = position.x - radius;
-        double minY = position.y - radius;
-        double minZ = position.z - radius;
-        double maxX = position.x + radius;
-        double maxY = position.y + radius;
-        double maxZ = position.z + radius;
-        return frustum.testAab(minX, minY, minZ, maxX, maxY, maxZ);
+        bounds[offset] = position.x - radius;
+        bounds[offset + 1] = position.y - radius;
+        bounds[offset + 2] = position.z - radius;
+        bounds[offset + 3] = position.x + radius;
+        bounds[offset + 4] = position.y + radius;
+        bounds[offset + 5] = position.z + radius;
     }
 }
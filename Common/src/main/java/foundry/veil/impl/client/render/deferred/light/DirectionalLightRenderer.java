@@ -7,6 +7,7 @@ import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.deferred.light.DirectionalLight;
 import foundry.veil.api.client.render.deferred.light.renderer.LightRenderer;
 import foundry.veil.api.client.render.deferred.light.renderer.LightTypeRenderer;
+import foundry.veil.api.client.render.deferred.light.shadow.ShadowMapManager;
 import foundry.veil.api.client.render.shader.VeilShaders;
 import foundry.veil.api.client.render.shader.program.ShaderProgram;
 import org.jetbrains.annotations.ApiStatus;
@@ -47,20 +48,22 @@ public class DirectionalLightRenderer implements LightTypeRenderer<DirectionalLi
             return;
         }
 
-        VeilRenderSystem.setShader(VeilShaders.LIGHT_DIRECTIONAL);
-        lightRenderer.applyShader();
-
-        ShaderProgram shader = VeilRenderSystem.getShader();
+        ShaderProgram shader = VeilRenderSystem.setShader(VeilShaders.LIGHT_DIRECTIONAL);
         if (shader == null) {
             return;
         }
 
+        ShadowMapManager shadowMapManager = lightRenderer.getShadowMapManager();
+        shadowMapManager.addSampler(shader);
+        lightRenderer.applyShader();
+
         this.vbo.bind();
         for (DirectionalLight light : lights) {
             Vector3fc lightColor = light.getColor();
             float brightness = light.getBrightness();
             shader.setVector("LightColor", lightColor.x() * brightness, lightColor.y() * brightness, lightColor.z() * brightness);
             shader.setVector("LightDirection", light.getDirection());
+            shadowMapManager.applyDirectionalShadow(shader, light);
             this.vbo.draw();
         }
 
@@ -5,7 +5,6 @@ import com.mojang.blaze3d.vertex.BufferBuilder;
 import com.mojang.blaze3d.vertex.DefaultVertexFormat;
 import com.mojang.blaze3d.vertex.Tesselator;
 import com.mojang.blaze3d.vertex.VertexFormat;
-import foundry.veil.api.client.render.CullFrustum;
 import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.deferred.light.PointLight;
 import foundry.veil.api.client.render.deferred.light.renderer.InstancedLightRenderer;
@@ -14,6 +13,7 @@ import foundry.veil.api.client.render.deferred.light.renderer.LightTypeRenderer;
 import foundry.veil.api.client.render.shader.VeilShaders;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
+import org.joml.Vector3d;
 
 import java.util.List;
 
@@ -63,7 +63,14 @@ public class InstancedPointLightRenderer extends InstancedLightRenderer<PointLig
     }
 
     @Override
-    protected boolean isVisible(PointLight light, CullFrustum frustum) {
-        return frustum.testSphere(light.getPosition(), light.getRadius() * 1.4F);
+    protected void getBoundingBox(PointLight light, double[] bounds, int offset) {
+        Vector3d position = light.getPosition();
+        float radius = light.getRadius() * 1.4F;
+        bounds[offset] = position.x - radius;
+        bounds[offset + 1] = position.y - radius;
+        bounds[offset + 2] = position.z - radius;
+        bounds[offset + 3] = position.x + radius;
+        bounds[offset + 4] = position.y + radius;
+        bounds[offset + 5] = position.z + radius;
     }
 }
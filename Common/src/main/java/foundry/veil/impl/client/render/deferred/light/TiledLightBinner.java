@@ -0,0 +1,286 @@
+package foundry.veil.impl.client.render.deferred.light;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.joml.Matrix4fc;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Sorts light spheres into fixed size screen tiles. Tiles are indexed from the bottom-left corner of the screen
+ * to match <code>gl_FragCoord</code>, row by row.
+ * <p>The result is stored as a compact list: the lights for tile <code>i</code> are
+ * <code>getTileLights()[getTileOffsets()[i]]</code> until <code>getTileLights()[getTileOffsets()[i + 1]]</code>,
+ * in the same order they were given to {@link #bin(Matrix4fc, float[], int)}.</p>
+ * <p>Each tile row is counted and filled independently, so large workloads are spread across the common fork join pool.
+ * The output is identical whether or not the work ran in parallel.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class TiledLightBinner {
+
+    /**
+     * The number of floats used for each sphere: <code>[x, y, z, radius]</code> relative to the camera.
+     */
+    public static final int SPHERE_STRIDE = 4;
+    /**
+     * The minimum number of light rows to test before the work is split across threads.
+     */
+    public static final int PARALLEL_THRESHOLD = 4096;
+
+    private final int tileSize;
+    private boolean parallel;
+    private int screenWidth;
+    private int screenHeight;
+    private int tilesX;
+    private int tilesY;
+
+    private int lightCount;
+    private int[] rects;
+    private int[] tileOffsets;
+    private int[] tileLights;
+    private int[] activeTiles;
+    private int activeTileCount;
+
+    /**
+     * Creates a new binner.
+     *
+     * @param tileSize The width and height of each tile in pixels
+     */
+    public TiledLightBinner(int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        }
+        this.tileSize = tileSize;
+        this.parallel = true;
+        this.rects = new int[0];
+        this.tileOffsets = new int[1];
+        this.tileLights = new int[0];
+        this.activeTiles = new int[0];
+    }
+
+    /**
+     * Sets the size of the screen to bin lights into.
+     *
+     * @param width  The width of the screen in pixels
+     * @param height The height of the screen in pixels
+     */
+    public void resize(int width, int height) {
+        if (this.screenWidth == width && this.screenHeight == height) {
+            return;
+        }
+
+        this.screenWidth = Math.max(1, width);
+        this.screenHeight = Math.max(1, height);
+        this.tilesX = (this.screenWidth + this.tileSize - 1) / this.tileSize;
+        this.tilesY = (this.screenHeight + this.tileSize - 1) / this.tileSize;
+
+        int tileCount = this.tilesX * this.tilesY;
+        this.tileOffsets = new int[tileCount + 1];
+        this.activeTiles = new int[tileCount];
+        this.activeTileCount = 0;
+    }
+
+    /**
+     * Bins the specified spheres into screen tiles. Spheres that intersect the camera near plane cover the entire screen.
+     *
+     * @param viewProjection The camera projection multiplied by the camera view matrix
+     * @param spheres        Sphere data packed as <code>[x, y, z, radius]</code> relative to the camera
+     * @param count          The number of spheres to bin
+     */
+    public void bin(Matrix4fc viewProjection, float[] spheres, int count) {
+        if (this.rects.length < count * 4) {
+            this.rects = new int[count * 4 * 3 / 2];
+        }
+        this.lightCount = count;
+
+        boolean split = this.parallel && ForkJoinPool.getCommonPoolParallelism() > 1 && (long) count * this.tilesY >= PARALLEL_THRESHOLD;
+        forEach(count, split, i -> this.computeRect(viewProjection, spheres, i));
+
+        int[] offsets = this.tileOffsets;
+        Arrays.fill(offsets, 0);
+        forEach(this.tilesY, split, this::countRow);
+
+        // Exclusive prefix sum. offsets[i + 1] holds the count for tile i until this point
+        int total = 0;
+        int active = 0;
+        for (int i = 0; i < offsets.length - 1; i++) {
+            int tileCount = offsets[i + 1];
+            offsets[i] = total;
+            if (tileCount > 0) {
+                this.activeTiles[active++] = i;
+            }
+            total += tileCount;
+        }
+        offsets[offsets.length - 1] = total;
+        this.activeTileCount = active;
+
+        if (this.tileLights.length < total) {
+            this.tileLights = new int[total * 3 / 2];
+        }
+        forEach(this.tilesY, split, this::fillRow);
+    }
+
+    private static void forEach(int count, boolean parallel, IntConsumer action) {
+        if (parallel) {
+            IntStream.range(0, count).parallel().forEach(action);
+        } else {
+            for (int i = 0; i < count; i++) {
+                action.accept(i);
+            }
+        }
+    }
+
+    private void computeRect(Matrix4fc viewProjection, float[] spheres, int index) {
+        int offset = index * SPHERE_STRIDE;
+        float x = spheres[offset];
+        float y = spheres[offset + 1];
+        float z = spheres[offset + 2];
+        float radius = spheres[offset + 3];
+
+        float ndcMinX = Float.POSITIVE_INFINITY;
+        float ndcMinY = Float.POSITIVE_INFINITY;
+        float ndcMaxX = Float.NEGATIVE_INFINITY;
+        float ndcMaxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < 8; i++) {
+            float cx = (i & 1) == 0 ? x - radius : x + radius;
+            float cy = (i & 2) == 0 ? y - radius : y + radius;
+            float cz = (i & 4) == 0 ? z - radius : z + radius;
+            float w = viewProjection.m03() * cx + viewProjection.m13() * cy + viewProjection.m23() * cz + viewProjection.m33();
+            if (w <= 1.0E-4F) {
+                // Part of the light is behind the camera, so it could touch any pixel
+                this.setRect(index, 0, 0, this.tilesX - 1, this.tilesY - 1);
+                return;
+            }
+
+            float invW = 1.0F / w;
+            float clipX = (viewProjection.m00() * cx + viewProjection.m10() * cy + viewProjection.m20() * cz + viewProjection.m30()) * invW;
+            float clipY = (viewProjection.m01() * cx + viewProjection.m11() * cy + viewProjection.m21() * cz + viewProjection.m31()) * invW;
+            ndcMinX = Math.min(ndcMinX, clipX);
+            ndcMinY = Math.min(ndcMinY, clipY);
+            ndcMaxX = Math.max(ndcMaxX, clipX);
+            ndcMaxY = Math.max(ndcMaxY, clipY);
+        }
+
+        if (ndcMaxX < -1.0F || ndcMinX > 1.0F || ndcMaxY < -1.0F || ndcMinY > 1.0F) {
+            this.setRect(index, 1, 1, 0, 0);
+            return;
+        }
+
+        this.setRect(index,
+                this.toTile(ndcMinX, this.screenWidth, this.tilesX),
+                this.toTile(ndcMinY, this.screenHeight, this.tilesY),
+                this.toTile(ndcMaxX, this.screenWidth, this.tilesX),
+                this.toTile(ndcMaxY, this.screenHeight, this.tilesY));
+    }
+
+    private void setRect(int index, int minX, int minY, int maxX, int maxY) {
+        int offset = index * 4;
+        this.rects[offset] = minX;
+        this.rects[offset + 1] = minY;
+        this.rects[offset + 2] = maxX;
+        this.rects[offset + 3] = maxY;
+    }
+
+    private int toTile(float ndc, int size, int tiles) {
+        int pixel = (int) Math.floor((ndc * 0.5F + 0.5F) * size);
+        return Math.max(0, Math.min(tiles - 1, pixel / this.tileSize));
+    }
+
+    private void countRow(int row) {
+        int[] offsets = this.tileOffsets;
+        int rowStart = row * this.tilesX + 1;
+        for (int i = 0; i < this.lightCount; i++) {
+            int offset = i * 4;
+            if (row < this.rects[offset + 1] || row > this.rects[offset + 3]) {
+                continue;
+            }
+            for (int x = this.rects[offset]; x <= this.rects[offset + 2]; x++) {
+                offsets[rowStart + x]++;
+            }
+        }
+    }
+
+    private void fillRow(int row) {
+        int rowStart = row * this.tilesX;
+        int[] cursors = new int[this.tilesX];
+        System.arraycopy(this.tileOffsets, rowStart, cursors, 0, this.tilesX);
+        for (int i = 0; i < this.lightCount; i++) {
+            int offset = i * 4;
+            if (row < this.rects[offset + 1] || row > this.rects[offset + 3]) {
+                continue;
+            }
+            for (int x = this.rects[offset]; x <= this.rects[offset + 2]; x++) {
+                this.tileLights[cursors[x]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Sets whether large workloads are allowed to be split across threads.
+     *
+     * @param parallel Whether to bin in parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return The width and height of each tile in pixels
+     */
+    public int getTileSize() {
+        return this.tileSize;
+    }
+
+    /**
+     * @return The number of tile columns
+     */
+    public int getTilesX() {
+        return this.tilesX;
+    }
+
+    /**
+     * @return The number of tile rows
+     */
+    public int getTilesY() {
+        return this.tilesY;
+    }
+
+    /**
+     * @return The start of each tile in {@link #getTileLights()}, with one extra entry for the total
+     */
+    public int[] getTileOffsets() {
+        return this.tileOffsets;
+    }
+
+    /**
+     * @return The light indices for all tiles. Only the first {@link #getTileLightCount()} entries are valid
+     */
+    public int[] getTileLights() {
+        return this.tileLights;
+    }
+
+    /**
+     * @return The total number of tile light entries
+     */
+    public int getTileLightCount() {
+        return this.tileOffsets[this.tileOffsets.length - 1];
+    }
+
+    /**
+     * @return The indices of all tiles with at least one light. Only the first {@link #getActiveTileCount()} entries are valid
+     */
+    public int[] getActiveTiles() {
+        return this.activeTiles;
+    }
+
+    /**
+     * @return The number of tiles with at least one light
+     */
+    public int getActiveTileCount() {
+        return this.activeTileCount;
+    }
+}
@@ -0,0 +1,281 @@
+package foundry.veil.impl.client.render.deferred.light;
+
+import com.mojang.blaze3d.platform.GlStateManager;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.mojang.blaze3d.vertex.BufferBuilder;
+import com.mojang.blaze3d.vertex.DefaultVertexFormat;
+import com.mojang.blaze3d.vertex.Tesselator;
+import com.mojang.blaze3d.vertex.VertexBuffer;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import foundry.veil.api.client.render.CameraMatrices;
+import foundry.veil.api.client.render.CullFrustum;
+import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.deferred.light.PointLight;
+import foundry.veil.api.client.render.deferred.light.renderer.LightRenderer;
+import foundry.veil.api.client.render.deferred.light.renderer.LightTypeRenderer;
+import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
+import foundry.veil.api.client.render.shader.VeilShaders;
+import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import foundry.veil.impl.client.render.FrustumBatchCuller;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.ApiStatus;
+import org.joml.Matrix4f;
+import org.joml.Vector3d;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.lwjgl.opengl.GL11C.GL_INT;
+import static org.lwjgl.opengl.GL11C.glBindTexture;
+import static org.lwjgl.opengl.GL11C.glDeleteTextures;
+import static org.lwjgl.opengl.GL11C.glGenTextures;
+import static org.lwjgl.opengl.GL13C.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL15C.*;
+import static org.lwjgl.opengl.GL20C.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL30C.GL_R32I;
+import static org.lwjgl.opengl.GL30C.GL_RGBA32F;
+import static org.lwjgl.opengl.GL30C.glVertexAttribIPointer;
+import static org.lwjgl.opengl.GL31C.GL_TEXTURE_BUFFER;
+import static org.lwjgl.opengl.GL31C.glTexBuffer;
+import static org.lwjgl.opengl.GL33C.glVertexAttribDivisor;
+
+/**
+ * Draws point lights without compute shaders by binning them into screen tiles on the CPU.
+ * Every tile with at least one light is drawn as a single instanced quad that loops over the lights in that tile,
+ * so each pixel of the G-buffer is only read once no matter how many lights overlap it.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class TiledPointLightRenderer implements LightTypeRenderer<PointLight> {
+
+    public static final int TILE_SIZE = 32;
+    private static final int LIGHT_DATA_TEXELS = 2;
+
+    private final TiledLightBinner binner;
+    private final List<PointLight> visibleLights;
+    private final Matrix4f viewProjection;
+    private final VertexBuffer vbo;
+    private final int tileVbo;
+    private final int lightDataBuffer;
+    private final int lightDataTexture;
+    private final int tileDataBuffer;
+    private final int tileDataTexture;
+
+    private double[] bounds;
+    private long[] visibility;
+    private float[] spheres;
+    private FloatBuffer lightData;
+    private IntBuffer tileData;
+
+    public TiledPointLightRenderer() {
+        this.binner = new TiledLightBinner(TILE_SIZE);
+        this.visibleLights = new ArrayList<>();
+        this.viewProjection = new Matrix4f();
+        this.vbo = new VertexBuffer(VertexBuffer.Usage.STATIC);
+        this.tileVbo = glGenBuffers();
+        this.lightDataBuffer = glGenBuffers();
+        this.lightDataTexture = glGenTextures();
+        this.tileDataBuffer = glGenBuffers();
+        this.tileDataTexture = glGenTextures();
+        this.bounds = new double[0];
+        this.visibility = new long[0];
+        this.spheres = new float[0];
+
+        this.vbo.bind();
+        this.vbo.upload(createMesh());
+
+        glBindBuffer(GL_ARRAY_BUFFER, this.tileVbo);
+        glEnableVertexAttribArray(1);
+        glVertexAttribIPointer(1, 1, GL_INT, Integer.BYTES, 0);
+        glVertexAttribDivisor(1, 1);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        VertexBuffer.unbind();
+
+        // Texture buffers need storage before they can be attached
+        glBindBuffer(GL_TEXTURE_BUFFER, this.lightDataBuffer);
+        glBufferData(GL_TEXTURE_BUFFER, 16L * LIGHT_DATA_TEXELS, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, this.tileDataBuffer);
+        glBufferData(GL_TEXTURE_BUFFER, Integer.BYTES, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+
+        glBindTexture(GL_TEXTURE_BUFFER, this.lightDataTexture);
+        glTexBuffer(GL_TEXTURE_BUFFER, GL_RGBA32F, this.lightDataBuffer);
+        glBindTexture(GL_TEXTURE_BUFFER, this.tileDataTexture);
+        glTexBuffer(GL_TEXTURE_BUFFER, GL_R32I, this.tileDataBuffer);
+        glBindTexture(GL_TEXTURE_BUFFER, 0);
+    }
+
+    private static BufferBuilder.RenderedBuffer createMesh() {
+        Tesselator tesselator = RenderSystem.renderThreadTesselator();
+        BufferBuilder bufferBuilder = tesselator.getBuilder();
+        bufferBuilder.begin(VertexFormat.Mode.TRIANGLE_STRIP, DefaultVertexFormat.POSITION);
+        LightTypeRenderer.createQuad(bufferBuilder);
+        return bufferBuilder.end();
+    }
+
+    private void cullLights(List<PointLight> lights, CullFrustum frustum) {
+        int count = lights.size();
+        int words = FrustumBatchCuller.getWordCount(count);
+        if (this.bounds.length < count * FrustumBatchCuller.AAB_STRIDE) {
+            this.bounds = new double[count * FrustumBatchCuller.AAB_STRIDE * 3 / 2];
+        }
+        if (this.visibility.length < words) {
+            this.visibility = new long[words * 3 / 2 + 1];
+        }
+
+        for (int i = 0; i < count; i++) {
+            PointLight light = lights.get(i);
+            Vector3d position = light.getPosition();
+            float radius = light.getRadius();
+            int offset = i * FrustumBatchCuller.AAB_STRIDE;
+            this.bounds[offset] = position.x - radius;
+            this.bounds[offset + 1] = position.y - radius;
+            this.bounds[offset + 2] = position.z - radius;
+            this.bounds[offset + 3] = position.x + radius;
+            this.bounds[offset + 4] = position.y + radius;
+            this.bounds[offset + 5] = position.z + radius;
+        }
+        frustum.testAabs(this.bounds, count, this.visibility);
+        VeilRenderSystem.renderer().getHiZBuffer().testAabs(this.bounds, count, this.visibility);
+
+        this.visibleLights.clear();
+        for (int i = 0; i < count; i++) {
+            if (FrustumBatchCuller.isVisible(this.visibility, i)) {
+                this.visibleLights.add(lights.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void prepareLights(LightRenderer lightRenderer, List<PointLight> lights, Set<PointLight> removedLights, CullFrustum frustum) {
+        this.cullLights(lights, frustum);
+        int count = this.visibleLights.size();
+        if (count == 0) {
+            return;
+        }
+
+        if (this.spheres.length < count * TiledLightBinner.SPHERE_STRIDE) {
+            this.spheres = new float[count * TiledLightBinner.SPHERE_STRIDE * 3 / 2];
+        }
+        if (this.lightData == null || this.lightData.capacity() < count * LIGHT_DATA_TEXELS * 4) {
+            this.lightData = MemoryUtil.memRealloc(this.lightData, count * LIGHT_DATA_TEXELS * 4 * 3 / 2);
+        }
+
+        Vec3 camera = Minecraft.getInstance().gameRenderer.getMainCamera().getPosition();
+        FloatBuffer data = this.lightData.clear();
+        for (int i = 0; i < count; i++) {
+            PointLight light = this.visibleLights.get(i);
+            light.clean();
+
+            Vector3d position = light.getPosition();
+            float radius = light.getRadius();
+            int offset = i * TiledLightBinner.SPHERE_STRIDE;
+            this.spheres[offset] = (float) (position.x - camera.x);
+            this.spheres[offset + 1] = (float) (position.y - camera.y);
+            this.spheres[offset + 2] = (float) (position.z - camera.z);
+            this.spheres[offset + 3] = radius;
+
+            float brightness = light.getBrightness();
+            data.put((float) position.x).put((float) position.y).put((float) position.z).put(radius);
+            data.put(light.getColor().x() * brightness).put(light.getColor().y() * brightness).put(light.getColor().z() * brightness).put(0.0F);
+        }
+        data.flip();
+
+        glBindBuffer(GL_TEXTURE_BUFFER, this.lightDataBuffer);
+        glBufferData(GL_TEXTURE_BUFFER, data, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+    }
+
+    private void uploadTiles() {
+        int tileCount = this.binner.getTilesX() * this.binner.getTilesY();
+        int entries = this.binner.getTileLightCount();
+        int size = tileCount + 1 + entries;
+        if (this.tileData == null || this.tileData.capacity() < size) {
+            this.tileData = MemoryUtil.memRealloc(this.tileData, size * 3 / 2);
+        }
+
+        // Offsets come first, followed by every tile's light indices
+        IntBuffer data = this.tileData.clear();
+        data.put(this.binner.getTileOffsets(), 0, tileCount + 1);
+        data.put(this.binner.getTileLights(), 0, entries);
+        data.flip();
+
+        glBindBuffer(GL_TEXTURE_BUFFER, this.tileDataBuffer);
+        glBufferData(GL_TEXTURE_BUFFER, data, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+
+        data.clear();
+        data.put(this.binner.getActiveTiles(), 0, this.binner.getActiveTileCount());
+        data.flip();
+
+        glBindBuffer(GL_ARRAY_BUFFER, this.tileVbo);
+        glBufferData(GL_ARRAY_BUFFER, data, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    @Override
+    public void renderLights(LightRenderer lightRenderer, List<PointLight> lights) {
+        AdvancedFbo framebuffer = lightRenderer.getFramebuffer();
+        if (this.visibleLights.isEmpty() || framebuffer == null) {
+            return;
+        }
+
+        CameraMatrices matrices = VeilRenderSystem.renderer().getCameraMatrices();
+        this.viewProjection.set(matrices.getProjectionMatrix()).mul(matrices.getViewMatrix());
+        this.binner.resize(framebuffer.getWidth(), framebuffer.getHeight());
+        this.binner.bin(this.viewProjection, this.spheres, this.visibleLights.size());
+        if (this.binner.getActiveTileCount() == 0) {
+            return;
+        }
+
+        ShaderProgram shader = VeilRenderSystem.setShader(VeilShaders.LIGHT_POINT_TILED);
+        if (shader == null) {
+            return;
+        }
+
+        this.uploadTiles();
+
+        // The sampler cache only binds 2D textures on drivers without multi-bind, so the buffers are bound past the units it uses
+        int lightUnit = VeilRenderSystem.maxCombinedTextureUnits() - 2;
+        int tileUnit = lightUnit + 1;
+        int activeTexture = GlStateManager._getActiveTexture();
+        RenderSystem.activeTexture(GL_TEXTURE0 + lightUnit);
+        glBindTexture(GL_TEXTURE_BUFFER, this.lightDataTexture);
+        RenderSystem.activeTexture(GL_TEXTURE0 + tileUnit);
+        glBindTexture(GL_TEXTURE_BUFFER, this.tileDataTexture);
+        RenderSystem.activeTexture(activeTexture);
+
+        this.vbo.bind();
+        lightRenderer.applyShader();
+        shader.setInt("LightData", lightUnit);
+        shader.setInt("TileData", tileUnit);
+        shader.setInt("TileSize", TILE_SIZE);
+        shader.setInt("TileCountX", this.binner.getTilesX());
+        shader.setInt("TileCount", this.binner.getTilesX() * this.binner.getTilesY());
+        VeilRenderSystem.drawInstanced(this.vbo, this.binner.getActiveTileCount());
+        VertexBuffer.unbind();
+    }
+
+    @Override
+    public int getVisibleLights() {
+        return this.visibleLights.size();
+    }
+
+    @Override
+    public void free() {
+        this.vbo.close();
+        glDeleteBuffers(new int[]{this.tileVbo, this.lightDataBuffer, this.tileDataBuffer});
+        glDeleteTextures(new int[]{this.lightDataTexture, this.tileDataTexture});
+        MemoryUtil.memFree(this.lightData);
+        MemoryUtil.memFree(this.tileData);
+        this.lightData = null;
+        this.tileData = null;
+    }
+}
@@ -0,0 +1,125 @@
+package foundry.veil.impl.client.render.framebuffer;
+
+import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
+import foundry.veil.api.client.render.framebuffer.AdvancedFboAttachment;
+import foundry.veil.api.client.render.framebuffer.AdvancedFboRenderAttachment;
+import foundry.veil.api.client.render.framebuffer.AdvancedFboTextureAttachment;
+import foundry.veil.api.client.render.framebuffer.FramebufferAttachmentDefinition;
+import foundry.veil.impl.client.render.AdvancedFboImpl;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL11C.*;
+import static org.lwjgl.opengl.GL30C.*;
+import static org.lwjgl.opengl.GL43C.glCopyImageSubData;
+import static org.lwjgl.opengl.GL43C.glInvalidateFramebuffer;
+
+/**
+ * Copies between {@link AdvancedFbo} with OpenGL.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class AdvancedFboCopyBackend implements FramebufferCopier.Backend<AdvancedFbo> {
+
+    private static final Int2IntMap PIXEL_SIZES = new Int2IntOpenHashMap();
+
+    static {
+        PIXEL_SIZES.defaultReturnValue(4);
+        for (FramebufferAttachmentDefinition.Format format : FramebufferAttachmentDefinition.Format.values()) {
+            // Unsized formats are assumed to be stored as bytes
+            PIXEL_SIZES.putIfAbsent(format.getInternalId(), FramebufferPool.Key.getPixelSize(format, FramebufferAttachmentDefinition.DataType.UNSIGNED_BYTE));
+        }
+    }
+
+    @Override
+    public int getWidth(AdvancedFbo framebuffer) {
+        return framebuffer.getWidth();
+    }
+
+    @Override
+    public int getHeight(AdvancedFbo framebuffer) {
+        return framebuffer.getHeight();
+    }
+
+    @Override
+    public int getColorAttachments(AdvancedFbo framebuffer) {
+        return framebuffer.getColorAttachments();
+    }
+
+    @Override
+    public @Nullable FramebufferCopier.Attachment getColor(AdvancedFbo framebuffer) {
+        return framebuffer.hasColorAttachment(0) ? getAttachment(framebuffer.getColorAttachment(0)) : null;
+    }
+
+    @Override
+    public @Nullable FramebufferCopier.Attachment getDepth(AdvancedFbo framebuffer) {
+        return framebuffer.hasDepthAttachment() ? getAttachment(framebuffer.getDepthAttachment()) : null;
+    }
+
+    private static FramebufferCopier.Attachment getAttachment(AdvancedFboAttachment attachment) {
+        int format = attachment.getFormat();
+        int texture = attachment instanceof AdvancedFboTextureAttachment ? attachment.getId() : 0;
+        int samples = attachment instanceof AdvancedFboRenderAttachment ? attachment.getLevels() : 1;
+        return new FramebufferCopier.Attachment(texture, format, samples, PIXEL_SIZES.get(format));
+    }
+
+    @Override
+    public boolean isCopyImageSupported() {
+        return VeilRenderSystem.copyImageSupported();
+    }
+
+    @Override
+    public boolean isInvalidateSupported() {
+        return VeilRenderSystem.invalidateFramebufferSupported();
+    }
+
+    @Override
+    public void copyImage(AdvancedFbo source, AdvancedFbo target, FramebufferCopier.Attachment sourceAttachment, FramebufferCopier.Attachment targetAttachment, int width, int height) {
+        // Copies don't bind either framebuffer, and the other attachments of the target are kept
+        source.applyAutoClear();
+        target.applyAutoClear();
+        glCopyImageSubData(sourceAttachment.texture(), GL_TEXTURE_2D, 0, 0, 0, 0, targetAttachment.texture(), GL_TEXTURE_2D, 0, 0, 0, 0, width, height, 1);
+    }
+
+    @Override
+    public void blit(AdvancedFbo source, AdvancedFbo target, int mask, int filter) {
+        source.bindRead();
+        target.bindDraw(false);
+        glBlitFramebuffer(0, 0, source.getWidth(), source.getHeight(), 0, 0, target.getWidth(), target.getHeight(), mask, filter);
+        AdvancedFbo.unbind();
+    }
+
+    @Override
+    public void invalidate(AdvancedFbo target, int mask) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            int colorAttachments = (mask & GL_COLOR_BUFFER_BIT) != 0 ? target.getColorAttachments() : 0;
+            IntBuffer attachments = stack.mallocInt(colorAttachments + 1);
+            for (int i = 0; i < colorAttachments; i++) {
+                attachments.put(GL_COLOR_ATTACHMENT0 + i);
+            }
+            if ((mask & GL_DEPTH_BUFFER_BIT) != 0 && target.hasDepthAttachment()) {
+                attachments.put(GL_DEPTH_ATTACHMENT);
+            }
+            attachments.flip();
+            if (!attachments.hasRemaining()) {
+                return;
+            }
+
+            // Binding with the framebuffer would clear it first, which is pointless if the contents are thrown away
+            if (target instanceof AdvancedFboImpl impl) {
+                impl.bindDrawUntracked();
+            } else {
+                glBindFramebuffer(GL_DRAW_FRAMEBUFFER, target.getId());
+            }
+            glInvalidateFramebuffer(GL_DRAW_FRAMEBUFFER, attachments);
+            AdvancedFbo.unbind();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package foundry.veil.impl.client.render.framebuffer;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assigns framebuffers to physical allocations based on when each one is used.
+ * <p>Framebuffers are used from the stage that first accesses them to the stage that last accesses them. Two
+ * framebuffers with the same key that are never used by the same stage or at the same time can share one
+ * allocation. Framebuffers that aren't aliasable always get an allocation of their own.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class FramebufferAliasSolver {
+
+    private FramebufferAliasSolver() {
+    }
+
+    /**
+     * Assigns every resource to an allocation. Allocations are created in the order resources are first used.
+     *
+     * @param resources The resources to assign
+     * @return The assigned allocations
+     */
+    public static Result solve(List<Resource> resources) {
+        int count = resources.size();
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        // Resources that are never used are placed at the end so they don't take allocations from used resources
+        Arrays.sort(order, (a, b) -> Integer.compareUnsigned(resources.get(a).firstUse(), resources.get(b).firstUse()));
+
+        int[] slots = new int[count];
+        Object[] slotKeys = new Object[count];
+        int[] slotLastUse = new int[count];
+        long[] slotSizes = new long[count];
+        boolean[] slotShared = new boolean[count];
+        int slotCount = 0;
+        long requestedBytes = 0;
+
+        for (int index : order) {
+            Resource resource = resources.get(index);
+            requestedBytes += resource.size();
+
+            int slot = -1;
+            if (resource.isAliasable()) {
+                for (int i = 0; i < slotCount; i++) {
+                    if (slotShared[i] && slotLastUse[i] < resource.firstUse() && slotKeys[i].equals(resource.key())) {
+                        slot = i;
+                        break;
+                    }
+                }
+            }
+
+            if (slot == -1) {
+                slot = slotCount++;
+                slotKeys[slot] = resource.key();
+                slotSizes[slot] = resource.size();
+                slotShared[slot] = resource.isAliasable();
+            }
+
+            slots[index] = slot;
+            slotLastUse[slot] = resource.lastUse();
+        }
+
+        long allocatedBytes = 0;
+        for (int i = 0; i < slotCount; i++) {
+            allocatedBytes += slotSizes[i];
+        }
+        return new Result(slots, Arrays.copyOf(slotShared, slotCount), requestedBytes, allocatedBytes);
+    }
+
+    /**
+     * A framebuffer that needs an allocation.
+     *
+     * @param key        The key of allocations this resource can share. Resources are only aliased if their keys are equal
+     * @param firstUse   The index of the first stage that uses this resource or <code>-1</code> if it is never used
+     * @param lastUse    The index of the last stage that uses this resource or <code>-1</code> if it is never used
+     * @param size       The estimated size of the resource in bytes
+     * @param persistent Whether the contents of this resource have to be kept between uses, for example across frames
+     */
+    public record Resource(Object key, int firstUse, int lastUse, long size, boolean persistent) {
+
+        /**
+         * @return Whether this resource can share an allocation with other resources
+         */
+        public boolean isAliasable() {
+            return !this.persistent && this.firstUse >= 0;
+        }
+    }
+
+    /**
+     * The allocations resources were assigned.
+     *
+     * @param slots          The allocation of each resource in the order they were provided
+     * @param shared         Whether each allocation can be shared. Allocations that can't be shared must be kept for the lifetime of the resource
+     * @param requestedBytes The total size of all resources
+     * @param allocatedBytes The total size of all allocations
+     */
+    public record Result(int[] slots, boolean[] shared, long requestedBytes, long allocatedBytes) {
+
+        /**
+         * @return The number of allocations needed
+         */
+        public int slotCount() {
+            return this.shared.length;
+        }
+
+        /**
+         * @return The number of bytes saved by aliasing resources
+         */
+        public long savedBytes() {
+            return this.requestedBytes - this.allocatedBytes;
+        }
+    }
+}
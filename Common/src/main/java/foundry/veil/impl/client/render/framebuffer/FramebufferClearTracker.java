@@ -0,0 +1,172 @@
+package foundry.veil.impl.client.render.framebuffer;
+
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ReferenceSet;
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * Defers the automatic clear of framebuffers until they are first used in a frame.
+ * <p>Every tracked framebuffer is marked stale at the start of a frame. A stale framebuffer is cleared right before
+ * it is first read from or drawn into, and framebuffers that are completely overwritten or not used at all that
+ * frame are never cleared. The result is the same as clearing every framebuffer at the start of the frame.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class FramebufferClearTracker {
+
+    private final ReferenceSet<Target> tracked;
+    private final ReferenceSet<Target> stale;
+    private int issued;
+    private int skipped;
+    private int lastIssued;
+    private int lastSkipped;
+
+    public FramebufferClearTracker() {
+        this.tracked = new ReferenceOpenHashSet<>();
+        this.stale = new ReferenceOpenHashSet<>();
+        this.issued = 0;
+        this.skipped = 0;
+        this.lastIssued = 0;
+        this.lastSkipped = 0;
+    }
+
+    /**
+     * Starts clearing the specified target automatically. The target is expected to already be cleared.
+     *
+     * @param target The target to track
+     */
+    public void add(Target target) {
+        this.tracked.add(target);
+    }
+
+    /**
+     * Stops clearing the specified target. Any pending clear is dropped.
+     *
+     * @param target The target to stop tracking
+     * @return Whether the target was tracked
+     */
+    public boolean remove(Target target) {
+        this.stale.remove(target);
+        return this.tracked.remove(target);
+    }
+
+    /**
+     * Stops clearing the specified target when it is first used. Any pending clear happens right away.
+     *
+     * @param target The target that can now be used without the tracker knowing
+     * @return Whether the target was tracked
+     */
+    public boolean release(Target target) {
+        if (this.stale.remove(target)) {
+            target.clearNow(false);
+            this.issued++;
+        }
+        return this.tracked.remove(target);
+    }
+
+    /**
+     * Clears the specified target if it hasn't been cleared yet this frame. Must be called after the target is bound for drawing.
+     *
+     * @param target The target about to be drawn into
+     */
+    public void beforeWrite(Target target) {
+        if (this.stale.remove(target)) {
+            target.clearNow(true);
+            this.issued++;
+        }
+    }
+
+    /**
+     * Clears the specified target if it hasn't been cleared yet this frame. The target may not be bound.
+     *
+     * @param target The target about to be read from
+     */
+    public void beforeRead(Target target) {
+        if (this.stale.remove(target)) {
+            target.clearNow(false);
+            this.issued++;
+        }
+    }
+
+    /**
+     * Skips the clear of the specified target for this frame because everything in it is about to be replaced.
+     *
+     * @param target The target that will be overwritten
+     */
+    public void overwrite(Target target) {
+        if (this.stale.remove(target)) {
+            this.skipped++;
+        }
+    }
+
+    /**
+     * Finishes the current frame and marks every tracked target as stale.
+     */
+    public void endFrame() {
+        // Anything still stale was never used, so the clear was skipped entirely
+        this.lastIssued = this.issued;
+        this.lastSkipped = this.skipped + this.stale.size();
+        this.issued = 0;
+        this.skipped = 0;
+        this.stale.addAll(this.tracked);
+    }
+
+    /**
+     * @param target The target to check
+     * @return Whether the target still has to be cleared this frame
+     */
+    public boolean isStale(Target target) {
+        return this.stale.contains(target);
+    }
+
+    /**
+     * @param target The target to check
+     * @return Whether the target is cleared automatically
+     */
+    public boolean isTracked(Target target) {
+        return this.tracked.contains(target);
+    }
+
+    /**
+     * @return The number of tracked targets
+     */
+    public int getTracked() {
+        return this.tracked.size();
+    }
+
+    /**
+     * @return The number of clears done during the last frame
+     */
+    public int getClearsIssued() {
+        return this.lastIssued;
+    }
+
+    /**
+     * @return The number of clears that weren't needed during the last frame
+     */
+    public int getClearsSkipped() {
+        return this.lastSkipped;
+    }
+
+    /**
+     * Stops tracking all targets.
+     */
+    public void clear() {
+        this.tracked.clear();
+        this.stale.clear();
+    }
+
+    /**
+     * A framebuffer that can be cleared.
+     */
+    public interface Target {
+
+        /**
+         * Clears the contents of this target.
+         *
+         * @param bound Whether the target is currently bound for drawing
+         */
+        void clearNow(boolean bound);
+    }
+}
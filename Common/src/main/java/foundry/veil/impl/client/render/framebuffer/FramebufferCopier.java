@@ -0,0 +1,212 @@
+package foundry.veil.impl.client.render.framebuffer;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import static org.lwjgl.opengl.GL11C.GL_COLOR_BUFFER_BIT;
+import static org.lwjgl.opengl.GL11C.GL_DEPTH_BUFFER_BIT;
+import static org.lwjgl.opengl.GL11C.GL_STENCIL_BUFFER_BIT;
+import static org.lwjgl.opengl.GL30C.GL_DEPTH24_STENCIL8;
+import static org.lwjgl.opengl.GL30C.GL_DEPTH32F_STENCIL8;
+
+/**
+ * Copies the contents of one framebuffer into another with as little work as possible.
+ * <p>Attachments are copied directly with <code>glCopyImageSubData</code> when both framebuffers are the same size
+ * and the attachments are textures with the same format. Anything else falls back to a single blit. The number of
+ * bytes written by copies is tracked every frame.</p>
+ *
+ * @param <F> The type of framebuffer
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class FramebufferCopier<F> {
+
+    private final Backend<F> backend;
+    private long bytes;
+    private int imageCopies;
+    private int blits;
+    private long lastBytes;
+    private int lastImageCopies;
+    private int lastBlits;
+
+    public FramebufferCopier(Backend<F> backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Copies the specified buffers from one framebuffer to another.
+     *
+     * @param source The framebuffer to copy from
+     * @param target The framebuffer to copy into
+     * @param mask   The buffers to copy
+     * @param filter The filter to use if the framebuffers are different sizes
+     */
+    public void copy(F source, F target, int mask, int filter) {
+        int width = this.backend.getWidth(target);
+        int height = this.backend.getHeight(target);
+        int remaining = mask;
+
+        if (this.backend.isCopyImageSupported() && this.backend.getWidth(source) == width && this.backend.getHeight(source) == height) {
+            // Blits write into every draw buffer, so a single copy is only the same if there is one color buffer
+            if ((remaining & GL_COLOR_BUFFER_BIT) != 0 && this.backend.getColorAttachments(target) == 1) {
+                Attachment sourceColor = this.backend.getColor(source);
+                Attachment targetColor = this.backend.getColor(target);
+                if (canCopy(sourceColor, targetColor)) {
+                    this.copyImage(source, target, sourceColor, targetColor, width, height);
+                    remaining &= ~GL_COLOR_BUFFER_BIT;
+                }
+            }
+
+            // Copying a combined depth-stencil image would also replace the stencil
+            if ((remaining & GL_DEPTH_BUFFER_BIT) != 0) {
+                Attachment sourceDepth = this.backend.getDepth(source);
+                Attachment targetDepth = this.backend.getDepth(target);
+                if (canCopy(sourceDepth, targetDepth) && ((remaining & GL_STENCIL_BUFFER_BIT) != 0 || !hasStencil(targetDepth.format()))) {
+                    this.copyImage(source, target, sourceDepth, targetDepth, width, height);
+                    remaining &= ~(GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT);
+                }
+            }
+        }
+
+        if (remaining == 0) {
+            return;
+        }
+
+        this.backend.blit(source, target, remaining, filter);
+        this.blits++;
+        long pixels = (long) width * height;
+        if ((remaining & GL_COLOR_BUFFER_BIT) != 0) {
+            Attachment color = this.backend.getColor(target);
+            this.bytes += pixels * (color != null ? color.pixelSize() : 4) * this.backend.getColorAttachments(target);
+        }
+        if ((remaining & (GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT)) != 0) {
+            Attachment depth = this.backend.getDepth(target);
+            this.bytes += pixels * (depth != null ? depth.pixelSize() : 4);
+        }
+    }
+
+    private void copyImage(F source, F target, Attachment sourceAttachment, Attachment targetAttachment, int width, int height) {
+        this.backend.copyImage(source, target, sourceAttachment, targetAttachment, width, height);
+        this.imageCopies++;
+        this.bytes += (long) width * height * targetAttachment.pixelSize();
+    }
+
+    /**
+     * Tells the driver the contents of the specified buffers are no longer needed.
+     * Tiled GPUs can skip writing them back to memory.
+     *
+     * @param target The framebuffer to discard the buffers of
+     * @param mask   The buffers to discard
+     */
+    public void invalidate(F target, int mask) {
+        if (mask != 0 && this.backend.isInvalidateSupported()) {
+            this.backend.invalidate(target, mask);
+        }
+    }
+
+    /**
+     * Finishes the current frame and resets the counters.
+     */
+    public void endFrame() {
+        this.lastBytes = this.bytes;
+        this.lastImageCopies = this.imageCopies;
+        this.lastBlits = this.blits;
+        this.bytes = 0;
+        this.imageCopies = 0;
+        this.blits = 0;
+    }
+
+    /**
+     * @return The estimated number of bytes written by copies during the last frame
+     */
+    public long getBytesCopied() {
+        return this.lastBytes;
+    }
+
+    /**
+     * @return The number of attachments copied directly during the last frame
+     */
+    public int getImageCopies() {
+        return this.lastImageCopies;
+    }
+
+    /**
+     * @return The number of blits done during the last frame
+     */
+    public int getBlits() {
+        return this.lastBlits;
+    }
+
+    private static boolean canCopy(@Nullable Attachment source, @Nullable Attachment target) {
+        return source != null && target != null &&
+                source.texture() != 0 && target.texture() != 0 &&
+                source.format() != 0 && source.format() == target.format() &&
+                source.samples() <= 1 && target.samples() <= 1;
+    }
+
+    private static boolean hasStencil(int format) {
+        return format == GL_DEPTH24_STENCIL8 || format == GL_DEPTH32F_STENCIL8;
+    }
+
+    /**
+     * An attachment of a framebuffer.
+     *
+     * @param texture   The id of the texture or <code>0</code> if the attachment isn't a texture
+     * @param format    The sized internal format of the attachment or <code>0</code> if unknown
+     * @param samples   The number of samples per pixel
+     * @param pixelSize The estimated size of a single pixel in bytes
+     */
+    public record Attachment(int texture, int format, int samples, int pixelSize) {
+    }
+
+    /**
+     * Reads framebuffers and issues the actual copies.
+     *
+     * @param <F> The type of framebuffer
+     */
+    public interface Backend<F> {
+
+        int getWidth(F framebuffer);
+
+        int getHeight(F framebuffer);
+
+        int getColorAttachments(F framebuffer);
+
+        /**
+         * @param framebuffer The framebuffer to get the first color attachment of
+         * @return The attachment or <code>null</code> if there is no color attachment
+         */
+        @Nullable Attachment getColor(F framebuffer);
+
+        /**
+         * @param framebuffer The framebuffer to get the depth attachment of
+         * @return The attachment or <code>null</code> if there is no depth attachment
+         */
+        @Nullable Attachment getDepth(F framebuffer);
+
+        /**
+         * @return Whether attachments can be copied without a blit
+         */
+        boolean isCopyImageSupported();
+
+        /**
+         * @return Whether framebuffer contents can be invalidated
+         */
+        boolean isInvalidateSupported();
+
+        /**
+         * Copies an entire attachment into another attachment of the same size and format.
+         */
+        void copyImage(F source, F target, Attachment sourceAttachment, Attachment targetAttachment, int width, int height);
+
+        /**
+         * Blits the specified buffers from one framebuffer to another.
+         */
+        void blit(F source, F target, int mask, int filter);
+
+        /**
+         * Discards the contents of the specified buffers.
+         */
+        void invalidate(F target, int mask);
+    }
+}
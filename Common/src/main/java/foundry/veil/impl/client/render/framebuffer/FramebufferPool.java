@@ -0,0 +1,248 @@
+package foundry.veil.impl.client.render.framebuffer;
+
+import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
+import foundry.veil.api.client.render.framebuffer.FramebufferAttachmentDefinition;
+import foundry.veil.api.client.render.framebuffer.FramebufferDefinition;
+import gg.moonflower.molangcompiler.api.MolangEnvironment;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.NativeResource;
+
+import java.util.*;
+
+/**
+ * Keeps released framebuffers around for a few frames so they can be handed out again.
+ * <p>Framebuffers are only reused if the size and all attachments match exactly. Anything that isn't acquired again
+ * within {@link #IDLE_FRAMES} frames is deleted, so allocations for old window sizes don't stay around after a resize.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class FramebufferPool implements NativeResource {
+
+    public static final int IDLE_FRAMES = 3;
+
+    private final Map<Key, ArrayDeque<IdleFramebuffer>> idle;
+    private final Reference2ObjectMap<AdvancedFbo, Key> allocated;
+    private long allocatedBytes;
+    private int idleCount;
+    private int frame;
+    private int hits;
+    private int misses;
+
+    public FramebufferPool() {
+        this.idle = new HashMap<>();
+        this.allocated = new Reference2ObjectOpenHashMap<>();
+        this.allocatedBytes = 0;
+        this.idleCount = 0;
+        this.frame = 0;
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /**
+     * Retrieves an idle framebuffer with the specified definition or creates a new one.
+     *
+     * @param definition  The definition of the framebuffer
+     * @param environment The environment to evaluate the size in
+     * @return A framebuffer that must be given back with {@link #release(AdvancedFbo)}
+     */
+    public AdvancedFbo acquire(FramebufferDefinition definition, MolangEnvironment environment) {
+        return this.acquire(Key.of(definition, environment), definition, environment);
+    }
+
+    /**
+     * Retrieves an idle framebuffer with the specified key or creates a new one.
+     *
+     * @param key         The size and attachments of the framebuffer. This must be the key of the definition
+     * @param definition  The definition of the framebuffer
+     * @param environment The environment to evaluate the size in
+     * @return A framebuffer that must be given back with {@link #release(AdvancedFbo)}
+     */
+    public AdvancedFbo acquire(Key key, FramebufferDefinition definition, MolangEnvironment environment) {
+        ArrayDeque<IdleFramebuffer> framebuffers = this.idle.get(key);
+        if (framebuffers != null && !framebuffers.isEmpty()) {
+            this.idleCount--;
+            this.hits++;
+            return framebuffers.pollLast().fbo;
+        }
+
+        AdvancedFbo fbo = definition.createBuilder(environment).build(true);
+        this.allocated.put(fbo, key);
+        this.allocatedBytes += key.size();
+        this.misses++;
+        return fbo;
+    }
+
+    /**
+     * Gives back a framebuffer so it can be acquired again. Framebuffers that didn't come from this pool are freed immediately.
+     *
+     * @param fbo The framebuffer to release
+     */
+    public void release(AdvancedFbo fbo) {
+        Key key = this.allocated.get(fbo);
+        if (key == null) {
+            fbo.free();
+            return;
+        }
+
+        this.idle.computeIfAbsent(key, unused -> new ArrayDeque<>()).addLast(new IdleFramebuffer(fbo, this.frame));
+        this.idleCount++;
+    }
+
+    /**
+     * Deletes all framebuffers that have been idle for too long.
+     */
+    public void endFrame() {
+        this.frame++;
+        if (this.idleCount == 0) {
+            return;
+        }
+
+        Iterator<ArrayDeque<IdleFramebuffer>> iterator = this.idle.values().iterator();
+        while (iterator.hasNext()) {
+            ArrayDeque<IdleFramebuffer> framebuffers = iterator.next();
+            // Framebuffers are released in order, so the oldest ones are always first
+            while (!framebuffers.isEmpty() && this.frame - framebuffers.peekFirst().frame > IDLE_FRAMES) {
+                this.delete(framebuffers.pollFirst().fbo);
+            }
+            if (framebuffers.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void delete(AdvancedFbo fbo) {
+        Key key = this.allocated.remove(fbo);
+        if (key != null) {
+            this.allocatedBytes -= key.size();
+        }
+        this.idleCount--;
+        fbo.free();
+    }
+
+    /**
+     * @return The number of framebuffers created by this pool that haven't been deleted
+     */
+    public int getAllocated() {
+        return this.allocated.size();
+    }
+
+    /**
+     * @return The number of framebuffers waiting to be acquired again
+     */
+    public int getIdle() {
+        return this.idleCount;
+    }
+
+    /**
+     * @return The estimated size of all framebuffers created by this pool in bytes
+     */
+    public long getAllocatedBytes() {
+        return this.allocatedBytes;
+    }
+
+    /**
+     * @return The number of times an idle framebuffer was reused
+     */
+    public int getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return The number of times a new framebuffer had to be created
+     */
+    public int getMisses() {
+        return this.misses;
+    }
+
+    @Override
+    public void free() {
+        this.allocated.keySet().forEach(AdvancedFbo::free);
+        this.allocated.clear();
+        this.idle.clear();
+        this.allocatedBytes = 0;
+        this.idleCount = 0;
+    }
+
+    private record IdleFramebuffer(AdvancedFbo fbo, int frame) {
+    }
+
+    /**
+     * Everything that has to match for two framebuffers to be interchangeable.
+     *
+     * @param width        The width of the framebuffer
+     * @param height       The height of the framebuffer
+     * @param colorBuffers The color attachments
+     * @param depthBuffer  The depth attachment or <code>null</code> if there is no depth buffer
+     */
+    public record Key(int width,
+                      int height,
+                      List<FramebufferAttachmentDefinition> colorBuffers,
+                      @Nullable FramebufferAttachmentDefinition depthBuffer) {
+
+        /**
+         * Resolves the size of the specified definition.
+         *
+         * @param definition  The definition of the framebuffer
+         * @param environment The environment to evaluate the size in
+         * @return The key for framebuffers created from the definition
+         */
+        public static Key of(FramebufferDefinition definition, MolangEnvironment environment) {
+            int width = (int) environment.safeResolve(definition.width());
+            int height = (int) environment.safeResolve(definition.height());
+            return new Key(width, height, List.of(definition.colorBuffers()), definition.depthBuffer());
+        }
+
+        /**
+         * @return The estimated size of the framebuffer in bytes
+         */
+        public long size() {
+            long size = 0;
+            for (FramebufferAttachmentDefinition attachment : this.colorBuffers) {
+                size += getAttachmentSize(attachment);
+            }
+            if (this.depthBuffer != null) {
+                size += getAttachmentSize(this.depthBuffer);
+            }
+            return size * this.width * this.height;
+        }
+
+        private static long getAttachmentSize(FramebufferAttachmentDefinition attachment) {
+            long size = getPixelSize(attachment.format(), attachment.dataType());
+            if (attachment.type() == FramebufferAttachmentDefinition.Type.RENDER_BUFFER) {
+                // Levels are the number of samples for render buffers
+                return size * Math.max(1, attachment.levels());
+            }
+            // A full mipmap chain adds about a third of the base level
+            return attachment.levels() > 1 ? size * 4 / 3 : size;
+        }
+
+        static int getPixelSize(FramebufferAttachmentDefinition.Format format, FramebufferAttachmentDefinition.DataType dataType) {
+            return switch (format) {
+                case RED, DEPTH_COMPONENT -> getComponentSize(dataType);
+                case RG -> 2 * getComponentSize(dataType);
+                case RGB, BGR -> 3 * getComponentSize(dataType);
+                case RGBA, BGRA -> 4 * getComponentSize(dataType);
+                case DEPTH_STENCIL -> dataType == FramebufferAttachmentDefinition.DataType.FLOAT_32_UNSIGNED_INT_24_8_REV ? 8 : 4;
+                case R8, R8_SNORM, R3_G3_B2, RGBA2, R8I, R8UI, COMPRESSED_SRGB, COMPRESSED_SRGB_ALPHA -> 1;
+                case R16, R16_SNORM, RG8, RG8_SNORM, RGB4, RGB5, RGB565, RGBA4, RGB5_A1, R16F, R16I, R16UI, RG8I, RG8UI, DEPTH_COMPONENT16 -> 2;
+                case RGB12, RGB16, RGB16_SNORM, RGBA12, RGBA16, RGBA16_SNORM, RGB16F, RGBA16F, RG32F, RG32I, RG32UI, RGB16I, RGB16UI, RGBA16I, RGBA16UI, DEPTH32F_STENCIL8 -> 8;
+                case RGB32F, RGB32I, RGB32UI -> 12;
+                case RGBA32F, RGBA32I, RGBA32UI -> 16;
+                // 24-bit formats are padded to 32 bits by most drivers
+                default -> 4;
+            };
+        }
+
+        private static int getComponentSize(FramebufferAttachmentDefinition.DataType dataType) {
+            return switch (dataType) {
+                case UNSIGNED_BYTE, BYTE, UNSIGNED_BYTE_3_3_2, UNSIGNED_BYTE_2_3_3_REV -> 1;
+                case UNSIGNED_SHORT, SHORT, HALF_FLOAT -> 2;
+                default -> 4;
+            };
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package foundry.veil.impl.client.render.pipeline;
+
+import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.Arrays;
+import java.util.function.IntSupplier;
+
+/**
+ * Assigns a fixed buffer binding slot to every key until the slots run out.
+ * <p>Slots are handed out starting from the highest binding, so they don't collide with bindings declared in
+ * shader source, which usually start at <code>0</code>. Once every slot is taken, the least recently used key that
+ * wasn't used during the current frame gives up its slot.</p>
+ *
+ * @param <K> The type of key slots are assigned to
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class BindingSlotAllocator<K> {
+
+    private final IntSupplier slotCount;
+    private final Listener<K> listener;
+    private final Object2IntLinkedOpenHashMap<K> slots;
+    private int[] lastUsedFrames;
+    private boolean[] occupied;
+    private int frame;
+
+    /**
+     * Creates a new allocator.
+     *
+     * @param slotCount The number of available slots. This is only queried the first time a slot is needed
+     * @param listener  The listener to notify when slots change owners
+     */
+    public BindingSlotAllocator(IntSupplier slotCount, Listener<K> listener) {
+        this.slotCount = slotCount;
+        this.listener = listener;
+        this.slots = new Object2IntLinkedOpenHashMap<>();
+        this.slots.defaultReturnValue(-1);
+        this.lastUsedFrames = null;
+        this.occupied = null;
+        this.frame = 0;
+    }
+
+    /**
+     * Retrieves the slot of the specified key and assigns a new slot if it doesn't have one.
+     *
+     * @param key The key to get the slot of
+     * @return The slot assigned to the key
+     * @throws IllegalStateException If every slot is already used this frame
+     */
+    public int acquire(K key) {
+        int slot = this.slots.getAndMoveToLast(key);
+        if (slot == -1) {
+            slot = this.assign(key);
+        }
+        this.lastUsedFrames[slot] = this.frame;
+        return slot;
+    }
+
+    private int assign(K key) {
+        if (this.occupied == null) {
+            int count = this.slotCount.getAsInt();
+            this.occupied = new boolean[count];
+            this.lastUsedFrames = new int[count];
+            Arrays.fill(this.lastUsedFrames, -1);
+        }
+
+        int slot = -1;
+        for (int i = this.occupied.length - 1; i >= 0; i--) {
+            if (!this.occupied[i]) {
+                slot = i;
+                break;
+            }
+        }
+
+        if (slot == -1) {
+            slot = this.evict();
+        }
+
+        this.occupied[slot] = true;
+        this.slots.putAndMoveToLast(key, slot);
+        this.listener.onAssign(key, slot);
+        return slot;
+    }
+
+    private int evict() {
+        // Entries are ordered from least to most recently used
+        ObjectIterator<Object2IntMap.Entry<K>> iterator = this.slots.object2IntEntrySet().fastIterator();
+        while (iterator.hasNext()) {
+            Object2IntMap.Entry<K> entry = iterator.next();
+            int slot = entry.getIntValue();
+            if (this.lastUsedFrames[slot] == this.frame) {
+                continue;
+            }
+
+            K key = entry.getKey();
+            iterator.remove();
+            this.occupied[slot] = false;
+            this.listener.onEvict(key, slot);
+            return slot;
+        }
+
+        throw new IllegalStateException("Too many shader blocks bound, failed to find empty space.");
+    }
+
+    /**
+     * Retrieves the slot of the specified key without assigning one.
+     *
+     * @param key The key to get the slot of
+     * @return The slot assigned to the key or <code>-1</code> if it has no slot
+     */
+    public int get(K key) {
+        return this.slots.getInt(key);
+    }
+
+    /**
+     * Frees the slot assigned to the specified key.
+     *
+     * @param key The key to free the slot of
+     * @return The slot that was assigned to the key or <code>-1</code> if it had no slot
+     */
+    public int release(K key) {
+        int slot = this.slots.removeInt(key);
+        if (slot != -1) {
+            this.occupied[slot] = false;
+        }
+        return slot;
+    }
+
+    /**
+     * Allows all slots used during the current frame to be replaced.
+     */
+    public void endFrame() {
+        this.frame++;
+    }
+
+    /**
+     * @return All keys and their assigned slots
+     */
+    public Object2IntMap<K> getSlots() {
+        return this.slots;
+    }
+
+    /**
+     * Notified when a key gets a new slot or loses its slot.
+     *
+     * @param <K> The type of key slots are assigned to
+     */
+    public interface Listener<K> {
+
+        /**
+         * Called after a key is assigned a new slot.
+         *
+         * @param key  The key
+         * @param slot The new slot of the key
+         */
+        void onAssign(K key, int slot);
+
+        /**
+         * Called after a key loses its slot to make space for another key.
+         *
+         * @param key  The key
+         * @param slot The slot the key had
+         */
+        void onEvict(K key, int slot);
+    }
+}
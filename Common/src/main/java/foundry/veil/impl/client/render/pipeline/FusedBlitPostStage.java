@@ -0,0 +1,65 @@
+package foundry.veil.impl.client.render.pipeline;
+
+import foundry.veil.api.client.render.post.stage.BlitPostStage;
+import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Set;
+
+/**
+ * A blit stage that runs several pointwise blit stages with a single generated shader.
+ *
+ * @author Ocelot
+ * @see PostStageFuser
+ */
+@ApiStatus.Internal
+public class FusedBlitPostStage extends BlitPostStage {
+
+    private final ShaderProgram program;
+    private final int stageCount;
+    private final Set<ResourceLocation> sources;
+
+    /**
+     * Creates a new fused stage.
+     *
+     * @param program    The generated program to draw with. The stage takes ownership of it
+     * @param stageCount The number of stages that were merged into this one
+     * @param sources    The ids of the shaders the merged stages were generated from
+     * @param in         The input of the first merged stage
+     * @param out        The output of the last merged stage
+     * @param clear      Whether the last merged stage clears its output
+     */
+    public FusedBlitPostStage(ShaderProgram program, int stageCount, Set<ResourceLocation> sources, @Nullable ResourceLocation in, ResourceLocation out, boolean clear) {
+        super(program.getId(), in, out, clear);
+        this.program = program;
+        this.stageCount = stageCount;
+        this.sources = sources;
+    }
+
+    @Override
+    public ShaderProgram getShader() {
+        return this.program;
+    }
+
+    @Override
+    public void free() {
+        super.free();
+        this.program.free();
+    }
+
+    /**
+     * @return The number of stages that were merged into this one
+     */
+    public int getStageCount() {
+        return this.stageCount;
+    }
+
+    /**
+     * @return The ids of the shaders the merged stages were generated from
+     */
+    public Set<ResourceLocation> getSources() {
+        return this.sources;
+    }
+}
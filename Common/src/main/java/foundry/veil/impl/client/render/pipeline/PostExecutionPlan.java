@@ -0,0 +1,112 @@
+package foundry.veil.impl.client.render.pipeline;
+
+import foundry.veil.api.client.render.post.PostProcessingManager;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The active post pipelines resolved and sorted into the order they run in.
+ * <p>A plan is only compiled when the active pipelines or loaded pipelines change, so running post-processing
+ * doesn't have to sort or look up anything. Priorities can be changed directly on the active entries, so
+ * {@link #isValid(List)} has to be checked before a plan is used.</p>
+ *
+ * @param <T> The type of pipeline
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class PostExecutionPlan<T> {
+
+    public static final Comparator<PostProcessingManager.ProfileEntry> PRIORITY_ORDER = Comparator.comparingInt(PostProcessingManager.ProfileEntry::getPriority).reversed();
+
+    private final PostProcessingManager.ProfileEntry[] entries;
+    private final int[] priorities;
+    private final ResourceLocation[] ids;
+    private final Object[] pipelines;
+    private final int size;
+
+    private PostExecutionPlan(PostProcessingManager.ProfileEntry[] entries, int[] priorities, ResourceLocation[] ids, Object[] pipelines, int size) {
+        this.entries = entries;
+        this.priorities = priorities;
+        this.ids = ids;
+        this.pipelines = pipelines;
+        this.size = size;
+    }
+
+    /**
+     * Sorts the active pipelines by priority and resolves each pipeline. Pipelines the lookup returns <code>null</code> for are skipped.
+     *
+     * @param active The active pipelines. This list is sorted into the order the pipelines run in
+     * @param lookup The function to retrieve pipelines by id
+     * @param <T>    The type of pipeline
+     * @return A new plan
+     */
+    public static <T> PostExecutionPlan<T> compile(List<PostProcessingManager.ProfileEntry> active, Function<ResourceLocation, T> lookup) {
+        active.sort(PRIORITY_ORDER);
+
+        int count = active.size();
+        PostProcessingManager.ProfileEntry[] entries = new PostProcessingManager.ProfileEntry[count];
+        int[] priorities = new int[count];
+        ResourceLocation[] ids = new ResourceLocation[count];
+        Object[] pipelines = new Object[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            PostProcessingManager.ProfileEntry entry = active.get(i);
+            entries[i] = entry;
+            priorities[i] = entry.getPriority();
+
+            T pipeline = lookup.apply(entry.getPipeline());
+            if (pipeline != null) {
+                ids[size] = entry.getPipeline();
+                pipelines[size] = pipeline;
+                size++;
+            }
+        }
+        return new PostExecutionPlan<>(entries, priorities, ids, pipelines, size);
+    }
+
+    /**
+     * Checks whether the plan still matches the active pipelines.
+     *
+     * @param active The active pipelines the plan was compiled from
+     * @return Whether no priorities changed since the plan was compiled
+     */
+    public boolean isValid(List<PostProcessingManager.ProfileEntry> active) {
+        if (active.size() != this.entries.length) {
+            return false;
+        }
+        for (int i = 0; i < this.entries.length; i++) {
+            if (this.entries[i].getPriority() != this.priorities[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of pipelines to run
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param index The index of the pipeline in run order
+     * @return The id of the pipeline
+     */
+    public ResourceLocation getId(int index) {
+        return this.ids[index];
+    }
+
+    /**
+     * @param index The index of the pipeline in run order
+     * @return The pipeline
+     */
+    @SuppressWarnings("unchecked")
+    public T getPipeline(int index) {
+        return (T) this.pipelines[index];
+    }
+}
@@ -4,34 +4,47 @@ import com.mojang.blaze3d.systems.RenderSystem;
 import com.mojang.blaze3d.vertex.*;
 import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
+import foundry.veil.api.client.render.framebuffer.FramebufferManager;
 import foundry.veil.api.client.render.framebuffer.VeilFramebuffers;
 import foundry.veil.api.client.render.post.PostPipeline;
 import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import it.unimi.dsi.fastutil.objects.Object2IntArrayMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import net.minecraft.resources.ResourceLocation;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 import org.lwjgl.system.NativeResource;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Default implementation of {@link PostPipeline.Context}.
+ * <p>The framebuffers from the {@link FramebufferManager} are only copied when they change. Framebuffers set while
+ * running post are undone at the end of the run instead of clearing everything.</p>
  */
 @ApiStatus.Internal
 public class PostPipelineContext implements PostPipeline.Context, NativeResource {
 
     private final VertexBuffer vbo;
-    private final Map<CharSequence, Integer> samplers;
+    private final Object2IntMap<CharSequence> samplers;
     private final Map<ResourceLocation, AdvancedFbo> framebuffers;
+    private final List<ResourceLocation> overriddenNames;
+    private final List<AdvancedFbo> overriddenFramebuffers;
+    private int framebufferGeneration;
 
     /**
      * Creates a new context to fit the specified window.
      */
     public PostPipelineContext() {
         this.vbo = new VertexBuffer(VertexBuffer.Usage.STATIC);
-        this.samplers = new HashMap<>();
+        this.samplers = new Object2IntArrayMap<>();
         this.framebuffers = new HashMap<>();
+        this.overriddenNames = new ArrayList<>();
+        this.overriddenFramebuffers = new ArrayList<>();
+        this.framebufferGeneration = -1;
         this.setupScreenQuad();
     }
 
@@ -54,7 +67,13 @@ public class PostPipelineContext implements PostPipeline.Context, NativeResource
      * Marks the start of a new post run.
      */
     public void begin() {
-        VeilRenderSystem.renderer().getFramebufferManager().getFramebuffers().forEach(this::setFramebuffer);
+        FramebufferManager framebufferManager = VeilRenderSystem.renderer().getFramebufferManager();
+        int generation = framebufferManager.getGeneration();
+        if (this.framebufferGeneration != generation) {
+            this.framebufferGeneration = generation;
+            this.framebuffers.clear();
+            this.framebuffers.putAll(framebufferManager.getFramebuffers());
+        }
         this.setFramebuffer(VeilFramebuffers.POST, this.getDrawFramebuffer());
     }
 
@@ -63,7 +82,19 @@ public class PostPipelineContext implements PostPipeline.Context, NativeResource
      */
     public void end() {
         this.samplers.clear();
-        this.framebuffers.clear();
+
+        // Restore in reverse order so framebuffers set more than once get their original value back
+        for (int i = this.overriddenNames.size() - 1; i >= 0; i--) {
+            ResourceLocation name = this.overriddenNames.get(i);
+            AdvancedFbo framebuffer = this.overriddenFramebuffers.get(i);
+            if (framebuffer != null) {
+                this.framebuffers.put(name, framebuffer);
+            } else {
+                this.framebuffers.remove(name);
+            }
+        }
+        this.overriddenNames.clear();
+        this.overriddenFramebuffers.clear();
     }
 
     @Override
@@ -80,12 +111,27 @@ public class PostPipelineContext implements PostPipeline.Context, NativeResource
 
     @Override
     public void setFramebuffer(ResourceLocation name, AdvancedFbo framebuffer) {
-        this.framebuffers.put(name, framebuffer);
+        AdvancedFbo previous = this.framebuffers.put(name, framebuffer);
+        if (previous != framebuffer) {
+            this.overriddenNames.add(name);
+            this.overriddenFramebuffers.add(previous);
+        }
+    }
+
+    @Override
+    public void removeFramebuffer(ResourceLocation name) {
+        AdvancedFbo previous = this.framebuffers.remove(name);
+        if (previous != null) {
+            this.overriddenNames.add(name);
+            this.overriddenFramebuffers.add(previous);
+        }
     }
 
     @Override
     public void applySamplers(ShaderProgram shader) {
-        this.samplers.forEach(shader::addSampler);
+        for (Object2IntMap.Entry<CharSequence> entry : this.samplers.object2IntEntrySet()) {
+            shader.addSampler(entry.getKey(), entry.getIntValue());
+        }
     }
 
     @Override
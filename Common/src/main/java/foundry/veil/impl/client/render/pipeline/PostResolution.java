@@ -0,0 +1,62 @@
+package foundry.veil.impl.client.render.pipeline;
+
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * Helpers for post stages that run at a lower resolution than their output.
+ * <p>This must match <code>veil:post/checkerboard_mask</code> and <code>veil:post/checkerboard_resolve</code>.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class PostResolution {
+
+    /**
+     * The smallest scale a stage can run at.
+     */
+    public static final float MIN_SCALE = 1.0F / 16.0F;
+
+    private PostResolution() {
+    }
+
+    /**
+     * Scales the size of an output framebuffer. Partial pixels are rounded up so the scaled image always covers the entire output.
+     *
+     * @param size  The size of the output in pixels
+     * @param scale The scale to apply. This is clamped between {@link #MIN_SCALE} and <code>1</code>
+     * @return The scaled size in pixels
+     */
+    public static int scale(int size, float scale) {
+        if (!(scale < 1.0F)) {
+            return size;
+        }
+        return Math.max(1, (int) Math.ceil(size * Math.max(scale, MIN_SCALE)));
+    }
+
+    /**
+     * Checks whether a pixel is shaded during the specified frame in checkerboard mode.
+     * Every pixel is shaded exactly once every two frames and all four neighbors of an unshaded pixel are shaded.
+     *
+     * @param x     The x position of the pixel
+     * @param y     The y position of the pixel
+     * @param frame The frame to check
+     * @return Whether the pixel is shaded
+     */
+    public static boolean isShaded(int x, int y, int frame) {
+        return ((x + y + frame) & 1) == 0;
+    }
+
+    /**
+     * Offsets a pixel coordinate and mirrors the offset back if it would fall outside the image.
+     * Mirroring an odd offset keeps the parity of the neighbor, so it is always shaded when the center pixel isn't.
+     *
+     * @param coord  The coordinate of the center pixel
+     * @param offset The offset to the neighbor
+     * @param size   The size of the image in pixels
+     * @return The coordinate of the neighbor
+     */
+    public static int neighbor(int coord, int offset, int size) {
+        int result = coord + offset;
+        return result < 0 || result >= size ? coord - offset : result;
+    }
+}
@@ -0,0 +1,428 @@
+package foundry.veil.impl.client.render.pipeline;
+
+import foundry.veil.api.client.render.framebuffer.FramebufferAttachmentDefinition;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Analyzes post fragment shaders and merges chains of them into a single shader.
+ * <p>Every stage after the first must only read its input at the current pixel with
+ * <code>texture(DiffuseSampler0, texCoord)</code>. The read is replaced with the result of the previous stage, so the
+ * whole chain can run in one full-screen draw without writing the intermediate framebuffers.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class PostShaderFusion {
+
+    /**
+     * The name of the output of fused shaders.
+     */
+    public static final String OUTPUT = "VeilFusedColor";
+
+    private static final String INPUT = "veil_input";
+    private static final Pattern COMMENT = Pattern.compile("//[^\\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern UNIFORM = Pattern.compile("uniform\\s+(\\w+(?:\\s+\\w+)*?)\\s+(\\w+)\\s*(\\[[^]]*])?\\s*;");
+    private static final Pattern IN = Pattern.compile("in\\s+vec2\\s+texCoord\\s*;");
+    private static final Pattern OUT = Pattern.compile("(?:layout\\s*\\([^)]*\\)\\s*)?out\\s+vec4\\s+(\\w+)\\s*;");
+    private static final Pattern INTERFACE = Pattern.compile("(?:\\w+\\s+)*(?:in|out)\\s+[^(]*;");
+    private static final Pattern STRUCT = Pattern.compile("struct\\s+(\\w+)");
+    private static final Pattern INPUT_READ = Pattern.compile("texture\\s*\\(\\s*DiffuseSampler0\\s*,\\s*texCoord\\s*\\)");
+    private static final Pattern INPUT_SAMPLER = Pattern.compile("\\b(?:DiffuseSampler\\d+|DiffuseDepthSampler|InSize)\\b");
+    private static final Pattern UNSUPPORTED = Pattern.compile("\\b(?:discard|gl_FragDepth|gl_FragData)\\b");
+    private static final Pattern SAMPLER = Pattern.compile("[iu]?sampler\\w*");
+    private static final Set<String> SHARED_UNIFORMS = Set.of(
+            "RenderModelViewMat", "RenderProjMat", "ColorModulator", "GlintAlpha", "FogStart", "FogEnd", "FogColor",
+            "FogShape", "TextureMatrix", "GameTime", "InSize");
+
+    private PostShaderFusion() {
+    }
+
+    /**
+     * Splits the specified fragment shader into the parts needed to fuse it with other shaders.
+     *
+     * @param source The fragment shader source
+     * @return The parsed stage or <code>null</code> if the shader can't be fused with anything
+     */
+    public static @Nullable Stage parse(String source) {
+        String text = COMMENT.matcher(source).replaceAll(match -> match.group().replaceAll("[^\\n]", " "));
+
+        List<String> includes = new ArrayList<>();
+        StringBuilder body = new StringBuilder(text.length());
+        for (String line : text.split("\n", -1)) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("#")) {
+                if (trimmed.startsWith("#include ")) {
+                    includes.add(trimmed);
+                } else if (!trimmed.startsWith("#version")) {
+                    // Other directives could change the meaning of code from other stages
+                    return null;
+                }
+                body.append('\n');
+                continue;
+            }
+            body.append(line).append('\n');
+        }
+
+        Map<String, String> uniforms = new LinkedHashMap<>();
+        Set<String> declared = new HashSet<>();
+        StringBuilder code = new StringBuilder(body.length());
+        String output = null;
+        for (String chunk : splitTopLevel(body)) {
+            String trimmed = chunk.trim();
+            if (trimmed.isEmpty() || trimmed.equals(";")) {
+                code.append(chunk);
+                continue;
+            }
+
+            if (trimmed.startsWith("uniform") || trimmed.startsWith("layout") && trimmed.contains(" uniform ")) {
+                Matcher matcher = UNIFORM.matcher(trimmed);
+                if (trimmed.contains("{") || !matcher.matches()) {
+                    return null;
+                }
+                uniforms.put(matcher.group(2), trimmed.replaceAll("\\s+", " "));
+                continue;
+            }
+
+            if (trimmed.startsWith("in ")) {
+                if (!IN.matcher(trimmed).matches()) {
+                    return null;
+                }
+                continue;
+            }
+
+            Matcher outMatcher = OUT.matcher(trimmed);
+            if (outMatcher.matches()) {
+                if (output != null) {
+                    return null;
+                }
+                output = outMatcher.group(1);
+                continue;
+            }
+            if (trimmed.startsWith("layout") || INTERFACE.matcher(trimmed).matches()) {
+                return null;
+            }
+
+            String name = getDeclaredName(trimmed);
+            if (name == null) {
+                return null;
+            }
+            declared.add(name);
+            code.append(chunk);
+        }
+
+        if (output == null || !declared.contains("main")) {
+            return null;
+        }
+
+        String result = code.toString();
+        if (UNSUPPORTED.matcher(result).find()) {
+            return null;
+        }
+
+        String pointwise = INPUT_READ.matcher(result).replaceAll(INPUT);
+        if (INPUT_SAMPLER.matcher(pointwise).find()) {
+            pointwise = null;
+        }
+
+        declared.add(output);
+        return new Stage(includes, uniforms, output, declared, result, pointwise);
+    }
+
+    private static List<String> splitTopLevel(CharSequence text) {
+        List<String> chunks = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0) {
+                    // Structs are followed by a semicolon, so keep it with the declaration
+                    int next = i + 1;
+                    while (next < text.length() && Character.isWhitespace(text.charAt(next))) {
+                        next++;
+                    }
+                    if (next < text.length() && text.charAt(next) == ';') {
+                        i = next;
+                    }
+                    chunks.add(text.subSequence(start, i + 1).toString());
+                    start = i + 1;
+                }
+            } else if (c == ';' && depth == 0) {
+                chunks.add(text.subSequence(start, i + 1).toString());
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            chunks.add(text.subSequence(start, text.length()).toString());
+        }
+        return chunks;
+    }
+
+    private static @Nullable String getDeclaredName(String declaration) {
+        Matcher struct = STRUCT.matcher(declaration);
+        if (declaration.startsWith("struct") && struct.lookingAt()) {
+            return struct.group(1);
+        }
+
+        int end = declaration.length();
+        int paren = declaration.indexOf('(');
+        int equals = declaration.indexOf('=');
+        if (paren != -1 && (equals == -1 || paren < equals)) {
+            // Functions are named right before the parameter list
+            end = paren;
+        } else {
+            for (int i = 0; i < declaration.length(); i++) {
+                char c = declaration.charAt(i);
+                if (c == ',') {
+                    // Multiple declarations in one statement aren't supported
+                    return null;
+                }
+                if (c == '=' || c == '[' || c == ';') {
+                    end = i;
+                    break;
+                }
+            }
+        }
+
+        String name = null;
+        Matcher matcher = IDENTIFIER.matcher(declaration).region(0, end);
+        while (matcher.find()) {
+            name = matcher.group();
+        }
+        return name;
+    }
+
+    /**
+     * Checks whether the specified stage can be added to the end of a chain.
+     *
+     * @param chain The stages already in the chain
+     * @param next  The stage to add
+     * @return Whether the stages can be fused together
+     */
+    public static boolean canAppend(List<Stage> chain, Stage next) {
+        if (!chain.isEmpty() && next.pointwiseCode == null) {
+            return false;
+        }
+        for (Stage stage : chain) {
+            for (Map.Entry<String, String> entry : next.uniforms.entrySet()) {
+                // Uniforms with the same name become a single uniform, so they can only be shared if they always have the same value
+                String declaration = stage.uniforms.get(entry.getKey());
+                if (declaration != null && (!declaration.equals(entry.getValue()) || !isShared(entry.getKey(), declaration))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the specified stage declares uniforms that aren't set automatically for every blit stage.
+     * Those could be set by anything holding the original program, which a fused program would never see.
+     *
+     * @param stage The stage to check
+     * @return Whether the stage has uniforms that have to be set manually
+     */
+    public static boolean hasExternalUniforms(Stage stage) {
+        for (Map.Entry<String, String> entry : stage.uniforms.entrySet()) {
+            if (!isShared(entry.getKey(), entry.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isShared(String name, String declaration) {
+        if (SHARED_UNIFORMS.contains(name)) {
+            return true;
+        }
+
+        // Samplers are bound from the program definition, which is checked for conflicts separately
+        Matcher matcher = UNIFORM.matcher(declaration);
+        if (!matcher.matches()) {
+            return false;
+        }
+        String type = matcher.group(1);
+        return SAMPLER.matcher(type.substring(type.lastIndexOf(' ') + 1)).matches();
+    }
+
+    /**
+     * Generates a single fragment shader that runs all stages in order.
+     *
+     * @param stages     The stages to fuse. All stages after the first must be pointwise
+     * @param boundaries How each intermediate result is stored, one for each stage after the first.
+     *                   <code>%s</code> is replaced with the result of the previous stage
+     * @return The source of the fused fragment shader
+     * @throws IllegalArgumentException If the stages can't be fused
+     */
+    public static String generate(List<Stage> stages, List<String> boundaries) {
+        if (stages.size() < 2 || boundaries.size() != stages.size() - 1) {
+            throw new IllegalArgumentException("Expected at least 2 stages and a boundary between each stage");
+        }
+        for (int i = 1; i < stages.size(); i++) {
+            if (!canAppend(stages.subList(0, i), stages.get(i))) {
+                throw new IllegalArgumentException("Stage " + i + " can't be fused");
+            }
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("// Generated from ").append(stages.size()).append(" post stages\n");
+
+        Set<String> includes = new LinkedHashSet<>();
+        Map<String, String> uniforms = new LinkedHashMap<>();
+        for (Stage stage : stages) {
+            includes.addAll(stage.includes);
+            stage.uniforms.forEach(uniforms::putIfAbsent);
+        }
+        for (String include : includes) {
+            builder.append(include).append('\n');
+        }
+        builder.append('\n');
+        for (String uniform : uniforms.values()) {
+            builder.append(uniform).append('\n');
+        }
+        builder.append("\nin vec2 texCoord;\n\nout vec4 ").append(OUTPUT).append(";\n");
+
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            String suffix = "_veil" + i;
+            builder.append("\n// Stage ").append(i).append('\n');
+            if (i > 0) {
+                builder.append("vec4 ").append(INPUT).append(i).append(";\n");
+            }
+            builder.append("vec4 ").append(stage.output).append(suffix).append(";\n");
+            builder.append(rename(i > 0 ? stage.pointwiseCode : stage.code, stage.declared, suffix, INPUT + i).trim()).append('\n');
+        }
+
+        builder.append("\nvoid main() {\n");
+        for (int i = 0; i < stages.size(); i++) {
+            if (i > 0) {
+                String previous = stages.get(i - 1).output + "_veil" + (i - 1);
+                builder.append("    ").append(INPUT).append(i).append(" = ").append(String.format(boundaries.get(i - 1), previous)).append(";\n");
+            }
+            builder.append("    main_veil").append(i).append("();\n");
+        }
+        Stage last = stages.get(stages.size() - 1);
+        builder.append("    ").append(OUTPUT).append(" = ").append(last.output).append("_veil").append(stages.size() - 1).append(";\n");
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    private static String rename(String code, Set<String> declared, String suffix, String input) {
+        Matcher matcher = IDENTIFIER.matcher(code);
+        StringBuilder builder = new StringBuilder(code.length() + 64);
+        int last = 0;
+        while (matcher.find()) {
+            String name = matcher.group();
+            String replacement;
+            if (name.equals(INPUT)) {
+                replacement = input;
+            } else if (declared.contains(name) && !isMember(code, matcher.start())) {
+                replacement = name + suffix;
+            } else {
+                continue;
+            }
+            builder.append(code, last, matcher.start()).append(replacement);
+            last = matcher.end();
+        }
+        builder.append(code, last, code.length());
+        return builder.toString();
+    }
+
+    private static boolean isMember(String code, int index) {
+        for (int i = index - 1; i >= 0; i--) {
+            char c = code.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '.' || Character.isDigit(c);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets how a value is stored in an intermediate framebuffer with the specified format, so fusing the stages
+     * produces the same result as writing and reading the framebuffer.
+     *
+     * @param format The format of the framebuffer
+     * @return The boundary expression for {@link #generate(List, List)} or <code>null</code> if the format can't be reproduced exactly
+     */
+    public static @Nullable String getBoundary(FramebufferAttachmentDefinition.Format format) {
+        // Half floats, small packed formats, and formats with unsized storage are rounded in implementation-defined ways,
+        // while sRGB and integer formats aren't read back as the value written, so only exact conversions are emulated
+        return switch (format) {
+            case RGBA32F -> store(4, "$");
+            case RGB32F -> store(3, "$");
+            case RG32F -> store(2, "$");
+            case R32F -> store(1, "$");
+            case RGBA8 -> store(4, unorm("255.0"));
+            case RGB8 -> store(3, unorm("255.0"));
+            case RG8 -> store(2, unorm("255.0"));
+            case R8 -> store(1, unorm("255.0"));
+            case RGBA16 -> store(4, unorm("65535.0"));
+            case RGB16 -> store(3, unorm("65535.0"));
+            case RG16 -> store(2, unorm("65535.0"));
+            case R16 -> store(1, unorm("65535.0"));
+            case RGB10_A2 -> store(4, unorm("vec4(1023.0, 1023.0, 1023.0, 3.0)"));
+            case RGBA8_SNORM -> store(4, snorm("127.0"));
+            case RGB8_SNORM -> store(3, snorm("127.0"));
+            case RG8_SNORM -> store(2, snorm("127.0"));
+            case R8_SNORM -> store(1, snorm("127.0"));
+            case RGBA16_SNORM -> store(4, snorm("32767.0"));
+            case RGB16_SNORM -> store(3, snorm("32767.0"));
+            case RG16_SNORM -> store(2, snorm("32767.0"));
+            case R16_SNORM -> store(1, snorm("32767.0"));
+            default -> null;
+        };
+    }
+
+    private static String unorm(String scale) {
+        return "round(clamp($, 0.0, 1.0) * " + scale + ") / " + scale;
+    }
+
+    private static String snorm(String scale) {
+        return "round(clamp($, -1.0, 1.0) * " + scale + ") / " + scale;
+    }
+
+    private static String store(int channels, String conversion) {
+        // Channels that aren't stored are read back as 0 for color and 1 for alpha
+        return switch (channels) {
+            case 1 -> "vec4(" + conversion.replace("$", "(%s).r") + ", 0.0, 0.0, 1.0)";
+            case 2 -> "vec4(" + conversion.replace("$", "(%s).rg") + ", 0.0, 1.0)";
+            case 3 -> "vec4(" + conversion.replace("$", "(%s).rgb") + ", 1.0)";
+            default -> conversion.replace("$", "%s");
+        };
+    }
+
+    /**
+     * A fragment shader split into the parts needed to fuse it.
+     *
+     * @param includes      All include directives
+     * @param uniforms      The declaration of each uniform by name
+     * @param output        The name of the color output
+     * @param declared      The names of all functions and variables declared outside of functions
+     * @param code          Everything except includes, uniforms, inputs, and outputs
+     * @param pointwiseCode The code with input reads replaced or <code>null</code> if the stage reads other pixels of the input
+     */
+    public record Stage(List<String> includes,
+                        Map<String, String> uniforms,
+                        String output,
+                        Set<String> declared,
+                        String code,
+                        @Nullable String pointwiseCode) {
+
+        /**
+         * @return Whether this stage only reads its input at the current pixel
+         */
+        public boolean isPointwise() {
+            return this.pointwiseCode != null;
+        }
+    }
+}
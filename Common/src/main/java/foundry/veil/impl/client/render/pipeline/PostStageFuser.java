@@ -0,0 +1,361 @@
+package foundry.veil.impl.client.render.pipeline;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import foundry.veil.Veil;
+import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.framebuffer.FramebufferDefinition;
+import foundry.veil.api.client.render.post.PostPipeline;
+import foundry.veil.api.client.render.post.stage.BlitPostStage;
+import foundry.veil.api.client.render.post.stage.CompositePostPipeline;
+import foundry.veil.api.client.render.post.stage.DepthFunctionPostStage;
+import foundry.veil.api.client.render.post.stage.FramebufferPostStage;
+import foundry.veil.api.client.render.post.stage.MaskPostStage;
+import foundry.veil.api.client.render.shader.ShaderCompiler;
+import foundry.veil.api.client.render.shader.ShaderManager;
+import foundry.veil.api.client.render.shader.program.ProgramDefinition;
+import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import foundry.veil.api.client.render.shader.texture.FramebufferSource;
+import foundry.veil.api.client.render.shader.texture.ShaderTextureSource;
+import foundry.veil.impl.client.render.shader.modifier.ShaderModification;
+import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.Resource;
+import net.minecraft.server.packs.resources.ResourceManager;
+import net.minecraft.server.packs.resources.ResourceProvider;
+import net.minecraft.util.GsonHelper;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.lwjgl.opengl.GL20C.GL_FRAGMENT_SHADER;
+import static org.lwjgl.opengl.GL20C.GL_VERTEX_SHADER;
+
+/**
+ * Merges chains of pointwise blit stages in post pipelines into a single full-screen draw.
+ * <p>Two consecutive blit stages are merged when the second only reads the output of the first at the current pixel
+ * and that output is a framebuffer of the pipeline nothing else reads. The intermediate framebuffer is removed from
+ * the pipeline and its format is emulated in the generated shader. Only shaders without uniforms that have to be set
+ * manually are merged, since those would be set on the original program. Shader modifications for the original
+ * fragment shaders are applied before merging. Fusion can be disabled with <code>-Dveil.disablePostFusion</code>.</p>
+ *
+ * @author Ocelot
+ * @see PostShaderFusion
+ */
+@ApiStatus.Internal
+public final class PostStageFuser {
+
+    private static final boolean ENABLED = System.getProperty("veil.disablePostFusion") == null;
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(ResourceLocation.class, new ResourceLocation.Serializer())
+            .registerTypeAdapter(ProgramDefinition.class, new ProgramDefinition.Deserializer())
+            .create();
+    private static final ResourceLocation BLIT_SCREEN = Veil.veilPath("blit_screen");
+
+    private final ResourceLocation id;
+    private final ResourceManager resourceManager;
+    private final ShaderManager shaderManager;
+    private final Set<ResourceLocation> skipped;
+    private final Map<ResourceLocation, Optional<Source>> sources;
+    private int fused;
+
+    private PostStageFuser(ResourceLocation id, ResourceManager resourceManager, Set<ResourceLocation> skipped) {
+        this.id = id;
+        this.resourceManager = resourceManager;
+        this.shaderManager = VeilRenderSystem.renderer().getShaderManager();
+        this.skipped = skipped;
+        this.sources = new HashMap<>();
+    }
+
+    /**
+     * Merges all blit stages in the specified pipeline that can be drawn at the same time.
+     * This must be called on the render thread.
+     *
+     * @param id              The id of the pipeline
+     * @param pipeline        The pipeline to merge stages in
+     * @param resourceManager The manager to read shader sources from
+     * @param skipped         The shaders to never merge
+     * @return The pipeline with merged stages or the pipeline passed in if nothing could be merged
+     */
+    public static CompositePostPipeline fuse(ResourceLocation id, CompositePostPipeline pipeline, ResourceManager resourceManager, Set<ResourceLocation> skipped) {
+        if (!ENABLED) {
+            return pipeline;
+        }
+
+        PostStageFuser fuser = new PostStageFuser(id, resourceManager, skipped);
+        CompositePostPipeline result = fuser.fuse(pipeline);
+        if (fuser.fused > 0) {
+            Veil.LOGGER.debug("Merged {} post stages in {}", fuser.fused, id);
+        }
+        return result;
+    }
+
+    private CompositePostPipeline fuse(CompositePostPipeline pipeline) {
+        PostPipeline[] stages = pipeline.getStages().clone();
+        boolean changed = false;
+        for (int i = 0; i < stages.length; i++) {
+            if (stages[i] instanceof CompositePostPipeline composite) {
+                CompositePostPipeline fusedComposite = this.fuse(composite);
+                if (fusedComposite != composite) {
+                    stages[i] = fusedComposite;
+                    changed = true;
+                }
+            }
+        }
+
+        Object2IntMap<ResourceLocation> uses = this.countUses(pipeline, stages);
+        if (uses == null) {
+            return changed ? pipeline.withStages(stages, pipeline.getFramebuffers()) : pipeline;
+        }
+
+        Map<ResourceLocation, FramebufferDefinition> framebuffers = new HashMap<>(pipeline.getFramebuffers());
+        List<PostPipeline> result = new ArrayList<>(stages.length);
+        List<Link> chain = new ArrayList<>();
+        for (int i = 0; i < stages.length; i++) {
+            PostPipeline stage = stages[i];
+            if (stage instanceof MaskPostStage) {
+                // Masked channels are never written to the intermediate framebuffers, so everything after this has to run as-is
+                changed |= this.flush(chain, framebuffers, result);
+                result.addAll(Arrays.asList(stages).subList(i, stages.length));
+                break;
+            }
+
+            Link link = stage instanceof BlitPostStage blit ? this.getLink(blit) : null;
+            if (link == null) {
+                changed |= this.flush(chain, framebuffers, result);
+                result.add(stage);
+                continue;
+            }
+
+            if (!chain.isEmpty() && !this.canLink(chain, link, uses, framebuffers)) {
+                changed |= this.flush(chain, framebuffers, result);
+            }
+            chain.add(link);
+        }
+        changed |= this.flush(chain, framebuffers, result);
+
+        return changed ? pipeline.withStages(result.toArray(PostPipeline[]::new), framebuffers) : pipeline;
+    }
+
+    private @Nullable Object2IntMap<ResourceLocation> countUses(CompositePostPipeline pipeline, PostPipeline[] stages) {
+        Object2IntMap<ResourceLocation> uses = new Object2IntOpenHashMap<>();
+        for (ShaderTextureSource texture : pipeline.getTextures().values()) {
+            if (texture instanceof FramebufferSource source) {
+                // Global textures can be read by any stage, so they are never merged away
+                uses.mergeInt(source.name(), 2, Integer::sum);
+            }
+        }
+
+        for (PostPipeline stage : stages) {
+            if (stage instanceof FramebufferPostStage framebufferStage) {
+                if (framebufferStage.getIn() != null) {
+                    uses.mergeInt(framebufferStage.getIn(), 1, Integer::sum);
+                }
+                uses.mergeInt(framebufferStage.getOut(), 1, Integer::sum);
+                if (stage instanceof BlitPostStage blit) {
+                    ProgramDefinition definition = this.getDefinition(blit.getShaderId());
+                    if (definition == null) {
+                        // The shader could read anything
+                        return null;
+                    }
+                    for (ShaderTextureSource texture : definition.textures().values()) {
+                        if (texture instanceof FramebufferSource source) {
+                            uses.mergeInt(source.name(), 1, Integer::sum);
+                        }
+                    }
+                }
+            } else if (!(stage instanceof MaskPostStage) && !(stage instanceof DepthFunctionPostStage)) {
+                // There is no way to know what framebuffers other stages use
+                return null;
+            }
+        }
+        return uses;
+    }
+
+    private boolean canLink(List<Link> chain, Link next, Object2IntMap<ResourceLocation> uses, Map<ResourceLocation, FramebufferDefinition> framebuffers) {
+        BlitPostStage previous = chain.get(chain.size() - 1).stage();
+        ResourceLocation intermediate = previous.getOut();
+        if (!previous.clearOut() || !intermediate.equals(next.stage().getIn()) || uses.getInt(intermediate) != 2) {
+            return false;
+        }
+
+        // The intermediate framebuffer must be a plain screen-sized color buffer so it can be emulated in the shader
+        FramebufferDefinition definition = framebuffers.get(intermediate);
+        if (definition == null ||
+                !definition.autoClear() ||
+                definition.depthBuffer() != null ||
+                definition.colorBuffers().length != 1 ||
+                definition.colorBuffers()[0].name() != null ||
+                definition.width() != FramebufferDefinition.DEFAULT_WIDTH ||
+                definition.height() != FramebufferDefinition.DEFAULT_HEIGHT ||
+                PostShaderFusion.getBoundary(definition.colorBuffers()[0].format()) == null) {
+            return false;
+        }
+
+        // The merged stage can't read the framebuffer it draws into
+        ResourceLocation out = next.stage().getOut();
+        if (out.equals(chain.get(0).stage().getIn()) || reads(next, out)) {
+            return false;
+        }
+
+        for (Link link : chain) {
+            if (reads(link, out)) {
+                return false;
+            }
+            for (Map.Entry<String, ShaderTextureSource> entry : next.definition().textures().entrySet()) {
+                ShaderTextureSource texture = link.definition().textures().get(entry.getKey());
+                if (texture != null && !texture.equals(entry.getValue())) {
+                    return false;
+                }
+            }
+        }
+
+        return PostShaderFusion.canAppend(chain.stream().map(Link::shader).toList(), next.shader());
+    }
+
+    private static boolean reads(Link link, ResourceLocation framebuffer) {
+        for (ShaderTextureSource texture : link.definition().textures().values()) {
+            if (texture instanceof FramebufferSource source && source.name().equals(framebuffer)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean flush(List<Link> chain, Map<ResourceLocation, FramebufferDefinition> framebuffers, List<PostPipeline> result) {
+        if (chain.isEmpty()) {
+            return false;
+        }
+
+        try {
+            if (chain.size() > 1) {
+                ShaderProgram program = this.compile(chain, framebuffers);
+                if (program != null) {
+                    for (int i = 0; i < chain.size() - 1; i++) {
+                        framebuffers.remove(chain.get(i).stage().getOut());
+                    }
+
+                    Set<ResourceLocation> sources = new HashSet<>(chain.size());
+                    for (Link link : chain) {
+                        sources.add(link.stage().getShaderId());
+                    }
+
+                    BlitPostStage head = chain.get(0).stage();
+                    BlitPostStage tail = chain.get(chain.size() - 1).stage();
+                    result.add(new FusedBlitPostStage(program, chain.size(), Collections.unmodifiableSet(sources), head.getIn(), tail.getOut(), tail.clearOut()));
+                    this.fused += chain.size();
+                    return true;
+                }
+            }
+
+            for (Link link : chain) {
+                result.add(link.stage());
+            }
+            return false;
+        } finally {
+            chain.clear();
+        }
+    }
+
+    private @Nullable ShaderProgram compile(List<Link> chain, Map<ResourceLocation, FramebufferDefinition> framebuffers) {
+        List<PostShaderFusion.Stage> stages = new ArrayList<>(chain.size());
+        List<String> boundaries = new ArrayList<>(chain.size() - 1);
+        Map<String, ShaderTextureSource> textures = new HashMap<>();
+        for (int i = 0; i < chain.size(); i++) {
+            Link link = chain.get(i);
+            stages.add(link.shader());
+            textures.putAll(link.definition().textures());
+            if (i < chain.size() - 1) {
+                FramebufferDefinition intermediate = framebuffers.get(link.stage().getOut());
+                boundaries.add(PostShaderFusion.getBoundary(intermediate.colorBuffers()[0].format()));
+            }
+        }
+
+        ResourceLocation fragment = Veil.veilPath("generated/fused/" + this.id.getNamespace() + "/" + this.id.getPath() + "_" + this.fused);
+        ResourceLocation fragmentFile = ShaderManager.PROGRAM_SET.getTypeConverter(GL_FRAGMENT_SHADER).idToFile(fragment);
+        byte[] source = PostShaderFusion.generate(stages, boundaries).getBytes(StandardCharsets.UTF_8);
+        Resource head = chain.get(0).source().resource();
+        ResourceProvider provider = location -> location.equals(fragmentFile) ? Optional.of(new Resource(head.source(), () -> new ByteArrayInputStream(source))) : this.resourceManager.getResource(location);
+
+        Int2ObjectMap<ResourceLocation> shaders = new Int2ObjectArrayMap<>();
+        shaders.put(GL_VERTEX_SHADER, BLIT_SCREEN);
+        shaders.put(GL_FRAGMENT_SHADER, fragment);
+        ProgramDefinition definition = new ProgramDefinition(BLIT_SCREEN, null, null, null, fragment, null, new String[0], Collections.emptyMap(), Collections.unmodifiableMap(textures), shaders);
+
+        ShaderProgram program = ShaderProgram.create(fragment);
+        try (ShaderCompiler compiler = this.shaderManager.createCompiler(provider)) {
+            program.compile(new ShaderCompiler.Context(VeilRenderSystem.renderer().getShaderDefinitions(), ShaderManager.PROGRAM_SET, definition), compiler);
+            return program;
+        } catch (Exception e) {
+            program.free();
+            Veil.LOGGER.warn("Failed to merge post stages {} in {}, running them separately", chain.stream().map(link -> link.stage().getShaderId()).toList(), this.id, e);
+            return null;
+        }
+    }
+
+    private @Nullable Link getLink(BlitPostStage stage) {
+        if (stage.getClass() != BlitPostStage.class || stage.isCheckerboard() || stage.getResolution() != BlitPostStage.FULL_RESOLUTION || this.skipped.contains(stage.getShaderId())) {
+            return null;
+        }
+        return this.sources.computeIfAbsent(stage.getShaderId(), this::loadSource).map(source -> new Link(stage, source)).orElse(null);
+    }
+
+    private Optional<Source> loadSource(ResourceLocation shaderId) {
+        ProgramDefinition definition = this.getDefinition(shaderId);
+        if (definition == null ||
+                definition.definitions().length > 0 ||
+                !BLIT_SCREEN.equals(definition.vertex()) ||
+                definition.fragment() == null ||
+                definition.shaders().size() != 2) {
+            return Optional.empty();
+        }
+
+        ResourceLocation location = ShaderManager.PROGRAM_SET.getTypeConverter(GL_FRAGMENT_SHADER).idToFile(definition.fragment());
+        Optional<Resource> resource = this.resourceManager.getResource(location);
+        if (resource.isEmpty()) {
+            return Optional.empty();
+        }
+
+        try (Reader reader = resource.get().openAsReader()) {
+            // Uniforms set on the original program would never reach a fused program
+            String source = VeilRenderSystem.renderer().getShaderModificationManager().applyModifiers(location, IOUtils.toString(reader), ShaderModification.APPLY_VERSION | ShaderModification.ALLOW_OUT);
+            PostShaderFusion.Stage shader = PostShaderFusion.parse(source);
+            return shader != null && !PostShaderFusion.hasExternalUniforms(shader) ? Optional.of(new Source(definition, shader, resource.get())) : Optional.empty();
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    private @Nullable ProgramDefinition getDefinition(ResourceLocation shaderId) {
+        ResourceLocation location = ShaderManager.PROGRAM_SET.getShaderDefinitionLister().idToFile(shaderId);
+        try (Reader reader = this.resourceManager.openAsReader(location)) {
+            return GsonHelper.fromJson(GSON, reader, ProgramDefinition.class);
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    private record Source(ProgramDefinition definition, PostShaderFusion.Stage shader, Resource resource) {
+    }
+
+    private record Link(BlitPostStage stage, Source source) {
+
+        public ProgramDefinition definition() {
+            return this.source.definition;
+        }
+
+        public PostShaderFusion.Stage shader() {
+            return this.source.shader;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package foundry.veil.impl.client.render.pipeline;
+
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * Describes how post stages use the framebuffer post-processing draws into.
+ * <p>The main framebuffer only has to be copied into the post framebuffer if something reads it, and the result only
+ * has to be copied back if something wrote into it. Post stages run without depth writes, so clearing the framebuffer
+ * only replaces the color and later stages can still sample the depth that was copied in. The depth is only copied
+ * back if a stage could have changed it. Accesses are combined in the order stages run with {@link #then(int, int)}.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class PostTargetUsage {
+
+    /**
+     * The framebuffer isn't used.
+     */
+    public static final int NONE = 0;
+    /**
+     * The previous contents of the framebuffer are used.
+     */
+    public static final int READ = 1;
+    /**
+     * The framebuffer is drawn into.
+     */
+    public static final int WRITE = 2;
+    /**
+     * The depth buffer of the framebuffer might be changed.
+     */
+    public static final int DEPTH = 4;
+    /**
+     * The framebuffer might be used in any way.
+     */
+    public static final int UNKNOWN = READ | WRITE | DEPTH;
+
+    private PostTargetUsage() {
+    }
+
+    /**
+     * Creates the access of a stage drawing into the framebuffer.
+     *
+     * @param clear Whether the stage clears the framebuffer first
+     * @return The access of the stage
+     */
+    public static int write(boolean clear) {
+        // Drawing over the framebuffer keeps anything that isn't drawn over
+        return clear ? WRITE : READ | WRITE;
+    }
+
+    /**
+     * Combines two accesses that happen one after another.
+     *
+     * @param first  The access that happens first
+     * @param second The access that happens after
+     * @return The access of both
+     */
+    public static int then(int first, int second) {
+        // A clear never hides later reads, since it doesn't replace the depth
+        return first | second;
+    }
+
+    /**
+     * @param access The combined access of all stages
+     * @return Whether the main framebuffer has to be copied in before running the stages
+     */
+    public static boolean needsCopyIn(int access) {
+        return (access & READ) != 0;
+    }
+
+    /**
+     * @param access The combined access of all stages
+     * @return Whether the result has to be copied back into the main framebuffer after running the stages
+     */
+    public static boolean needsCopyOut(int access) {
+        return (access & WRITE) != 0;
+    }
+
+    /**
+     * Depth writes are only enabled by some stages, so most pipelines only change the color.
+     *
+     * @param access The combined access of all stages
+     * @return Whether the depth has to be copied back into the main framebuffer as well as the color
+     */
+    public static boolean needsDepthCopyOut(int access) {
+        return (access & (WRITE | DEPTH)) == (WRITE | DEPTH);
+    }
+}
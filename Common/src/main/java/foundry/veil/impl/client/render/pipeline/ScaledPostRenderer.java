@@ -0,0 +1,313 @@
+package foundry.veil.impl.client.render.pipeline;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.framebuffer.AdvancedFbo;
+import foundry.veil.api.client.render.framebuffer.FramebufferAttachmentDefinition;
+import foundry.veil.api.client.render.framebuffer.FramebufferDefinition;
+import foundry.veil.api.client.render.post.PostPipeline;
+import foundry.veil.api.client.render.shader.VeilShaders;
+import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import foundry.veil.impl.client.render.framebuffer.FramebufferPool;
+import gg.moonflower.molangcompiler.api.MolangEnvironment;
+import gg.moonflower.molangcompiler.api.MolangExpression;
+import gg.moonflower.molangcompiler.api.MolangRuntime;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.NativeResource;
+
+import static org.lwjgl.opengl.GL11C.*;
+import static org.lwjgl.opengl.GL20C.glDrawBuffers;
+import static org.lwjgl.opengl.GL30C.GL_COLOR_ATTACHMENT0;
+
+/**
+ * Runs a post stage at a lower resolution or in a checkerboard pattern and reconstructs the full resolution output.
+ * <p>Scaled stages draw into a smaller framebuffer from the pool that is upsampled into the output with a
+ * depth-aware filter. Checkerboard stages only shade half the pixels every frame and fill in the rest from the
+ * previous frame, clamped to the neighboring pixels to avoid ghosting. Only the first color buffer of the output is
+ * written.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class ScaledPostRenderer implements NativeResource {
+
+    // The sizes of the definitions are constants, so they don't need any queries
+    private static final MolangEnvironment ENVIRONMENT = MolangRuntime.runtime().create();
+    private static final FramebufferAttachmentDefinition DEPTH_BUFFER = new FramebufferAttachmentDefinition(
+            FramebufferAttachmentDefinition.Type.TEXTURE,
+            FramebufferAttachmentDefinition.Format.DEPTH_COMPONENT,
+            FramebufferAttachmentDefinition.DataType.FLOAT,
+            true,
+            false,
+            0,
+            null);
+
+    private final MolangExpression resolution;
+    private final boolean checkerboard;
+
+    private int outWidth;
+    private int outHeight;
+    private int outFormat;
+    private int width;
+    private int height;
+    private FramebufferDefinition definition;
+    private FramebufferDefinition historyDefinition;
+    private AdvancedFbo history;
+    private int frame;
+
+    /**
+     * Creates a new renderer for a single stage.
+     *
+     * @param resolution   The scale of the stage compared to the output. <code>q.screen_width</code> and <code>q.screen_height</code> are the size of the output
+     * @param checkerboard Whether to only shade half the pixels every frame
+     */
+    public ScaledPostRenderer(MolangExpression resolution, boolean checkerboard) {
+        this.resolution = resolution;
+        this.checkerboard = checkerboard;
+        this.outWidth = -1;
+        this.outHeight = -1;
+        this.outFormat = -1;
+    }
+
+    /**
+     * Draws a stage into the specified output.
+     *
+     * @param context The context for post-processing
+     * @param in      The framebuffer the stage reads from or <code>null</code> if it doesn't read a framebuffer
+     * @param out     The framebuffer the stage writes into
+     * @param clear   Whether the stage clears the output before drawing
+     * @param draw    Draws the stage into a framebuffer
+     */
+    public void render(PostPipeline.Context context, @Nullable AdvancedFbo in, AdvancedFbo out, boolean clear, Draw draw) {
+        // Stages can run more than once a frame, so the checkerboard only alternates with the frame
+        this.frame = VeilRenderSystem.renderer().getUniformRing().getFrame();
+        this.updateDefinitions(out);
+        if (!this.checkerboard && this.width == out.getWidth() && this.height == out.getHeight()) {
+            draw.draw(out, clear);
+            return;
+        }
+
+        FramebufferPool pool = VeilRenderSystem.renderer().getFramebufferPool();
+        AdvancedFbo target = pool.acquire(this.definition, ENVIRONMENT);
+        try {
+            if (!clear) {
+                // The stage draws on top of the existing output
+                out.resolveToAdvancedFbo(target, GL_COLOR_BUFFER_BIT, GL_LINEAR);
+            }
+
+            AdvancedFbo result;
+            if (this.checkerboard) {
+                if (clear) {
+                    target.bind(true);
+                    RenderSystem.clearColor(0.0F, 0.0F, 0.0F, 0.0F);
+                    target.clear();
+                }
+                this.drawMask(context, target);
+
+                int depthFunc = glGetInteger(GL_DEPTH_FUNC);
+                RenderSystem.depthFunc(GL_LESS);
+                draw.draw(target, false);
+                RenderSystem.depthFunc(depthFunc);
+
+                result = this.resolve(context, pool, target);
+            } else {
+                draw.draw(target, clear);
+                result = target;
+            }
+
+            // Blits and draws write into every draw buffer, so the other color buffers of the output are disabled
+            boolean limitDrawBuffers = out.getColorAttachments() > 1;
+            if (limitDrawBuffers) {
+                out.bindDraw(false);
+                glDrawBuffers(GL_COLOR_ATTACHMENT0);
+            }
+            try {
+                this.upsample(context, in, result, out);
+            } finally {
+                if (limitDrawBuffers) {
+                    out.bindDraw(false);
+                    glDrawBuffers(out.getDrawBuffers());
+                }
+            }
+        } finally {
+            pool.release(target);
+        }
+    }
+
+    private void updateDefinitions(AdvancedFbo out) {
+        int format = out.isColorTextureAttachment(0) ? out.getColorTextureAttachment(0).getFormat() : GL_RGBA8;
+        if (this.outWidth == out.getWidth() && this.outHeight == out.getHeight() && this.outFormat == format) {
+            return;
+        }
+
+        this.outWidth = out.getWidth();
+        this.outHeight = out.getHeight();
+        this.outFormat = format;
+
+        MolangEnvironment environment = MolangRuntime.runtime()
+                .setQuery("screen_width", this.outWidth)
+                .setQuery("screen_height", this.outHeight)
+                .create();
+        float scale = environment.safeResolve(this.resolution);
+        this.width = PostResolution.scale(this.outWidth, scale);
+        this.height = PostResolution.scale(this.outHeight, scale);
+
+        FramebufferAttachmentDefinition.Format attachmentFormat = FramebufferAttachmentDefinition.Format.RGBA8;
+        for (FramebufferAttachmentDefinition.Format value : FramebufferAttachmentDefinition.Format.values()) {
+            if (value.getInternalId() == format) {
+                attachmentFormat = value;
+                break;
+            }
+        }
+
+        FramebufferAttachmentDefinition[] colorBuffers = {new FramebufferAttachmentDefinition(
+                FramebufferAttachmentDefinition.Type.TEXTURE,
+                attachmentFormat,
+                getDataType(attachmentFormat),
+                false,
+                true,
+                0,
+                null)};
+        MolangExpression width = MolangExpression.of(this.width);
+        MolangExpression height = MolangExpression.of(this.height);
+        this.definition = new FramebufferDefinition(width, height, colorBuffers, this.checkerboard ? DEPTH_BUFFER : null, false);
+        this.historyDefinition = new FramebufferDefinition(width, height, colorBuffers, null, false);
+        this.releaseHistory();
+    }
+
+    private static FramebufferAttachmentDefinition.DataType getDataType(FramebufferAttachmentDefinition.Format format) {
+        return switch (format) {
+            case R8_SNORM, RG8_SNORM, RGB8_SNORM, RGBA8_SNORM, R8I, RG8I, RGB8I, RGBA8I -> FramebufferAttachmentDefinition.DataType.BYTE;
+            case R16, RG16, RGB16, RGBA16, R16UI, RG16UI, RGB16UI, RGBA16UI -> FramebufferAttachmentDefinition.DataType.UNSIGNED_SHORT;
+            case R16_SNORM, RG16_SNORM, RGB16_SNORM, RGBA16_SNORM, R16I, RG16I, RGB16I, RGBA16I -> FramebufferAttachmentDefinition.DataType.SHORT;
+            case R32UI, RG32UI, RGB32UI, RGBA32UI -> FramebufferAttachmentDefinition.DataType.UNSIGNED_INT;
+            case R32I, RG32I, RGB32I, RGBA32I -> FramebufferAttachmentDefinition.DataType.INT;
+            case R16F, RG16F, RGB16F, RGBA16F -> FramebufferAttachmentDefinition.DataType.HALF_FLOAT;
+            case R32F, RG32F, RGB32F, RGBA32F -> FramebufferAttachmentDefinition.DataType.FLOAT;
+            case R11F_G11F_B10F -> FramebufferAttachmentDefinition.DataType.UNSIGNED_INT_10F_11F_11F_REV;
+            case RGB10_A2, RGB10_A2UI -> FramebufferAttachmentDefinition.DataType.UNSIGNED_INT_2_10_10_10_REV;
+            default -> FramebufferAttachmentDefinition.DataType.UNSIGNED_BYTE;
+        };
+    }
+
+    private void drawMask(PostPipeline.Context context, AdvancedFbo target) {
+        ShaderProgram shader = context.getShader(VeilShaders.POST_CHECKERBOARD_MASK);
+        if (shader == null) {
+            // Without the mask every pixel is shaded, which is still correct
+            return;
+        }
+
+        target.bind(true);
+        shader.bind();
+        shader.setInt("Frame", this.frame & 1);
+        RenderSystem.depthFunc(GL_ALWAYS);
+        RenderSystem.depthMask(true);
+        RenderSystem.colorMask(false, false, false, false);
+        context.drawScreenQuad();
+        RenderSystem.colorMask(true, true, true, true);
+        RenderSystem.depthMask(false);
+    }
+
+    private AdvancedFbo resolve(PostPipeline.Context context, FramebufferPool pool, AdvancedFbo current) {
+        ShaderProgram shader = context.getShader(VeilShaders.POST_CHECKERBOARD_RESOLVE);
+        if (shader == null) {
+            return current;
+        }
+
+        // The resolved frame becomes the history for the next frame, so the old history can be reused
+        AdvancedFbo resolved = pool.acquire(this.historyDefinition, ENVIRONMENT);
+        boolean blend = glIsEnabled(GL_BLEND);
+        RenderSystem.disableBlend();
+        resolved.bind(true);
+        shader.bind();
+        shader.addSampler("CurrentSampler", current.getColorTextureAttachment(0).getId());
+        if (this.history != null) {
+            shader.addSampler("HistorySampler", this.history.getColorTextureAttachment(0).getId());
+        }
+        shader.setInt("Frame", this.frame & 1);
+        shader.setInt("HistoryValid", this.history != null ? 1 : 0);
+        shader.applyShaderSamplers(context, 0);
+        context.drawScreenQuad();
+        if (blend) {
+            RenderSystem.enableBlend();
+        }
+
+        this.releaseHistory();
+        this.history = resolved;
+        return resolved;
+    }
+
+    private void upsample(PostPipeline.Context context, @Nullable AdvancedFbo in, AdvancedFbo result, AdvancedFbo out) {
+        if (result.getWidth() == out.getWidth() && result.getHeight() == out.getHeight()) {
+            result.resolveToAdvancedFbo(out, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+            return;
+        }
+
+        AdvancedFbo depth = in != null && in.isDepthTextureAttachment() ? in : context.getDrawFramebuffer();
+        ShaderProgram shader = context.getShader(VeilShaders.POST_BILATERAL_UPSAMPLE);
+        if (shader == null || !depth.isDepthTextureAttachment()) {
+            // Nothing to detect edges with, so fall back to a plain bilinear copy
+            result.resolveToAdvancedFbo(out, GL_COLOR_BUFFER_BIT, GL_LINEAR);
+            return;
+        }
+
+        depth.applyAutoClear();
+        boolean blend = glIsEnabled(GL_BLEND);
+        RenderSystem.disableBlend();
+        out.bind(true);
+        shader.bind();
+        shader.addSampler("LowResSampler", result.getColorTextureAttachment(0).getId());
+        shader.addSampler("DepthSampler", depth.getDepthTextureAttachment().getId());
+        shader.setVector("LowResSize", result.getWidth(), result.getHeight());
+        shader.applyShaderSamplers(context, 0);
+        context.drawScreenQuad();
+        if (blend) {
+            RenderSystem.enableBlend();
+        }
+    }
+
+    private void releaseHistory() {
+        if (this.history != null) {
+            VeilRenderSystem.renderer().getFramebufferPool().release(this.history);
+            this.history = null;
+        }
+    }
+
+    /**
+     * @return The width the stage was last drawn at
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * @return The height the stage was last drawn at
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+    @Override
+    public void free() {
+        this.releaseHistory();
+        this.outWidth = -1;
+        this.outHeight = -1;
+        this.outFormat = -1;
+    }
+
+    /**
+     * Draws a stage into a framebuffer.
+     */
+    @FunctionalInterface
+    public interface Draw {
+
+        /**
+         * Draws the stage.
+         *
+         * @param target The framebuffer to bind and draw into
+         * @param clear  Whether to clear the framebuffer before drawing
+         */
+        void draw(AdvancedFbo target, boolean clear);
+    }
+}
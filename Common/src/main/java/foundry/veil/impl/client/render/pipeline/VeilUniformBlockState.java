@@ -1,61 +1,79 @@
 package foundry.veil.impl.client.render.pipeline;
 
 import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.VeilRenderer;
 import foundry.veil.api.client.render.shader.definition.ShaderBlock;
+import foundry.veil.api.client.render.shader.program.ShaderProgram;
 import foundry.veil.impl.client.render.shader.definition.ShaderBlockImpl;
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
-import it.unimi.dsi.fastutil.ints.IntSet;
-import it.unimi.dsi.fastutil.objects.Object2IntArrayMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 import org.jetbrains.annotations.ApiStatus;
 
-import java.util.Objects;
+import java.util.function.Consumer;
 
 import static org.lwjgl.opengl.GL31C.GL_UNIFORM_BUFFER;
 import static org.lwjgl.opengl.GL43C.GL_SHADER_STORAGE_BUFFER;
 
 /**
  * Manages the state of uniform block bindings and their associated shader names.
+ * <p>Every block name gets a fixed binding that is set in programs when they are linked, so binding a block is
+ * only a buffer bind. Programs that are already linked only need to be updated when a name gets a new binding,
+ * which happens the first time the name is bound or if there are more names than bindings.</p>
  *
  * @author Ocelot
  */
 @ApiStatus.Internal
 public class VeilUniformBlockState {
 
-    private final Object2IntMap<ShaderBlockImpl<?>> boundBlocks;
-    private final Int2ObjectMap<CharSequence> shaderBindings;
-    private final IntSet usedBindings;
-    private int nextBinding;
+    private final BindingSlotAllocator<Object> uniformSlots;
+    private final BindingSlotAllocator<Object> storageSlots;
+    private final Reference2IntMap<ShaderBlockImpl<?>> boundBlocks;
+    private final Int2ObjectMap<ShaderBlockImpl<?>> uniformBuffers;
+    private final Int2ObjectMap<ShaderBlockImpl<?>> storageBuffers;
 
     public VeilUniformBlockState() {
-        this.boundBlocks = new Object2IntArrayMap<>();
-        this.shaderBindings = new Int2ObjectArrayMap<>();
-        this.usedBindings = new IntOpenHashSet();
+        this.uniformSlots = new BindingSlotAllocator<>(VeilRenderSystem::maxUniformBuffersBindings, new SlotListener(GL_UNIFORM_BUFFER));
+        this.storageSlots = new BindingSlotAllocator<>(VeilRenderSystem::maxShaderStorageBufferBindings, new SlotListener(GL_SHADER_STORAGE_BUFFER));
+        this.boundBlocks = new Reference2IntOpenHashMap<>();
+        this.boundBlocks.defaultReturnValue(-1);
+        this.uniformBuffers = new Int2ObjectArrayMap<>();
+        this.storageBuffers = new Int2ObjectArrayMap<>();
     }
 
-    /**
-     * Looks for a stale binding that can be replaced with a new one.
-     */
-    private void freeBinding() {
-        ObjectIterator<Object2IntMap.Entry<ShaderBlockImpl<?>>> iterator = this.boundBlocks.object2IntEntrySet().iterator();
-        while (iterator.hasNext()) {
-            Object2IntMap.Entry<ShaderBlockImpl<?>> entry = iterator.next();
-            int binding = entry.getIntValue();
-            if (this.usedBindings.contains(binding)) {
-                continue;
-            }
+    private static ShaderBlockImpl<?> getImpl(ShaderBlock<?> block) {
+        if (!(block instanceof ShaderBlockImpl<?> impl)) {
+            throw new UnsupportedOperationException("Cannot bind " + block.getClass());
+        }
+        return impl;
+    }
+
+    private BindingSlotAllocator<Object> getSlots(int target) {
+        return target == GL_SHADER_STORAGE_BUFFER ? this.storageSlots : this.uniformSlots;
+    }
+
+    private Int2ObjectMap<ShaderBlockImpl<?>> getBuffers(int target) {
+        return target == GL_SHADER_STORAGE_BUFFER ? this.storageBuffers : this.uniformBuffers;
+    }
 
-            this.unbind(binding, entry.getKey());
-            iterator.remove();
+    private int bind(Object key, ShaderBlockImpl<?> impl) {
+        int target = impl.getBinding();
+        int binding = this.getSlots(target).acquire(key);
 
-            this.nextBinding = binding;
-            return;
+        Int2ObjectMap<ShaderBlockImpl<?>> buffers = this.getBuffers(target);
+        ShaderBlockImpl<?> previous = buffers.put(binding, impl);
+        if (previous != null && previous != impl) {
+            this.boundBlocks.removeInt(previous);
+        }
+        int previousBinding = this.boundBlocks.put(impl, binding);
+        if (previousBinding != -1 && previousBinding != binding) {
+            buffers.remove(previousBinding, impl);
         }
 
-        throw new IllegalStateException("Too many shader blocks bound, failed to find empty space.");
+        impl.bind(binding);
+        return binding;
     }
 
     /**
@@ -65,28 +83,7 @@ public class VeilUniformBlockState {
      * @return The binding used
      */
     public int bind(ShaderBlock<?> block) {
-        if (!(block instanceof ShaderBlockImpl<?> impl)) {
-            throw new UnsupportedOperationException("Cannot bind " + block.getClass());
-        }
-
-        int binding = this.boundBlocks.getOrDefault(block, -1);
-        if (binding == -1) {
-            if (this.nextBinding >= VeilRenderSystem.maxUniformBuffersBindings()) {
-                this.freeBinding();
-            }
-
-            binding = this.nextBinding;
-            this.boundBlocks.put(impl, binding);
-
-            // Find the next open binding
-            while (this.boundBlocks.containsValue(this.nextBinding)) {
-                this.nextBinding++;
-            }
-        }
-
-        impl.bind(binding);
-        this.usedBindings.add(binding);
-        return binding;
+        return this.bind(block, getImpl(block));
     }
 
     /**
@@ -96,21 +93,7 @@ public class VeilUniformBlockState {
      * @param block The block to bind
      */
     public void bind(CharSequence name, ShaderBlock<?> block) {
-        if (!(block instanceof ShaderBlockImpl<?> impl)) {
-            throw new UnsupportedOperationException("Cannot bind " + block.getClass());
-        }
-
-        int binding = this.bind(block);
-        CharSequence boundName = this.shaderBindings.get(binding);
-        if (!Objects.equals(name, boundName)) {
-            this.shaderBindings.put(binding, name);
-            VeilRenderSystem.renderer().getShaderManager().setGlobal(shader -> {
-                switch (impl.getBinding()) {
-                    case GL_UNIFORM_BUFFER -> shader.setUniformBlock(name, binding);
-                    case GL_SHADER_STORAGE_BUFFER -> shader.setStorageBlock(name, binding);
-                }
-            });
-        }
+        this.bind(name.toString(), getImpl(block));
     }
 
     /**
@@ -119,45 +102,89 @@ public class VeilUniformBlockState {
      * @param block The block to unbind
      */
     public void unbind(ShaderBlock<?> block) {
-        if (!(block instanceof ShaderBlockImpl<?> impl)) {
-            throw new UnsupportedOperationException("Cannot unbind " + block.getClass());
+        ShaderBlockImpl<?> impl = getImpl(block);
+        int binding = this.boundBlocks.removeInt(impl);
+        if (binding == -1) {
+            return;
         }
 
-        if (this.boundBlocks.containsKey(block)) {
-            this.unbind(this.boundBlocks.removeInt(block), impl);
-        }
-    }
+        int target = impl.getBinding();
+        this.getBuffers(target).remove(binding);
+        impl.unbind(binding);
 
-    private void unbind(int binding, ShaderBlockImpl<?> block) {
-        block.unbind(binding);
-
-        CharSequence name = this.shaderBindings.remove(binding);
-        if (name != null) {
-            VeilRenderSystem.renderer().getShaderManager().setGlobal(shader -> {
-                switch (block.getBinding()) {
-                    case GL_UNIFORM_BUFFER -> shader.setUniformBlock(name, 0);
-                    case GL_SHADER_STORAGE_BUFFER -> shader.setStorageBlock(name, 0);
-                }
-            });
-        }
-
-        // Fill the gap since the spot is open now
-        if (binding < this.nextBinding) {
-            this.nextBinding = binding;
-        }
+        // Names keep their binding, but there is no reason to reserve one for a block that isn't bound
+        this.getSlots(target).release(impl);
     }
 
     /**
-     * Forces all shader bindings to be re-uploaded the next time {@link #bind(CharSequence, ShaderBlock)} is called.
+     * Sets the bindings of all named blocks in the specified program. This should be called after the program is linked.
+     *
+     * @param program The program to update
      */
-    public void queueUpload() {
-        this.shaderBindings.clear();
+    public void apply(ShaderProgram program) {
+        for (Object2IntMap.Entry<Object> entry : this.uniformSlots.getSlots().object2IntEntrySet()) {
+            if (entry.getKey() instanceof String name) {
+                program.setUniformBlock(name, entry.getIntValue());
+            }
+        }
+        for (Object2IntMap.Entry<Object> entry : this.storageSlots.getSlots().object2IntEntrySet()) {
+            if (entry.getKey() instanceof String name) {
+                program.setStorageBlock(name, entry.getIntValue());
+            }
+        }
     }
 
     /**
      * Clears all used bindings from the current frame.
      */
     public void clear() {
-        this.usedBindings.clear();
+        this.uniformSlots.endFrame();
+        this.storageSlots.endFrame();
+    }
+
+    private static void setGlobal(Consumer<ShaderProgram> setter) {
+        VeilRenderer renderer = VeilRenderSystem.renderer();
+        renderer.getShaderManager().setGlobal(setter);
+        renderer.getDeferredRenderer().getDeferredShaderManager().setGlobal(setter);
+        renderer.getPostProcessingManager().setGlobal(setter);
+    }
+
+    private class SlotListener implements BindingSlotAllocator.Listener<Object> {
+
+        private final int target;
+
+        private SlotListener(int target) {
+            this.target = target;
+        }
+
+        @Override
+        public void onAssign(Object key, int slot) {
+            // Programs linked from now on get the binding when they are linked
+            if (key instanceof String name) {
+                setGlobal(shader -> {
+                    switch (this.target) {
+                        case GL_UNIFORM_BUFFER -> shader.setUniformBlock(name, slot);
+                        case GL_SHADER_STORAGE_BUFFER -> shader.setStorageBlock(name, slot);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onEvict(Object key, int slot) {
+            ShaderBlockImpl<?> block = VeilUniformBlockState.this.getBuffers(this.target).remove(slot);
+            if (block != null) {
+                VeilUniformBlockState.this.boundBlocks.removeInt(block);
+            }
+
+            if (key instanceof String name) {
+                setGlobal(shader -> {
+                    switch (this.target) {
+                        case GL_UNIFORM_BUFFER -> shader.setUniformBlock(name, 0);
+                        case GL_SHADER_STORAGE_BUFFER -> shader.setStorageBlock(name, 0);
+                    }
+                });
+            }
+        }
     }
 }
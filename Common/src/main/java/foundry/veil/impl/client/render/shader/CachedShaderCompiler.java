@@ -1,58 +1,117 @@
 package foundry.veil.impl.client.render.shader;
 
 import foundry.veil.api.client.render.shader.CompiledShader;
+import foundry.veil.api.client.render.shader.ProcessedShader;
 import foundry.veil.api.client.render.shader.ShaderCompiler;
 import foundry.veil.api.client.render.shader.ShaderException;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.packs.resources.ResourceProvider;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
+import org.lwjgl.opengl.GL20C;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Objects;
 
 /**
- * Attempts to cache the exact same shader sources to reduce the number of compiled shaders.
+ * Reuses compiled shaders for the exact same shader sources to reduce the number of compiled shaders.
+ * <p>Shaders are stored in a {@link ShaderObjectCache}. If the cache is shared, shaders stay alive for as long as
+ * a program uses them, so they can also be reused by later compilers.</p>
  *
  * @author Ocelot
  */
 @ApiStatus.Internal
 public class CachedShaderCompiler extends DirectShaderCompiler {
 
-    private final Map<Integer, CompiledShader> shaders;
+    private final ShaderObjectCache cache;
+    private final boolean ownsCache;
+    private final Map<PreprocessKey, ProcessedShader> processedShaders;
+    private final Map<ProcessedShader, ShaderObjectCache.Key> keys;
+    private final Object2IntMap<ShaderObjectCache.Key> pendingShaders;
 
-    public CachedShaderCompiler(@Nullable ResourceProvider provider) {
+    /**
+     * Creates a new cached compiler.
+     *
+     * @param provider The source of shader files
+     * @param cache    The cache to share shaders with or <code>null</code> to only share shaders in this compiler
+     */
+    public CachedShaderCompiler(@Nullable ResourceProvider provider, @Nullable ShaderObjectCache cache) {
         super(provider);
-        this.shaders = new HashMap<>();
+        this.cache = cache != null ? cache : new ShaderObjectCache();
+        this.ownsCache = cache == null;
+        this.processedShaders = new HashMap<>();
+        this.keys = new Reference2ObjectOpenHashMap<>();
+        this.pendingShaders = new Object2IntOpenHashMap<>();
+    }
+
+    private ShaderObjectCache.Key getKey(ProcessedShader processed) {
+        // The same processed shader is usually queued and compiled, so the source only has to be hashed once
+        return this.keys.computeIfAbsent(processed, unused -> ShaderObjectCache.key(processed.type(), processed.source()));
     }
 
     @Override
-    public CompiledShader compile(ShaderCompiler.Context context, int type, ResourceLocation id) throws IOException, ShaderException {
-        int hash = Objects.hash(type, id);
-        if (this.shaders.containsKey(hash)) {
-            return this.shaders.get(hash);
+    public ProcessedShader preprocess(ShaderCompiler.Context context, int type, ResourceLocation id) throws IOException, ShaderException {
+        // The same file can be processed differently depending on the program definitions
+        PreprocessKey key = new PreprocessKey(type, id, context);
+        ProcessedShader shader = this.processedShaders.get(key);
+        if (shader != null) {
+            return shader;
         }
-        CompiledShader shader = super.compile(context, type, id);
-        this.shaders.put(hash, shader);
+        shader = super.preprocess(context, type, id);
+        this.processedShaders.put(key, shader);
         return shader;
     }
 
     @Override
-    public CompiledShader compile(ShaderCompiler.Context context, int type, String source) throws IOException, ShaderException {
-        int hash = Objects.hash(type, source);
-        if (this.shaders.containsKey(hash)) {
-            return this.shaders.get(hash);
+    public void queue(ProcessedShader processed) throws ShaderException {
+        ShaderObjectCache.Key key = this.getKey(processed);
+        if (!this.cache.contains(key) && !this.pendingShaders.containsKey(key)) {
+            this.pendingShaders.put(key, this.submit(processed));
         }
-        CompiledShader shader = super.compile(context, type, source);
-        this.shaders.put(hash, shader);
-        return shader;
+    }
+
+    @Override
+    public CompiledShader compile(ProcessedShader processed) throws ShaderException {
+        ShaderObjectCache.Key key = this.getKey(processed);
+        int shader = this.cache.acquire(key);
+        if (shader != 0) {
+            ShaderCompileProfiler.get().mark(ShaderCompileProfiler.EventType.SHADER_CACHE_HIT, processed.sourceFile());
+            return processed.toCompiled(shader);
+        }
+        ShaderCompileProfiler.get().mark(ShaderCompileProfiler.EventType.SHADER_CACHE_MISS, processed.sourceFile());
+
+        int pending = this.pendingShaders.removeInt(key);
+        CompiledShader compiled = pending != 0 ? this.finish(processed, pending) : super.compile(processed);
+        // The cache deletes the shader once no program uses it anymore
+        this.untrack(compiled.id());
+        this.cache.add(key, compiled.id());
+        return compiled;
+    }
+
+    /**
+     * @return The cache compiled shaders are stored in
+     */
+    public ShaderObjectCache getCache() {
+        return this.cache;
     }
 
     @Override
     public void free() {
+        // Shaders that were queued but never used still need to be deleted
+        this.pendingShaders.values().forEach(GL20C::glDeleteShader);
+        this.pendingShaders.clear();
         super.free();
-        this.shaders.clear();
+        if (this.ownsCache) {
+            this.cache.free();
+        }
+        this.processedShaders.clear();
+        this.keys.clear();
+    }
+
+    private record PreprocessKey(int type, ResourceLocation id, ShaderCompiler.Context context) {
     }
 }
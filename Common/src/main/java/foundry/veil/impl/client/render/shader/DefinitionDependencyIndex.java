@@ -0,0 +1,137 @@
+package foundry.veil.impl.client.render.shader;
+
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.*;
+
+/**
+ * Tracks which programs depend on each shader pre-definition and collects definition changes until they are applied.
+ * <p>Dependencies come from the definitions recorded while pre-processing each program, so a definition change only
+ * has to look up the programs that use it. Every change made before {@link #drainChanged()} is called is merged
+ * into a single set of programs.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class DefinitionDependencyIndex {
+
+    private final Map<ResourceLocation, Set<String>> programDefinitions;
+    private final Map<String, Set<ResourceLocation>> definitionDependents;
+    private final Set<String> changedDefinitions;
+
+    public DefinitionDependencyIndex() {
+        this.programDefinitions = new HashMap<>();
+        this.definitionDependents = new HashMap<>();
+        this.changedDefinitions = new HashSet<>();
+    }
+
+    /**
+     * Sets the definitions a program depends on, replacing any previous dependencies.
+     *
+     * @param program     The id of the program
+     * @param definitions The names of all definitions used by the program
+     */
+    public synchronized void set(ResourceLocation program, Collection<String> definitions) {
+        this.remove(program);
+        if (definitions.isEmpty()) {
+            return;
+        }
+
+        Set<String> names = new HashSet<>(definitions);
+        this.programDefinitions.put(program, names);
+        for (String name : names) {
+            this.definitionDependents.computeIfAbsent(name, unused -> new HashSet<>()).add(program);
+        }
+    }
+
+    /**
+     * Removes all dependencies of the specified program.
+     *
+     * @param program The id of the program
+     */
+    public synchronized void remove(ResourceLocation program) {
+        Set<String> oldDefinitions = this.programDefinitions.remove(program);
+        if (oldDefinitions == null) {
+            return;
+        }
+
+        for (String name : oldDefinitions) {
+            Set<ResourceLocation> dependents = this.definitionDependents.get(name);
+            if (dependents != null && dependents.remove(program) && dependents.isEmpty()) {
+                this.definitionDependents.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Retrieves all programs that depend on the specified definition.
+     *
+     * @param definition The name of the definition
+     * @return A copy of the programs using that definition
+     */
+    public synchronized Set<ResourceLocation> getDependents(String definition) {
+        Set<ResourceLocation> dependents = this.definitionDependents.get(definition);
+        return dependents != null ? new HashSet<>(dependents) : Collections.emptySet();
+    }
+
+    /**
+     * Retrieves all definitions the specified program depends on.
+     *
+     * @param program The id of the program
+     * @return A copy of the definitions used by that program
+     */
+    public synchronized Set<String> getDefinitions(ResourceLocation program) {
+        Set<String> definitions = this.programDefinitions.get(program);
+        return definitions != null ? new HashSet<>(definitions) : Collections.emptySet();
+    }
+
+    /**
+     * Marks the specified definition as changed.
+     *
+     * @param definition The name of the definition that changed
+     * @return Whether this is the first change since the last time changes were drained.
+     * The caller should schedule {@link #drainChanged()} if this is <code>true</code>
+     */
+    public synchronized boolean markChanged(String definition) {
+        boolean first = this.changedDefinitions.isEmpty();
+        this.changedDefinitions.add(definition);
+        return first;
+    }
+
+    /**
+     * Retrieves every program affected by the changes since the last time this was called.
+     *
+     * @return All programs that depend on at least one changed definition
+     */
+    public synchronized Set<ResourceLocation> drainChanged() {
+        if (this.changedDefinitions.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Set<ResourceLocation> programs = new HashSet<>();
+        for (String definition : this.changedDefinitions) {
+            Set<ResourceLocation> dependents = this.definitionDependents.get(definition);
+            if (dependents != null) {
+                programs.addAll(dependents);
+            }
+        }
+        this.changedDefinitions.clear();
+        return programs;
+    }
+
+    /**
+     * @return Whether there are changes that haven't been drained yet
+     */
+    public synchronized boolean hasChanges() {
+        return !this.changedDefinitions.isEmpty();
+    }
+
+    /**
+     * Removes all programs. Pending changes are kept.
+     */
+    public synchronized void clear() {
+        this.programDefinitions.clear();
+        this.definitionDependents.clear();
+    }
+}
@@ -3,6 +3,7 @@ package foundry.veil.impl.client.render.shader;
 import foundry.veil.Veil;
 import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.shader.CompiledShader;
+import foundry.veil.api.client.render.shader.ProcessedShader;
 import foundry.veil.api.client.render.shader.ShaderCompiler;
 import foundry.veil.api.client.render.shader.ShaderException;
 import foundry.veil.api.client.render.shader.ShaderManager;
@@ -26,7 +27,7 @@ import static org.lwjgl.opengl.GL20C.*;
 import static org.lwjgl.opengl.GL43C.GL_COMPUTE_SHADER;
 
 /**
- * Creates a new shader and compiles each time {@link #compile(ShaderCompiler.Context, int, String)} is called.
+ * Creates a new shader and compiles each time {@link #compile(ProcessedShader)} is called.
  * This should only be used for compiling single shaders.
  *
  * @author Ocelot
@@ -61,45 +62,89 @@ public class DirectShaderCompiler implements ShaderCompiler {
     }
 
     @Override
-    public CompiledShader compile(ShaderCompiler.Context context, int type, ResourceLocation id) throws IOException, ShaderException {
+    public ProcessedShader preprocess(ShaderCompiler.Context context, int type, ResourceLocation id) throws IOException, ShaderException {
         if (this.provider == null) {
             throw new IOException("Failed to read " + ShaderManager.getTypeName(type) + " from " + id + " because no provider was specified");
         }
-        this.validateType(type);
 
         ResourceLocation location = context.sourceSet().getTypeConverter(type).idToFile(id);
         try (Reader reader = this.provider.openAsReader(location)) {
             this.compilingName = id;
-            return this.compile(context, type, IOUtils.toString(reader));
+            return this.preprocess(context, type, IOUtils.toString(reader));
         } finally {
             this.compilingName = null;
         }
     }
 
     @Override
-    public CompiledShader compile(ShaderCompiler.Context context, int type, String source) throws IOException, ShaderException {
-        this.validateType(type);
+    public ProcessedShader preprocess(ShaderCompiler.Context context, int type, String source) throws IOException {
         this.preProcessors.forEach(ShaderPreProcessor::prepare);
 
         Map<String, Integer> uniformBindings = new HashMap<>();
         Set<String> dependencies = new HashSet<>();
         Set<ResourceLocation> includes = new HashSet<>();
         source = this.modifySource(context, this.preProcessors, uniformBindings, dependencies, includes, this.compilingName, source, type, true);
+        return new ProcessedShader(this.compilingName, type, source, Collections.unmodifiableMap(uniformBindings), Collections.unmodifiableSet(dependencies), Collections.unmodifiableSet(includes));
+    }
 
-        int shader = glCreateShader(type);
-        glShaderSource(shader, source);
+    /**
+     * Creates a new shader and starts compiling it without waiting for the result.
+     *
+     * @param processed The shader to compile
+     * @return The OpenGL id of the new shader
+     * @throws ShaderException If the shader type is not supported
+     */
+    protected int submit(ProcessedShader processed) throws ShaderException {
+        this.validateType(processed.type());
+
+        ShaderCompileProfiler profiler = ShaderCompileProfiler.get();
+        long start = profiler.begin();
+        int shader = glCreateShader(processed.type());
+        glShaderSource(shader, processed.source());
         glCompileShader(shader);
-        if (glGetShaderi(shader, GL_COMPILE_STATUS) != GL_TRUE) {
+        profiler.end(start, ShaderCompileProfiler.EventType.COMPILE, processed.sourceFile());
+        return shader;
+    }
+
+    /**
+     * Waits for the specified shader to finish compiling and checks for errors.
+     *
+     * @param processed The shader that was compiled
+     * @param shader    The OpenGL id returned by {@link #submit(ProcessedShader)}
+     * @return The compiled shader
+     * @throws ShaderException If the shader failed to compile
+     */
+    protected CompiledShader finish(ProcessedShader processed, int shader) throws ShaderException {
+        // Checking the status waits for the driver to finish compiling
+        ShaderCompileProfiler profiler = ShaderCompileProfiler.get();
+        long start = profiler.begin();
+        boolean compiled = glGetShaderi(shader, GL_COMPILE_STATUS) == GL_TRUE;
+        profiler.end(start, ShaderCompileProfiler.EventType.COMPILE, processed.sourceFile());
+        if (!compiled) {
             String log = glGetShaderInfoLog(shader);
             if (Veil.VERBOSE_SHADER_ERRORS) {
-                log += "\n" + source;
+                log += "\n" + processed.source();
             }
             glDeleteShader(shader); // Delete to prevent leaks
-            throw new ShaderException("Failed to compile " + ShaderManager.getTypeName(type) + " shader", log);
+            throw new ShaderException("Failed to compile " + ShaderManager.getTypeName(processed.type()) + " shader", log);
         }
 
         this.shaders.add(shader);
-        return new CompiledShader(this.compilingName, shader, Collections.unmodifiableMap(uniformBindings), Collections.unmodifiableSet(dependencies), Collections.unmodifiableSet(includes));
+        return processed.toCompiled(shader);
+    }
+
+    /**
+     * Stops this compiler from deleting the specified shader when it is freed.
+     *
+     * @param shader The OpenGL id of a shader created by this compiler
+     */
+    protected void untrack(int shader) {
+        this.shaders.remove(shader);
+    }
+
+    @Override
+    public CompiledShader compile(ProcessedShader processed) throws ShaderException {
+        return this.finish(processed, this.submit(processed));
     }
 
     @Override
@@ -0,0 +1,94 @@
+package foundry.veil.impl.client.render.shader;
+
+import foundry.veil.api.client.render.shader.CompiledShader;
+import foundry.veil.api.client.render.shader.ProcessedShader;
+import foundry.veil.api.client.render.shader.ShaderCompiler;
+import foundry.veil.api.client.render.shader.ShaderException;
+import foundry.veil.api.client.render.shader.processor.ShaderPreProcessor;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Returns shaders that were already processed by {@link ProgramPreprocessor} and compiles them with another compiler.
+ * Shaders that were not processed ahead of time are processed by the parent compiler instead.
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class PreparedShaderCompiler implements ShaderCompiler {
+
+    private final ShaderCompiler parent;
+    private ProgramPreprocessor.Result program;
+
+    public PreparedShaderCompiler(ShaderCompiler parent) {
+        this.parent = parent;
+        this.program = null;
+    }
+
+    /**
+     * Sets the pre-processed program to return shaders from.
+     *
+     * @param program The results of the program that will be compiled next or <code>null</code> to always process shaders
+     */
+    public void setProgram(@Nullable ProgramPreprocessor.Result program) {
+        this.program = program;
+    }
+
+    @Override
+    public ProcessedShader preprocess(Context context, int type, ResourceLocation id) throws IOException, ShaderException {
+        if (this.program != null) {
+            Exception error = this.program.error();
+            if (error instanceof IOException e) {
+                throw e;
+            }
+            if (error instanceof ShaderException e) {
+                throw e;
+            }
+            if (error != null) {
+                throw new IOException(error);
+            }
+
+            ProcessedShader shader = this.program.shaders().get(type);
+            if (shader != null && Objects.equals(shader.sourceFile(), id)) {
+                return shader;
+            }
+        }
+        return this.parent.preprocess(context, type, id);
+    }
+
+    @Override
+    public ProcessedShader preprocess(Context context, int type, String source) throws IOException, ShaderException {
+        return this.parent.preprocess(context, type, source);
+    }
+
+    @Override
+    public CompiledShader compile(ProcessedShader shader) throws ShaderException {
+        return this.parent.compile(shader);
+    }
+
+    @Override
+    public void queue(ProcessedShader shader) throws ShaderException {
+        this.parent.queue(shader);
+    }
+
+    @Override
+    public ShaderCompiler addPreprocessor(ShaderPreProcessor processor, boolean modifyImports) {
+        this.parent.addPreprocessor(processor, modifyImports);
+        return this;
+    }
+
+    @Override
+    public ShaderCompiler addDefaultProcessors() {
+        this.parent.addDefaultProcessors();
+        return this;
+    }
+
+    @Override
+    public void free() {
+        this.parent.free();
+    }
+}
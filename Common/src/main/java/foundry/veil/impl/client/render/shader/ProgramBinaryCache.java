@@ -0,0 +1,321 @@
+package foundry.veil.impl.client.render.shader;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Stores linked program binaries on disk so programs can skip compilation the next time the same sources are loaded.
+ * <p>Entries are keyed by a SHA-256 hash of the driver and every fully processed shader source in the program.
+ * All entries are deleted when the driver changes, and the least recently used entries are removed once the
+ * total size of the cache grows past the maximum size.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class ProgramBinaryCache {
+
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024L * 1024L;
+
+    private static final int MAGIC = 0x56504243; // VPBC
+    private static final int VERSION = 1;
+    private static final String DRIVER_FILE = "driver.txt";
+    private static final String EXTENSION = ".bin";
+
+    private final Path folder;
+    private final String driver;
+    private final long maxSize;
+    private final LinkedHashMap<String, Long> entries;
+    private boolean loaded;
+    private long size;
+
+    private int hits;
+    private int misses;
+    private int rejected;
+
+    /**
+     * Creates a new binary cache.
+     *
+     * @param folder  The folder to store binaries in
+     * @param driver  A string identifying the current driver. Usually the vendor, renderer, and version strings
+     * @param maxSize The maximum number of bytes to store on disk
+     */
+    public ProgramBinaryCache(Path folder, String driver, long maxSize) {
+        this.folder = folder;
+        this.driver = driver;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75F, true);
+    }
+
+    private void load() throws IOException {
+        if (this.loaded) {
+            return;
+        }
+        this.loaded = true;
+
+        Files.createDirectories(this.folder);
+        Path driverFile = this.folder.resolve(DRIVER_FILE);
+        String cachedDriver = Files.exists(driverFile) ? Files.readString(driverFile, StandardCharsets.UTF_8) : null;
+        if (!this.driver.equals(cachedDriver)) {
+            this.deleteEntries();
+            Files.writeString(driverFile, this.driver, StandardCharsets.UTF_8);
+            return;
+        }
+
+        // Sort by last access so the least recently used entries are evicted first
+        List<Path> files = this.listEntries();
+        files.sort(Comparator.comparing(path -> {
+            try {
+                return Files.getLastModifiedTime(path);
+            } catch (IOException e) {
+                return FileTime.fromMillis(0);
+            }
+        }));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long length = Files.size(file);
+            this.entries.put(name.substring(0, name.length() - EXTENSION.length()), length);
+            this.size += length;
+        }
+    }
+
+    private List<Path> listEntries() throws IOException {
+        try (Stream<Path> stream = Files.list(this.folder)) {
+            return new ArrayList<>(stream.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).toList());
+        }
+    }
+
+    private void deleteEntries() throws IOException {
+        for (Path file : this.listEntries()) {
+            Files.deleteIfExists(file);
+        }
+        this.entries.clear();
+        this.size = 0;
+    }
+
+    private Path getFile(String key) {
+        return this.folder.resolve(key + EXTENSION);
+    }
+
+    /**
+     * Creates a key for the specified program sources.
+     *
+     * @param sources Each fully processed shader source by OpenGL shader type
+     * @return A hex key that uniquely identifies the sources on this driver
+     */
+    public String getKey(Int2ObjectMap<String> sources) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+
+        digest.update(this.driver.getBytes(StandardCharsets.UTF_8));
+        int[] types = sources.keySet().toIntArray();
+        IntArrays.quickSort(types);
+        for (int type : types) {
+            byte[] source = sources.get(type).getBytes(StandardCharsets.UTF_8);
+            digest.update(new byte[]{0, (byte) (type >> 24), (byte) (type >> 16), (byte) (type >> 8), (byte) type});
+            digest.update(new byte[]{(byte) (source.length >> 24), (byte) (source.length >> 16), (byte) (source.length >> 8), (byte) source.length});
+            digest.update(source);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Checks if there is an entry for the specified key without reading it or updating any statistics.
+     *
+     * @param key The key created with {@link #getKey(Int2ObjectMap)}
+     * @return Whether a binary is stored for the key
+     */
+    public boolean contains(String key) {
+        try {
+            this.load();
+        } catch (IOException e) {
+            return false;
+        }
+        return this.entries.containsKey(key);
+    }
+
+    /**
+     * Reads the binary stored for the specified key.
+     *
+     * @param key The key created with {@link #getKey(Int2ObjectMap)}
+     * @return The binary or <code>null</code> if there is no valid entry for the key
+     * @throws IOException If an error occurs reading the cache
+     */
+    public @Nullable Binary get(String key) throws IOException {
+        this.load();
+        if (this.entries.get(key) == null) {
+            this.misses++;
+            return null;
+        }
+
+        Path file = this.getFile(key);
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int format = -1;
+            int length = -1;
+            if (stream.readInt() == MAGIC && stream.readInt() == VERSION) {
+                format = stream.readInt();
+                length = stream.readInt();
+            }
+            if (length < 0 || length > Files.size(file)) {
+                throw new EOFException();
+            }
+
+            byte[] data = new byte[length];
+            stream.readFully(data);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            this.hits++;
+            return new Binary(format, data);
+        } catch (EOFException | NoSuchFileException e) {
+            // Corrupted, truncated, or deleted entries are treated the same as a missing entry
+            this.remove(key);
+            this.misses++;
+            return null;
+        } catch (IOException e) {
+            this.remove(key);
+            this.misses++;
+            throw e;
+        }
+    }
+
+    /**
+     * Stores the binary for the specified key and evicts old entries if the cache is too large.
+     *
+     * @param key    The key created with {@link #getKey(Int2ObjectMap)}
+     * @param format The driver specific binary format
+     * @param data   The program binary
+     * @throws IOException If an error occurs writing the cache
+     */
+    public void put(String key, int format, byte[] data) throws IOException {
+        this.load();
+
+        long length = 16L + data.length;
+        if (length > this.maxSize) {
+            return;
+        }
+
+        Path file = this.getFile(key);
+        Path temp = this.folder.resolve(key + ".tmp");
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeInt(format);
+            stream.writeInt(data.length);
+            stream.write(data);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+
+        Long old = this.entries.put(key, length);
+        if (old != null) {
+            this.size -= old;
+        }
+        this.size += length;
+
+        Iterator<Map.Entry<String, Long>> iterator = this.entries.entrySet().iterator();
+        while (this.size > this.maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            Files.deleteIfExists(this.getFile(entry.getKey()));
+            this.size -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes the entry for a binary the driver refused to load.
+     *
+     * @param key The key of the rejected binary
+     * @throws IOException If an error occurs deleting the entry
+     */
+    public void reject(String key) throws IOException {
+        this.rejected++;
+        this.remove(key);
+    }
+
+    private void remove(String key) throws IOException {
+        Long length = this.entries.remove(key);
+        if (length != null) {
+            this.size -= length;
+        }
+        Files.deleteIfExists(this.getFile(key));
+    }
+
+    /**
+     * Deletes all cached binaries.
+     *
+     * @throws IOException If an error occurs deleting the entries
+     */
+    public void clear() throws IOException {
+        this.load();
+        this.deleteEntries();
+        this.resetStats();
+    }
+
+    /**
+     * Resets the hit, miss, and rejection counters.
+     */
+    public void resetStats() {
+        this.hits = 0;
+        this.misses = 0;
+        this.rejected = 0;
+    }
+
+    /**
+     * @return The number of binaries successfully read since the last reset
+     */
+    public int getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return The number of binaries that were not in the cache since the last reset
+     */
+    public int getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * @return The number of binaries the driver failed to load since the last reset
+     */
+    public int getRejected() {
+        return this.rejected;
+    }
+
+    /**
+     * @return The number of binaries on disk
+     */
+    public int getEntryCount() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return The total size of all binaries on disk in bytes
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * A program binary read from the cache.
+     *
+     * @param format The driver specific binary format
+     * @param data   The program binary
+     */
+    public record Binary(int format, byte[] data) {
+    }
+}
@@ -0,0 +1,94 @@
+package foundry.veil.impl.client.render.shader;
+
+import foundry.veil.api.client.render.shader.ProcessedShader;
+import foundry.veil.api.client.render.shader.ShaderCompiler;
+import foundry.veil.api.client.render.shader.program.ProgramDefinition;
+import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs every shader in a set of programs through the pre-processors without touching OpenGL.
+ * <p>Pre-processors keep state while processing a file, so each program gets its own compiler from the factory.
+ * This allows every program to be processed on a different thread.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public final class ProgramPreprocessor {
+
+    private ProgramPreprocessor() {
+    }
+
+    /**
+     * Processes all shaders in the specified programs.
+     *
+     * @param definitions     The programs to process
+     * @param contextFactory  Creates the compiler context for each program
+     * @param compilerFactory Creates a new compiler with all pre-processors added. Only the pre-processing methods are used
+     * @param executor        The executor to run each program on
+     * @return A future for the results of each program
+     */
+    public static CompletableFuture<Map<ResourceLocation, Result>> preprocess(Map<ResourceLocation, ProgramDefinition> definitions, Function<ProgramDefinition, ShaderCompiler.Context> contextFactory, Supplier<ShaderCompiler> compilerFactory, Executor executor) {
+        List<CompletableFuture<Map.Entry<ResourceLocation, Result>>> futures = new ArrayList<>(definitions.size());
+        for (Map.Entry<ResourceLocation, ProgramDefinition> entry : definitions.entrySet()) {
+            ProgramDefinition definition = entry.getValue();
+            futures.add(CompletableFuture.supplyAsync(() -> Map.entry(entry.getKey(), preprocess(entry.getKey(), contextFactory.apply(definition), definition, compilerFactory)), executor));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(unused -> {
+            Map<ResourceLocation, Result> results = new HashMap<>(futures.size());
+            for (CompletableFuture<Map.Entry<ResourceLocation, Result>> future : futures) {
+                Map.Entry<ResourceLocation, Result> result = future.join();
+                results.put(result.getKey(), result.getValue());
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Processes all shaders in a single program.
+     *
+     * @param id              The id of the program
+     * @param context         The context to process the shaders with
+     * @param definition      The program to process
+     * @param compilerFactory Creates a new compiler with all pre-processors added
+     * @return The processed shaders or the error that stopped processing
+     */
+    public static Result preprocess(ResourceLocation id, ShaderCompiler.Context context, ProgramDefinition definition, Supplier<ShaderCompiler> compilerFactory) {
+        ShaderCompileProfiler profiler = ShaderCompileProfiler.get();
+        ResourceLocation previous = profiler.pushProgram(id);
+        long start = profiler.begin();
+        try (ShaderCompiler compiler = compilerFactory.get()) {
+            Int2ObjectMap<ResourceLocation> shaders = definition.shaders();
+            Int2ObjectMap<ProcessedShader> processedShaders = new Int2ObjectArrayMap<>(shaders.size());
+            for (Int2ObjectMap.Entry<ResourceLocation> entry : shaders.int2ObjectEntrySet()) {
+                processedShaders.put(entry.getIntKey(), compiler.preprocess(context, entry.getIntKey(), entry.getValue()));
+            }
+            return new Result(Int2ObjectMaps.unmodifiable(processedShaders), null);
+        } catch (Exception e) {
+            return new Result(Int2ObjectMaps.emptyMap(), e);
+        } finally {
+            profiler.end(start, ShaderCompileProfiler.EventType.PREPROCESS, id);
+            profiler.popProgram(previous);
+        }
+    }
+
+    /**
+     * The processed shaders of a single program.
+     *
+     * @param shaders The processed shaders by OpenGL type
+     * @param error   The error that stopped processing or <code>null</code> if all shaders were processed
+     */
+    public record Result(Int2ObjectMap<ProcessedShader> shaders, @Nullable Exception error) {
+    }
+}
@@ -0,0 +1,423 @@
+package foundry.veil.impl.client.render.shader;
+
+import com.google.gson.stream.JsonWriter;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Records how long each step of loading shader programs takes and how often each cache is used.
+ * <p>Every method returns immediately while recording is disabled, so the profiler can be called from every step
+ * of the compile pipeline. Events are attributed to the program set on the current thread with
+ * {@link #pushProgram(ResourceLocation)}. Recorded events can be exported in the Chrome trace event format and
+ * opened in <code>chrome://tracing</code> or <a href="https://ui.perfetto.dev">Perfetto</a>.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class ShaderCompileProfiler {
+
+    /**
+     * Returned by {@link #begin()} when recording is disabled.
+     */
+    public static final long DISABLED = Long.MIN_VALUE;
+
+    private static final int MAX_EVENTS = 1 << 16;
+    private static final ShaderCompileProfiler INSTANCE = new ShaderCompileProfiler(System::nanoTime);
+
+    static {
+        INSTANCE.setEnabled(System.getProperty("veil.profileShaderCompile") != null);
+    }
+
+    private final LongSupplier clock;
+    private final List<Event> events;
+    private final Map<Long, String> threadNames;
+    private final ThreadLocal<ResourceLocation> currentProgram;
+    private volatile boolean enabled;
+    private volatile boolean used;
+    private int dropped;
+
+    /**
+     * Creates a new profiler.
+     *
+     * @param clock The source of timestamps in nanoseconds
+     */
+    public ShaderCompileProfiler(LongSupplier clock) {
+        this.clock = clock;
+        this.events = new ArrayList<>();
+        this.threadNames = new ConcurrentHashMap<>();
+        this.currentProgram = new ThreadLocal<>();
+    }
+
+    /**
+     * @return The profiler used by all shader managers
+     */
+    public static ShaderCompileProfiler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts a new span.
+     *
+     * @return The start time to pass into {@link #end(long, EventType, Object)} or {@link #DISABLED}
+     */
+    public long begin() {
+        return this.enabled ? this.clock.getAsLong() : DISABLED;
+    }
+
+    /**
+     * Finishes a span started with {@link #begin()}.
+     *
+     * @param start The value returned by {@link #begin()}
+     * @param type  The type of work done in the span
+     * @param name  The name of the file or program the work was done for. This is only converted to a string if recording
+     */
+    public void end(long start, EventType type, @Nullable Object name) {
+        if (start == DISABLED || !this.enabled) {
+            return;
+        }
+        this.record(type, name, start, this.clock.getAsLong() - start);
+    }
+
+    /**
+     * Records a single event without a duration, like a cache hit.
+     *
+     * @param type The type of event
+     * @param name The name of the file or program the event happened for
+     */
+    public void mark(EventType type, @Nullable Object name) {
+        if (!this.enabled) {
+            return;
+        }
+        this.record(type, name, this.clock.getAsLong(), 0);
+    }
+
+    private void record(EventType type, @Nullable Object name, long start, long duration) {
+        Thread thread = Thread.currentThread();
+        long threadId = thread.getId();
+        this.threadNames.putIfAbsent(threadId, thread.getName());
+
+        Event event = new Event(type, this.currentProgram.get(), String.valueOf(name), threadId, start, duration);
+        synchronized (this.events) {
+            if (this.events.size() >= MAX_EVENTS) {
+                this.dropped++;
+                return;
+            }
+            this.events.add(event);
+        }
+    }
+
+    /**
+     * Attributes all events on the current thread to the specified program until {@link #popProgram(ResourceLocation)} is called.
+     *
+     * @param program The program being worked on
+     * @return The previous program to pass into {@link #popProgram(ResourceLocation)}
+     */
+    public @Nullable ResourceLocation pushProgram(ResourceLocation program) {
+        if (!this.enabled) {
+            return null;
+        }
+        ResourceLocation previous = this.currentProgram.get();
+        this.currentProgram.set(program);
+        return previous;
+    }
+
+    /**
+     * Restores the program events are attributed to on the current thread.
+     *
+     * @param previous The value returned by {@link #pushProgram(ResourceLocation)}
+     */
+    public void popProgram(@Nullable ResourceLocation previous) {
+        // Recording may have been disabled since the program was pushed, so the thread has to be reset if it ever recorded
+        if (!this.used) {
+            return;
+        }
+        if (previous != null) {
+            this.currentProgram.set(previous);
+        } else {
+            this.currentProgram.remove();
+        }
+    }
+
+    /**
+     * Starts or stops recording events. Events that were already recorded are kept.
+     *
+     * @param enabled Whether to record events
+     */
+    public void setEnabled(boolean enabled) {
+        if (enabled) {
+            this.used = true;
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return Whether events are being recorded
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Removes all recorded events.
+     */
+    public void clear() {
+        synchronized (this.events) {
+            this.events.clear();
+            this.dropped = 0;
+        }
+    }
+
+    /**
+     * @return A copy of all recorded events in the order they finished
+     */
+    public List<Event> getEvents() {
+        synchronized (this.events) {
+            return new ArrayList<>(this.events);
+        }
+    }
+
+    /**
+     * @return The number of recorded events
+     */
+    public int getEventCount() {
+        synchronized (this.events) {
+            return this.events.size();
+        }
+    }
+
+    /**
+     * @return The number of events that weren't recorded because too many events were already recorded
+     */
+    public int getDropped() {
+        synchronized (this.events) {
+            return this.dropped;
+        }
+    }
+
+    /**
+     * Combines all recorded events into the total time spent on each program.
+     *
+     * @return A summary for every program with at least one event
+     */
+    public List<ProgramSummary> getSummaries() {
+        Map<ResourceLocation, ProgramSummary> summaries = new HashMap<>();
+        for (Event event : this.getEvents()) {
+            if (event.program() == null) {
+                continue;
+            }
+
+            ProgramSummary summary = summaries.computeIfAbsent(event.program(), ProgramSummary::new);
+            summary.start = Math.min(summary.start, event.start());
+            summary.end = Math.max(summary.end, event.start() + event.duration());
+            summary.times[event.type().ordinal()] += event.duration();
+            summary.counts[event.type().ordinal()]++;
+        }
+        return new ArrayList<>(summaries.values());
+    }
+
+    /**
+     * @return The earliest time any recorded event started or <code>0</code> if there are no events
+     */
+    public long getOrigin() {
+        synchronized (this.events) {
+            long origin = Long.MAX_VALUE;
+            for (Event event : this.events) {
+                origin = Math.min(origin, event.start());
+            }
+            return this.events.isEmpty() ? 0 : origin;
+        }
+    }
+
+    /**
+     * Writes all recorded events as Chrome trace event JSON.
+     *
+     * @param writer The writer to write the JSON into
+     * @throws IOException If an error occurs writing the events
+     */
+    public void writeChromeTrace(Writer writer) throws IOException {
+        List<Event> events = this.getEvents();
+        long origin = this.getOrigin();
+
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        json.name("displayTimeUnit").value("ms");
+        json.name("traceEvents").beginArray();
+        for (Map.Entry<Long, String> entry : new TreeMap<>(this.threadNames).entrySet()) {
+            json.beginObject();
+            json.name("name").value("thread_name");
+            json.name("ph").value("M");
+            json.name("pid").value(0);
+            json.name("tid").value(entry.getKey());
+            json.name("args").beginObject().name("name").value(entry.getValue()).endObject();
+            json.endObject();
+        }
+        for (Event event : events) {
+            json.beginObject();
+            json.name("name").value(event.name());
+            json.name("cat").value(event.type().getDisplayName());
+            if (event.type().isInstant()) {
+                json.name("ph").value("i");
+                json.name("s").value("t");
+            } else {
+                json.name("ph").value("X");
+                json.name("dur").value(event.duration() / 1000.0);
+            }
+            json.name("ts").value((event.start() - origin) / 1000.0);
+            json.name("pid").value(0);
+            json.name("tid").value(event.thread());
+            if (event.program() != null) {
+                json.name("args").beginObject().name("program").value(event.program().toString()).endObject();
+            }
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * A single recorded step. All times are in nanoseconds.
+     *
+     * @param type     The type of work done
+     * @param program  The program the work was done for or <code>null</code> if not done for a single program
+     * @param name     The name of the file or program the work was done for
+     * @param thread   The id of the thread the work was done on
+     * @param start    The time the work started
+     * @param duration The time spent or <code>0</code> for instant events
+     */
+    public record Event(EventType type,
+                        @Nullable ResourceLocation program,
+                        String name,
+                        long thread,
+                        long start,
+                        long duration) {
+    }
+
+    /**
+     * The types of events recorded.
+     */
+    public enum EventType {
+        RELOAD("Reload", false),
+        READ("Read", false),
+        PREPROCESS("Preprocess", false),
+        MODIFY("Modify", false),
+        PROGRAM("Program", false),
+        COMPILE("Compile", false),
+        LINK("Link", false),
+        BINARY("Load Binary", false),
+        SHADER_CACHE_HIT("Shader Cache Hit", true),
+        SHADER_CACHE_MISS("Shader Cache Miss", true),
+        BINARY_CACHE_HIT("Binary Cache Hit", true),
+        BINARY_CACHE_MISS("Binary Cache Miss", true),
+        PATCH_CACHE_HIT("Patch Cache Hit", true),
+        PATCH_CACHE_MISS("Patch Cache Miss", true);
+
+        private final String displayName;
+        private final boolean instant;
+
+        EventType(String displayName, boolean instant) {
+            this.displayName = displayName;
+            this.instant = instant;
+        }
+
+        /**
+         * @return The name shown in the editor and in exported traces
+         */
+        public String getDisplayName() {
+            return this.displayName;
+        }
+
+        /**
+         * @return Whether this event has no duration
+         */
+        public boolean isInstant() {
+            return this.instant;
+        }
+    }
+
+    /**
+     * The combined events of a single program. All times are in nanoseconds.
+     */
+    public static class ProgramSummary {
+
+        private final ResourceLocation program;
+        private final long[] times;
+        private final int[] counts;
+        private long start;
+        private long end;
+
+        private ProgramSummary(ResourceLocation program) {
+            this.program = program;
+            this.times = new long[EventType.values().length];
+            this.counts = new int[EventType.values().length];
+            this.start = Long.MAX_VALUE;
+            this.end = Long.MIN_VALUE;
+        }
+
+        /**
+         * @return The id of the program
+         */
+        public ResourceLocation getProgram() {
+            return this.program;
+        }
+
+        /**
+         * @param type The type of event
+         * @return The total time spent in all events of that type
+         */
+        public long getTime(EventType type) {
+            return this.times[type.ordinal()];
+        }
+
+        /**
+         * @param type The type of event
+         * @return The number of events of that type
+         */
+        public int getCount(EventType type) {
+            return this.counts[type.ordinal()];
+        }
+
+        /**
+         * @return The total time spent reading, processing, and compiling the program
+         */
+        public long getTotalTime() {
+            // Every other span happens inside one of these
+            return this.getTime(EventType.READ) + this.getTime(EventType.PREPROCESS) + this.getTime(EventType.PROGRAM);
+        }
+
+        /**
+         * @return The number of times a shader, program binary, or modification patch was reused
+         */
+        public int getCacheHits() {
+            return this.getCount(EventType.SHADER_CACHE_HIT) + this.getCount(EventType.BINARY_CACHE_HIT) + this.getCount(EventType.PATCH_CACHE_HIT);
+        }
+
+        /**
+         * @return The number of times a shader, program binary, or modification patch had to be created
+         */
+        public int getCacheMisses() {
+            return this.getCount(EventType.SHADER_CACHE_MISS) + this.getCount(EventType.BINARY_CACHE_MISS) + this.getCount(EventType.PATCH_CACHE_MISS);
+        }
+
+        /**
+         * @return The time the first event of this program started
+         */
+        public long getStart() {
+            return this.start;
+        }
+
+        /**
+         * @return The time the last event of this program ended
+         */
+        public long getEnd() {
+            return this.end;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package foundry.veil.impl.client.render.shader;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.jetbrains.annotations.ApiStatus;
+import org.lwjgl.opengl.GL20C;
+import org.lwjgl.system.NativeResource;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Shares compiled shader objects between all programs that use the exact same shader source.
+ * <p>Shaders are keyed by a 128-bit hash of their source, the length of the source, and the shader type.
+ * Every program that attaches a shader holds a reference to it. Shaders without any references are kept until
+ * {@link #deleteUnused()} is called, so recompiling a program can reuse the shaders it had before.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class ShaderObjectCache implements NativeResource {
+
+    private final IntConsumer deleter;
+    private final Map<Key, Entry> entries;
+    private final Int2ObjectMap<Entry> shaders;
+    private int unused;
+
+    private int hits;
+    private int misses;
+
+    public ShaderObjectCache() {
+        this(GL20C::glDeleteShader);
+    }
+
+    /**
+     * Creates a new shader cache.
+     *
+     * @param deleter Deletes shaders once they are no longer used
+     */
+    public ShaderObjectCache(IntConsumer deleter) {
+        this.deleter = deleter;
+        this.entries = new HashMap<>();
+        this.shaders = new Int2ObjectOpenHashMap<>();
+    }
+
+    /**
+     * Creates the key for a shader source.
+     *
+     * @param type   The OpenGL type of shader
+     * @param source The full processed source
+     * @return The key for that source
+     */
+    public static Key key(int type, String source) {
+        // Two independent 64-bit lanes over 4 characters at a time, mixed the same way as MurmurHash3
+        int length = source.length();
+        long h0 = 0x9E3779B97F4A7C15L ^ length;
+        long h1 = 0xC2B2AE3D27D4EB4FL ^ type;
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            long k = source.charAt(i) |
+                    (long) source.charAt(i + 1) << 16 |
+                    (long) source.charAt(i + 2) << 32 |
+                    (long) source.charAt(i + 3) << 48;
+            h0 = Long.rotateLeft(h0 ^ k * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+            h1 = Long.rotateLeft(h1 + k * 0x4CF5AD432745937FL, 33) * 0x87C37B91114253D5L;
+        }
+        long k = 0;
+        for (int shift = 0; i < length; i++, shift += 16) {
+            k |= (long) source.charAt(i) << shift;
+        }
+        h0 ^= k * 0x87C37B91114253D5L;
+        h1 += k * 0x4CF5AD432745937FL;
+
+        h0 += h1;
+        h1 += h0;
+        h0 = mix(h0);
+        h1 = mix(h1);
+        h0 += h1;
+        h1 += h0;
+        return new Key(type, length, h0, h1);
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        k *= 0xC4CEB9FE1A85EC53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * Retrieves the shader for the specified key and adds a reference to it.
+     *
+     * @param key The key of the shader source
+     * @return The OpenGL id of the shader or <code>0</code> if the source hasn't been compiled
+     */
+    public int acquire(Key key) {
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            this.misses++;
+            return 0;
+        }
+
+        if (entry.references++ == 0) {
+            this.unused--;
+        }
+        this.hits++;
+        return entry.shader;
+    }
+
+    /**
+     * Checks if a shader source is compiled without adding a reference to it.
+     *
+     * @param key The key of the shader source
+     * @return Whether the source has a shader
+     */
+    public boolean contains(Key key) {
+        return this.entries.containsKey(key);
+    }
+
+    /**
+     * Adds a newly compiled shader with a single reference.
+     *
+     * @param key    The key of the shader source
+     * @param shader The OpenGL id of the shader
+     */
+    public void add(Key key, int shader) {
+        Entry entry = new Entry(shader);
+        Entry old = this.entries.put(key, entry);
+        if (old != null) {
+            // Only happens if the same source was compiled without checking first, so the old shader is removed
+            this.shaders.remove(old.shader);
+            if (old.references == 0) {
+                this.unused--;
+                this.deleter.accept(old.shader);
+            }
+        }
+        this.shaders.put(shader, entry);
+    }
+
+    /**
+     * Removes a reference to the specified shader. Shaders that were not created by this cache are ignored.
+     *
+     * @param shader The OpenGL id of the shader
+     */
+    public void release(int shader) {
+        Entry entry = this.shaders.get(shader);
+        if (entry != null && entry.references > 0 && --entry.references == 0) {
+            this.unused++;
+        }
+    }
+
+    /**
+     * Deletes all shaders without any references.
+     *
+     * @return The number of deleted shaders
+     */
+    public int deleteUnused() {
+        if (this.unused == 0) {
+            return 0;
+        }
+
+        int deleted = 0;
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.references == 0) {
+                iterator.remove();
+                this.shaders.remove(entry.shader);
+                this.deleter.accept(entry.shader);
+                deleted++;
+            }
+        }
+        this.unused = 0;
+        return deleted;
+    }
+
+    /**
+     * @param shader The OpenGL id of the shader
+     * @return The number of programs using the shader
+     */
+    public int getReferences(int shader) {
+        Entry entry = this.shaders.get(shader);
+        return entry != null ? entry.references : 0;
+    }
+
+    /**
+     * @return The number of shaders in the cache
+     */
+    public int getSize() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return The number of shaders that aren't used by any program
+     */
+    public int getUnused() {
+        return this.unused;
+    }
+
+    /**
+     * @return The number of times a shader was reused
+     */
+    public int getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return The number of times a shader had to be compiled
+     */
+    public int getMisses() {
+        return this.misses;
+    }
+
+    @Override
+    public void free() {
+        for (Entry entry : this.entries.values()) {
+            this.deleter.accept(entry.shader);
+        }
+        this.entries.clear();
+        this.shaders.clear();
+        this.unused = 0;
+    }
+
+    /**
+     * Identifies a shader source.
+     *
+     * @param type   The OpenGL type of shader
+     * @param length The number of characters in the source
+     * @param hash0  The lower 64 bits of the source hash
+     * @param hash1  The upper 64 bits of the source hash
+     */
+    public record Key(int type, int length, long hash0, long hash1) {
+
+        @Override
+        public int hashCode() {
+            return (int) this.hash0;
+        }
+    }
+
+    private static class Entry {
+
+        private final int shader;
+        private int references;
+
+        private Entry(int shader) {
+            this.shader = shader;
+            this.references = 1;
+        }
+    }
+}
@@ -8,16 +8,20 @@ import com.mojang.blaze3d.systems.RenderSystem;
 import foundry.veil.Veil;
 import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.shader.CompiledShader;
+import foundry.veil.api.client.render.shader.ProcessedShader;
 import foundry.veil.api.client.render.shader.ShaderCompiler;
 import foundry.veil.api.client.render.shader.ShaderException;
 import foundry.veil.api.client.render.shader.program.MutableUniformAccess;
 import foundry.veil.api.client.render.shader.program.ProgramDefinition;
 import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import foundry.veil.api.client.render.shader.program.UniformHandle;
+import foundry.veil.api.client.render.shader.program.UniformType;
 import foundry.veil.api.client.render.shader.texture.ShaderTextureSource;
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2IntArrayMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectArraySet;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.renderer.ShaderInstance;
@@ -33,10 +37,12 @@ import org.joml.Matrix3f;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
+import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
@@ -49,6 +55,7 @@ import static org.lwjgl.opengl.GL13C.GL_TEXTURE0;
 import static org.lwjgl.opengl.GL20C.*;
 import static org.lwjgl.opengl.GL31C.GL_INVALID_INDEX;
 import static org.lwjgl.opengl.GL31C.glGetUniformBlockIndex;
+import static org.lwjgl.opengl.GL31C.glUniformBlockBinding;
 import static org.lwjgl.opengl.GL43C.*;
 
 /**
@@ -57,27 +64,37 @@ import static org.lwjgl.opengl.GL43C.*;
 @ApiStatus.Internal
 public class ShaderProgramImpl implements ShaderProgram {
 
+    private static final int MAX_VARIANTS = 8;
+
     private final ResourceLocation id;
     private final Int2ObjectMap<CompiledShader> shaders;
+    private final Int2ObjectMap<ProcessedShader> binarySources;
     private final Object2IntMap<CharSequence> uniforms;
     private final Object2IntMap<CharSequence> uniformBlocks;
     private final Object2IntMap<CharSequence> storageBlocks;
+    private final Map<String, UniformHandle<?>> uniformHandles;
     private final Map<String, ShaderTextureSource> textureSources;
     private final Set<String> definitionDependencies;
+    private final Map<ShaderVariantIndex.Key, Variant> variants;
     private final TextureCache textures;
     private final Supplier<Wrapper> wrapper;
     private ProgramDefinition definition;
+    private ShaderVariantIndex.Key variantKey;
     private int program;
+    private int uniformGeneration;
 
     public ShaderProgramImpl(ResourceLocation id) {
         this.id = id;
         this.shaders = new Int2ObjectArrayMap<>(2);
-        this.uniforms = new Object2IntArrayMap<>();
-        this.uniformBlocks = new Object2IntArrayMap<>();
-        this.storageBlocks = new Object2IntArrayMap<>();
+        this.binarySources = new Int2ObjectArrayMap<>(2);
+        this.uniforms = new Object2IntOpenHashMap<>();
+        this.uniformBlocks = new Object2IntOpenHashMap<>();
+        this.storageBlocks = new Object2IntOpenHashMap<>();
+        this.uniformHandles = new HashMap<>();
         this.textures = new TextureCache(this);
         this.textureSources = new HashMap<>();
         this.definitionDependencies = new HashSet<>();
+        this.variants = new LinkedHashMap<>(MAX_VARIANTS, 0.75F, true);
         this.wrapper = Suppliers.memoize(() -> {
             Wrapper.constructing = true;
             try {
@@ -92,12 +109,21 @@ public class ShaderProgramImpl implements ShaderProgram {
 
     private void clearShader() {
         if (this.program != 0) {
-            // The shaders are already marked for deletion, they just have to be unlinked since the program isn't deleted
-            this.shaders.values().forEach(shader -> glDetachShader(this.program, shader.id()));
+            // The shaders are owned by the compiler or the shader cache, they just have to be unlinked since the program isn't deleted
+            // Programs loaded from a binary have no shaders attached
+            this.shaders.values().forEach(shader -> {
+                if (shader.id() != 0) {
+                    glDetachShader(this.program, shader.id());
+                }
+            });
         }
+        releaseShaders(this.shaders);
         this.shaders.clear();
+        this.binarySources.clear();
         this.uniforms.clear();
         this.uniformBlocks.clear();
+        this.storageBlocks.clear();
+        this.uniformGeneration++;
         this.textures.clear();
         this.textureSources.clear();
         this.definitionDependencies.clear();
@@ -105,8 +131,35 @@ public class ShaderProgramImpl implements ShaderProgram {
 
     @Override
     public void compile(ShaderCompiler.Context context, ShaderCompiler compiler) throws Exception {
+        this.compile(context, compiler, null, false);
+    }
+
+    /**
+     * Compiles this program for a specific set of definition values.
+     *
+     * @param context      The context to compile with
+     * @param compiler     The compiler to use
+     * @param variant      The key of the definition values used to process the shaders or <code>null</code> if unknown
+     * @param keepVariants Whether to keep the current program as a variant instead of deleting all variants.
+     *                     This should only be used if the shader sources haven't changed
+     * @throws Exception If any error occurs while compiling
+     */
+    public void compile(ShaderCompiler.Context context, ShaderCompiler compiler, @Nullable ShaderVariantIndex.Key variant, boolean keepVariants) throws Exception {
         this.definition = Objects.requireNonNull(context.definition());
 
+        if (keepVariants) {
+            this.storeVariant();
+            if (variant != null) {
+                Variant old = this.variants.remove(variant);
+                if (old != null) {
+                    old.free();
+                }
+            }
+        } else {
+            this.freeVariants();
+        }
+        this.variantKey = null;
+
         this.clearShader();
         this.textureSources.putAll(this.definition.textures());
 
@@ -115,43 +168,352 @@ public class ShaderProgramImpl implements ShaderProgram {
         }
 
         try {
-            Int2ObjectMap<ResourceLocation> shaders = this.definition.shaders();
-            for (Int2ObjectMap.Entry<ResourceLocation> entry : shaders.int2ObjectEntrySet()) {
-                int glType = entry.getIntKey();
-                CompiledShader shader = compiler.compile(context, glType, entry.getValue());
-                glAttachShader(this.program, shader.id());
-                this.shaders.put(glType, shader);
-            }
-
-            // Fragment shaders aren't strictly necessary if the fragment output isn't used,
-            // however mac shaders don't work without a fragment shader. This adds a "dummy" fragment shader
-            // on mac specifically for all rendering shaders.
-            if (Minecraft.ON_OSX && !shaders.containsKey(GL_COMPUTE_SHADER) && !shaders.containsKey(GL_FRAGMENT_SHADER)) {
-                CompiledShader shader = compiler.compile(context, GL_FRAGMENT_SHADER, "out vec4 fragColor;void main(){fragColor=vec4(1.0);}");
-                glAttachShader(this.program, shader.id());
-                this.shaders.put(GL_FRAGMENT_SHADER, shader);
-            }
-
-            glLinkProgram(this.program);
-            if (glGetProgrami(this.program, GL_LINK_STATUS) != GL_TRUE) {
-                String log = glGetProgramInfoLog(this.program);
-                throw new ShaderException("Failed to link shader", log);
-            }
+            this.link(this.program, context, compiler, this.shaders, this.binarySources);
 
             this.bind();
             this.shaders.values().forEach(shader -> {
                 shader.apply(this);
                 this.definitionDependencies.addAll(shader.definitionDependencies());
             });
+            VeilRenderSystem.applyShaderBlockBindings(this);
             ShaderProgram.unbind();
+            this.variantKey = variant;
         } catch (Exception e) {
             this.clearShader(); // F
             throw e;
         }
     }
 
+    /**
+     * Compiles a variant of this program in the background without changing the current program.
+     *
+     * @param context  The context to compile with
+     * @param compiler The compiler to use
+     * @param variant  The key of the definition values used to process the shaders
+     * @throws Exception If any error occurs while compiling
+     */
+    public void prewarm(ShaderCompiler.Context context, ShaderCompiler compiler, ShaderVariantIndex.Key variant) throws Exception {
+        ShaderVariantIndex.Key active = this.variantKey;
+        if (active == null || active.equals(variant) || this.variants.containsKey(variant)) {
+            return;
+        }
+
+        // The variant is linked into its own program, so the samplers and uniforms of the active program are left alone
+        int program = glCreateProgram();
+        Int2ObjectMap<CompiledShader> shaders = new Int2ObjectArrayMap<>(2);
+        Int2ObjectMap<ProcessedShader> binarySources = new Int2ObjectArrayMap<>(2);
+        Set<String> definitionDependencies = new HashSet<>();
+        try {
+            this.link(program, context, compiler, shaders, binarySources);
+            for (CompiledShader shader : shaders.values()) {
+                applyBindings(program, shader);
+                definitionDependencies.addAll(shader.definitionDependencies());
+            }
+        } catch (Exception e) {
+            new Variant(program, shaders, binarySources, Set.of()).free();
+            throw e;
+        }
+        this.addVariant(variant, new Variant(program, shaders, binarySources, Set.copyOf(definitionDependencies)));
+    }
+
+    /**
+     * Compiles the shaders of the current definition and links them into the specified program.
+     *
+     * @param program       The program to link into
+     * @param context       The context to compile with
+     * @param compiler      The compiler to use
+     * @param shaders       The map to put the shaders attached to the program into
+     * @param binarySources The map to put the sources of the program into if it was loaded from a binary
+     * @throws Exception If any error occurs while compiling or linking
+     */
+    private void link(int program, ShaderCompiler.Context context, ShaderCompiler compiler, Int2ObjectMap<CompiledShader> shaders, Int2ObjectMap<ProcessedShader> binarySources) throws Exception {
+        Int2ObjectMap<ResourceLocation> shaderIds = Objects.requireNonNull(context.definition()).shaders();
+        Int2ObjectMap<ProcessedShader> processedShaders = new Int2ObjectArrayMap<>(shaderIds.size());
+        for (Int2ObjectMap.Entry<ResourceLocation> entry : shaderIds.int2ObjectEntrySet()) {
+            int glType = entry.getIntKey();
+            processedShaders.put(glType, compiler.preprocess(context, glType, entry.getValue()));
+        }
+
+        // Fragment shaders aren't strictly necessary if the fragment output isn't used,
+        // however mac shaders don't work without a fragment shader. This adds a "dummy" fragment shader
+        // on mac specifically for all rendering shaders.
+        if (Minecraft.ON_OSX && !shaderIds.containsKey(GL_COMPUTE_SHADER) && !shaderIds.containsKey(GL_FRAGMENT_SHADER)) {
+            processedShaders.put(GL_FRAGMENT_SHADER, compiler.preprocess(context, GL_FRAGMENT_SHADER, "out vec4 fragColor;void main(){fragColor=vec4(1.0);}"));
+        }
+
+        ProgramBinaryCache binaryCache = VeilRenderSystem.renderer().getProgramBinaryCache();
+        String binaryKey = null;
+        if (binaryCache != null) {
+            Int2ObjectMap<String> sources = new Int2ObjectArrayMap<>(processedShaders.size());
+            for (Int2ObjectMap.Entry<ProcessedShader> entry : processedShaders.int2ObjectEntrySet()) {
+                sources.put(entry.getIntKey(), entry.getValue().source());
+            }
+            binaryKey = binaryCache.getKey(sources);
+        }
+
+        if (binaryKey != null && this.loadBinary(program, binaryCache, binaryKey, processedShaders, shaders)) {
+            binarySources.putAll(processedShaders);
+            return;
+        }
+
+        for (ProcessedShader processedShader : processedShaders.values()) {
+            CompiledShader shader = compiler.compile(processedShader);
+            glAttachShader(program, shader.id());
+            shaders.put(processedShader.type(), shader);
+        }
+
+        if (binaryKey != null) {
+            glProgramParameteri(program, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+        }
+        ShaderCompileProfiler profiler = ShaderCompileProfiler.get();
+        long linkStart = profiler.begin();
+        glLinkProgram(program);
+        boolean linked = glGetProgrami(program, GL_LINK_STATUS) == GL_TRUE;
+        profiler.end(linkStart, ShaderCompileProfiler.EventType.LINK, this.id);
+        if (!linked) {
+            String log = glGetProgramInfoLog(program);
+            throw new ShaderException("Failed to link shader", log);
+        }
+
+        if (binaryKey != null) {
+            this.saveBinary(program, binaryCache, binaryKey);
+        }
+    }
+
+    /**
+     * Applies the bindings of a shader to a program that isn't the current program.
+     * This is the same as {@link CompiledShader#apply(ShaderProgram)} without looking up uniforms through this program.
+     */
+    private static void applyBindings(int program, CompiledShader shader) {
+        shader.uniformBindings().forEach((name, binding) -> {
+            int index = glGetUniformBlockIndex(program, name);
+            if (index != GL_INVALID_INDEX) {
+                glUniformBlockBinding(program, index, binding);
+                return;
+            }
+
+            int location = glGetUniformLocation(program, name);
+            if (location != -1) {
+                glProgramUniform1i(program, location, binding);
+            }
+        });
+    }
+
+    /**
+     * Switches to a previously compiled variant of this program.
+     *
+     * @param variant The key of the definition values to switch to
+     * @return Whether the variant was already compiled and is now being used
+     */
+    public boolean selectVariant(ShaderVariantIndex.Key variant) {
+        if (variant.equals(this.variantKey)) {
+            return true;
+        }
+
+        Variant selected = this.variants.remove(variant);
+        if (selected == null) {
+            return false;
+        }
+
+        if (this.variantKey != null) {
+            this.storeVariant();
+        } else if (this.program != 0) {
+            // The current program can't be selected again, so there is no reason to keep it
+            glDeleteProgram(this.program);
+            releaseShaders(this.shaders);
+        }
+
+        this.program = selected.program;
+        this.variantKey = variant;
+        this.shaders.clear();
+        this.shaders.putAll(selected.shaders);
+        this.binarySources.clear();
+        this.binarySources.putAll(selected.binarySources);
+        this.definitionDependencies.clear();
+        this.definitionDependencies.addAll(selected.definitionDependencies);
+        this.uniforms.clear();
+        this.uniformBlocks.clear();
+        this.storageBlocks.clear();
+        this.uniformGeneration++;
+        // Sampler locations are different in every program, so they have to be set again
+        this.textures.dirty = true;
+        // Blocks may have been bound under new names since the variant was linked
+        VeilRenderSystem.applyShaderBlockBindings(this);
+        return true;
+    }
+
+    private void storeVariant() {
+        if (this.variantKey == null || this.program == 0 || this.shaders.isEmpty()) {
+            return;
+        }
+
+        this.addVariant(this.variantKey, new Variant(this.program, new Int2ObjectArrayMap<>(this.shaders), new Int2ObjectArrayMap<>(this.binarySources), Set.copyOf(this.definitionDependencies)));
+
+        // The stored program keeps its shaders attached, so it must not be touched by clearShader
+        this.program = 0;
+        this.variantKey = null;
+        this.shaders.clear();
+        this.binarySources.clear();
+    }
+
+    private void addVariant(ShaderVariantIndex.Key key, Variant variant) {
+        Variant old = this.variants.put(key, variant);
+        if (old != null) {
+            old.free();
+        }
+        if (this.variants.size() > MAX_VARIANTS) {
+            Iterator<Variant> iterator = this.variants.values().iterator();
+            iterator.next().free();
+            iterator.remove();
+        }
+    }
+
+    private void freeVariants() {
+        for (Variant variant : this.variants.values()) {
+            variant.free();
+        }
+        this.variants.clear();
+    }
+
+    private static void releaseShaders(Int2ObjectMap<CompiledShader> shaders) {
+        if (shaders.isEmpty()) {
+            return;
+        }
+
+        ShaderObjectCache cache = VeilRenderSystem.renderer().getShaderObjectCache();
+        for (CompiledShader shader : shaders.values()) {
+            if (shader.id() != 0) {
+                cache.release(shader.id());
+            }
+        }
+    }
+
+    /**
+     * @param variant The key of the definition values to check
+     * @return Whether the variant is the current program or was already compiled
+     */
+    public boolean hasVariant(ShaderVariantIndex.Key variant) {
+        return variant.equals(this.variantKey) || this.variants.containsKey(variant);
+    }
+
+    /**
+     * @return The key of the definition values the current program was compiled with or <code>null</code> if unknown
+     */
+    public @Nullable ShaderVariantIndex.Key getVariantKey() {
+        return this.variantKey;
+    }
+
+    /**
+     * @return The number of compiled variants that are not currently being used
+     */
+    public int getVariantCount() {
+        return this.variants.size();
+    }
+
+    /**
+     * Compiles and attaches the shaders of the current program if it was loaded from the binary cache.
+     * Programs loaded from a binary have no shaders attached, so this is needed to view and edit their sources.
+     *
+     * @throws ShaderException If any of the shaders fail to compile
+     */
+    public void attachBinarySources() throws ShaderException {
+        if (this.program == 0 || this.binarySources.isEmpty()) {
+            return;
+        }
+
+        ShaderObjectCache cache = VeilRenderSystem.renderer().getShaderObjectCache();
+        for (ProcessedShader processedShader : List.copyOf(this.binarySources.values())) {
+            ShaderObjectCache.Key key = ShaderObjectCache.key(processedShader.type(), processedShader.source());
+            int shader = cache.acquire(key);
+            if (shader == 0) {
+                shader = glCreateShader(processedShader.type());
+                glShaderSource(shader, processedShader.source());
+                glCompileShader(shader);
+                if (glGetShaderi(shader, GL_COMPILE_STATUS) != GL_TRUE) {
+                    String log = glGetShaderInfoLog(shader);
+                    glDeleteShader(shader);
+                    throw new ShaderException("Failed to compile shader", log);
+                }
+                cache.add(key, shader);
+            }
+
+            // The program is already linked, so attaching the shaders doesn't change it until it is linked again
+            glAttachShader(this.program, shader);
+            this.shaders.put(processedShader.type(), processedShader.toCompiled(shader));
+            this.binarySources.remove(processedShader.type());
+        }
+    }
+
+    private boolean loadBinary(int program, ProgramBinaryCache cache, String key, Int2ObjectMap<ProcessedShader> processedShaders, Int2ObjectMap<CompiledShader> shaders) {
+        ProgramBinaryCache.Binary binary;
+        try {
+            binary = cache.get(key);
+        } catch (IOException e) {
+            Veil.LOGGER.warn("Failed to read program binary for shader: {}", this.id, e);
+            return false;
+        }
+        ShaderCompileProfiler profiler = ShaderCompileProfiler.get();
+        if (binary == null) {
+            profiler.mark(ShaderCompileProfiler.EventType.BINARY_CACHE_MISS, this.id);
+            return false;
+        }
+
+        long start = profiler.begin();
+        ByteBuffer data = MemoryUtil.memAlloc(binary.data().length);
+        try {
+            data.put(binary.data()).flip();
+            glProgramBinary(program, binary.format(), data);
+        } finally {
+            MemoryUtil.memFree(data);
+        }
+        boolean linked = glGetProgrami(program, GL_LINK_STATUS) == GL_TRUE;
+        profiler.end(start, ShaderCompileProfiler.EventType.BINARY, this.id);
+
+        // The driver is allowed to reject binaries for any reason, so fall back to compiling from source
+        if (!linked) {
+            profiler.mark(ShaderCompileProfiler.EventType.BINARY_CACHE_MISS, this.id);
+            try {
+                cache.reject(key);
+            } catch (IOException e) {
+                Veil.LOGGER.warn("Failed to delete rejected program binary for shader: {}", this.id, e);
+            }
+            return false;
+        }
+
+        for (ProcessedShader processedShader : processedShaders.values()) {
+            shaders.put(processedShader.type(), processedShader.toCompiled(0));
+        }
+        profiler.mark(ShaderCompileProfiler.EventType.BINARY_CACHE_HIT, this.id);
+        return true;
+    }
+
+    private void saveBinary(int program, ProgramBinaryCache cache, String key) {
+        int length = glGetProgrami(program, GL_PROGRAM_BINARY_LENGTH);
+        if (length <= 0) {
+            return;
+        }
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer written = stack.mallocInt(1);
+            IntBuffer format = stack.mallocInt(1);
+            ByteBuffer data = MemoryUtil.memAlloc(length);
+            try {
+                glGetProgramBinary(program, written, format, data);
+                byte[] bytes = new byte[written.get(0)];
+                data.get(bytes);
+                cache.put(key, format.get(0), bytes);
+            } finally {
+                MemoryUtil.memFree(data);
+            }
+        } catch (IOException e) {
+            Veil.LOGGER.warn("Failed to write program binary for shader: {}", this.id, e);
+        }
+    }
+
     @Override
     public void free() {
+        this.freeVariants();
+        this.variantKey = null;
         this.clearShader();
         if (this.program > 0) {
             glDeleteProgram(this.program);
@@ -208,6 +570,37 @@ public class ShaderProgramImpl implements ShaderProgram {
         return this.program;
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> UniformHandle<T> getUniformHandle(CharSequence name, UniformType<T> type) {
+        String key = name.toString();
+        UniformHandle<?> handle = this.uniformHandles.get(key);
+        if (handle == null) {
+            handle = new UniformHandle<>(this, key, type);
+            this.uniformHandles.put(key, handle);
+        } else if (handle.getType() != type) {
+            throw new IllegalArgumentException("Uniform " + key + " in shader " + this.id + " is a " + handle.getType() + ", not a " + type);
+        }
+        return (UniformHandle<T>) handle;
+    }
+
+    @Override
+    public int getUniformGeneration() {
+        return this.uniformGeneration;
+    }
+
+    @Override
+    public void invalidateUniformHandles(int location) {
+        if (this.uniformHandles.isEmpty()) {
+            return;
+        }
+        for (UniformHandle<?> handle : this.uniformHandles.values()) {
+            if (handle.getLocation() == location) {
+                handle.invalidate();
+            }
+        }
+    }
+
     @Override
     public @Nullable ProgramDefinition getDefinition() {
         return this.definition;
@@ -247,6 +640,17 @@ public class ShaderProgramImpl implements ShaderProgram {
         this.textures.clear();
     }
 
+    private record Variant(int program,
+                           Int2ObjectMap<CompiledShader> shaders,
+                           Int2ObjectMap<ProcessedShader> binarySources,
+                           Set<String> definitionDependencies) {
+
+        public void free() {
+            glDeleteProgram(this.program);
+            releaseShaders(this.shaders);
+        }
+    }
+
     private static class TextureCache {
 
         private final ShaderProgram program;
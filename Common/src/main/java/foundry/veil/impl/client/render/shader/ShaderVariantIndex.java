@@ -0,0 +1,166 @@
+package foundry.veil.impl.client.render.shader;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Assigns every definition value a program has been compiled with a bit, so the set of values a program depends on
+ * can be compared as a single bitmask.
+ * <p>Each definition name and value pair gets its own bit. A definition that isn't set has no bit, so two programs
+ * compiled with the same values for all their dependencies always have the same key.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class ShaderVariantIndex {
+
+    private final Map<String, Object2IntMap<String>> values;
+    private final Set<String> undefined;
+    private int nextBit;
+
+    public ShaderVariantIndex() {
+        this.values = new HashMap<>();
+        this.undefined = new HashSet<>();
+    }
+
+    private int getBit(String name, String value) {
+        Object2IntMap<String> bits = this.values.computeIfAbsent(name, unused -> new Object2IntOpenHashMap<>());
+        int bit = bits.getOrDefault(value, -1);
+        if (bit == -1) {
+            bit = this.nextBit++;
+            bits.put(value, bit);
+        }
+        return bit;
+    }
+
+    /**
+     * Creates a key for the current values of the specified definitions.
+     *
+     * @param dependencies The definitions a program depends on
+     * @param definitions  Retrieves the current value of a definition or <code>null</code> if it isn't set
+     * @return A key that is equal for all programs compiled with the same values
+     */
+    public synchronized Key getKey(Collection<String> dependencies, Function<String, @Nullable String> definitions) {
+        BitSet bits = new BitSet(this.nextBit);
+        for (String name : dependencies) {
+            String value = definitions.apply(name);
+            if (value != null) {
+                bits.set(this.getBit(name, value));
+            } else {
+                this.undefined.add(name);
+            }
+        }
+        return new Key(bits.toLongArray());
+    }
+
+    /**
+     * Finds all variants that differ from the current values by a single definition. Only values that have been
+     * used for that definition before are included, since those are the values most likely to be used again.
+     *
+     * @param dependencies The definitions a program depends on
+     * @param definitions  Retrieves the current value of a definition or <code>null</code> if it isn't set
+     * @return Every variant one definition change away from the current values
+     */
+    public synchronized List<Variant> getNeighbors(Collection<String> dependencies, Function<String, @Nullable String> definitions) {
+        Map<String, String> current = new HashMap<>();
+        for (String name : dependencies) {
+            String value = definitions.apply(name);
+            if (value != null) {
+                current.put(name, value);
+            }
+        }
+
+        List<Variant> neighbors = new ArrayList<>();
+        for (String name : dependencies) {
+            String value = current.get(name);
+            Object2IntMap<String> known = this.values.get(name);
+            if (known != null) {
+                for (String knownValue : known.keySet()) {
+                    if (!knownValue.equals(value)) {
+                        neighbors.add(this.createVariant(dependencies, current, name, knownValue));
+                    }
+                }
+            }
+            if (value != null && this.undefined.contains(name)) {
+                neighbors.add(this.createVariant(dependencies, current, name, null));
+            }
+        }
+        return neighbors;
+    }
+
+    private Variant createVariant(Collection<String> dependencies, Map<String, String> current, String name, @Nullable String value) {
+        Map<String, String> values = new HashMap<>(current);
+        if (value != null) {
+            values.put(name, value);
+        } else {
+            values.remove(name);
+        }
+        return new Variant(this.getKey(dependencies, values::get), Collections.unmodifiableMap(values));
+    }
+
+    /**
+     * @return The number of definition values that have a bit assigned
+     */
+    public synchronized int getSize() {
+        return this.nextBit;
+    }
+
+    /**
+     * Removes all assigned bits. Keys created before this are no longer valid.
+     */
+    public synchronized void clear() {
+        this.values.clear();
+        this.undefined.clear();
+        this.nextBit = 0;
+    }
+
+    /**
+     * A bitmask of the definition values a program was compiled with.
+     */
+    public static final class Key {
+
+        private final long[] bits;
+        private final int hash;
+
+        private Key(long[] bits) {
+            this.bits = bits;
+            this.hash = Arrays.hashCode(bits);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || this.getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return this.hash == key.hash && Arrays.equals(this.bits, key.bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public String toString() {
+            return "Key" + BitSet.valueOf(this.bits);
+        }
+    }
+
+    /**
+     * A combination of definition values a program can be compiled with.
+     *
+     * @param key    The key for the values
+     * @param values The value of each definition. Definitions that are not set are not included
+     */
+    public record Variant(Key key, Map<String, String> values) {
+    }
+}
@@ -0,0 +1,142 @@
+package foundry.veil.impl.client.render.shader.definition;
+
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.Arrays;
+
+/**
+ * A sorted set of byte ranges that need to be uploaded.
+ * <p>Ranges that overlap or are closer than the merge gap are combined, since uploading a few extra bytes is cheaper
+ * than another upload call. If there are more than the maximum number of ranges, the two closest ranges are merged.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class DirtyRangeSet {
+
+    private final long mergeGap;
+    private final int maxRanges;
+    private long[] ranges;
+    private int count;
+
+    /**
+     * Creates a new range set.
+     *
+     * @param mergeGap  The largest number of clean bytes between two ranges that are merged
+     * @param maxRanges The maximum number of separate ranges
+     */
+    public DirtyRangeSet(long mergeGap, int maxRanges) {
+        this.mergeGap = mergeGap;
+        this.maxRanges = Math.max(1, maxRanges);
+        this.ranges = new long[8];
+        this.count = 0;
+    }
+
+    /**
+     * Marks the specified range as dirty.
+     *
+     * @param start The first dirty byte
+     * @param end   The byte after the last dirty byte
+     */
+    public void add(long start, long end) {
+        if (end <= start) {
+            return;
+        }
+
+        // Skip every range that ends before this range
+        int first = 0;
+        while (first < this.count && this.ranges[first * 2 + 1] + this.mergeGap < start) {
+            first++;
+        }
+
+        // Combine every range that touches this range
+        int last = first;
+        while (last < this.count && this.ranges[last * 2] <= end + this.mergeGap) {
+            start = Math.min(start, this.ranges[last * 2]);
+            end = Math.max(end, this.ranges[last * 2 + 1]);
+            last++;
+        }
+
+        int merged = last - first;
+        if (merged == 0) {
+            if (this.count * 2 + 2 > this.ranges.length) {
+                this.ranges = Arrays.copyOf(this.ranges, this.ranges.length * 2);
+            }
+            System.arraycopy(this.ranges, first * 2, this.ranges, first * 2 + 2, (this.count - first) * 2);
+            this.count++;
+        } else if (merged > 1) {
+            System.arraycopy(this.ranges, last * 2, this.ranges, first * 2 + 2, (this.count - last) * 2);
+            this.count -= merged - 1;
+        }
+        this.ranges[first * 2] = start;
+        this.ranges[first * 2 + 1] = end;
+
+        if (this.count > this.maxRanges) {
+            this.mergeClosest();
+        }
+    }
+
+    private void mergeClosest() {
+        int closest = 0;
+        long closestGap = Long.MAX_VALUE;
+        for (int i = 0; i < this.count - 1; i++) {
+            long gap = this.ranges[i * 2 + 2] - this.ranges[i * 2 + 1];
+            if (gap < closestGap) {
+                closest = i;
+                closestGap = gap;
+            }
+        }
+
+        this.ranges[closest * 2 + 1] = this.ranges[closest * 2 + 3];
+        System.arraycopy(this.ranges, closest * 2 + 4, this.ranges, closest * 2 + 2, (this.count - closest - 2) * 2);
+        this.count--;
+    }
+
+    /**
+     * Removes all ranges.
+     */
+    public void clear() {
+        this.count = 0;
+    }
+
+    /**
+     * @return Whether there are no dirty ranges
+     */
+    public boolean isEmpty() {
+        return this.count == 0;
+    }
+
+    /**
+     * @return The number of separate dirty ranges
+     */
+    public int getCount() {
+        return this.count;
+    }
+
+    /**
+     * @param index The index of the range
+     * @return The first dirty byte of the range
+     */
+    public long getStart(int index) {
+        return this.ranges[index * 2];
+    }
+
+    /**
+     * @param index The index of the range
+     * @return The byte after the last dirty byte of the range
+     */
+    public long getEnd(int index) {
+        return this.ranges[index * 2 + 1];
+    }
+
+    /**
+     * @return The total number of bytes in all ranges
+     */
+    public long getDirtyBytes() {
+        long bytes = 0;
+        for (int i = 0; i < this.count; i++) {
+            bytes += this.ranges[i * 2 + 1] - this.ranges[i * 2];
+        }
+        return bytes;
+    }
+}
@@ -6,10 +6,10 @@ import foundry.veil.api.client.render.shader.definition.ShaderBlock;
 import org.apache.commons.lang3.Validate;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
-import org.lwjgl.system.MemoryStack;
 
 import java.nio.ByteBuffer;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import static org.lwjgl.opengl.GL15C.*;
 import static org.lwjgl.opengl.GL30C.glBindBufferBase;
@@ -25,6 +25,8 @@ public class DynamicShaderBlockImpl<T> extends ShaderBlockImpl<T> implements Dyn
 
     protected final BiConsumer<T, ByteBuffer> serializer;
 
+    private final ShaderBlockStaging staging;
+    private final ShaderBlockStaging.Uploader uploader;
     private long size;
     private boolean resized;
 
@@ -39,12 +41,17 @@ public class DynamicShaderBlockImpl<T> extends ShaderBlockImpl<T> implements Dyn
         this.serializer = serializer;
         this.size = size;
         this.resized = false;
+        this.staging = new ShaderBlockStaging(size);
+        this.uploader = (offset, length, address) -> nglBufferSubData(this.binding, offset, length, address);
     }
 
     @Override
     public void setSize(long size) {
         this.size = size;
         this.resized = true;
+        // The value has to be serialized again with the new size
+        this.staging.resize(size);
+        this.dirty = true;
     }
 
     @Override
@@ -58,34 +65,46 @@ public class DynamicShaderBlockImpl<T> extends ShaderBlockImpl<T> implements Dyn
 
         if (this.resized) {
             this.resized = false;
-            this.dirty = true;
             glBindBuffer(this.binding, this.buffer);
             glBufferData(this.binding, this.size, GL_DYNAMIC_DRAW);
             glBindBuffer(this.binding, 0);
+            this.staging.markDirty();
         }
 
         if (this.dirty) {
             this.dirty = false;
+            this.staging.serialize(this.value, this.serializer);
+        }
+
+        // Only the ranges that changed since the last upload are sent
+        if (this.staging.isDirty()) {
             glBindBuffer(this.binding, this.buffer);
-            try (MemoryStack stack = MemoryStack.stackPush()) {
-                if (this.value != null) {
-                    ByteBuffer buffer = stack.malloc((int) this.size);
-                    this.serializer.accept(this.value, buffer);
-                    buffer.rewind();
-                    glBufferSubData(this.binding, 0, buffer);
-                } else {
-                    glBufferSubData(this.binding, 0, stack.calloc((int) this.size));
-                }
-            }
+            this.staging.upload(this.uploader);
             glBindBuffer(this.binding, 0);
         }
 
         glBindBufferBase(this.binding, index, this.buffer);
     }
 
+    @Override
+    public void write(long offset, int size, Consumer<ByteBuffer> writer) {
+        // The value has to be serialized first so it doesn't replace this data when the block is bound
+        if (this.dirty) {
+            this.dirty = false;
+            this.staging.serialize(this.value, this.serializer);
+        }
+        writer.accept(this.staging.write(offset, size));
+    }
+
     @Override
     public void unbind(int index) {
         Validate.inclusiveBetween(0, VeilRenderSystem.maxTargetBindings(this.binding), index);
         glBindBufferBase(this.binding, index, 0);
     }
+
+    @Override
+    public void free() {
+        super.free();
+        this.staging.free();
+    }
 }
@@ -0,0 +1,67 @@
+package foundry.veil.impl.client.render.shader.definition;
+
+import foundry.veil.api.client.render.VeilRenderSystem;
+import foundry.veil.api.client.render.shader.definition.ShaderBlock;
+import foundry.veil.api.client.render.shader.definition.UniformRingBuffer;
+import org.jetbrains.annotations.ApiStatus;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static org.lwjgl.opengl.GL31C.GL_UNIFORM_BUFFER;
+
+/**
+ * Implementation of {@link ShaderBlock} that writes each new value into the {@link UniformRingBuffer}.
+ * <p>Values and partial writes go into the staging copy first, which is copied into a new range of the ring the next time the block is bound.
+ * If the value doesn't fit into the ring, the block falls back to a buffer of its own.</p>
+ *
+ * @param <T> The type of object to serialize
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class RingShaderBlockImpl<T> extends SizedShaderBlockImpl<T> {
+
+    private final Consumer<ByteBuffer> writer;
+    private long offset;
+    private int frame;
+    private boolean changed;
+
+    public RingShaderBlockImpl(int size, BiConsumer<T, ByteBuffer> serializer) {
+        super(GL_UNIFORM_BUFFER, size, serializer);
+        this.writer = buffer -> MemoryUtil.memCopy(this.staging.getData(), buffer);
+        this.offset = -1;
+        this.frame = -1;
+    }
+
+    @Override
+    public void bind(int index) {
+        if (this.dirty) {
+            this.dirty = false;
+            this.staging.serialize(this.value, this.serializer);
+            this.changed = true;
+        }
+
+        UniformRingBuffer ring = VeilRenderSystem.renderer().getUniformRing();
+        if (this.changed || this.offset == -1 || this.frame != ring.getFrame()) {
+            this.offset = ring.write(this.size, this.writer);
+            this.frame = ring.getFrame();
+            if (this.offset == -1) {
+                // The staging copy keeps every range written since the last upload, so the fallback buffer is brought up to date
+                super.bind(index);
+                return;
+            }
+            this.changed = false;
+        }
+
+        ring.bind(index, this.offset, this.size);
+    }
+
+    @Override
+    public void write(long offset, int size, Consumer<ByteBuffer> writer) {
+        super.write(offset, size, writer);
+        // Ranges already in the ring may still be used by draws, so the whole block is copied into a new range instead
+        this.changed = true;
+    }
+}
@@ -0,0 +1,171 @@
+package foundry.veil.impl.client.render.shader.definition;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.Nullable;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.NativeResource;
+
+import java.nio.ByteBuffer;
+import java.util.function.BiConsumer;
+
+/**
+ * An off-heap copy of the contents of a shader block that tracks which bytes have changed since the last upload.
+ * <p>The memory is kept for as long as the block exists, so serializing a value never allocates and blocks of any
+ * size can be written. Only the ranges that were written since the last upload are sent to the GPU.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class ShaderBlockStaging implements NativeResource {
+
+    private static final long MERGE_GAP = 256;
+    private static final int MAX_RANGES = 64;
+
+    private final DirtyRangeSet dirtyRanges;
+    private ByteBuffer data;
+    private int size;
+
+    /**
+     * Creates a new staging buffer.
+     *
+     * @param size The size of the block in bytes
+     */
+    public ShaderBlockStaging(long size) {
+        this.dirtyRanges = new DirtyRangeSet(MERGE_GAP, MAX_RANGES);
+        this.resize(size);
+    }
+
+    /**
+     * Changes the size of the block. The contents are undefined until the next time a value is serialized.
+     *
+     * @param size The new size of the block in bytes
+     */
+    public void resize(long size) {
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid shader block size: " + size);
+        }
+
+        this.size = (int) size;
+        // Zero-sized allocations aren't allowed, so at least one byte is always allocated
+        int capacity = Math.max(1, this.size);
+        if (this.data == null) {
+            this.data = MemoryUtil.memCalloc(capacity);
+        } else if (this.data.capacity() != capacity) {
+            this.data = MemoryUtil.memRealloc(this.data, capacity);
+        }
+        this.markDirty();
+    }
+
+    /**
+     * Writes the entire block.
+     *
+     * @param value      The value to write or <code>null</code> to clear the block
+     * @param serializer The serializer for the value
+     * @param <T>        The type of value
+     */
+    public <T> void serialize(@Nullable T value, BiConsumer<T, ByteBuffer> serializer) {
+        ByteBuffer buffer = this.data.clear().limit(this.size);
+        if (value != null) {
+            serializer.accept(value, buffer);
+        } else {
+            MemoryUtil.memSet(buffer, 0);
+        }
+        this.markDirty();
+    }
+
+    /**
+     * Marks the entire block as dirty without changing the contents.
+     */
+    public void markDirty() {
+        this.dirtyRanges.clear();
+        this.dirtyRanges.add(0, this.size);
+    }
+
+    /**
+     * Retrieves a buffer to write part of the block into and marks that range as dirty.
+     *
+     * @param offset The offset into the block in bytes
+     * @param size   The number of bytes to write
+     * @return A buffer pointing to that range of the block
+     */
+    public ByteBuffer write(long offset, int size) {
+        if (offset < 0 || size < 0 || offset + size > this.size) {
+            throw new IndexOutOfBoundsException("Range " + offset + " to " + (offset + size) + " is outside of shader block with size " + this.size);
+        }
+
+        this.dirtyRanges.add(offset, offset + size);
+        return MemoryUtil.memByteBuffer(MemoryUtil.memAddress(this.data, (int) offset), size);
+    }
+
+    /**
+     * Uploads all dirty ranges.
+     *
+     * @param uploader The uploader to send each range to
+     * @return The number of uploaded bytes
+     */
+    public long upload(Uploader uploader) {
+        long bytes = 0;
+        long address = MemoryUtil.memAddress0(this.data);
+        for (int i = 0; i < this.dirtyRanges.getCount(); i++) {
+            long start = this.dirtyRanges.getStart(i);
+            long length = this.dirtyRanges.getEnd(i) - start;
+            uploader.upload(start, length, address + start);
+            bytes += length;
+        }
+        this.dirtyRanges.clear();
+        return bytes;
+    }
+
+    /**
+     * @return Whether any part of the block changed since the last upload
+     */
+    public boolean isDirty() {
+        return !this.dirtyRanges.isEmpty();
+    }
+
+    /**
+     * @return The ranges that changed since the last upload
+     */
+    public DirtyRangeSet getDirtyRanges() {
+        return this.dirtyRanges;
+    }
+
+    /**
+     * @return The entire contents of the block
+     */
+    public ByteBuffer getData() {
+        return this.data.clear().limit(this.size);
+    }
+
+    /**
+     * @return The size of the block in bytes
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    @Override
+    public void free() {
+        if (this.data != null) {
+            MemoryUtil.memFree(this.data);
+            this.data = null;
+        }
+        this.dirtyRanges.clear();
+    }
+
+    /**
+     * Sends a range of memory to a buffer.
+     */
+    @FunctionalInterface
+    public interface Uploader {
+
+        /**
+         * Uploads a single range.
+         *
+         * @param offset  The offset into the buffer in bytes
+         * @param size    The number of bytes to upload
+         * @param address The address of the first byte to upload
+         */
+        void upload(long offset, long size, long address);
+    }
+}
@@ -4,10 +4,10 @@ import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.shader.definition.ShaderBlock;
 import org.apache.commons.lang3.Validate;
 import org.jetbrains.annotations.ApiStatus;
-import org.lwjgl.system.MemoryStack;
 
 import java.nio.ByteBuffer;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import static org.lwjgl.opengl.GL15C.*;
 import static org.lwjgl.opengl.GL30C.glBindBufferBase;
@@ -22,12 +22,16 @@ import static org.lwjgl.opengl.GL30C.glBindBufferBase;
 public class SizedShaderBlockImpl<T> extends ShaderBlockImpl<T> {
 
     protected final BiConsumer<T, ByteBuffer> serializer;
-    private final int size;
+    protected final int size;
+    protected final ShaderBlockStaging staging;
+    private final ShaderBlockStaging.Uploader uploader;
 
     public SizedShaderBlockImpl(int binding, int size, BiConsumer<T, ByteBuffer> serializer) {
         super(binding);
         this.serializer = serializer;
         this.size = size;
+        this.staging = new ShaderBlockStaging(size);
+        this.uploader = (offset, length, address) -> nglBufferSubData(this.binding, offset, length, address);
     }
 
     @Override
@@ -39,31 +43,43 @@ public class SizedShaderBlockImpl<T> extends ShaderBlockImpl<T> {
             glBindBuffer(this.binding, this.buffer);
             glBufferData(this.binding, this.size, GL_DYNAMIC_DRAW);
             glBindBuffer(this.binding, 0);
-            this.dirty = true;
+            this.staging.markDirty();
         }
 
         if (this.dirty) {
             this.dirty = false;
+            this.staging.serialize(this.value, this.serializer);
+        }
+
+        // Only the ranges that changed since the last upload are sent
+        if (this.staging.isDirty()) {
             glBindBuffer(this.binding, this.buffer);
-            try (MemoryStack stack = MemoryStack.stackPush()) {
-                if (this.value != null) {
-                    ByteBuffer buffer = stack.malloc(this.size);
-                    this.serializer.accept(this.value, buffer);
-                    buffer.rewind();
-                    glBufferSubData(this.binding, 0, buffer);
-                } else {
-                    glBufferSubData(this.binding, 0, stack.calloc(this.size));
-                }
-            }
+            this.staging.upload(this.uploader);
             glBindBuffer(this.binding, 0);
         }
 
         glBindBufferBase(this.binding, index, this.buffer);
     }
 
+    @Override
+    public void write(long offset, int size, Consumer<ByteBuffer> writer) {
+        // The value has to be serialized first so it doesn't replace this data when the block is bound
+        if (this.dirty) {
+            this.dirty = false;
+            this.staging.serialize(this.value, this.serializer);
+        }
+        writer.accept(this.staging.write(offset, size));
+    }
+
     @Override
     public void unbind(int index) {
         Validate.inclusiveBetween(0, VeilRenderSystem.maxTargetBindings(this.binding), index);
         glBindBufferBase(this.binding, index, 0);
     }
+
+    @Override
+    public void free() {
+        super.free();
+        this.staging.free();
+    }
 }
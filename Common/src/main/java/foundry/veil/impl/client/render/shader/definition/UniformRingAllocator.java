@@ -0,0 +1,132 @@
+package foundry.veil.impl.client.render.shader.definition;
+
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import org.jetbrains.annotations.ApiStatus;
+
+/**
+ * Sub-allocates aligned ranges out of a fixed-size ring for data that only lives for a few frames.
+ * <p>Positions only ever increase, so the physical offset of a position is the position modulo the capacity.
+ * Allocations are never split across the end of the ring, instead the rest of the ring is skipped.
+ * Memory is released a whole frame at a time once the GPU is done reading it.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class UniformRingAllocator {
+
+    private final long capacity;
+    private final long alignment;
+    private final LongArrayFIFOQueue frames;
+    private long head;
+    private long tail;
+    private long frameStart;
+
+    /**
+     * Creates a new allocator.
+     *
+     * @param capacity  The minimum size of the ring in bytes. This is rounded up to a multiple of the alignment
+     * @param alignment The alignment of every allocation in bytes
+     */
+    public UniformRingAllocator(long capacity, int alignment) {
+        if (alignment <= 0) {
+            throw new IllegalArgumentException("Invalid alignment: " + alignment);
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        this.alignment = alignment;
+        this.capacity = this.align(capacity);
+        this.frames = new LongArrayFIFOQueue();
+        this.head = 0;
+        this.tail = 0;
+        this.frameStart = 0;
+    }
+
+    private long align(long position) {
+        return (position + this.alignment - 1) / this.alignment * this.alignment;
+    }
+
+    /**
+     * Allocates a range in the current frame.
+     *
+     * @param size The number of bytes to allocate
+     * @return The offset into the ring or <code>-1</code> if there is not enough free space
+     */
+    public long allocate(long size) {
+        if (size <= 0 || size > this.capacity) {
+            return -1;
+        }
+
+        long start = this.align(this.head);
+        long offset = start % this.capacity;
+        if (offset + size > this.capacity) {
+            // Skip the end of the ring so the allocation is contiguous
+            start += this.capacity - offset;
+            offset = 0;
+        }
+        if (start + size - this.tail > this.capacity) {
+            return -1;
+        }
+
+        this.head = start + size;
+        return offset;
+    }
+
+    /**
+     * Finishes the current frame. All memory allocated since the last call is released together.
+     *
+     * @return Whether anything was allocated during the frame
+     */
+    public boolean endFrame() {
+        if (this.head == this.frameStart) {
+            return false;
+        }
+
+        this.frames.enqueue(this.head);
+        this.frameStart = this.head;
+        return true;
+    }
+
+    /**
+     * Releases all memory allocated in the oldest frame.
+     *
+     * @return Whether there was a frame to release
+     */
+    public boolean releaseFrame() {
+        if (this.frames.isEmpty()) {
+            return false;
+        }
+
+        this.tail = this.frames.dequeueLong();
+        return true;
+    }
+
+    /**
+     * @return The size of the ring in bytes
+     */
+    public long getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return The alignment of every allocation in bytes
+     */
+    public long getAlignment() {
+        return this.alignment;
+    }
+
+    /**
+     * @return The number of bytes that can't be allocated, including padding
+     */
+    public long getUsed() {
+        return this.head - this.tail;
+    }
+
+    /**
+     * @return The number of finished frames that haven't been released yet
+     */
+    public int getFramesInFlight() {
+        return this.frames.size();
+    }
+}
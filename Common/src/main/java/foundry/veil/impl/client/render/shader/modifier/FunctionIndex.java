@@ -0,0 +1,98 @@
+package foundry.veil.impl.client.render.shader.modifier;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+/**
+ * Every position in a shader source that could be the start of a function declaration.
+ * <p>The source is scanned once for <code>type name(</code> and function patterns are only tested at those positions,
+ * which gives the same matches as searching the entire source with {@link Matcher#find()}.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class FunctionIndex {
+
+    private final String source;
+    private final Map<String, IntList> candidates;
+
+    public FunctionIndex(String source) {
+        this.source = source;
+        this.candidates = new HashMap<>();
+
+        int length = source.length();
+        int typeStart = -1;
+        int pointer = 0;
+        while (pointer < length) {
+            char c = source.charAt(pointer);
+            if (!isWord(c)) {
+                // Only whitespace may separate the type from the name
+                if (!isWhitespace(c)) {
+                    typeStart = -1;
+                }
+                pointer++;
+                continue;
+            }
+
+            int start = pointer;
+            while (pointer < length && isWord(source.charAt(pointer))) {
+                pointer++;
+            }
+
+            // Function patterns always start with "\w+\s+name\s*\("
+            if (typeStart != -1) {
+                int next = pointer;
+                while (next < length && isWhitespace(source.charAt(next))) {
+                    next++;
+                }
+                if (next < length && source.charAt(next) == '(') {
+                    this.candidates.computeIfAbsent(source.substring(start, pointer), unused -> new IntArrayList()).add(typeStart);
+                }
+            }
+            typeStart = start;
+        }
+    }
+
+    /**
+     * Finds the first match of the specified function pattern.
+     *
+     * @param matcher The matcher for the function pattern
+     * @param name    The name of the function
+     * @param from    The position to start searching from
+     * @return Whether a match was found. The match is available from the matcher
+     */
+    public boolean find(Matcher matcher, String name, int from) {
+        IntList positions = this.candidates.get(name);
+        if (positions == null) {
+            return false;
+        }
+
+        int length = this.source.length();
+        for (int i = 0; i < positions.size(); i++) {
+            int start = positions.getInt(i);
+            if (start < from) {
+                continue;
+            }
+
+            matcher.region(start, length);
+            if (matcher.lookingAt()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // These match the default (non-unicode) regex character classes
+    private static boolean isWord(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
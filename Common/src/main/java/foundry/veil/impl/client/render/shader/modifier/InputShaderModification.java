@@ -2,7 +2,6 @@ package foundry.veil.impl.client.render.shader.modifier;
 
 import org.jetbrains.annotations.ApiStatus;
 
-import java.io.IOException;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 
@@ -18,18 +17,16 @@ public class InputShaderModification implements ShaderModification {
     }
 
     @Override
-    public String inject(String source, int flags) throws IOException {
-        StringBuilder result = new StringBuilder(source);
-
+    public ShaderPatch createPatch(String source, int flags) {
         int pointer = 0;
-        Matcher matcher = IN_PATTERN.matcher(result);
+        Matcher matcher = IN_PATTERN.matcher(source);
         while (matcher.find()) {
             pointer = matcher.end();
         }
 
-        String code = this.input.get() + '\n';
-        result.insert(pointer, code);
-        return result.toString();
+        ShaderPatch patch = new ShaderPatch();
+        patch.insert(patch.cursor(pointer), this.input.get() + '\n', false);
+        return patch;
     }
 
     @Override
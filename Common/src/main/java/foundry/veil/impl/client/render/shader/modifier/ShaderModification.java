@@ -37,7 +37,19 @@ public interface ShaderModification {
      * @return The injected shader source
      * @throws IOException If an error occurs with the format or applying the modifications
      */
-    String inject(String source, int flags) throws IOException;
+    default String inject(String source, int flags) throws IOException {
+        return this.createPatch(source, flags).apply(source);
+    }
+
+    /**
+     * Finds every change this modification makes to the specified shader source without applying them.
+     *
+     * @param source The source to inject into
+     * @param flags  The flags to use when injecting
+     * @return The changes to apply to the source
+     * @throws IOException If an error occurs with the format or applying the modifications
+     */
+    ShaderPatch createPatch(String source, int flags) throws IOException;
 
     /**
      * @return The priority of this modification. A higher priority will be applied before a lower priority modification
@@ -0,0 +1,229 @@
+package foundry.veil.impl.client.render.shader.modifier;
+
+import foundry.veil.impl.client.render.shader.ShaderCompileProfiler;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores the patches created by shader modifications so unchanged shaders can be modified without searching them again.
+ * <p>Patches are keyed by a SHA-256 hash of the modifier, the injection flags, and the shader source the patch was
+ * created for. Only the patches used since the last save are written to disk, so patches for shaders or modifiers
+ * that no longer exist are dropped automatically.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class ShaderModificationCache {
+
+    private static final int MAGIC = 0x5653504D; // VSPM
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private volatile Map<String, ShaderPatch> patches;
+    private volatile Map<String, ShaderPatch> usedPatches;
+    private volatile boolean loaded;
+
+    private final AtomicInteger hits;
+    private final AtomicInteger misses;
+
+    /**
+     * Creates a new modification cache.
+     *
+     * @param file The file to store patches in
+     */
+    public ShaderModificationCache(Path file) {
+        this.file = file;
+        this.patches = new ConcurrentHashMap<>();
+        this.usedPatches = new ConcurrentHashMap<>();
+        this.hits = new AtomicInteger();
+        this.misses = new AtomicInteger();
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    /**
+     * Creates a hash that identifies a modifier file.
+     *
+     * @param source The source of the modifier file
+     * @param vertex Whether the modifier was parsed for a vertex shader
+     * @return A hex hash of the modifier
+     */
+    public static String hash(String source, boolean vertex) {
+        MessageDigest digest = createDigest();
+        digest.update((byte) (vertex ? 1 : 0));
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String getKey(String modificationHash, int flags, String source) {
+        MessageDigest digest = createDigest();
+        digest.update(modificationHash.getBytes(StandardCharsets.UTF_8));
+        digest.update(new byte[]{(byte) (flags >> 24), (byte) (flags >> 16), (byte) (flags >> 8), (byte) flags});
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private synchronized void load() {
+        if (this.loaded) {
+            return;
+        }
+
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+            if (stream.readInt() != MAGIC || stream.readInt() != VERSION) {
+                return;
+            }
+
+            int count = stream.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = stream.readUTF();
+                this.patches.put(key, ShaderPatch.read(stream));
+            }
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            // A corrupted cache only means every shader is modified from scratch again
+            this.patches.clear();
+        } finally {
+            this.loaded = true;
+        }
+    }
+
+    /**
+     * Injects the specified modification into the shader source, reusing the stored patch if the modification
+     * was already applied to the exact same source.
+     *
+     * @param modification     The modification to apply
+     * @param modificationHash The hash of the modification created with {@link #hash(String, boolean)}
+     * @param source           The source to inject into
+     * @param flags            The flags to use when injecting
+     * @return The injected shader source
+     * @throws IOException If an error occurs with the format or applying the modifications
+     */
+    public String inject(ShaderModification modification, String modificationHash, String source, int flags) throws IOException {
+        if (!this.loaded) {
+            this.load();
+        }
+
+        String key = getKey(modificationHash, flags, source);
+        // Saving replaces the maps, so the same ones are used for the whole injection
+        Map<String, ShaderPatch> patches = this.patches;
+        Map<String, ShaderPatch> usedPatches = this.usedPatches;
+        ShaderPatch patch = usedPatches.get(key);
+        if (patch == null) {
+            patch = patches.get(key);
+        }
+
+        if (patch != null) {
+            try {
+                String result = patch.apply(source);
+                usedPatches.put(key, patch);
+                this.hits.incrementAndGet();
+                ShaderCompileProfiler.get().mark(ShaderCompileProfiler.EventType.PATCH_CACHE_HIT, modificationHash);
+                return result;
+            } catch (IndexOutOfBoundsException e) {
+                // The patch doesn't match the source, so create it again
+                patches.remove(key);
+                usedPatches.remove(key);
+            }
+        }
+
+        patch = modification.createPatch(source, flags);
+        usedPatches.put(key, patch);
+        this.misses.incrementAndGet();
+        ShaderCompileProfiler.get().mark(ShaderCompileProfiler.EventType.PATCH_CACHE_MISS, modificationHash);
+        return patch.apply(source);
+    }
+
+    /**
+     * Writes all patches used since the last save to disk. Patches that were not used are removed.
+     *
+     * @throws IOException If an error occurs writing the cache
+     */
+    public synchronized void save() throws IOException {
+        if (!this.loaded) {
+            return;
+        }
+
+        Map<String, ShaderPatch> usedPatches = this.usedPatches;
+        if (usedPatches.isEmpty()) {
+            return;
+        }
+
+        // Shaders may still be modified while saving, so new patches are recorded in a fresh map instead of being cleared afterward
+        this.usedPatches = new ConcurrentHashMap<>();
+        Map<String, ShaderPatch> used = Map.copyOf(usedPatches);
+
+        Files.createDirectories(this.file.getParent());
+        Path temp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try (DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            stream.writeInt(MAGIC);
+            stream.writeInt(VERSION);
+            stream.writeInt(used.size());
+            for (Map.Entry<String, ShaderPatch> entry : used.entrySet()) {
+                stream.writeUTF(entry.getKey());
+                entry.getValue().write(stream);
+            }
+        }
+        Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING);
+
+        this.patches = new ConcurrentHashMap<>(usedPatches);
+        // Patches added to the old map by injections that started before the swap are saved next time
+        usedPatches.forEach((key, patch) -> {
+            if (!used.containsKey(key)) {
+                this.usedPatches.putIfAbsent(key, patch);
+            }
+        });
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    public void resetStats() {
+        this.hits.set(0);
+        this.misses.set(0);
+    }
+
+    /**
+     * @return The number of modifications applied from a stored patch since the last reset
+     */
+    public int getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return The number of modifications that had to search the shader source since the last reset
+     */
+    public int getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return The number of patches in memory
+     */
+    public int getSize() {
+        int size = this.patches.size();
+        for (String key : this.usedPatches.keySet()) {
+            if (!this.patches.containsKey(key)) {
+                size++;
+            }
+        }
+        return size;
+    }
+}
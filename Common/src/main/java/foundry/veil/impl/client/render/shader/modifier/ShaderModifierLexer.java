@@ -1,59 +1,220 @@
 package foundry.veil.impl.client.render.shader.modifier;
 
-import com.mojang.brigadier.StringReader;
 import org.jetbrains.annotations.ApiStatus;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
+ * Splits shader modifier files into tokens in a single pass.
+ * <p>Token types are tried in declaration order and the first type that matches at the cursor wins,
+ * exactly as if each {@link TokenType#getPattern() pattern} was tested at the current position.</p>
+ *
  * @author Ocelot
  */
 @ApiStatus.Internal
 public final class ShaderModifierLexer {
 
-    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\t");
+    private static final String[] KEYWORDS = {
+            "//", "#version", "#priority", "#include", "#replace",
+            "GET_ATTRIBUTE", "OUTPUT", "UNIFORM", "FUNCTION", "HEAD", "TAIL"
+    };
+    private static final TokenType[] KEYWORD_TYPES = {
+            TokenType.COMMENT, TokenType.VERSION, TokenType.PRIORITY, TokenType.INCLUDE, TokenType.REPLACE,
+            TokenType.GET_ATTRIBUTE, TokenType.OUTPUT, TokenType.UNIFORM, TokenType.FUNCTION, TokenType.HEAD, TokenType.TAIL
+    };
+    private static final String[] DEFINITION_TYPES = {
+            "int", "ivec2", "ivec3", "ivec4", "uint", "uvec2", "uvec3", "uvec4",
+            "float", "vec2", "vec3", "vec4", "double", "dvec2", "dvec3", "dvec4",
+            "mat2", "mat2x3", "mat2x4", "mat3", "mat3x2", "mat3x4", "mat4", "mat4x2", "mat4x3"
+    };
 
+    /**
+     * Splits the specified modifier source into tokens. Tabs are ignored completely,
+     * so token offsets point into the input with all tabs removed.
+     *
+     * @param input The modifier source
+     * @return All tokens in the source
+     * @throws IllegalStateException If a character does not start any valid token
+     */
     public static Token[] createTokens(String input) {
-        StringReader reader = new StringReader(WHITESPACE_PATTERN.matcher(input).replaceAll(""));
-        List<Token> tokens = new ArrayList<>();
+        String source = input.indexOf('\t') != -1 ? input.replace("\t", "") : input;
+        int length = source.length();
+        List<Token> tokens = new ArrayList<>(length / 4);
 
-        while (reader.canRead()) {
-            while (reader.canRead() && reader.peek() != '\n' && Character.isWhitespace(reader.peek())) {
-                reader.skip();
+        int cursor = 0;
+        while (cursor < length) {
+            while (cursor < length && source.charAt(cursor) != '\n' && Character.isWhitespace(source.charAt(cursor))) {
+                cursor++;
+            }
+            if (cursor >= length) {
+                break;
             }
 
-            Token token = getToken(reader);
-            if (token != null) {
-                tokens.add(token);
-                continue;
+            Token token = getToken(source, cursor);
+            if (token == null) {
+                throw new IllegalStateException("Unknown Token");
             }
 
-            throw new IllegalStateException("Unknown Token");
+            tokens.add(token);
+            cursor += token.value.length();
         }
 
         return tokens.toArray(Token[]::new);
     }
 
-    private static Token getToken(StringReader reader) {
-        String word = reader.getString().substring(reader.getCursor());
-        for (TokenType type : TokenType.values()) {
-            Matcher matcher = type.pattern.matcher(word);
-            if (matcher.find() && matcher.start() == 0) {
-                for (int i = 0; i < matcher.end(); i++) {
-                    reader.skip();
+    private static Token getToken(String source, int start) {
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            if (source.startsWith(KEYWORDS[i], start)) {
+                return new Token(KEYWORD_TYPES[i], KEYWORDS[i], start);
+            }
+        }
+
+        int end = matchDefinition(source, start);
+        if (end != -1) {
+            return token(TokenType.DEFINITION, source, start, end);
+        }
+
+        char c = source.charAt(start);
+        int length = source.length();
+
+        int digits = c == '-' ? start + 1 : start;
+        end = digits;
+        while (end < length && isDigit(source.charAt(end))) {
+            end++;
+        }
+        if (end > digits) {
+            return token(TokenType.NUMERAL, source, start, end);
+        }
+
+        end = skipWord(source, start);
+        if (end > start) {
+            return token(TokenType.ALPHANUMERIC, source, start, end);
+        }
+
+        switch (c) {
+            case ':' -> {
+                return new Token(TokenType.COLON, ":", start);
+            }
+            case '-', '.' -> {
+                // Anything starting with a word character is already alphanumeric, so only these can start a namespace
+                end = start;
+                while (end < length && isNamespace(source.charAt(end))) {
+                    end++;
                 }
-                return new Token(type, word.substring(0, matcher.end()));
+                return token(TokenType.NAMESPACE, source, start, end);
+            }
+            case '/' -> {
+                end = start;
+                while (end < length && (isNamespace(source.charAt(end)) || source.charAt(end) == '/')) {
+                    end++;
+                }
+                return token(TokenType.PATH, source, start, end);
+            }
+            case '[' -> {
+                return new Token(TokenType.LEFT_BRACKET, "[", start);
+            }
+            case ']' -> {
+                return new Token(TokenType.RIGHT_BRACKET, "]", start);
+            }
+            case '(' -> {
+                return new Token(TokenType.LEFT_PARENTHESIS, "(", start);
+            }
+            case ')' -> {
+                return new Token(TokenType.RIGHT_PARENTHESIS, ")", start);
+            }
+            case '\n' -> {
+                return new Token(TokenType.NEWLINE, "\n", start);
             }
         }
 
-        return null;
+        end = start;
+        while (end < length && !isLineTerminator(source.charAt(end))) {
+            end++;
+        }
+        return end > start ? token(TokenType.CODE, source, start, end) : null;
+    }
+
+    private static Token token(TokenType type, String source, int start, int end) {
+        return new Token(type, source.substring(start, end), start);
+    }
+
+    /**
+     * Matches <code>type\s+name\s*;</code> for any of the supported definition types.
+     *
+     * @return The end of the definition or <code>-1</code> if there is no definition at the start position
+     */
+    private static int matchDefinition(String source, int start) {
+        int length = source.length();
+        for (String type : DEFINITION_TYPES) {
+            if (!source.startsWith(type, start)) {
+                continue;
+            }
+
+            int pointer = start + type.length();
+            int whitespace = skipWhitespace(source, pointer);
+            if (whitespace == pointer) {
+                continue;
+            }
+
+            int name = skipWord(source, whitespace);
+            if (name == whitespace) {
+                continue;
+            }
+
+            pointer = skipWhitespace(source, name);
+            if (pointer < length && source.charAt(pointer) == ';') {
+                return pointer + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(String source, int pointer) {
+        while (pointer < source.length() && isWhitespace(source.charAt(pointer))) {
+            pointer++;
+        }
+        return pointer;
+    }
+
+    private static int skipWord(String source, int pointer) {
+        while (pointer < source.length() && isWord(source.charAt(pointer))) {
+            pointer++;
+        }
+        return pointer;
+    }
+
+    // These match the default (non-unicode) regex character classes
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWord(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isNamespace(char c) {
+        return (c >= 'a' && c <= 'z') || isDigit(c) || c == '_' || c == '-' || c == '.';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
     }
 
-    public record Token(TokenType type, String value) {
+    /**
+     * A single token in a modifier file.
+     *
+     * @param type   The type of token
+     * @param value  The text of the token
+     * @param offset The position of the first character of the token in the source
+     */
+    public record Token(TokenType type, String value, int offset) {
         public String lowercaseValue() {
             return this.value.toLowerCase(Locale.ROOT);
         }
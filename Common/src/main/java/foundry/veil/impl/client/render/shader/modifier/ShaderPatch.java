@@ -0,0 +1,225 @@
+package foundry.veil.impl.client.render.shader.modifier;
+
+import it.unimi.dsi.fastutil.ints.*;
+import org.jetbrains.annotations.ApiStatus;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of text insertions and replacements in a source string. All offsets refer to the original source,
+ * so inserting never invalidates positions found earlier and the result is built in a single copy.
+ * <p>Patches only depend on the source they were created for, so they can be stored and applied again
+ * to the same source without searching it. Changes that need to search the result of another change
+ * are stored in a {@link #then() following patch}.</p>
+ *
+ * @author Ocelot
+ */
+@ApiStatus.Internal
+public class ShaderPatch {
+
+    private final Int2ObjectSortedMap<List<String>> inserts;
+    private final Int2IntMap removals;
+    private int insertedLength;
+    private ShaderPatch next;
+
+    public ShaderPatch() {
+        this.inserts = new Int2ObjectAVLTreeMap<>();
+        this.removals = new Int2IntOpenHashMap();
+    }
+
+    /**
+     * Creates a new cursor at the specified offset in the original source. The cursor is placed before
+     * any text already inserted at that offset.
+     *
+     * @param offset The offset in the original source
+     * @return A new cursor
+     */
+    public Cursor cursor(int offset) {
+        return new Cursor(offset);
+    }
+
+    /**
+     * Inserts text at the specified cursor. This behaves exactly like {@link StringBuilder#insert(int, String)}.
+     *
+     * @param cursor  The position to insert at
+     * @param text    The text to insert
+     * @param advance Whether to move the cursor after the inserted text
+     */
+    public void insert(Cursor cursor, String text, boolean advance) {
+        this.inserts.computeIfAbsent(cursor.offset, unused -> new ArrayList<>()).add(cursor.index, text);
+        this.insertedLength += text.length();
+        if (advance) {
+            cursor.index++;
+        }
+    }
+
+    /**
+     * Replaces a range of the original source. Text inserted at the end of the range is placed after the replacement.
+     *
+     * @param start The first character to remove
+     * @param end   The character after the last character to remove
+     * @param text  The text to insert in place of the range
+     * @throws IllegalArgumentException If the range overlaps another replaced range
+     */
+    public void replace(int start, int end, String text) {
+        if (start > end) {
+            throw new IllegalArgumentException("Invalid range: " + start + " to " + end);
+        }
+        for (Int2IntMap.Entry entry : this.removals.int2IntEntrySet()) {
+            if (start < entry.getIntValue() && entry.getIntKey() < end) {
+                throw new IllegalArgumentException("Range " + start + " to " + end + " overlaps " + entry.getIntKey() + " to " + entry.getIntValue());
+            }
+        }
+
+        this.inserts.computeIfAbsent(start, unused -> new ArrayList<>()).add(text);
+        this.removals.put(start, end);
+        this.insertedLength += text.length();
+    }
+
+    /**
+     * Creates a patch that is applied to the result of this patch. Offsets in the new patch refer to the modified source.
+     *
+     * @return The new patch
+     * @throws IllegalStateException If this patch already has a following patch
+     */
+    public ShaderPatch then() {
+        if (this.next != null) {
+            throw new IllegalStateException("Patch already has a following patch");
+        }
+        this.next = new ShaderPatch();
+        return this.next;
+    }
+
+    /**
+     * @return Whether there is nothing to insert or replace
+     */
+    public boolean isEmpty() {
+        return this.inserts.isEmpty() && (this.next == null || this.next.isEmpty());
+    }
+
+    /**
+     * Applies all inserts and replacements to the specified source.
+     *
+     * @param source The source the offsets were found in
+     * @return The modified source
+     */
+    public String apply(String source) {
+        String result = this.applyInserts(source);
+        return this.next != null ? this.next.apply(result) : result;
+    }
+
+    private String applyInserts(String source) {
+        if (this.inserts.isEmpty()) {
+            return source;
+        }
+
+        StringBuilder builder = new StringBuilder(source.length() + this.insertedLength);
+        int last = 0;
+        for (Int2ObjectMap.Entry<List<String>> entry : this.inserts.int2ObjectEntrySet()) {
+            int offset = entry.getIntKey();
+            builder.append(source, last, offset);
+            for (String text : entry.getValue()) {
+                builder.append(text);
+            }
+            last = this.removals.getOrDefault(offset, offset);
+        }
+        builder.append(source, last, source.length());
+        return builder.toString();
+    }
+
+    /**
+     * Writes this patch to the specified output.
+     *
+     * @param output The output to write to
+     * @throws IOException If an error occurs writing the patch
+     */
+    public void write(DataOutput output) throws IOException {
+        output.writeInt(this.inserts.size());
+        for (Int2ObjectMap.Entry<List<String>> entry : this.inserts.int2ObjectEntrySet()) {
+            int offset = entry.getIntKey();
+            output.writeInt(offset);
+            output.writeInt(this.removals.getOrDefault(offset, -1));
+
+            List<String> texts = entry.getValue();
+            output.writeInt(texts.size());
+            for (String text : texts) {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+        }
+
+        output.writeBoolean(this.next != null);
+        if (this.next != null) {
+            this.next.write(output);
+        }
+    }
+
+    /**
+     * Reads a patch written with {@link #write(DataOutput)}.
+     *
+     * @param input The input to read from
+     * @return The patch read
+     * @throws IOException If an error occurs reading the patch or the data is invalid
+     */
+    public static ShaderPatch read(DataInput input) throws IOException {
+        ShaderPatch patch = new ShaderPatch();
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+            int offset = input.readInt();
+            int removeEnd = input.readInt();
+            int textCount = input.readInt();
+            if (offset < 0 || textCount < 0 || (removeEnd != -1 && removeEnd < offset)) {
+                throw new IOException("Invalid patch entry at " + offset);
+            }
+
+            List<String> texts = new ArrayList<>(textCount);
+            for (int j = 0; j < textCount; j++) {
+                int length = input.readInt();
+                if (length < 0) {
+                    throw new IOException("Invalid text length: " + length);
+                }
+                byte[] bytes = new byte[length];
+                input.readFully(bytes);
+                String text = new String(bytes, StandardCharsets.UTF_8);
+                texts.add(text);
+                patch.insertedLength += text.length();
+            }
+
+            patch.inserts.put(offset, texts);
+            if (removeEnd != -1) {
+                patch.removals.put(offset, removeEnd);
+            }
+        }
+
+        if (input.readBoolean()) {
+            patch.next = read(input);
+        }
+        return patch;
+    }
+
+    /**
+     * A position in the original source and the inserted text at that position.
+     */
+    public static class Cursor {
+
+        private final int offset;
+        private int index;
+
+        private Cursor(int offset) {
+            this.offset = offset;
+        }
+
+        /**
+         * @return The offset in the original source
+         */
+        public int getOffset() {
+            return this.offset;
+        }
+    }
+}
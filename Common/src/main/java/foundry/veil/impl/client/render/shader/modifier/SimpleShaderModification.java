@@ -6,6 +6,9 @@ import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 
 @ApiStatus.Internal
@@ -17,6 +20,7 @@ public class SimpleShaderModification implements ShaderModification {
     private final String output;
     private final String uniform;
     private final Function[] functions;
+    private final ThreadLocal<Map<String, String>> placeholders;
 
     public SimpleShaderModification(int version, int priority, ResourceLocation[] includes, @Nullable String output, @Nullable String uniform, Function[] functions) {
         this.version = version;
@@ -25,10 +29,14 @@ public class SimpleShaderModification implements ShaderModification {
         this.output = output;
         this.uniform = uniform;
         this.functions = functions;
+        this.placeholders = ThreadLocal.withInitial(Collections::emptyMap);
     }
 
     @Override
-    public String inject(String source, int flags) throws IOException {
+    public ShaderPatch createPatch(String source, int flags) throws IOException {
+        ShaderPatch result = new ShaderPatch();
+        ShaderPatch patch = result;
+
         int pointer;
         if ((flags & APPLY_VERSION) > 0) {
             Matcher versionMatcher = VERSION_PATTERN.matcher(source);
@@ -43,7 +51,14 @@ public class SimpleShaderModification implements ShaderModification {
             try {
                 int version = Integer.parseInt(versionMatcher.group(1));
                 if (version < this.version) {
-                    source = versionMatcher.replaceAll("#version " + this.version + "\n\n");
+                    String replacement = "#version " + this.version + "\n\n";
+                    do {
+                        result.replace(versionMatcher.start(), versionMatcher.end(), replacement);
+                    } while (versionMatcher.find());
+
+                    // Everything else is found in the source with the new version
+                    source = result.apply(source);
+                    patch = result.then();
 
                     versionMatcher.reset(source);
                     if (!versionMatcher.find()) {
@@ -59,98 +74,111 @@ public class SimpleShaderModification implements ShaderModification {
             pointer = 0;
         }
 
-        StringBuilder result = new StringBuilder(source);
+        // Every position is found in the unmodified source, then all code is inserted in one pass
+        ShaderPatch.Cursor cursor = patch.cursor(pointer);
         for (ResourceLocation include : this.includes) {
-            String code = "#include " + include + "\n";
-            result.insert(pointer, code);
-            pointer += code.length();
+            patch.insert(cursor, "#include " + include + "\n", true);
         }
 
-        this.processBody(pointer, result);
-
-        return result.toString();
+        // Shaders are modified on several threads at once, so placeholders are only ever shared with the same thread
+        Map<String, String> placeholders = new HashMap<>();
+        this.processBody(cursor, source, patch, placeholders);
+        this.placeholders.set(placeholders);
+        return result;
     }
 
-    protected void processBody(int pointer, StringBuilder builder) throws IOException {
+    protected void processBody(ShaderPatch.Cursor pointer, String source, ShaderPatch patch, Map<String, String> placeholders) throws IOException {
         if (!StringUtil.isNullOrEmpty(this.uniform)) {
-            Matcher matcher = UNIFORM_PATTERN.matcher(builder);
-            while (matcher.find()) {
-                pointer = matcher.end();
-            }
-
-            String code = this.fillPlaceholders(this.uniform) + '\n';
-            builder.insert(pointer, code);
-            pointer += code.length();
+            pointer = lastMatch(UNIFORM_PATTERN.matcher(source), patch, pointer);
+            patch.insert(pointer, fillPlaceholders(this.uniform, placeholders) + '\n', true);
         }
 
         if (!StringUtil.isNullOrEmpty(this.output)) {
-            Matcher matcher = OUT_PATTERN.matcher(builder);
-            while (matcher.find()) {
-                pointer = matcher.end();
-            }
-
-            String code = this.fillPlaceholders(this.output) + '\n';
-            builder.insert(pointer, code);
+            pointer = lastMatch(OUT_PATTERN.matcher(source), patch, pointer);
+            patch.insert(pointer, fillPlaceholders(this.output, placeholders) + '\n', true);
         }
 
+        FunctionIndex index = this.functions.length > 0 ? new FunctionIndex(source) : null;
         for (Function function : this.functions) {
-            Matcher matcher = function.pattern().matcher(builder);
-            if (!matcher.find()) {
+            Matcher matcher = function.pattern().matcher(source);
+            if (!index.find(matcher, function.name(), 0)) {
                 throw new IOException("Unknown function: " + function.name());
             }
 
             int head = matcher.end();
-            pointer = head;
+            int position = head;
             if (!function.head()) {
                 int parenthesis = 1;
-                while (pointer < builder.length()) {
-                    if (builder.charAt(pointer) == '{') {
+                while (position < source.length()) {
+                    if (source.charAt(position) == '{') {
                         parenthesis++;
                     }
-                    if (builder.charAt(pointer) == '}') {
+                    if (source.charAt(position) == '}') {
                         parenthesis--;
                     }
                     if (parenthesis == 0) {
-                        pointer--;
+                        position--;
                         break;
                     }
-                    pointer++;
+                    position++;
                 }
 
-                Matcher returnMatcher = RETURN_PATTERN.matcher(builder.substring(head, pointer));
+                Matcher returnMatcher = RETURN_PATTERN.matcher(source).region(head, position);
                 while (returnMatcher.find()) {
-                    pointer = returnMatcher.start() - 1;
+                    position = returnMatcher.start() - 1;
                 }
             }
 
-            String code = this.fillPlaceholders("\n{\n" + function.code() + "}");
-            builder.insert(pointer, code);
+            patch.insert(patch.cursor(position), fillPlaceholders("\n{\n" + function.code() + "}", placeholders), false);
 
-            if (matcher.find()) {
+            if (index.find(matcher, function.name(), matcher.end())) {
                 throw new IOException("Ambiguous method: " + function.name());
             }
         }
     }
 
+    /**
+     * Finds the end of the last match in the source.
+     *
+     * @param matcher  The matcher to search with
+     * @param patch    The patch to create a cursor for
+     * @param fallback The cursor to use if there are no matches
+     * @return A cursor at the end of the last match or the fallback
+     */
+    protected static ShaderPatch.Cursor lastMatch(Matcher matcher, ShaderPatch patch, ShaderPatch.Cursor fallback) {
+        int end = -1;
+        while (matcher.find()) {
+            end = matcher.end();
+        }
+        return end != -1 ? patch.cursor(end) : fallback;
+    }
+
+    /**
+     * Replaces placeholders with the values found by the last patch created on the current thread.
+     * Every shader in a program is processed on the same thread, so this is used to match the next stage.
+     *
+     * @param code The code to fill placeholders in
+     * @return The code with all known placeholders replaced
+     */
     public String fillPlaceholders(String code) {
+        return fillPlaceholders(code, this.placeholders.get());
+    }
+
+    protected static String fillPlaceholders(String code, Map<String, String> placeholders) {
         Matcher matcher = PLACEHOLDER_PATTERN.matcher(code);
         if (!matcher.find()) {
             return code;
         }
 
         StringBuilder sb = new StringBuilder();
-        matcher.appendReplacement(sb, this.getPlaceholder(matcher.group(1)));
+        matcher.appendReplacement(sb, placeholders.getOrDefault(matcher.group(1), matcher.group(1)));
         while (matcher.find()) {
-            matcher.appendReplacement(sb, this.getPlaceholder(matcher.group(1)));
+            matcher.appendReplacement(sb, placeholders.getOrDefault(matcher.group(1), matcher.group(1)));
         }
         matcher.appendTail(sb);
         return sb.toString();
     }
 
-    protected String getPlaceholder(String key) {
-        return key;
-    }
-
     @Override
     public int getPriority() {
         return this.priority;
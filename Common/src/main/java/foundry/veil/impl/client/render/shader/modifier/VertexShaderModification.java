@@ -6,7 +6,6 @@ import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 
@@ -14,33 +13,33 @@ import java.util.regex.Matcher;
 public class VertexShaderModification extends SimpleShaderModification {
 
     private final Attribute[] attributes;
-    private final Map<String, String> mapper;
 
     public VertexShaderModification(int version, int priority, ResourceLocation[] includes, @Nullable String output, @Nullable String uniform, Function[] functions, Attribute[] attributes) {
         super(version, priority, includes, output, uniform, functions);
         this.attributes = attributes;
-        this.mapper = new HashMap<>(this.attributes.length);
     }
 
     @Override
-    protected void processBody(int pointer, StringBuilder builder) throws IOException {
+    protected void processBody(ShaderPatch.Cursor pointer, String source, ShaderPatch patch, Map<String, String> placeholders) throws IOException {
         if (this.attributes.length > 0) {
             Map<Integer, Attribute> validInputs = new Int2ObjectArrayMap<>();
 
-            Matcher matcher = IN_PATTERN.matcher(builder);
+            int end = -1;
+            Matcher matcher = IN_PATTERN.matcher(source);
             while (matcher.find()) {
-                pointer = matcher.end();
+                end = matcher.end();
                 validInputs.put(validInputs.size(), new Attribute(validInputs.size(), matcher.group(1), matcher.group(2)));
             }
+            if (end != -1) {
+                pointer = patch.cursor(end);
+            }
 
-            matcher.reset();
-            this.mapper.clear();
             for (Attribute attribute : this.attributes) {
                 Attribute sourceAttribute = validInputs.get(attribute.index);
                 if (sourceAttribute == null) {
                     // TODO this might be messed up on mac. It needs to be tested
-                    builder.insert(pointer, "layout(location = " + attribute.index + ") in " + attribute.type + " " + attribute.name + ";\n");
-                    this.mapper.put(attribute.name, attribute.name);
+                    patch.insert(pointer, "layout(location = " + attribute.index + ") in " + attribute.type + " " + attribute.name + ";\n", false);
+                    placeholders.put(attribute.name, attribute.name);
                     continue;
                 }
 
@@ -48,17 +47,11 @@ public class VertexShaderModification extends SimpleShaderModification {
                     throw new IOException("Expected attribute " + attribute.index + " to be " + attribute.type + " but was " + sourceAttribute.type);
                 }
 
-                this.mapper.put(attribute.name, sourceAttribute.name);
+                placeholders.put(attribute.name, sourceAttribute.name);
             }
         }
 
-        super.processBody(pointer, builder);
-    }
-
-    @Override
-    protected String getPlaceholder(String key) {
-        String name = this.mapper.get(key);
-        return name != null ? name : super.getPlaceholder(key);
+        super.processBody(pointer, source, patch, placeholders);
     }
 
     public record Attribute(int index, String type, String name) {
@@ -21,6 +21,9 @@ public class DebugScreenOverlayMixin {
             value.add(ChatFormatting.UNDERLINE + "Veil Deferred Renderer");
             deferredRenderer.addDebugInfo(value::add);
         }
+        value.add("");
+        value.add(ChatFormatting.UNDERLINE + "Veil Shaders");
+        VeilRenderSystem.renderer().addShaderDebugInfo(value::add);
         return value;
     }
 }
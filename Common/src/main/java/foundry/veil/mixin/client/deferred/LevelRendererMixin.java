@@ -102,4 +102,9 @@ public class LevelRendererMixin {
     public void blit(PoseStack $$0, float $$1, long $$2, boolean $$3, Camera $$4, GameRenderer $$5, LightTexture $$6, Matrix4f $$7, CallbackInfo ci) {
         VeilRenderSystem.renderer().getDeferredRenderer().blit();
     }
+
+    @Inject(method = "setSectionDirty(IIIZ)V", at = @At("HEAD"))
+    public void invalidateShadows(int sectionX, int sectionY, int sectionZ, boolean reRenderOnMainThread, CallbackInfo ci) {
+        VeilRenderSystem.renderer().getDeferredRenderer().getLightRenderer().getShadowMapManager().invalidateSection(sectionX, sectionY, sectionZ);
+    }
 }
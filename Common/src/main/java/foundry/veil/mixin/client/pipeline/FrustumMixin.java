@@ -2,6 +2,7 @@ package foundry.veil.mixin.client.pipeline;
 
 import foundry.veil.api.client.render.CullFrustum;
 import foundry.veil.api.client.render.VeilLevelPerspectiveRenderer;
+import foundry.veil.impl.client.render.FrustumBatchCuller;
 import net.minecraft.client.renderer.culling.Frustum;
 import net.minecraft.world.phys.AABB;
 import org.joml.*;
@@ -13,8 +14,6 @@ import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
-import java.lang.reflect.Field;
-
 @Mixin(Frustum.class)
 public abstract class FrustumMixin implements CullFrustum {
 
@@ -96,14 +95,12 @@ public abstract class FrustumMixin implements CullFrustum {
     @Override
     public Vector4fc[] getPlanes() {
         if (this.veil$frustumPlanes == null) {
-            try {
-                // Me when I have to use lazy reflection to access a JOML field...
-                Field field = FrustumIntersection.class.getDeclaredField("planes");
-                field.setAccessible(true);
-                this.veil$frustumPlanes = (Vector4f[]) field.get(this.intersection);
-            } catch (Exception e) {
-                throw new IllegalStateException("Failed to get frustum planes", e);
+            // The frustum matrix never changes after construction, so the planes only need to be extracted once
+            this.veil$frustumPlanes = new Vector4f[6];
+            for (int i = 0; i < this.veil$frustumPlanes.length; i++) {
+                this.veil$frustumPlanes[i] = new Vector4f();
             }
+            FrustumBatchCuller.extractPlanes(this.matrix, this.veil$frustumPlanes);
         }
         return this.veil$frustumPlanes;
     }
@@ -46,6 +46,11 @@ public class GameRendererMixin implements GameRendererExtension {
         VeilRenderSystem.renderer().getGuiInfo().unbind();
     }
 
+    @Inject(method = "renderLevel", at = @At("HEAD"))
+    public void veil$renderShadows(float partialTicks, long time, PoseStack poseStack, CallbackInfo ci) {
+        VeilRenderSystem.renderer().getDeferredRenderer().renderShadows(partialTicks);
+    }
+
     @Inject(method = "renderLevel", at = @At(value = "INVOKE", target = "Lcom/mojang/blaze3d/systems/RenderSystem;clear(IZ)V", shift = At.Shift.BEFORE))
     public void veil$bindFirstPerson(float partialTicks, long time, PoseStack poseStack, CallbackInfo ci) {
         VeilFirstPersonRenderer.bind();
@@ -4,6 +4,7 @@ import com.mojang.blaze3d.vertex.VertexFormat;
 import foundry.veil.api.client.render.VeilRenderSystem;
 import foundry.veil.api.client.render.VeilRenderer;
 import foundry.veil.api.client.render.shader.program.ShaderProgram;
+import foundry.veil.impl.client.render.deferred.DeferredShaderStateCache;
 import foundry.veil.impl.client.render.shader.modifier.ReplaceShaderModification;
 import foundry.veil.impl.client.render.shader.modifier.ShaderModification;
 import net.minecraft.client.renderer.GameRenderer;
@@ -15,7 +16,9 @@ import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.Redirect;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import java.io.IOException;
 import java.util.Collection;
@@ -53,4 +56,9 @@ public class GameRendererMixin {
 
         return new ShaderInstance(resourceProvider, name, vertexFormat);
     }
+
+    @Inject(method = "reloadShaders", at = @At("TAIL"))
+    public void veil$invalidateDeferredShaders(ResourceProvider resourceProvider, CallbackInfo ci) {
+        DeferredShaderStateCache.invalidate();
+    }
 }
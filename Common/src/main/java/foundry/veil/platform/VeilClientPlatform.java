@@ -8,4 +8,9 @@ import org.jetbrains.annotations.ApiStatus;
  */
 @ApiStatus.Internal
 public interface VeilClientPlatform extends VeilPostProcessingEvent.Pre, VeilPostProcessingEvent.Post {
+
+    /**
+     * @return Whether anything could be listening to the post-processing events
+     */
+    boolean hasVeilPostProcessingListeners();
 }
@@ -0,0 +1,52 @@
+uniform sampler2D HiZSampler;
+uniform mat4 HiZViewProjection;
+uniform vec3 HiZCameraOffset;
+uniform ivec2 HiZScreenSize;
+uniform int HiZLevels;
+
+// Tests a camera-relative box against the Hi-Z pyramid of the previous frame.
+// Returns false only if the box is entirely behind the stored depth. Level 0 of the pyramid is half the screen size.
+bool testHiZ(vec3 minPos, vec3 maxPos) {
+    if (HiZLevels <= 0) {
+        return true;
+    }
+
+    vec3 ndcMin = vec3(1.0e30);
+    vec3 ndcMax = vec3(-1.0e30);
+    for (int i = 0; i < 8; i++) {
+        vec3 corner = vec3((i & 1) == 0 ? minPos.x : maxPos.x, (i & 2) == 0 ? minPos.y : maxPos.y, (i & 4) == 0 ? minPos.z : maxPos.z);
+        vec4 clip = HiZViewProjection * vec4(corner + HiZCameraOffset, 1.0);
+        if (clip.w <= 1.0e-4) {
+            return true;
+        }
+        vec3 ndc = clip.xyz / clip.w;
+        ndcMin = min(ndcMin, ndc);
+        ndcMax = max(ndcMax, ndc);
+    }
+
+    if (ndcMax.x < -1.0 || ndcMin.x > 1.0 || ndcMax.y < -1.0 || ndcMin.y > 1.0) {
+        return true;
+    }
+
+    ivec2 p0 = clamp(ivec2(floor((ndcMin.xy * 0.5 + 0.5) * vec2(HiZScreenSize))), ivec2(0), HiZScreenSize - 1);
+    ivec2 p1 = clamp(ivec2(floor((ndcMax.xy * 0.5 + 0.5) * vec2(HiZScreenSize))), ivec2(0), HiZScreenSize - 1);
+
+    // Find the first level where the box only covers a few texels
+    int level = 0;
+    int shift = 1;
+    while (level < HiZLevels - 1 && ((p1.x >> shift) - (p0.x >> shift) > 3 || (p1.y >> shift) - (p0.y >> shift) > 3)) {
+        level++;
+        shift++;
+    }
+
+    ivec2 size = textureSize(HiZSampler, level);
+    ivec2 t0 = min(p0 >> shift, size - 1);
+    ivec2 t1 = min(p1 >> shift, size - 1);
+    float depth = 0.0;
+    for (int y = t0.y; y <= t1.y; y++) {
+        for (int x = t0.x; x <= t1.x; x++) {
+            depth = max(depth, texelFetch(HiZSampler, ivec2(x, y), level).r);
+        }
+    }
+    return ndcMin.z * 0.5 + 0.5 <= depth;
+}
@@ -0,0 +1,24 @@
+// Samples a single tile of the shadow atlas.
+// shadowMatrix transforms player space into the clip space of the shadow and rect is the [u0, v0, u1, v1] region of the tile.
+float sampleShadowTile(sampler2D atlas, mat4 shadowMatrix, vec4 rect, vec3 playerPos, float bias) {
+    vec4 shadowPos = shadowMatrix * vec4(playerPos, 1.0);
+    shadowPos.xyz /= shadowPos.w;
+    shadowPos.xyz = shadowPos.xyz * 0.5 + 0.5;
+    if (shadowPos.x <= 0.0 || shadowPos.x >= 1.0 || shadowPos.y <= 0.0 || shadowPos.y >= 1.0 || shadowPos.z >= 1.0) {
+        return 1.0;
+    }
+
+    vec2 texelSize = 1.0 / vec2(textureSize(atlas, 0));
+    vec2 uv = mix(rect.xy, rect.zw, shadowPos.xy);
+    float depth = shadowPos.z - bias;
+
+    // 3x3 PCF clamped to the tile, so neighboring tiles don't bleed in
+    float visibility = 0.0;
+    for (int x = -1; x <= 1; x++) {
+        for (int y = -1; y <= 1; y++) {
+            vec2 sampleUv = clamp(uv + vec2(x, y) * texelSize, rect.xy + texelSize * 0.5, rect.zw - texelSize * 0.5);
+            visibility += depth > texture(atlas, sampleUv).r ? 0.0 : 1.0;
+        }
+    }
+    return visibility / 9.0;
+}
@@ -0,0 +1,102 @@
+import foundry.veil.impl.client.render.pipeline.BindingSlotAllocator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BindingSlotAllocatorTest {
+
+    private static BindingSlotAllocator<String> createAllocator(int slots, List<String> events) {
+        return new BindingSlotAllocator<>(() -> slots, new BindingSlotAllocator.Listener<>() {
+            @Override
+            public void onAssign(String key, int slot) {
+                events.add("assign " + key + " " + slot);
+            }
+
+            @Override
+            public void onEvict(String key, int slot) {
+                events.add("evict " + key + " " + slot);
+            }
+        });
+    }
+
+    @Test
+    public void testAssign() {
+        List<String> events = new ArrayList<>();
+        BindingSlotAllocator<String> allocator = createAllocator(4, events);
+
+        // Slots are assigned from the highest binding down
+        Assertions.assertEquals(3, allocator.acquire("CameraMatrices"));
+        Assertions.assertEquals(2, allocator.acquire("GuiInfo"));
+        Assertions.assertEquals(3, allocator.acquire("CameraMatrices"));
+        Assertions.assertEquals(List.of("assign CameraMatrices 3", "assign GuiInfo 2"), events);
+
+        Assertions.assertEquals(2, allocator.get("GuiInfo"));
+        Assertions.assertEquals(-1, allocator.get("Lights"));
+
+        // Released slots are reused
+        Assertions.assertEquals(3, allocator.release("CameraMatrices"));
+        Assertions.assertEquals(-1, allocator.release("CameraMatrices"));
+        Assertions.assertEquals(3, allocator.acquire("Lights"));
+    }
+
+    @Test
+    public void testEviction() {
+        List<String> events = new ArrayList<>();
+        BindingSlotAllocator<String> allocator = createAllocator(2, events);
+        allocator.acquire("A");
+        allocator.acquire("B");
+
+        // Slots used this frame can't be replaced
+        Assertions.assertThrows(IllegalStateException.class, () -> allocator.acquire("C"));
+
+        allocator.endFrame();
+        allocator.acquire("A");
+        events.clear();
+
+        // B is the least recently used and wasn't used this frame
+        Assertions.assertEquals(0, allocator.acquire("C"));
+        Assertions.assertEquals(List.of("evict B 0", "assign C 0"), events);
+        Assertions.assertEquals(-1, allocator.get("B"));
+        Assertions.assertEquals(1, allocator.get("A"));
+
+        allocator.endFrame();
+        allocator.acquire("C");
+        events.clear();
+        Assertions.assertEquals(1, allocator.acquire("B"));
+        Assertions.assertEquals(List.of("evict A 1", "assign B 1"), events);
+    }
+
+    @Test
+    public void testBindingOverhead() {
+        int frames = 10_000;
+        int bindsPerFrame = 256;
+        String[] names = new String[8];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "Block" + i;
+        }
+
+        List<String> events = new ArrayList<>();
+        BindingSlotAllocator<String> allocator = createAllocator(36, events);
+
+        long sum = 0;
+        long time = 0;
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                for (int i = 0; i < bindsPerFrame; i++) {
+                    sum += allocator.acquire(names[i % names.length]);
+                }
+                allocator.endFrame();
+            }
+            time = System.nanoTime() - start;
+        }
+
+        // Shaders are only updated the first time each name is bound
+        Assertions.assertTrue(sum > 0);
+        Assertions.assertEquals(names.length, events.size());
+        System.out.printf("%d frames of %d binds: %.3f ms, %.2f ns/bind, %d shader updates%n",
+                frames, bindsPerFrame, time / 1.0E6, (double) time / frames / bindsPerFrame, events.size());
+    }
+}
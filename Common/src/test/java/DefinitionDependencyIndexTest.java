@@ -0,0 +1,119 @@
+import foundry.veil.impl.client.render.shader.DefinitionDependencyIndex;
+import net.minecraft.resources.ResourceLocation;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+public class DefinitionDependencyIndexTest {
+
+    private static final ResourceLocation FIRST = new ResourceLocation("veil", "first");
+    private static final ResourceLocation SECOND = new ResourceLocation("veil", "second");
+
+    @Test
+    public void testIndex() {
+        DefinitionDependencyIndex index = new DefinitionDependencyIndex();
+        index.set(FIRST, List.of("shadows", "quality"));
+        index.set(SECOND, List.of("quality"));
+
+        Assertions.assertEquals(Set.of(FIRST), index.getDependents("shadows"));
+        Assertions.assertEquals(Set.of(FIRST, SECOND), index.getDependents("quality"));
+        Assertions.assertEquals(Set.of(), index.getDependents("unused"));
+
+        // Recompiling a program replaces all of its old dependencies
+        index.set(FIRST, List.of("fog"));
+        Assertions.assertEquals(Set.of(), index.getDependents("shadows"));
+        Assertions.assertEquals(Set.of(SECOND), index.getDependents("quality"));
+        Assertions.assertEquals(Set.of(FIRST), index.getDependents("fog"));
+        Assertions.assertEquals(Set.of("fog"), index.getDefinitions(FIRST));
+
+        index.remove(SECOND);
+        Assertions.assertEquals(Set.of(), index.getDependents("quality"));
+        index.set(FIRST, List.of());
+        Assertions.assertEquals(Set.of(), index.getDependents("fog"));
+        Assertions.assertEquals(Set.of(), index.getDefinitions(FIRST));
+    }
+
+    @Test
+    public void testCoalesce() {
+        DefinitionDependencyIndex index = new DefinitionDependencyIndex();
+        index.set(FIRST, List.of("shadows", "quality"));
+        index.set(SECOND, List.of("quality"));
+
+        // Only the first change needs to schedule an update
+        Assertions.assertTrue(index.markChanged("shadows"));
+        Assertions.assertFalse(index.markChanged("quality"));
+        Assertions.assertFalse(index.markChanged("shadows"));
+        Assertions.assertFalse(index.markChanged("unused"));
+        Assertions.assertTrue(index.hasChanges());
+
+        Assertions.assertEquals(Set.of(FIRST, SECOND), index.drainChanged());
+        Assertions.assertFalse(index.hasChanges());
+        Assertions.assertEquals(Set.of(), index.drainChanged());
+
+        // Changes to definitions no program uses don't recompile anything
+        Assertions.assertTrue(index.markChanged("unused"));
+        Assertions.assertEquals(Set.of(), index.drainChanged());
+
+        // Reloading shaders keeps changes that weren't applied yet
+        Assertions.assertTrue(index.markChanged("quality"));
+        index.clear();
+        index.set(SECOND, List.of("quality"));
+        Assertions.assertEquals(Set.of(SECOND), index.drainChanged());
+    }
+
+    @Test
+    public void testLookupSpeed() {
+        int programs = 500;
+        int changes = 10_000;
+        String[] definitions = new String[50];
+        for (int i = 0; i < definitions.length; i++) {
+            definitions[i] = "definition" + i;
+        }
+
+        DefinitionDependencyIndex index = new DefinitionDependencyIndex();
+        Map<ResourceLocation, Set<String>> shaders = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < programs; i++) {
+            ResourceLocation id = new ResourceLocation("veil", "program" + i);
+            Set<String> dependencies = new HashSet<>();
+            for (int j = 0; j < 4; j++) {
+                dependencies.add(definitions[random.nextInt(definitions.length)]);
+            }
+            shaders.put(id, dependencies);
+            index.set(id, dependencies);
+        }
+
+        long scanTime = 0;
+        long indexTime = 0;
+        long scanned = 0;
+        long indexed = 0;
+        for (int run = 0; run < 2; run++) {
+            scanned = 0;
+            indexed = 0;
+
+            // The old behavior checked every program for every change
+            long start = System.nanoTime();
+            for (int i = 0; i < changes; i++) {
+                String definition = definitions[i % definitions.length];
+                for (Map.Entry<ResourceLocation, Set<String>> entry : shaders.entrySet()) {
+                    if (entry.getValue().contains(definition)) {
+                        scanned++;
+                    }
+                }
+            }
+            scanTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < changes; i++) {
+                index.markChanged(definitions[i % definitions.length]);
+                indexed += index.drainChanged().size();
+            }
+            indexTime = System.nanoTime() - start;
+        }
+
+        Assertions.assertEquals(scanned, indexed);
+        System.out.printf("Found programs for %d definition changes with %d programs: %.3f ms scanning, %.3f ms indexed%n",
+                changes, programs, scanTime / 1.0E6, indexTime / 1.0E6);
+    }
+}
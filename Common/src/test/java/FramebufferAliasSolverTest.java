@@ -0,0 +1,85 @@
+import foundry.veil.impl.client.render.framebuffer.FramebufferAliasSolver;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FramebufferAliasSolverTest {
+
+    private static FramebufferAliasSolver.Resource resource(String key, int firstUse, int lastUse) {
+        return new FramebufferAliasSolver.Resource(key, firstUse, lastUse, 1024, false);
+    }
+
+    @Test
+    public void testChain() {
+        // a -> b -> c -> d, each stage reads the previous framebuffer and writes the next
+        FramebufferAliasSolver.Result result = FramebufferAliasSolver.solve(List.of(
+                resource("rgba8", 0, 1),
+                resource("rgba8", 1, 2),
+                resource("rgba8", 2, 3),
+                resource("rgba8", 3, 4)));
+
+        // A framebuffer can't share with one used by the same stage, so the chain ping-pongs between two allocations
+        Assertions.assertEquals(2, result.slotCount());
+        Assertions.assertArrayEquals(new int[]{0, 1, 0, 1}, result.slots());
+        Assertions.assertEquals(4096, result.requestedBytes());
+        Assertions.assertEquals(2048, result.allocatedBytes());
+        Assertions.assertEquals(2048, result.savedBytes());
+    }
+
+    @Test
+    public void testKeys() {
+        FramebufferAliasSolver.Result result = FramebufferAliasSolver.solve(List.of(
+                resource("rgba8", 0, 0),
+                resource("rgba16f", 1, 1),
+                resource("rgba8", 2, 2),
+                resource("rgba16f", 3, 3)));
+
+        // Only framebuffers with the same size and formats are aliased
+        Assertions.assertEquals(2, result.slotCount());
+        Assertions.assertArrayEquals(new int[]{0, 1, 0, 1}, result.slots());
+    }
+
+    @Test
+    public void testPersistent() {
+        FramebufferAliasSolver.Result result = FramebufferAliasSolver.solve(List.of(
+                new FramebufferAliasSolver.Resource("rgba8", 0, 0, 1024, true),
+                resource("rgba8", 1, 1),
+                new FramebufferAliasSolver.Resource("rgba8", -1, -1, 1024, false),
+                resource("rgba8", 2, 2),
+                new FramebufferAliasSolver.Resource("rgba8", 3, 3, 1024, true)));
+
+        // Persistent and unused framebuffers always get their own allocation
+        Assertions.assertEquals(4, result.slotCount());
+        Assertions.assertArrayEquals(new int[]{0, 1, 3, 1, 2}, result.slots());
+        Assertions.assertArrayEquals(new boolean[]{false, true, false, false}, result.shared());
+        Assertions.assertEquals(1024, result.savedBytes());
+    }
+
+    @Test
+    public void testBloom() {
+        // A typical bloom chain downsamples into smaller framebuffers and upsamples back into the same sizes
+        int levels = 6;
+        int width = 1920;
+        int height = 1080;
+        List<FramebufferAliasSolver.Resource> resources = new ArrayList<>();
+        for (int i = 0; i < levels; i++) {
+            String key = (width >> i) + "x" + (height >> i);
+            long size = (long) (width >> i) * (height >> i) * 8;
+            resources.add(new FramebufferAliasSolver.Resource(key, i, i + 1, size, false));
+        }
+        for (int i = levels - 1; i >= 0; i--) {
+            String key = (width >> i) + "x" + (height >> i);
+            long size = (long) (width >> i) * (height >> i) * 8;
+            int stage = levels + 1 + (levels - 1 - i);
+            resources.add(new FramebufferAliasSolver.Resource(key, stage, stage + 1, size, false));
+        }
+
+        FramebufferAliasSolver.Result result = FramebufferAliasSolver.solve(resources);
+        Assertions.assertEquals(levels, result.slotCount());
+        Assertions.assertEquals(result.requestedBytes() / 2, result.savedBytes());
+        System.out.printf("%d framebuffers in %d allocations: %.1f MB requested, %.1f MB allocated%n",
+                resources.size(), result.slotCount(), result.requestedBytes() / 1048576.0, result.allocatedBytes() / 1048576.0);
+    }
+}
@@ -0,0 +1,169 @@
+import foundry.veil.impl.client.render.framebuffer.FramebufferClearTracker;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class FramebufferClearTrackerTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private final FramebufferClearTracker tracker = new FramebufferClearTracker();
+    private int frame;
+
+    /**
+     * Records the GL calls a framebuffer would make and checks that it never exposes contents from a previous frame.
+     */
+    private class MockFramebuffer implements FramebufferClearTracker.Target {
+
+        private final String name;
+        private int contentFrame;
+
+        private MockFramebuffer(String name) {
+            this.name = name;
+            this.contentFrame = FramebufferClearTrackerTest.this.frame;
+            FramebufferClearTrackerTest.this.tracker.add(this);
+        }
+
+        @Override
+        public void clearNow(boolean bound) {
+            FramebufferClearTrackerTest.this.calls.add("clear " + this.name + (bound ? "" : " unbound"));
+            this.contentFrame = FramebufferClearTrackerTest.this.frame;
+        }
+
+        private void checkContents() {
+            Assertions.assertEquals(FramebufferClearTrackerTest.this.frame, this.contentFrame, this.name + " has contents from a previous frame");
+        }
+
+        void draw() {
+            FramebufferClearTrackerTest.this.calls.add("bind " + this.name);
+            FramebufferClearTrackerTest.this.tracker.beforeWrite(this);
+            this.checkContents();
+            FramebufferClearTrackerTest.this.calls.add("draw " + this.name);
+        }
+
+        void overwrite() {
+            FramebufferClearTrackerTest.this.tracker.overwrite(this);
+            FramebufferClearTrackerTest.this.calls.add("bind " + this.name);
+            FramebufferClearTrackerTest.this.tracker.beforeWrite(this);
+            FramebufferClearTrackerTest.this.calls.add("blit " + this.name);
+            this.contentFrame = FramebufferClearTrackerTest.this.frame;
+        }
+
+        void sample() {
+            FramebufferClearTrackerTest.this.tracker.beforeRead(this);
+            this.checkContents();
+            FramebufferClearTrackerTest.this.calls.add("sample " + this.name);
+        }
+    }
+
+    private void endFrame() {
+        this.tracker.endFrame();
+        this.frame++;
+        this.calls.clear();
+    }
+
+    @Test
+    public void testClearOnFirstWrite() {
+        MockFramebuffer a = new MockFramebuffer("a");
+        MockFramebuffer b = new MockFramebuffer("b");
+        this.endFrame();
+
+        a.draw();
+        a.draw();
+        Assertions.assertEquals(List.of("bind a", "clear a", "draw a", "bind a", "draw a"), this.calls);
+
+        // b is never used, so it is never cleared
+        this.endFrame();
+        Assertions.assertEquals(1, this.tracker.getClearsIssued());
+        Assertions.assertEquals(1, this.tracker.getClearsSkipped());
+        Assertions.assertTrue(this.tracker.isStale(b));
+    }
+
+    @Test
+    public void testClearBeforeRead() {
+        MockFramebuffer a = new MockFramebuffer("a");
+        this.endFrame();
+
+        a.sample();
+        a.draw();
+        Assertions.assertEquals(List.of("clear a unbound", "sample a", "bind a", "draw a"), this.calls);
+    }
+
+    @Test
+    public void testOverwrite() {
+        MockFramebuffer a = new MockFramebuffer("a");
+        MockFramebuffer b = new MockFramebuffer("b");
+        this.endFrame();
+
+        a.draw();
+        b.overwrite();
+        b.sample();
+        Assertions.assertEquals(List.of("bind a", "clear a", "draw a", "bind b", "blit b", "sample b"), this.calls);
+
+        this.endFrame();
+        Assertions.assertEquals(1, this.tracker.getClearsIssued());
+        Assertions.assertEquals(1, this.tracker.getClearsSkipped());
+    }
+
+    @Test
+    public void testRemove() {
+        MockFramebuffer a = new MockFramebuffer("a");
+        this.endFrame();
+
+        Assertions.assertTrue(this.tracker.remove(a));
+        Assertions.assertFalse(this.tracker.remove(a));
+        this.tracker.beforeWrite(a);
+        Assertions.assertTrue(this.calls.isEmpty());
+    }
+
+    @Test
+    public void testRelease() {
+        MockFramebuffer a = new MockFramebuffer("a");
+        this.endFrame();
+
+        // The pending clear has to happen before anything can draw through the raw id
+        Assertions.assertTrue(this.tracker.release(a));
+        Assertions.assertEquals(List.of("clear a unbound"), this.calls);
+        Assertions.assertFalse(this.tracker.isTracked(a));
+
+        this.endFrame();
+        Assertions.assertFalse(this.tracker.isStale(a));
+        Assertions.assertFalse(this.tracker.release(a));
+        Assertions.assertTrue(this.calls.isEmpty());
+    }
+
+    @Test
+    public void testRandomFrames() {
+        Random random = new Random(0x5EED);
+        MockFramebuffer[] framebuffers = new MockFramebuffer[8];
+        for (int i = 0; i < framebuffers.length; i++) {
+            framebuffers[i] = new MockFramebuffer("fbo" + i);
+        }
+
+        int frames = 1000;
+        int clears = 0;
+        for (int i = 0; i < frames; i++) {
+            this.endFrame();
+            int operations = random.nextInt(12);
+            for (int j = 0; j < operations; j++) {
+                MockFramebuffer framebuffer = framebuffers[random.nextInt(framebuffers.length)];
+                switch (random.nextInt(3)) {
+                    case 0 -> framebuffer.draw();
+                    case 1 -> framebuffer.overwrite();
+                    case 2 -> framebuffer.sample();
+                }
+            }
+            for (String call : this.calls) {
+                if (call.startsWith("clear")) {
+                    clears++;
+                }
+            }
+        }
+
+        // Every framebuffer would have been cleared every frame before
+        Assertions.assertTrue(clears < frames * framebuffers.length);
+        System.out.printf("%d frames with %d framebuffers: %d clears instead of %d%n", frames, framebuffers.length, clears, frames * framebuffers.length);
+    }
+}
@@ -0,0 +1,186 @@
+import foundry.veil.impl.client.render.framebuffer.FramebufferCopier;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL11C.*;
+import static org.lwjgl.opengl.GL30C.*;
+
+public class FramebufferCopierTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private boolean copyImageSupported = true;
+    private boolean invalidateSupported = true;
+    private final FramebufferCopier<Fbo> copier = new FramebufferCopier<>(new RecordingBackend());
+
+    private record Fbo(String name, int width, int height, int colorAttachments, @Nullable FramebufferCopier.Attachment color, @Nullable FramebufferCopier.Attachment depth) {
+    }
+
+    /**
+     * Records the GL calls the copier would make.
+     */
+    private class RecordingBackend implements FramebufferCopier.Backend<Fbo> {
+
+        @Override
+        public int getWidth(Fbo framebuffer) {
+            return framebuffer.width();
+        }
+
+        @Override
+        public int getHeight(Fbo framebuffer) {
+            return framebuffer.height();
+        }
+
+        @Override
+        public int getColorAttachments(Fbo framebuffer) {
+            return framebuffer.colorAttachments();
+        }
+
+        @Override
+        public @Nullable FramebufferCopier.Attachment getColor(Fbo framebuffer) {
+            return framebuffer.color();
+        }
+
+        @Override
+        public @Nullable FramebufferCopier.Attachment getDepth(Fbo framebuffer) {
+            return framebuffer.depth();
+        }
+
+        @Override
+        public boolean isCopyImageSupported() {
+            return FramebufferCopierTest.this.copyImageSupported;
+        }
+
+        @Override
+        public boolean isInvalidateSupported() {
+            return FramebufferCopierTest.this.invalidateSupported;
+        }
+
+        @Override
+        public void copyImage(Fbo source, Fbo target, FramebufferCopier.Attachment sourceAttachment, FramebufferCopier.Attachment targetAttachment, int width, int height) {
+            FramebufferCopierTest.this.calls.add("glCopyImageSubData " + sourceAttachment.texture() + " -> " + targetAttachment.texture());
+        }
+
+        @Override
+        public void blit(Fbo source, Fbo target, int mask, int filter) {
+            FramebufferCopierTest.this.calls.add("glBlitFramebuffer " + source.name() + " -> " + target.name() + mask(mask));
+        }
+
+        @Override
+        public void invalidate(Fbo target, int mask) {
+            FramebufferCopierTest.this.calls.add("glInvalidateFramebuffer " + target.name() + mask(mask));
+        }
+
+        private static String mask(int mask) {
+            return ((mask & GL_COLOR_BUFFER_BIT) != 0 ? " color" : "") + ((mask & GL_DEPTH_BUFFER_BIT) != 0 ? " depth" : "") + ((mask & GL_STENCIL_BUFFER_BIT) != 0 ? " stencil" : "");
+        }
+    }
+
+    private static FramebufferCopier.Attachment texture(int id, int format, int pixelSize) {
+        return new FramebufferCopier.Attachment(id, format, 1, pixelSize);
+    }
+
+    private static Fbo fbo(String name, int width, int height, @Nullable FramebufferCopier.Attachment color, @Nullable FramebufferCopier.Attachment depth) {
+        return new Fbo(name, width, height, color != null ? 1 : 0, color, depth);
+    }
+
+    @Test
+    public void testMatchingFormats() {
+        Fbo a = fbo("a", 100, 50, texture(1, GL_RGBA16F, 8), texture(2, GL_DEPTH_COMPONENT32F, 4));
+        Fbo b = fbo("b", 100, 50, texture(3, GL_RGBA16F, 8), texture(4, GL_DEPTH_COMPONENT32F, 4));
+        this.copier.copy(a, b, GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+
+        // Nothing is left for a blit
+        Assertions.assertEquals(List.of("glCopyImageSubData 1 -> 3", "glCopyImageSubData 2 -> 4"), this.calls);
+
+        this.copier.endFrame();
+        Assertions.assertEquals(2, this.copier.getImageCopies());
+        Assertions.assertEquals(0, this.copier.getBlits());
+        Assertions.assertEquals(100 * 50 * (8 + 4), this.copier.getBytesCopied());
+    }
+
+    @Test
+    public void testMismatchedFormats() {
+        // The main framebuffer doesn't know its formats, so it always has to be blit
+        Fbo main = fbo("main", 100, 50, texture(1, 0, 4), texture(2, 0, 4));
+        Fbo post = fbo("post", 100, 50, texture(3, GL_RGBA16F, 8), texture(4, GL_DEPTH_COMPONENT32F, 4));
+        this.copier.copy(main, post, GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+        Assertions.assertEquals(List.of("glBlitFramebuffer main -> post color depth"), this.calls);
+
+        this.calls.clear();
+        Fbo half = fbo("half", 50, 25, texture(5, GL_RGBA16F, 8), null);
+        this.copier.copy(post, half, GL_COLOR_BUFFER_BIT, GL_LINEAR);
+        Assertions.assertEquals(List.of("glBlitFramebuffer post -> half color"), this.calls);
+
+        this.copier.endFrame();
+        Assertions.assertEquals(2, this.copier.getBlits());
+        Assertions.assertEquals(100 * 50 * (8 + 4) + 50 * 25 * 8, this.copier.getBytesCopied());
+    }
+
+    @Test
+    public void testPartialCopy() {
+        // Only the depth has to be blit, so the blit doesn't write color again
+        Fbo a = fbo("a", 64, 64, texture(1, GL_RGBA8, 4), texture(2, GL_DEPTH_COMPONENT24, 4));
+        Fbo b = fbo("b", 64, 64, texture(3, GL_RGBA8, 4), new FramebufferCopier.Attachment(0, GL_DEPTH_COMPONENT24, 1, 4));
+        this.copier.copy(a, b, GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+        Assertions.assertEquals(List.of("glCopyImageSubData 1 -> 3", "glBlitFramebuffer a -> b depth"), this.calls);
+    }
+
+    @Test
+    public void testUnsafeCopies() {
+        // Blits write into every draw buffer
+        Fbo a = fbo("a", 64, 64, texture(1, GL_RGBA8, 4), null);
+        Fbo multiple = new Fbo("multiple", 64, 64, 2, texture(2, GL_RGBA8, 4), null);
+        this.copier.copy(a, multiple, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+
+        // Copying a depth-stencil image would replace the stencil too
+        Fbo b = fbo("b", 64, 64, null, texture(3, GL_DEPTH24_STENCIL8, 4));
+        Fbo c = fbo("c", 64, 64, null, texture(4, GL_DEPTH24_STENCIL8, 4));
+        this.copier.copy(b, c, GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+        this.copier.copy(b, c, GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT, GL_NEAREST);
+
+        // Multisampled attachments have to be resolved
+        Fbo msaa = fbo("msaa", 64, 64, new FramebufferCopier.Attachment(5, GL_RGBA8, 4, 4), null);
+        this.copier.copy(msaa, a, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+
+        Assertions.assertEquals(List.of(
+                "glBlitFramebuffer a -> multiple color",
+                "glBlitFramebuffer b -> c depth",
+                "glCopyImageSubData 3 -> 4",
+                "glBlitFramebuffer msaa -> a color"), this.calls);
+    }
+
+    @Test
+    public void testUnsupported() {
+        this.copyImageSupported = false;
+        this.invalidateSupported = false;
+        Fbo a = fbo("a", 64, 64, texture(1, GL_RGBA8, 4), null);
+        Fbo b = fbo("b", 64, 64, texture(2, GL_RGBA8, 4), null);
+        this.copier.copy(a, b, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+        this.copier.invalidate(b, GL_COLOR_BUFFER_BIT);
+        Assertions.assertEquals(List.of("glBlitFramebuffer a -> b color"), this.calls);
+
+        this.invalidateSupported = true;
+        this.copier.invalidate(b, GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+        this.copier.invalidate(b, 0);
+        Assertions.assertEquals(List.of("glBlitFramebuffer a -> b color", "glInvalidateFramebuffer b color depth"), this.calls);
+    }
+
+    @Test
+    public void testFrameCounters() {
+        Fbo a = fbo("a", 10, 10, texture(1, GL_RGBA8, 4), null);
+        Fbo b = fbo("b", 10, 10, texture(2, GL_RGBA8, 4), null);
+        this.copier.copy(a, b, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+        Assertions.assertEquals(0, this.copier.getBytesCopied());
+
+        this.copier.endFrame();
+        Assertions.assertEquals(400, this.copier.getBytesCopied());
+
+        this.copier.endFrame();
+        Assertions.assertEquals(0, this.copier.getBytesCopied());
+        Assertions.assertEquals(0, this.copier.getImageCopies());
+    }
+}
@@ -0,0 +1,113 @@
+import foundry.veil.impl.client.render.FrustumBatchCuller;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3d;
+import org.joml.Vector4f;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+public class FrustumBatchCullerTest {
+
+    private static final Vector3d CAMERA = new Vector3d(1024.5, 72.25, -3000.75);
+
+    private static Matrix4f createMatrix(Random random) {
+        return new Matrix4f()
+                .perspective((float) Math.toRadians(50 + random.nextInt(60)), 0.5F + random.nextFloat() * 2.0F, 0.05F, 512.0F)
+                .rotateX(random.nextFloat() * 3.0F - 1.5F)
+                .rotateY(random.nextFloat() * 6.28F);
+    }
+
+    private static Vector4f[] createPlanes() {
+        Vector4f[] planes = new Vector4f[6];
+        for (int i = 0; i < planes.length; i++) {
+            planes[i] = new Vector4f();
+        }
+        return planes;
+    }
+
+    @Test
+    public void testSpheresMatchScalar() {
+        Random random = new Random(7);
+        for (int frame = 0; frame < 20; frame++) {
+            Matrix4f matrix = createMatrix(random);
+            FrustumIntersection intersection = new FrustumIntersection(matrix);
+            Vector4f[] planes = FrustumBatchCuller.extractPlanes(matrix, createPlanes());
+
+            int count = 1 + random.nextInt(1000);
+            double[] spheres = new double[count * FrustumBatchCuller.SPHERE_STRIDE];
+            for (int i = 0; i < count; i++) {
+                spheres[i * 4] = CAMERA.x + random.nextGaussian() * 200;
+                spheres[i * 4 + 1] = CAMERA.y + random.nextGaussian() * 200;
+                spheres[i * 4 + 2] = CAMERA.z + random.nextGaussian() * 200;
+                spheres[i * 4 + 3] = random.nextFloat() * 16;
+            }
+
+            long[] visibility = new long[FrustumBatchCuller.getWordCount(count)];
+            int visible = FrustumBatchCuller.testSpheres(planes, CAMERA, spheres, count, visibility);
+
+            int expectedVisible = 0;
+            for (int i = 0; i < count; i++) {
+                boolean expected = intersection.testSphere((float) (spheres[i * 4] - CAMERA.x), (float) (spheres[i * 4 + 1] - CAMERA.y), (float) (spheres[i * 4 + 2] - CAMERA.z), (float) spheres[i * 4 + 3]);
+                Assertions.assertEquals(expected, FrustumBatchCuller.isVisible(visibility, i), "Sphere " + i);
+                if (expected) {
+                    expectedVisible++;
+                }
+            }
+            Assertions.assertEquals(expectedVisible, visible);
+        }
+    }
+
+    @Test
+    public void testAabsMatchScalar() {
+        Random random = new Random(13);
+        for (int frame = 0; frame < 20; frame++) {
+            Matrix4f matrix = createMatrix(random);
+            FrustumIntersection intersection = new FrustumIntersection(matrix);
+            Vector4f[] planes = FrustumBatchCuller.extractPlanes(matrix, createPlanes());
+
+            int count = 1 + random.nextInt(1000);
+            double[] boxes = new double[count * FrustumBatchCuller.AAB_STRIDE];
+            for (int i = 0; i < count; i++) {
+                double x = CAMERA.x + random.nextGaussian() * 200;
+                double y = CAMERA.y + random.nextGaussian() * 200;
+                double z = CAMERA.z + random.nextGaussian() * 200;
+                boxes[i * 6] = x;
+                boxes[i * 6 + 1] = y;
+                boxes[i * 6 + 2] = z;
+                boxes[i * 6 + 3] = x + random.nextFloat() * 32;
+                boxes[i * 6 + 4] = y + random.nextFloat() * 32;
+                boxes[i * 6 + 5] = z + random.nextFloat() * 32;
+            }
+
+            long[] visibility = new long[FrustumBatchCuller.getWordCount(count)];
+            int visible = FrustumBatchCuller.testAabs(planes, CAMERA, boxes, count, visibility);
+
+            int expectedVisible = 0;
+            for (int i = 0; i < count; i++) {
+                boolean expected = intersection.testAab(
+                        (float) (boxes[i * 6] - CAMERA.x), (float) (boxes[i * 6 + 1] - CAMERA.y), (float) (boxes[i * 6 + 2] - CAMERA.z),
+                        (float) (boxes[i * 6 + 3] - CAMERA.x), (float) (boxes[i * 6 + 4] - CAMERA.y), (float) (boxes[i * 6 + 5] - CAMERA.z));
+                Assertions.assertEquals(expected, FrustumBatchCuller.isVisible(visibility, i), "Box " + i);
+                if (expected) {
+                    expectedVisible++;
+                }
+            }
+            Assertions.assertEquals(expectedVisible, visible);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        Vector4f[] planes = FrustumBatchCuller.extractPlanes(new Matrix4f().perspective(1.0F, 1.0F, 0.1F, 100.0F), createPlanes());
+        Assertions.assertEquals(0, FrustumBatchCuller.testSpheres(planes, CAMERA, new double[0], 0, new long[0]));
+    }
+
+    @Test
+    public void testInvalidSizes() {
+        Vector4f[] planes = FrustumBatchCuller.extractPlanes(new Matrix4f().perspective(1.0F, 1.0F, 0.1F, 100.0F), createPlanes());
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> FrustumBatchCuller.testSpheres(planes, CAMERA, new double[4], 2, new long[1]));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> FrustumBatchCuller.testAabs(planes, CAMERA, new double[6 * 65], 65, new long[1]));
+    }
+}
@@ -0,0 +1,171 @@
+import foundry.veil.api.client.render.occlusion.HiZPyramid;
+import org.joml.Matrix4f;
+import org.joml.Vector4f;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class HiZPyramidTest {
+
+    private static final Matrix4f PROJECTION = new Matrix4f().perspective((float) Math.toRadians(70.0), 16.0F / 9.0F, 0.05F, 256.0F);
+
+    private static float[] createWall(int width, int height, float distance) {
+        Vector4f pos = PROJECTION.transform(new Vector4f(0.0F, 0.0F, -distance, 1.0F));
+        float depth = pos.z / pos.w * 0.5F + 0.5F;
+        float[] data = new float[width * height];
+        Arrays.fill(data, depth);
+        return data;
+    }
+
+    @Test
+    public void testLevelSizes() {
+        HiZPyramid pyramid = new HiZPyramid();
+        pyramid.set(13, 5, new float[13 * 5]);
+        Assertions.assertEquals(4, pyramid.getLevelCount());
+        int[] widths = {13, 6, 3, 1};
+        int[] heights = {5, 2, 1, 1};
+        for (int i = 0; i < pyramid.getLevelCount(); i++) {
+            Assertions.assertEquals(widths[i], pyramid.getWidth(i));
+            Assertions.assertEquals(heights[i], pyramid.getHeight(i));
+        }
+    }
+
+    @Test
+    public void testOddDownsample() {
+        float[] src = {
+                0.1F, 0.2F, 0.3F, 0.4F, 0.9F,
+                0.1F, 0.1F, 0.1F, 0.1F, 0.1F,
+                0.5F, 0.1F, 0.1F, 0.1F, 0.1F
+        };
+        float[] dst = new float[2];
+        HiZPyramid.downsample(src, 5, 3, dst, 2, 1);
+        // The last row and column are folded into the last texel
+        Assertions.assertEquals(0.5F, dst[0]);
+        Assertions.assertEquals(0.9F, dst[1]);
+    }
+
+    @Test
+    public void testMipsAreConservative() {
+        Random random = new Random(3);
+        int width = 37;
+        int height = 23;
+        float[] depth = new float[width * height];
+        for (int i = 0; i < depth.length; i++) {
+            depth[i] = random.nextFloat();
+        }
+
+        HiZPyramid pyramid = new HiZPyramid();
+        pyramid.set(width, height, depth);
+        for (int level = 0; level < pyramid.getLevelCount(); level++) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int tx = Math.min(x >> level, pyramid.getWidth(level) - 1);
+                    int ty = Math.min(y >> level, pyramid.getHeight(level) - 1);
+                    Assertions.assertTrue(pyramid.getMaxDepth(level, tx, ty, tx, ty) >= depth[x + y * width], "Level " + level + " does not cover pixel " + x + ", " + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOccludedBehindWall() {
+        HiZPyramid pyramid = new HiZPyramid();
+        pyramid.set(64, 36, createWall(64, 36, 10.0F));
+
+        Assertions.assertFalse(pyramid.testAab(PROJECTION, -1.0F, -1.0F, -22.0F, 1.0F, 1.0F, -20.0F));
+        Assertions.assertTrue(pyramid.testAab(PROJECTION, -1.0F, -1.0F, -6.0F, 1.0F, 1.0F, -4.0F));
+        // Partially in front of the wall
+        Assertions.assertTrue(pyramid.testAab(PROJECTION, -1.0F, -1.0F, -20.0F, 1.0F, 1.0F, -8.0F));
+    }
+
+    @Test
+    public void testAlwaysVisible() {
+        HiZPyramid pyramid = new HiZPyramid();
+        Assertions.assertTrue(pyramid.testAab(PROJECTION, -1.0F, -1.0F, -22.0F, 1.0F, 1.0F, -20.0F), "Empty pyramid must not cull");
+
+        pyramid.set(64, 36, createWall(64, 36, 1.0F));
+        // Crosses the camera plane
+        Assertions.assertTrue(pyramid.testAab(PROJECTION, -1.0F, -1.0F, -20.0F, 1.0F, 1.0F, 1.0F));
+        // Entirely outside of the screen
+        Assertions.assertTrue(pyramid.testAab(PROJECTION, 100.0F, -1.0F, -22.0F, 102.0F, 1.0F, -20.0F));
+    }
+
+    @Test
+    public void testReducedBaseMatchesFullPyramid() {
+        int width = 64;
+        int height = 36;
+        float[] depth = createWall(width, height, 10.0F);
+        HiZPyramid full = new HiZPyramid();
+        full.set(width, height, depth);
+
+        // Same data, but starting from level 2 as if it was read back from the GPU
+        HiZPyramid reduced = new HiZPyramid();
+        FloatBuffer buffer = FloatBuffer.allocate(full.getWidth(2) * full.getHeight(2));
+        for (int y = 0; y < full.getHeight(2); y++) {
+            for (int x = 0; x < full.getWidth(2); x++) {
+                buffer.put(full.getMaxDepth(2, x, y, x, y));
+            }
+        }
+        buffer.flip();
+        reduced.set(width, height, 2, full.getWidth(2), full.getHeight(2), buffer);
+
+        Assertions.assertEquals(full.getLevelCount() - 2, reduced.getLevelCount());
+        Assertions.assertFalse(reduced.testAab(PROJECTION, -1.0F, -1.0F, -22.0F, 1.0F, 1.0F, -20.0F));
+        Assertions.assertTrue(reduced.testAab(PROJECTION, -1.0F, -1.0F, -6.0F, 1.0F, 1.0F, -4.0F));
+    }
+
+    @Test
+    public void testRandomBoxesAreConservative() {
+        Random random = new Random(11);
+        int width = 96;
+        int height = 54;
+        float[] depth = new float[width * height];
+        Vector4f pos = new Vector4f();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float distance = 2.0F + random.nextFloat() * 40.0F;
+                PROJECTION.transform(pos.set(0.0F, 0.0F, -distance, 1.0F));
+                depth[x + y * width] = pos.z / pos.w * 0.5F + 0.5F;
+            }
+        }
+
+        HiZPyramid pyramid = new HiZPyramid();
+        pyramid.set(width, height, depth);
+
+        int occluded = 0;
+        for (int i = 0; i < 2000; i++) {
+            float x = (random.nextFloat() - 0.5F) * 40.0F;
+            float y = (random.nextFloat() - 0.5F) * 20.0F;
+            float z = -1.0F - random.nextFloat() * 100.0F;
+            float size = random.nextFloat() * 4.0F;
+            if (pyramid.testAab(PROJECTION, x, y, z, x + size, y + size, z + size)) {
+                continue;
+            }
+
+            occluded++;
+            // Brute force the same box against every covered pixel
+            float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+            for (int c = 0; c < 8; c++) {
+                PROJECTION.transform(pos.set((c & 1) == 0 ? x : x + size, (c & 2) == 0 ? y : y + size, (c & 4) == 0 ? z : z + size, 1.0F));
+                minX = Math.min(minX, pos.x / pos.w);
+                minY = Math.min(minY, pos.y / pos.w);
+                maxX = Math.max(maxX, pos.x / pos.w);
+                maxY = Math.max(maxY, pos.y / pos.w);
+                minZ = Math.min(minZ, pos.z / pos.w);
+            }
+            int x0 = Math.max(0, (int) Math.floor((minX * 0.5F + 0.5F) * width));
+            int y0 = Math.max(0, (int) Math.floor((minY * 0.5F + 0.5F) * height));
+            int x1 = Math.min(width - 1, (int) Math.floor((maxX * 0.5F + 0.5F) * width));
+            int y1 = Math.min(height - 1, (int) Math.floor((maxY * 0.5F + 0.5F) * height));
+            for (int py = y0; py <= y1; py++) {
+                for (int px = x0; px <= x1; px++) {
+                    Assertions.assertTrue(depth[px + py * width] < minZ * 0.5F + 0.5F, "Box " + i + " was culled but is visible at " + px + ", " + py);
+                }
+            }
+        }
+        Assertions.assertTrue(occluded > 0, "Expected some boxes to be occluded");
+    }
+}
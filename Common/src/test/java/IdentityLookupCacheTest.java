@@ -0,0 +1,88 @@
+import foundry.veil.impl.client.render.deferred.IdentityLookupCache;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IdentityLookupCacheTest {
+
+    @Test
+    public void testResolvesOnce() {
+        AtomicInteger calls = new AtomicInteger();
+        IdentityLookupCache<Object, String> cache = new IdentityLookupCache<>(key -> {
+            calls.incrementAndGet();
+            return key.toString();
+        });
+
+        Object key = new Object();
+        String value = cache.get(key);
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertSame(value, cache.get(key));
+        }
+        Assertions.assertEquals(1, calls.get());
+        Assertions.assertEquals(100, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testMissingValuesAreCached() {
+        AtomicInteger calls = new AtomicInteger();
+        IdentityLookupCache<Object, String> cache = new IdentityLookupCache<>(key -> {
+            calls.incrementAndGet();
+            return null;
+        });
+
+        Object key = new Object();
+        Assertions.assertNull(cache.get(key));
+        Assertions.assertNull(cache.get(key));
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testIdentityKeys() {
+        IdentityLookupCache<String, String> cache = new IdentityLookupCache<>(key -> key);
+        String first = new String("shader");
+        String second = new String("shader");
+
+        Assertions.assertSame(first, cache.get(first));
+        Assertions.assertSame(second, cache.get(second));
+        Assertions.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testClear() {
+        AtomicInteger calls = new AtomicInteger();
+        IdentityLookupCache<Object, Integer> cache = new IdentityLookupCache<>(key -> calls.incrementAndGet());
+
+        Object key = new Object();
+        Assertions.assertEquals(1, cache.get(key));
+        cache.clear();
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertEquals(0, cache.getHits());
+        Assertions.assertEquals(2, cache.get(key));
+    }
+
+    @Test
+    public void benchmarkLookup() {
+        Object[] keys = new Object[64];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Object();
+        }
+        IdentityLookupCache<Object, Object> cache = new IdentityLookupCache<>(key -> key);
+
+        int iterations = 2_000_000;
+        long blackhole = 0;
+        for (int i = 0; i < iterations; i++) {
+            blackhole += cache.get(keys[i & 63]).hashCode();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            blackhole += cache.get(keys[i & 63]).hashCode();
+        }
+        long time = System.nanoTime() - start;
+
+        System.out.printf("Identity lookup: %.2f ns/op (%d)%n", (double) time / iterations, blackhole & 1);
+        Assertions.assertEquals(keys.length, cache.getMisses());
+    }
+}
@@ -0,0 +1,105 @@
+import foundry.veil.api.client.render.post.PostProcessingManager;
+import foundry.veil.impl.client.render.pipeline.PostExecutionPlan;
+import net.minecraft.resources.ResourceLocation;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+public class PostExecutionPlanTest {
+
+    private static ResourceLocation id(int i) {
+        return new ResourceLocation("veil", "pipeline_" + i);
+    }
+
+    @Test
+    public void testOrder() {
+        Map<ResourceLocation, String> pipelines = Map.of(id(0), "first", id(1), "second", id(2), "third");
+        List<PostProcessingManager.ProfileEntry> active = new ArrayList<>();
+        active.add(new PostProcessingManager.ProfileEntry(id(0), 1000));
+        active.add(new PostProcessingManager.ProfileEntry(id(1), 2000));
+        active.add(new PostProcessingManager.ProfileEntry(id(3), 1500));
+        active.add(new PostProcessingManager.ProfileEntry(id(2), 1000));
+
+        PostExecutionPlan<String> plan = PostExecutionPlan.compile(active, pipelines::get);
+
+        // Higher priorities run first, equal priorities keep the order they were added in, and missing pipelines are skipped
+        Assertions.assertEquals(3, plan.size());
+        Assertions.assertEquals("second", plan.getPipeline(0));
+        Assertions.assertEquals("first", plan.getPipeline(1));
+        Assertions.assertEquals("third", plan.getPipeline(2));
+        Assertions.assertEquals(id(1), plan.getId(0));
+
+        // The active list is sorted to match
+        Assertions.assertEquals(id(3), active.get(1).getPipeline());
+    }
+
+    @Test
+    public void testValidity() {
+        Map<ResourceLocation, String> pipelines = Map.of(id(0), "first", id(1), "second");
+        List<PostProcessingManager.ProfileEntry> active = new ArrayList<>();
+        active.add(new PostProcessingManager.ProfileEntry(id(0), 1000));
+        active.add(new PostProcessingManager.ProfileEntry(id(1), 1000));
+
+        PostExecutionPlan<String> plan = PostExecutionPlan.compile(active, pipelines::get);
+        Assertions.assertTrue(plan.isValid(active));
+        Assertions.assertEquals("first", plan.getPipeline(0));
+
+        // Changing the priority of an entry directly invalidates the plan
+        active.get(1).setPriority(2000);
+        Assertions.assertFalse(plan.isValid(active));
+        plan = PostExecutionPlan.compile(active, pipelines::get);
+        Assertions.assertTrue(plan.isValid(active));
+        Assertions.assertEquals("second", plan.getPipeline(0));
+
+        active.remove(0);
+        Assertions.assertFalse(plan.isValid(active));
+    }
+
+    @Test
+    public void testFrameOverhead() {
+        int frames = 100_000;
+        int pipelineCount = 10;
+        Map<ResourceLocation, String> pipelines = new HashMap<>();
+        List<PostProcessingManager.ProfileEntry> active = new ArrayList<>();
+        for (int i = 0; i < pipelineCount; i++) {
+            pipelines.put(id(i), "pipeline " + i);
+            active.add(new PostProcessingManager.ProfileEntry(id(i), 1000 + (i * 7) % 3));
+        }
+        List<PostProcessingManager.ProfileEntry> linkedActive = new LinkedList<>(active);
+
+        long sum = 0;
+        long sortTime = 0;
+        long planTime = 0;
+        for (int run = 0; run < 2; run++) {
+            // The old behavior sorted the active pipelines and looked each one up every frame
+            long start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                linkedActive.sort(PostExecutionPlan.PRIORITY_ORDER);
+                for (PostProcessingManager.ProfileEntry entry : linkedActive) {
+                    String pipeline = pipelines.get(entry.getPipeline());
+                    if (pipeline != null) {
+                        sum += pipeline.length();
+                    }
+                }
+            }
+            sortTime = System.nanoTime() - start;
+
+            PostExecutionPlan<String> plan = null;
+            start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                if (plan == null || !plan.isValid(active)) {
+                    plan = PostExecutionPlan.compile(active, pipelines::get);
+                }
+                for (int i = 0; i < plan.size(); i++) {
+                    sum += plan.getPipeline(i).length();
+                }
+            }
+            planTime = System.nanoTime() - start;
+        }
+
+        Assertions.assertTrue(sum > 0);
+        System.out.printf("%d frames with %d active pipelines: %.1f ns/frame sorting every frame, %.1f ns/frame with a compiled plan%n",
+                frames, pipelineCount, (double) sortTime / frames, (double) planTime / frames);
+    }
+}
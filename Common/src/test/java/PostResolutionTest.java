@@ -0,0 +1,57 @@
+import foundry.veil.impl.client.render.pipeline.PostResolution;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class PostResolutionTest {
+
+    @Test
+    public void testScale() {
+        Assertions.assertEquals(960, PostResolution.scale(1920, 0.5F));
+        Assertions.assertEquals(270, PostResolution.scale(1080, 0.25F));
+        // Odd sizes round up so the scaled image covers the last pixel
+        Assertions.assertEquals(541, PostResolution.scale(1081, 0.5F));
+        Assertions.assertEquals(1, PostResolution.scale(1, 0.25F));
+
+        Assertions.assertEquals(1920, PostResolution.scale(1920, 1.0F));
+        Assertions.assertEquals(1920, PostResolution.scale(1920, 2.0F));
+        Assertions.assertEquals(1920, PostResolution.scale(1920, Float.NaN));
+        Assertions.assertEquals(120, PostResolution.scale(1920, 0.0F));
+    }
+
+    @Test
+    public void testCheckerboardCoverage() {
+        int width = 7;
+        int height = 5;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Every pixel is shaded exactly once over two frames
+                Assertions.assertNotEquals(PostResolution.isShaded(x, y, 0), PostResolution.isShaded(x, y, 1));
+                Assertions.assertEquals(PostResolution.isShaded(x, y, 0), PostResolution.isShaded(x, y, 2));
+            }
+        }
+    }
+
+    @Test
+    public void testCheckerboardNeighbors() {
+        int width = 7;
+        int height = 5;
+        for (int frame = 0; frame < 2; frame++) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (PostResolution.isShaded(x, y, frame)) {
+                        continue;
+                    }
+
+                    // Unshaded pixels are reconstructed from their neighbors, which must have been shaded this frame
+                    int[][] offsets = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+                    for (int[] offset : offsets) {
+                        int nx = PostResolution.neighbor(x, offset[0], width);
+                        int ny = PostResolution.neighbor(y, offset[1], height);
+                        Assertions.assertTrue(nx >= 0 && nx < width && ny >= 0 && ny < height);
+                        Assertions.assertTrue(PostResolution.isShaded(nx, ny, frame), "Neighbor " + nx + "," + ny + " of " + x + "," + y + " isn't shaded");
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+import foundry.veil.api.client.render.framebuffer.FramebufferAttachmentDefinition.Format;
+import foundry.veil.impl.client.render.pipeline.PostShaderFusion;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public class PostShaderFusionTest {
+
+    private static final String TONEMAP = """
+            #include veil:color_utilities
+
+            uniform sampler2D DiffuseSampler0;
+            uniform float Exposure;
+
+            in vec2 texCoord;
+
+            out vec4 fragColor;
+
+            vec3 tonemap(vec3 color) {
+                return color / (color + 1.0);
+            }
+
+            void main() {
+                vec4 color = texture(DiffuseSampler0, texCoord);
+                fragColor = vec4(tonemap(color.rgb * Exposure), color.a);
+            }
+            """;
+    private static final String GRADE = """
+            uniform sampler2D DiffuseSampler0;
+            uniform vec3 Tint;
+
+            in vec2 texCoord;
+
+            // Same name as the output of the previous stage
+            out vec4 fragColor;
+
+            const float Strength = 0.5;
+
+            void main() {
+                vec4 color = texture( DiffuseSampler0 , texCoord );
+                fragColor = vec4(mix(color.rgb, color.rgb * Tint, Strength), color.a);
+            }
+            """;
+    private static final String VIGNETTE = """
+            #include veil:color_utilities
+
+            uniform sampler2D DiffuseSampler0;
+
+            in vec2 texCoord;
+
+            layout(location = 0) out vec4 OutColor;
+
+            float vignette(vec2 uv) {
+                vec2 d = uv - 0.5;
+                return 1.0 - dot(d, d);
+            }
+
+            void main() {
+                OutColor = texture(DiffuseSampler0, texCoord) * vignette(texCoord);
+            }
+            """;
+    private static final String BLUR = """
+            uniform sampler2D DiffuseSampler0;
+            uniform vec2 InSize;
+
+            in vec2 texCoord;
+
+            out vec4 fragColor;
+
+            void main() {
+                vec2 offset = 1.0 / InSize;
+                fragColor = (texture(DiffuseSampler0, texCoord - offset) + texture(DiffuseSampler0, texCoord + offset)) * 0.5;
+            }
+            """;
+
+    private static PostShaderFusion.Stage parse(String source) {
+        PostShaderFusion.Stage stage = PostShaderFusion.parse(source);
+        Assertions.assertNotNull(stage);
+        return stage;
+    }
+
+    @Test
+    public void testParse() {
+        PostShaderFusion.Stage tonemap = parse(TONEMAP);
+        Assertions.assertEquals(List.of("#include veil:color_utilities"), tonemap.includes());
+        Assertions.assertEquals("uniform float Exposure;", tonemap.uniforms().get("Exposure"));
+        Assertions.assertEquals("fragColor", tonemap.output());
+        Assertions.assertTrue(tonemap.declared().containsAll(List.of("main", "tonemap", "fragColor")));
+        Assertions.assertTrue(tonemap.isPointwise());
+
+        Assertions.assertEquals("OutColor", parse(VIGNETTE).output());
+        Assertions.assertTrue(parse(GRADE).declared().contains("Strength"));
+    }
+
+    @Test
+    public void testNeighborReads() {
+        // Blurs read other pixels, so they can only start a chain
+        PostShaderFusion.Stage blur = parse(BLUR);
+        Assertions.assertFalse(blur.isPointwise());
+        Assertions.assertFalse(PostShaderFusion.canAppend(List.of(parse(TONEMAP)), blur));
+        Assertions.assertTrue(PostShaderFusion.canAppend(List.of(blur), parse(TONEMAP)));
+        Assertions.assertFalse(parse(TONEMAP.replace("texture(DiffuseSampler0, texCoord)", "texelFetch(DiffuseSampler0, ivec2(gl_FragCoord.xy), 0)")).isPointwise());
+    }
+
+    @Test
+    public void testUnsupported() {
+        Assertions.assertNull(PostShaderFusion.parse(GRADE.replace("fragColor = ", "if (color.a == 0.0) discard;\n    fragColor = ")));
+        Assertions.assertNull(PostShaderFusion.parse("#define SCALE 2.0\n" + GRADE));
+        Assertions.assertNull(PostShaderFusion.parse(GRADE.replace("in vec2 texCoord;", "in vec2 texCoord;\nout vec4 Second;")));
+        Assertions.assertNull(PostShaderFusion.parse(GRADE.replace("uniform vec3 Tint;", "layout(std140) uniform Grade { vec3 Tint; };")));
+    }
+
+    @Test
+    public void testUniformConflict() {
+        PostShaderFusion.Stage grade = parse(GRADE);
+        PostShaderFusion.Stage conflict = parse(VIGNETTE.replace("uniform sampler2D DiffuseSampler0;", "uniform sampler2D DiffuseSampler0;\nuniform float Tint;"));
+        Assertions.assertFalse(PostShaderFusion.canAppend(List.of(grade), conflict));
+
+        // Even identical declarations could be set to different values for each stage
+        PostShaderFusion.Stage tint = parse(VIGNETTE.replace("uniform sampler2D DiffuseSampler0;", "uniform sampler2D DiffuseSampler0;\nuniform vec3 Tint;"));
+        Assertions.assertFalse(PostShaderFusion.canAppend(List.of(grade), tint));
+
+        // Samplers and uniforms set the same way for every stage can be shared
+        PostShaderFusion.Stage time = parse(GRADE.replace("uniform vec3 Tint;", "uniform float GameTime;").replace("color.rgb * Tint", "color.rgb * GameTime"));
+        PostShaderFusion.Stage vignetteTime = parse(VIGNETTE.replace("uniform sampler2D DiffuseSampler0;", "uniform sampler2D DiffuseSampler0;\nuniform float GameTime;"));
+        Assertions.assertTrue(PostShaderFusion.canAppend(List.of(time), vignetteTime));
+    }
+
+    @Test
+    public void testExternalUniforms() {
+        Assertions.assertTrue(PostShaderFusion.hasExternalUniforms(parse(TONEMAP)));
+        Assertions.assertTrue(PostShaderFusion.hasExternalUniforms(parse(GRADE)));
+        Assertions.assertFalse(PostShaderFusion.hasExternalUniforms(parse(VIGNETTE)));
+        Assertions.assertFalse(PostShaderFusion.hasExternalUniforms(parse(BLUR)));
+        Assertions.assertFalse(PostShaderFusion.hasExternalUniforms(parse(VIGNETTE.replace("uniform sampler2D DiffuseSampler0;", "uniform usampler2D DiffuseSampler0;"))));
+    }
+
+    @Test
+    public void testGenerate() {
+        List<PostShaderFusion.Stage> stages = List.of(parse(TONEMAP), parse(GRADE), parse(VIGNETTE));
+        String source = PostShaderFusion.generate(stages, List.of(PostShaderFusion.getBoundary(Format.RGBA32F), PostShaderFusion.getBoundary(Format.RGBA8)));
+
+        // Includes and uniforms are only declared once
+        Assertions.assertEquals(1, count(source, "#include veil:color_utilities"));
+        Assertions.assertEquals(1, count(source, "uniform sampler2D DiffuseSampler0;"));
+        Assertions.assertEquals(1, count(source, "out vec4 " + PostShaderFusion.OUTPUT + ";"));
+
+        // Only the first stage reads the input framebuffer
+        Assertions.assertEquals(1, count(source, "texture(DiffuseSampler0, texCoord)"));
+        Assertions.assertTrue(source.contains("vec4 color = veil_input1;"));
+        Assertions.assertTrue(source.contains("OutColor_veil2 = veil_input2 * vignette_veil2(texCoord);"));
+
+        // Names from different stages don't collide
+        Assertions.assertTrue(source.contains("vec4 fragColor_veil0;"));
+        Assertions.assertTrue(source.contains("vec4 fragColor_veil1;"));
+        Assertions.assertTrue(source.contains("mix(color.rgb, color.rgb * Tint, Strength_veil1)"));
+        Assertions.assertTrue(source.contains("fragColor_veil0 = vec4(tonemap_veil0(color.rgb * Exposure), color.a);"));
+
+        // Intermediate framebuffers are emulated at each boundary
+        Assertions.assertTrue(source.contains("veil_input1 = fragColor_veil0;"));
+        Assertions.assertTrue(source.contains("veil_input2 = round(clamp(fragColor_veil1, 0.0, 1.0) * 255.0) / 255.0;"));
+        Assertions.assertTrue(source.contains(PostShaderFusion.OUTPUT + " = OutColor_veil2;"));
+        Assertions.assertEquals(1, count(source, "void main()"));
+    }
+
+    @Test
+    public void testBoundary() {
+        Assertions.assertEquals("%s", PostShaderFusion.getBoundary(Format.RGBA32F));
+        Assertions.assertEquals("vec4((%s).rgb, 1.0)", PostShaderFusion.getBoundary(Format.RGB32F));
+        Assertions.assertEquals("round(clamp(%s, 0.0, 1.0) * 255.0) / 255.0", PostShaderFusion.getBoundary(Format.RGBA8));
+        Assertions.assertEquals("vec4(round(clamp((%s).r, 0.0, 1.0) * 255.0) / 255.0, 0.0, 0.0, 1.0)", PostShaderFusion.getBoundary(Format.R8));
+
+        // Alpha is stored with less precision, not dropped
+        Assertions.assertEquals("round(clamp(%s, 0.0, 1.0) * vec4(1023.0, 1023.0, 1023.0, 3.0)) / vec4(1023.0, 1023.0, 1023.0, 3.0)", PostShaderFusion.getBoundary(Format.RGB10_A2));
+        Assertions.assertEquals("vec4(round(clamp((%s).rg, -1.0, 1.0) * 127.0) / 127.0, 0.0, 1.0)", PostShaderFusion.getBoundary(Format.RG8_SNORM));
+    }
+
+    @Test
+    public void testInexactBoundary() {
+        // These can't be reproduced exactly, so stages writing them are never fused
+        for (Format format : List.of(Format.R11F_G11F_B10F, Format.RGBA16F, Format.RGB5_A1, Format.RGBA, Format.SRGB8_ALPHA8, Format.RGBA8UI, Format.R32I, Format.RGB10_A2UI, Format.DEPTH_COMPONENT24)) {
+            Assertions.assertNull(PostShaderFusion.getBoundary(format), format.name());
+        }
+    }
+
+    private static int count(String text, String value) {
+        int count = 0;
+        int index = text.indexOf(value);
+        while (index != -1) {
+            count++;
+            index = text.indexOf(value, index + value.length());
+        }
+        return count;
+    }
+}
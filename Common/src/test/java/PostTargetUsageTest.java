@@ -0,0 +1,76 @@
+import foundry.veil.impl.client.render.pipeline.PostTargetUsage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import static foundry.veil.impl.client.render.pipeline.PostTargetUsage.*;
+
+public class PostTargetUsageTest {
+
+    private static int sequence(int... accesses) {
+        int result = NONE;
+        for (int access : accesses) {
+            result = then(result, access);
+        }
+        return result;
+    }
+
+    @Test
+    public void testReadAndDraw() {
+        // A typical effect reads the scene and draws back over it
+        int access = sequence(READ, write(true));
+        Assertions.assertTrue(needsCopyIn(access));
+        Assertions.assertTrue(needsCopyOut(access));
+
+        // Drawing on top of the scene needs the scene even without reading it
+        Assertions.assertTrue(needsCopyIn(sequence(write(false))));
+    }
+
+    @Test
+    public void testOverwrite() {
+        // Nothing reads the scene, so it is never copied in
+        int access = sequence(write(true), NONE);
+        Assertions.assertFalse(needsCopyIn(access));
+        Assertions.assertTrue(needsCopyOut(access));
+
+        // Clears don't replace the depth, so later stages can still read the scene
+        Assertions.assertTrue(needsCopyIn(sequence(write(true), READ)));
+    }
+
+    @Test
+    public void testReadOnly() {
+        // Stages that only read the scene into their own framebuffers don't change it
+        int access = sequence(READ, NONE, READ);
+        Assertions.assertTrue(needsCopyIn(access));
+        Assertions.assertFalse(needsCopyOut(access));
+
+        Assertions.assertFalse(needsCopyIn(NONE));
+        Assertions.assertFalse(needsCopyOut(NONE));
+    }
+
+    @Test
+    public void testDepth() {
+        // Blits can't write depth unless a mask enabled it
+        Assertions.assertFalse(needsDepthCopyOut(sequence(READ, write(false))));
+        Assertions.assertFalse(needsDepthCopyOut(sequence(write(true))));
+        Assertions.assertTrue(needsDepthCopyOut(sequence(READ | DEPTH, write(true))));
+
+        // Enabling depth writes doesn't matter if nothing draws into the framebuffer
+        Assertions.assertFalse(needsDepthCopyOut(sequence(READ | DEPTH, READ)));
+        Assertions.assertTrue(needsDepthCopyOut(UNKNOWN));
+    }
+
+    @Test
+    public void testUnknown() {
+        Assertions.assertTrue(needsCopyIn(UNKNOWN));
+        Assertions.assertTrue(needsCopyOut(UNKNOWN));
+    }
+
+    @Test
+    public void testGrouping() {
+        // Nested pipelines are combined the same way as flat ones
+        int[] stages = {NONE, write(true), READ, UNKNOWN, write(false)};
+        int flat = sequence(stages);
+        int nested = then(sequence(stages[0], stages[1]), sequence(stages[2], stages[3], stages[4]));
+        Assertions.assertEquals(flat, nested);
+    }
+}
@@ -0,0 +1,112 @@
+import foundry.veil.impl.client.render.shader.ProgramBinaryCache;
+import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ProgramBinaryCacheTest {
+
+    private static final String DRIVER = "Mesa\nllvmpipe (LLVM 15.0.7, 256 bits)\n4.5 (Core Profile) Mesa 23.2.1";
+
+    private static Int2ObjectMap<String> sources(String vertex, String fragment) {
+        Int2ObjectMap<String> sources = new Int2ObjectArrayMap<>();
+        sources.put(0x8B31, vertex);
+        sources.put(0x8B30, fragment);
+        return sources;
+    }
+
+    @Test
+    public void testKey() {
+        ProgramBinaryCache cache = new ProgramBinaryCache(Path.of("unused"), DRIVER, 1024);
+        String key = cache.getKey(sources("void main(){}", "out vec4 c;void main(){}"));
+        Assertions.assertEquals(64, key.length());
+
+        Int2ObjectMap<String> reversed = new Int2ObjectArrayMap<>();
+        reversed.put(0x8B30, "out vec4 c;void main(){}");
+        reversed.put(0x8B31, "void main(){}");
+        Assertions.assertEquals(key, cache.getKey(reversed), "Stage order must not change the key");
+
+        Assertions.assertNotEquals(key, cache.getKey(sources("void main(){ }", "out vec4 c;void main(){}")));
+        // Moving text between stages must not produce the same key
+        Assertions.assertNotEquals(cache.getKey(sources("ab", "c")), cache.getKey(sources("a", "bc")));
+        Assertions.assertNotEquals(key, new ProgramBinaryCache(Path.of("unused"), DRIVER + " (updated)", 1024).getKey(sources("void main(){}", "out vec4 c;void main(){}")));
+    }
+
+    @Test
+    public void testRoundTrip(@TempDir Path folder) throws IOException {
+        ProgramBinaryCache cache = new ProgramBinaryCache(folder, DRIVER, 1024);
+        Assertions.assertNull(cache.get("a"));
+        Assertions.assertFalse(cache.contains("a"));
+        cache.put("a", 42, new byte[]{1, 2, 3, 4});
+        Assertions.assertTrue(cache.contains("a"));
+
+        // A new instance simulates the next startup
+        ProgramBinaryCache warm = new ProgramBinaryCache(folder, DRIVER, 1024);
+        ProgramBinaryCache.Binary binary = warm.get("a");
+        Assertions.assertNotNull(binary);
+        Assertions.assertEquals(42, binary.format());
+        Assertions.assertArrayEquals(new byte[]{1, 2, 3, 4}, binary.data());
+        Assertions.assertEquals(1, warm.getHits());
+        Assertions.assertEquals(0, warm.getMisses());
+    }
+
+    @Test
+    public void testDriverChange(@TempDir Path folder) throws IOException {
+        new ProgramBinaryCache(folder, DRIVER, 1024).put("a", 1, new byte[16]);
+
+        ProgramBinaryCache cache = new ProgramBinaryCache(folder, "Other Driver", 1024);
+        Assertions.assertNull(cache.get("a"));
+        Assertions.assertEquals(0, cache.getEntryCount());
+        Assertions.assertFalse(Files.exists(folder.resolve("a.bin")));
+    }
+
+    @Test
+    public void testEviction(@TempDir Path folder) throws IOException {
+        // Each entry is 16 bytes of header and 32 bytes of data
+        ProgramBinaryCache cache = new ProgramBinaryCache(folder, DRIVER, 48 * 3);
+        cache.put("a", 1, new byte[32]);
+        cache.put("b", 1, new byte[32]);
+        cache.put("c", 1, new byte[32]);
+        Assertions.assertNotNull(cache.get("a"));
+
+        // "b" is now the least recently used
+        cache.put("d", 1, new byte[32]);
+        Assertions.assertEquals(3, cache.getEntryCount());
+        Assertions.assertEquals(48 * 3, cache.getSize());
+        Assertions.assertNull(cache.get("b"));
+        Assertions.assertNotNull(cache.get("a"));
+        Assertions.assertNotNull(cache.get("c"));
+        Assertions.assertNotNull(cache.get("d"));
+
+        // Too large to ever fit
+        cache.put("e", 1, new byte[1024]);
+        Assertions.assertNull(cache.get("e"));
+    }
+
+    @Test
+    public void testCorruptedEntry(@TempDir Path folder) throws IOException {
+        ProgramBinaryCache cache = new ProgramBinaryCache(folder, DRIVER, 1024);
+        cache.put("a", 1, new byte[64]);
+        Files.write(folder.resolve("a.bin"), new byte[]{1, 2, 3});
+
+        ProgramBinaryCache reloaded = new ProgramBinaryCache(folder, DRIVER, 1024);
+        Assertions.assertNull(reloaded.get("a"));
+        Assertions.assertEquals(0, reloaded.getEntryCount());
+        Assertions.assertFalse(Files.exists(folder.resolve("a.bin")));
+    }
+
+    @Test
+    public void testReject(@TempDir Path folder) throws IOException {
+        ProgramBinaryCache cache = new ProgramBinaryCache(folder, DRIVER, 1024);
+        cache.put("a", 1, new byte[8]);
+        cache.reject("a");
+        Assertions.assertEquals(1, cache.getRejected());
+        Assertions.assertEquals(0, cache.getSize());
+        Assertions.assertNull(cache.get("a"));
+    }
+}
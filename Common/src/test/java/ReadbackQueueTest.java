@@ -0,0 +1,66 @@
+import foundry.veil.impl.client.render.ReadbackQueue;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ReadbackQueueTest {
+
+    private final ReadbackQueue<String> queue = new ReadbackQueue<>();
+    private final Set<String> finished = new HashSet<>();
+    private final List<String> completed = new ArrayList<>();
+
+    private int endFrame() {
+        return this.queue.endFrame(this.finished::contains, this.completed::add);
+    }
+
+    @Test
+    public void testFrameDelay() {
+        this.queue.add("a");
+        this.finished.add("a");
+
+        // Readbacks are never checked during the frame they were queued in
+        Assertions.assertEquals(0, this.endFrame());
+        Assertions.assertEquals(1, this.queue.size());
+
+        Assertions.assertEquals(1, this.endFrame());
+        Assertions.assertEquals(List.of("a"), this.completed);
+        Assertions.assertEquals(0, this.queue.size());
+    }
+
+    @Test
+    public void testOrder() {
+        this.queue.add("a");
+        this.queue.add("b");
+        this.endFrame();
+        this.queue.add("c");
+
+        // b can't finish before a on the GPU, so it isn't checked until a is done
+        this.finished.add("b");
+        this.finished.add("c");
+        Assertions.assertEquals(0, this.endFrame());
+
+        this.finished.add("a");
+        Assertions.assertEquals(3, this.endFrame());
+        Assertions.assertEquals(List.of("a", "b", "c"), this.completed);
+    }
+
+    @Test
+    public void testClear() {
+        this.queue.add("a");
+        this.queue.add("b");
+
+        List<String> discarded = new ArrayList<>();
+        this.queue.clear(discarded::add);
+        Assertions.assertEquals(List.of("a", "b"), discarded);
+        Assertions.assertEquals(0, this.queue.size());
+
+        this.finished.add("a");
+        this.endFrame();
+        Assertions.assertEquals(0, this.endFrame());
+        Assertions.assertTrue(this.completed.isEmpty());
+    }
+}
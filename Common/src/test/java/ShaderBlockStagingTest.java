@@ -0,0 +1,187 @@
+import foundry.veil.impl.client.render.shader.definition.DirtyRangeSet;
+import foundry.veil.impl.client.render.shader.definition.ShaderBlockStaging;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+public class ShaderBlockStagingTest {
+
+    private static final int SSBO_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Writes every float in the buffer as its own index plus the value.
+     */
+    private static final BiConsumer<Float, ByteBuffer> SERIALIZER = (value, buffer) -> {
+        for (int i = 0; buffer.remaining() >= Float.BYTES; i++) {
+            buffer.putFloat(i + value);
+        }
+    };
+
+    /**
+     * Copies every uploaded range into a separate buffer like the GPU buffer would.
+     */
+    private static ShaderBlockStaging.Uploader copyTo(ByteBuffer target, long[] uploaded) {
+        return (offset, size, address) -> {
+            MemoryUtil.memCopy(address, MemoryUtil.memAddress(target) + offset, size);
+            uploaded[0] += size;
+            uploaded[1]++;
+        };
+    }
+
+    @Test
+    public void testRanges() {
+        DirtyRangeSet ranges = new DirtyRangeSet(16, 4);
+        ranges.add(100, 104);
+        ranges.add(0, 4);
+        ranges.add(200, 208);
+        Assertions.assertEquals(3, ranges.getCount());
+        Assertions.assertEquals(0, ranges.getStart(0));
+        Assertions.assertEquals(100, ranges.getStart(1));
+        Assertions.assertEquals(200, ranges.getStart(2));
+
+        // Ranges closer than the gap are merged
+        ranges.add(110, 120);
+        Assertions.assertEquals(3, ranges.getCount());
+        Assertions.assertEquals(100, ranges.getStart(1));
+        Assertions.assertEquals(120, ranges.getEnd(1));
+
+        // A range covering multiple ranges replaces all of them
+        ranges.add(90, 210);
+        Assertions.assertEquals(2, ranges.getCount());
+        Assertions.assertEquals(90, ranges.getStart(1));
+        Assertions.assertEquals(210, ranges.getEnd(1));
+        Assertions.assertEquals(4 + 120, ranges.getDirtyBytes());
+
+        // Too many ranges merges the closest pair
+        ranges.add(1000, 1004);
+        ranges.add(2000, 2004);
+        ranges.add(2100, 2104);
+        Assertions.assertEquals(4, ranges.getCount());
+        Assertions.assertEquals(0, ranges.getStart(0));
+        Assertions.assertEquals(210, ranges.getEnd(0));
+        Assertions.assertEquals(2000, ranges.getStart(2));
+        Assertions.assertEquals(2100, ranges.getStart(3));
+
+        ranges.add(5, 5);
+        Assertions.assertEquals(4, ranges.getCount());
+        ranges.clear();
+        Assertions.assertTrue(ranges.isEmpty());
+    }
+
+    @Test
+    public void testLargeBlock() {
+        ByteBuffer gpu = MemoryUtil.memCalloc(SSBO_SIZE);
+        ShaderBlockStaging staging = new ShaderBlockStaging(SSBO_SIZE);
+        try {
+            long[] uploaded = new long[2];
+            ShaderBlockStaging.Uploader uploader = copyTo(gpu, uploaded);
+
+            // The whole block is uploaded the first time
+            staging.serialize(1.0F, SERIALIZER);
+            Assertions.assertEquals(SSBO_SIZE, staging.upload(uploader));
+            Assertions.assertEquals(SSBO_SIZE - Float.BYTES + 1.0F, gpu.getFloat(SSBO_SIZE - Float.BYTES), 1.0F);
+            Assertions.assertFalse(staging.isDirty());
+
+            // Writing single fields only uploads those fields
+            uploaded[0] = 0;
+            uploaded[1] = 0;
+            staging.write(0, Float.BYTES).putFloat(0, -1.0F);
+            staging.write(SSBO_SIZE / 2, Float.BYTES * 4).putFloat(12, -2.0F);
+            staging.write(SSBO_SIZE - Float.BYTES, Float.BYTES).putFloat(0, -3.0F);
+            Assertions.assertTrue(staging.isDirty());
+            Assertions.assertEquals(Float.BYTES * 6, staging.upload(uploader));
+            Assertions.assertEquals(3, uploaded[1]);
+            Assertions.assertEquals(-1.0F, gpu.getFloat(0));
+            Assertions.assertEquals(-2.0F, gpu.getFloat(SSBO_SIZE / 2 + 12));
+            Assertions.assertEquals(-3.0F, gpu.getFloat(SSBO_SIZE - Float.BYTES));
+            Assertions.assertEquals(1.0F + 1.0F, gpu.getFloat(Float.BYTES));
+
+            // The staging memory always matches what was uploaded
+            Assertions.assertEquals(0, MemoryUtil.memByteBuffer(MemoryUtil.memAddress(gpu), SSBO_SIZE).compareTo(staging.getData()));
+            Assertions.assertThrows(IndexOutOfBoundsException.class, () -> staging.write(SSBO_SIZE - 2, Float.BYTES));
+
+            // Clearing the value uploads everything again
+            staging.serialize(null, SERIALIZER);
+            Assertions.assertEquals(SSBO_SIZE, staging.upload(uploader));
+            Assertions.assertEquals(0.0F, gpu.getFloat(SSBO_SIZE / 2 + 12));
+        } finally {
+            staging.free();
+            MemoryUtil.memFree(gpu);
+        }
+    }
+
+    @Test
+    public void testResize() {
+        ShaderBlockStaging staging = new ShaderBlockStaging(0);
+        try {
+            long[] uploaded = new long[2];
+            Assertions.assertFalse(staging.isDirty());
+            Assertions.assertEquals(0, staging.upload((offset, size, address) -> uploaded[0] += size));
+
+            staging.resize(256);
+            Assertions.assertEquals(256, staging.getData().remaining());
+            Assertions.assertEquals(256, staging.upload((offset, size, address) -> uploaded[0] += size));
+            staging.write(252, Float.BYTES).putFloat(0, 1.0F);
+            Assertions.assertEquals(Float.BYTES, staging.getDirtyRanges().getDirtyBytes());
+        } finally {
+            staging.free();
+        }
+    }
+
+    @Test
+    public void testUploadedBytesPerFrame() {
+        int frames = 60;
+        int fieldsPerFrame = 64;
+        ByteBuffer gpu = MemoryUtil.memCalloc(SSBO_SIZE);
+        ShaderBlockStaging staging = new ShaderBlockStaging(SSBO_SIZE);
+        try {
+            long[] uploaded = new long[2];
+            ShaderBlockStaging.Uploader uploader = copyTo(gpu, uploaded);
+            staging.serialize(0.0F, SERIALIZER);
+            staging.upload(uploader);
+
+            long fullBytes = 0;
+            long rangeBytes = 0;
+            long fullTime = 0;
+            long rangeTime = 0;
+            for (int run = 0; run < 2; run++) {
+                Random random = new Random(3);
+
+                // The old behavior serialized and uploaded the entire block every time anything changed
+                uploaded[0] = 0;
+                long start = System.nanoTime();
+                for (int frame = 0; frame < frames; frame++) {
+                    staging.serialize((float) frame, SERIALIZER);
+                    staging.upload(uploader);
+                }
+                fullTime = System.nanoTime() - start;
+                fullBytes = uploaded[0] / frames;
+
+                uploaded[0] = 0;
+                uploaded[1] = 0;
+                start = System.nanoTime();
+                for (int frame = 0; frame < frames; frame++) {
+                    for (int i = 0; i < fieldsPerFrame; i++) {
+                        int field = random.nextInt(SSBO_SIZE / Float.BYTES);
+                        staging.write((long) field * Float.BYTES, Float.BYTES).putFloat(0, frame);
+                    }
+                    staging.upload(uploader);
+                }
+                rangeTime = System.nanoTime() - start;
+                rangeBytes = uploaded[0] / frames;
+            }
+
+            Assertions.assertEquals(SSBO_SIZE, fullBytes);
+            Assertions.assertTrue(rangeBytes < SSBO_SIZE / 100, "Uploaded " + rangeBytes + " bytes per frame");
+            System.out.printf("%d frames of %d field changes in a %d MB block: %d bytes/frame in %.3f ms with full uploads, %d bytes/frame (%d uploads/frame) in %.3f ms with dirty ranges%n",
+                    frames, fieldsPerFrame, SSBO_SIZE / 1024 / 1024, fullBytes, fullTime / 1.0E6, rangeBytes, uploaded[1] / frames, rangeTime / 1.0E6);
+        } finally {
+            staging.free();
+            MemoryUtil.memFree(gpu);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import foundry.veil.impl.client.render.shader.ShaderCompileProfiler;
+import net.minecraft.resources.ResourceLocation;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ShaderCompileProfilerTest {
+
+    private static final ResourceLocation FIRST = new ResourceLocation("veil", "first");
+    private static final ResourceLocation SECOND = new ResourceLocation("veil", "second");
+
+    /**
+     * A clock that advances by 1 ms every time it is read.
+     */
+    private static ShaderCompileProfiler createProfiler(AtomicInteger reads) {
+        ShaderCompileProfiler profiler = new ShaderCompileProfiler(() -> reads.incrementAndGet() * 1_000_000L);
+        profiler.setEnabled(true);
+        return profiler;
+    }
+
+    private static void compileProgram(ShaderCompileProfiler profiler, ResourceLocation id, boolean cached) {
+        ResourceLocation previous = profiler.pushProgram(id);
+        long programStart = profiler.begin();
+        profiler.mark(cached ? ShaderCompileProfiler.EventType.SHADER_CACHE_HIT : ShaderCompileProfiler.EventType.SHADER_CACHE_MISS, id);
+        if (!cached) {
+            long compileStart = profiler.begin();
+            profiler.end(compileStart, ShaderCompileProfiler.EventType.COMPILE, id);
+        }
+        long linkStart = profiler.begin();
+        profiler.end(linkStart, ShaderCompileProfiler.EventType.LINK, id);
+        profiler.end(programStart, ShaderCompileProfiler.EventType.PROGRAM, id);
+        profiler.popProgram(previous);
+    }
+
+    @Test
+    public void testDisabled() {
+        AtomicInteger reads = new AtomicInteger();
+        ShaderCompileProfiler profiler = new ShaderCompileProfiler(reads::incrementAndGet);
+
+        long start = profiler.begin();
+        Assertions.assertEquals(ShaderCompileProfiler.DISABLED, start);
+        Assertions.assertNull(profiler.pushProgram(FIRST));
+        profiler.mark(ShaderCompileProfiler.EventType.SHADER_CACHE_HIT, FIRST);
+        profiler.end(start, ShaderCompileProfiler.EventType.COMPILE, FIRST);
+        profiler.popProgram(null);
+
+        // The clock is never read while disabled
+        Assertions.assertEquals(0, reads.get());
+        Assertions.assertEquals(0, profiler.getEventCount());
+
+        // Spans started before recording was enabled are ignored
+        profiler.setEnabled(true);
+        profiler.end(start, ShaderCompileProfiler.EventType.COMPILE, FIRST);
+        Assertions.assertEquals(0, profiler.getEventCount());
+    }
+
+    @Test
+    public void testSummaries() {
+        ShaderCompileProfiler profiler = createProfiler(new AtomicInteger());
+        compileProgram(profiler, FIRST, false);
+        compileProgram(profiler, SECOND, true);
+
+        List<ShaderCompileProfiler.ProgramSummary> summaries = profiler.getSummaries();
+        Assertions.assertEquals(2, summaries.size());
+        ShaderCompileProfiler.ProgramSummary first = summaries.stream().filter(summary -> summary.getProgram().equals(FIRST)).findFirst().orElseThrow();
+        ShaderCompileProfiler.ProgramSummary second = summaries.stream().filter(summary -> summary.getProgram().equals(SECOND)).findFirst().orElseThrow();
+
+        // program start, cache miss, compile start, compile end, link start, link end, program end
+        Assertions.assertEquals(1_000_000L, first.getTime(ShaderCompileProfiler.EventType.COMPILE));
+        Assertions.assertEquals(1_000_000L, first.getTime(ShaderCompileProfiler.EventType.LINK));
+        Assertions.assertEquals(6_000_000L, first.getTotalTime());
+        Assertions.assertEquals(0, first.getCacheHits());
+        Assertions.assertEquals(1, first.getCacheMisses());
+        Assertions.assertEquals(1_000_000L, first.getStart());
+        Assertions.assertEquals(7_000_000L, first.getEnd());
+
+        Assertions.assertEquals(0, second.getTime(ShaderCompileProfiler.EventType.COMPILE));
+        Assertions.assertEquals(4_000_000L, second.getTotalTime());
+        Assertions.assertEquals(1, second.getCacheHits());
+        Assertions.assertEquals(0, second.getCacheMisses());
+        Assertions.assertEquals(1_000_000L, profiler.getOrigin());
+
+        // Events outside a program are recorded, but not part of any summary
+        long start = profiler.begin();
+        profiler.end(start, ShaderCompileProfiler.EventType.READ, "includes");
+        Assertions.assertEquals(2, profiler.getSummaries().size());
+
+        profiler.clear();
+        Assertions.assertEquals(0, profiler.getEventCount());
+        Assertions.assertTrue(profiler.getSummaries().isEmpty());
+    }
+
+    @Test
+    public void testNestedPrograms() {
+        ShaderCompileProfiler profiler = createProfiler(new AtomicInteger());
+        ResourceLocation previous = profiler.pushProgram(FIRST);
+        compileProgram(profiler, SECOND, true);
+        profiler.mark(ShaderCompileProfiler.EventType.PATCH_CACHE_HIT, "modifier");
+        profiler.popProgram(previous);
+        profiler.mark(ShaderCompileProfiler.EventType.PATCH_CACHE_MISS, "modifier");
+
+        List<ShaderCompileProfiler.Event> events = profiler.getEvents();
+        Assertions.assertEquals(SECOND, events.get(0).program());
+        Assertions.assertEquals(FIRST, events.get(events.size() - 2).program());
+        Assertions.assertNull(events.get(events.size() - 1).program());
+
+        // Disabling while a program is pushed still resets the thread
+        previous = profiler.pushProgram(FIRST);
+        profiler.setEnabled(false);
+        profiler.popProgram(previous);
+        profiler.setEnabled(true);
+        profiler.mark(ShaderCompileProfiler.EventType.PATCH_CACHE_MISS, "modifier");
+        events = profiler.getEvents();
+        Assertions.assertNull(events.get(events.size() - 1).program());
+    }
+
+    @Test
+    public void testChromeTrace() throws IOException {
+        ShaderCompileProfiler profiler = createProfiler(new AtomicInteger());
+        compileProgram(profiler, FIRST, false);
+
+        StringWriter writer = new StringWriter();
+        profiler.writeChromeTrace(writer);
+        JsonObject json = JsonParser.parseString(writer.toString()).getAsJsonObject();
+        JsonArray events = json.getAsJsonArray("traceEvents");
+
+        int spans = 0;
+        int instants = 0;
+        for (JsonElement element : events) {
+            JsonObject event = element.getAsJsonObject();
+            String phase = event.get("ph").getAsString();
+            if ("M".equals(phase)) {
+                Assertions.assertEquals(Thread.currentThread().getName(), event.getAsJsonObject("args").get("name").getAsString());
+                continue;
+            }
+
+            Assertions.assertEquals(FIRST.toString(), event.getAsJsonObject("args").get("program").getAsString());
+            if ("X".equals(phase)) {
+                spans++;
+                if ("Program".equals(event.get("cat").getAsString())) {
+                    // Times are in microseconds relative to the first event
+                    Assertions.assertEquals(0.0, event.get("ts").getAsDouble());
+                    Assertions.assertEquals(6000.0, event.get("dur").getAsDouble());
+                }
+            } else {
+                Assertions.assertEquals("i", phase);
+                instants++;
+            }
+        }
+        Assertions.assertEquals(3, spans);
+        Assertions.assertEquals(1, instants);
+    }
+
+    @Test
+    public void testDisabledOverhead() {
+        int iterations = 10_000_000;
+        ShaderCompileProfiler profiler = new ShaderCompileProfiler(System::nanoTime);
+
+        long sum = 0;
+        long baseTime = 0;
+        long disabledTime = 0;
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sum += i;
+            }
+            baseTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                long spanStart = profiler.begin();
+                sum += i;
+                profiler.end(spanStart, ShaderCompileProfiler.EventType.COMPILE, FIRST);
+            }
+            disabledTime = System.nanoTime() - start;
+        }
+
+        Assertions.assertTrue(sum > 0);
+        Assertions.assertEquals(0, profiler.getEventCount());
+        System.out.printf("%d spans: %.3f ms without profiler, %.3f ms with disabled profiler%n",
+                iterations, baseTime / 1.0E6, disabledTime / 1.0E6);
+    }
+}
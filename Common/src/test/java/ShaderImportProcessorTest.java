@@ -0,0 +1,172 @@
+import foundry.veil.api.client.render.shader.ProcessedShader;
+import foundry.veil.api.client.render.shader.ShaderCompiler;
+import foundry.veil.api.client.render.shader.ShaderManager;
+import foundry.veil.api.client.render.shader.definition.ShaderPreDefinitions;
+import foundry.veil.api.client.render.shader.processor.ShaderImportProcessor;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.Resource;
+import net.minecraft.server.packs.resources.ResourceProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+public class ShaderImportProcessorTest {
+
+    private static final int VERTEX_SHADER = 0x8B31;
+    private static final ShaderCompiler.Context CONTEXT = new ShaderCompiler.Context(new ShaderPreDefinitions(), ShaderManager.PROGRAM_SET, null);
+
+    private static ShaderCompiler createCompiler(Map<String, String> includes) {
+        Map<ResourceLocation, String> files = new HashMap<>();
+        includes.forEach((id, source) -> files.put(ShaderManager.INCLUDE_LISTER.idToFile(new ResourceLocation(id)), source));
+        ResourceProvider provider = location -> Optional.ofNullable(files.get(location)).map(source -> new Resource(null, () -> new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8))));
+        return ShaderCompiler.direct(provider).addPreprocessor(new ShaderImportProcessor(provider));
+    }
+
+    private static String process(String source, Map<String, String> includes) throws Exception {
+        try (ShaderCompiler compiler = createCompiler(includes)) {
+            return compiler.preprocess(CONTEXT, VERTEX_SHADER, source).source();
+        }
+    }
+
+    @Test
+    public void testNoIncludes() throws Exception {
+        Assertions.assertEquals("#version 330 core\n\nvoid main() {\n}", process("#version 330 core\r\n\r\nvoid main() {\r\n}\r\n", Map.of()));
+    }
+
+    @Test
+    public void testSingleInclude() throws Exception {
+        String source = """
+                #version 330 core
+                #include veil:a
+                void main() {}""";
+        Assertions.assertEquals("""
+                #version 330 core
+                #line 0 1
+                float a;
+                #line 3 0
+                void main() {}""", process(source, Map.of("veil:a", "float a;")));
+    }
+
+    @Test
+    public void testSequentialIncludes() throws Exception {
+        // The line after each include must point back at the original file, not count the included lines
+        String source = """
+                #include veil:a
+                #include veil:b
+                void main() {}""";
+        Assertions.assertEquals("""
+                #line 0 1
+                float a1;
+                float a2;
+                #line 2 0
+                #line 0 2
+                float b;
+                #line 3 0
+                void main() {}""", process(source, Map.of("veil:a", "float a1;\nfloat a2;", "veil:b", "float b;")));
+    }
+
+    @Test
+    public void testNestedIncludes() throws Exception {
+        String source = """
+                #include veil:c
+                void main() {}""";
+        Map<String, String> includes = Map.of(
+                "veil:c", "float c1;\n#include veil:a\nfloat c3;",
+                "veil:a", "float a;");
+        // Returning from a nested include must restore the source number of the parent include
+        Assertions.assertEquals("""
+                #line 0 1
+                float c1;
+                #line 0 2
+                float a;
+                #line 3 1
+                float c3;
+                #line 2 0
+                void main() {}""", process(source, includes));
+
+        try (ShaderCompiler compiler = createCompiler(includes)) {
+            ProcessedShader shader = compiler.preprocess(CONTEXT, VERTEX_SHADER, source);
+            Assertions.assertEquals(Set.of(new ResourceLocation("veil:c"), new ResourceLocation("veil:a")), shader.includes());
+        }
+    }
+
+    @Test
+    public void testDuplicateInclude() throws Exception {
+        String source = """
+                #include veil:a
+                #include veil:a
+                void main() {}""";
+        Assertions.assertEquals("""
+                #line 0 1
+                float a;
+                #line 2 0
+
+                void main() {}""", process(source, Map.of("veil:a", "float a;")));
+    }
+
+    @Test
+    public void testReuseAcrossShaders() throws Exception {
+        try (ShaderCompiler compiler = createCompiler(Map.of("veil:a", "float a;", "veil:b", "float b;"))) {
+            compiler.preprocess(CONTEXT, VERTEX_SHADER, "#include veil:a\nvoid main() {}");
+
+            // Each shader gets its own imports, but source numbers stay the same for the whole compiler
+            Assertions.assertEquals("#line 0 2\nfloat b;\n#line 2 0\n#line 0 1\nfloat a;\n#line 3 0\nvoid main() {}",
+                    compiler.preprocess(CONTEXT, VERTEX_SHADER, "#include veil:b\n#include veil:a\nvoid main() {}").source());
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        Assertions.assertThrows(IOException.class, () -> process("#include Not Valid!\nvoid main() {}", Map.of()));
+        Assertions.assertThrows(IOException.class, () -> process("#include veil:missing\nvoid main() {}", Map.of()));
+    }
+
+    @Test
+    public void testLargeShaderSpeed() throws Exception {
+        int includeCount = 50;
+        int lineCount = 10_000;
+        Map<String, String> includes = new HashMap<>();
+        for (int i = 0; i < includeCount; i++) {
+            StringBuilder include = new StringBuilder();
+            for (int j = 0; j < 20; j++) {
+                include.append("float include").append(i).append('_').append(j).append(" = ").append(j).append(".0;\n");
+            }
+            includes.put("veil:include_" + i, include.toString());
+        }
+
+        StringBuilder source = new StringBuilder("#version 410 core\n");
+        for (int i = 0; i < lineCount; i++) {
+            if (i % (lineCount / includeCount) == 0) {
+                source.append("#include veil:include_").append(i / (lineCount / includeCount)).append('\n');
+            } else {
+                source.append("float value").append(i).append(" = ").append(i).append(".0;\n");
+            }
+        }
+        String shader = source.toString();
+
+        int iterations = 50;
+        try (ShaderCompiler compiler = createCompiler(includes)) {
+            for (int i = 0; i < iterations; i++) {
+                compiler.preprocess(CONTEXT, VERTEX_SHADER, shader);
+            }
+
+            long start = System.nanoTime();
+            String result = null;
+            for (int i = 0; i < iterations; i++) {
+                result = compiler.preprocess(CONTEXT, VERTEX_SHADER, shader).source();
+            }
+            long time = System.nanoTime() - start;
+
+            // Each include adds 20 lines and 2 #line directives in place of the #include
+            Assertions.assertEquals(1 + lineCount + includeCount * 21, result.lines().count());
+            System.out.printf("Processed %d lines with %d includes in %.3f ms%n", lineCount, includeCount, time / 1.0E6 / iterations);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import foundry.veil.impl.client.render.shader.modifier.ShaderModification;
+import foundry.veil.impl.client.render.shader.modifier.ShaderModificationCache;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ShaderModificationCacheTest {
+
+    private static final Path MODIFIERS = Path.of("src/main/resources/resourcepacks/test_shaders/assets/veil/pinwheel/shader_modifiers");
+    private static final int FLAGS = ShaderModification.APPLY_VERSION | ShaderModification.ALLOW_OUT;
+    private static final String VERTEX = """
+            #version 150 core
+
+            in vec3 Position;
+            in vec4 Color;
+            in vec2 UV0;
+            in ivec2 UV2;
+            in vec3 Normal;
+
+            uniform sampler2D Sampler2;
+            uniform mat4 ModelViewMat;
+
+            out vec4 vertexColor;
+
+            void main() {
+                gl_Position = ModelViewMat * vec4(Position, 1.0);
+                vertexColor = Color;
+            }
+            """;
+
+    private record Modifier(ShaderModification modification, String hash) {
+
+        static Modifier of(String source, boolean vertex) throws Exception {
+            return new Modifier(ShaderModification.parse(source, vertex), ShaderModificationCache.hash(source, vertex));
+        }
+    }
+
+    private static List<String> createShaders(int count) {
+        List<String> shaders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder builder = new StringBuilder("#version 150 core\n\nin vec3 Position;\nin vec4 Color;\n");
+            for (int j = 0; j < 200; j++) {
+                builder.append("uniform vec4 Uniform").append(j).append(";\n");
+            }
+            for (int j = 0; j < 100; j++) {
+                builder.append("float function").append(j).append("(float x) {\n    return x * ").append(i).append(".0;\n}\n");
+            }
+            builder.append("void main() {\n    gl_Position = vec4(Position, 1.0);\n}\n");
+            shaders.add(builder.toString());
+        }
+        return shaders;
+    }
+
+    private static List<Modifier> createModifiers() throws Exception {
+        List<Modifier> modifiers = new ArrayList<>();
+        modifiers.add(Modifier.of(Files.readString(MODIFIERS.resolve("minecraft/shaders/core/rendertype_solid.vsh.txt")), true));
+        for (int i = 0; i < 10; i++) {
+            StringBuilder builder = new StringBuilder("#version 330\n[UNIFORM]\nuniform float Scale").append(i).append(";\n");
+            for (int j = 0; j < 10; j++) {
+                builder.append("[FUNCTION function").append(i * 10 + j).append(" HEAD]\nx *= Scale").append(i).append(";\n");
+            }
+            modifiers.add(Modifier.of(builder.toString(), true));
+        }
+        return modifiers;
+    }
+
+    private static List<String> apply(ShaderModificationCache cache, List<Modifier> modifiers, List<String> shaders) throws Exception {
+        List<String> results = new ArrayList<>(shaders.size());
+        for (String shader : shaders) {
+            String source = shader;
+            for (Modifier modifier : modifiers) {
+                source = cache != null ? cache.inject(modifier.modification, modifier.hash, source, FLAGS) : modifier.modification.inject(source, FLAGS);
+            }
+            results.add(source);
+        }
+        return results;
+    }
+
+    @Test
+    public void testReuse(@TempDir Path folder) throws Exception {
+        Path file = folder.resolve("shader_modifications.dat");
+        Modifier modifier = Modifier.of(Files.readString(MODIFIERS.resolve("minecraft/shaders/core/rendertype_solid.vsh.txt")), true);
+        String expected = modifier.modification.inject(VERTEX, FLAGS);
+
+        ShaderModificationCache cache = new ShaderModificationCache(file);
+        Assertions.assertEquals(expected, cache.inject(modifier.modification, modifier.hash, VERTEX, FLAGS));
+        Assertions.assertEquals(expected, cache.inject(modifier.modification, modifier.hash, VERTEX, FLAGS));
+        Assertions.assertEquals(1, cache.getMisses());
+        Assertions.assertEquals(1, cache.getHits());
+        cache.save();
+
+        // Patches are stored on disk and only used for the exact same source
+        ShaderModificationCache loaded = new ShaderModificationCache(file);
+        Assertions.assertEquals(expected, loaded.inject(modifier.modification, modifier.hash, VERTEX, FLAGS));
+        Assertions.assertEquals(1, loaded.getHits());
+        String changed = VERTEX.replace("vertexColor = Color;", "vertexColor = Color * 2.0;");
+        Assertions.assertEquals(modifier.modification.inject(changed, FLAGS), loaded.inject(modifier.modification, modifier.hash, changed, FLAGS));
+        Assertions.assertEquals(1, loaded.getMisses());
+        Assertions.assertEquals(VERTEX, loaded.inject(Modifier.of("#version 150", true).modification, ShaderModificationCache.hash("#version 150", true), VERTEX, FLAGS));
+        Assertions.assertEquals(2, loaded.getMisses());
+    }
+
+    @Test
+    public void testCorruptedCache(@TempDir Path folder) throws Exception {
+        Path file = folder.resolve("shader_modifications.dat");
+        Files.write(file, new byte[]{0x56, 0x53, 0x50, 0x4D, 0, 0, 0, 1, 0, 0, 0, 10, 1, 2, 3});
+
+        Modifier modifier = Modifier.of(Files.readString(MODIFIERS.resolve("minecraft/shaders/core/rendertype_solid.vsh.txt")), true);
+        ShaderModificationCache cache = new ShaderModificationCache(file);
+        Assertions.assertEquals(modifier.modification.inject(VERTEX, FLAGS), cache.inject(modifier.modification, modifier.hash, VERTEX, FLAGS));
+        Assertions.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testNoOpReloadSpeed(@TempDir Path folder) throws Exception {
+        Path file = folder.resolve("shader_modifications.dat");
+        List<String> shaders = createShaders(50);
+        List<Modifier> modifiers = createModifiers();
+
+        long start = System.nanoTime();
+        List<String> expected = apply(null, modifiers, shaders);
+        long uncachedTime = System.nanoTime() - start;
+
+        ShaderModificationCache cache = new ShaderModificationCache(file);
+        apply(cache, modifiers, shaders);
+        cache.save();
+
+        // A new cache has to read every patch from disk, the same as after restarting the game
+        ShaderModificationCache reloaded = new ShaderModificationCache(file);
+        start = System.nanoTime();
+        List<String> results = apply(reloaded, modifiers, shaders);
+        long cachedTime = System.nanoTime() - start;
+
+        Assertions.assertEquals(0, reloaded.getMisses());
+        Assertions.assertEquals(shaders.size() * modifiers.size(), reloaded.getHits());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertArrayEquals(expected.get(i).getBytes(StandardCharsets.UTF_8), results.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+        System.out.printf("Modified %d shaders in %.3f ms, %.3f ms with cached patches%n", shaders.size(), uncachedTime / 1.0E6, cachedTime / 1.0E6);
+    }
+}
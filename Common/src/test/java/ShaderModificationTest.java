@@ -0,0 +1,261 @@
+import foundry.veil.impl.client.render.shader.modifier.ShaderModification;
+import foundry.veil.impl.client.render.shader.modifier.SimpleShaderModification;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ShaderModificationTest {
+
+    private static final Path MODIFIERS = Path.of("src/main/resources/resourcepacks/test_shaders/assets/veil/pinwheel/shader_modifiers");
+    private static final int ALL_FLAGS = ShaderModification.APPLY_VERSION | ShaderModification.ALLOW_OUT;
+
+    private static final String VERTEX = """
+            #version 150 core
+
+            #moj_import <light.glsl>
+
+            in vec3 Position;
+            in vec4 Color;
+            in vec2 UV0;
+            in ivec2 UV2;
+            in vec3 Normal;
+
+            uniform sampler2D Sampler2;
+            uniform mat4 ModelViewMat;
+
+            out float vertexDistance;
+            out vec4 vertexColor;
+
+            void main() {
+                gl_Position = ModelViewMat * vec4(Position, 1.0);
+                vertexColor = Color;
+            }
+                        """;
+    private static final String INCLUDE = """
+            vec3 worldToViewSpaceDirection(vec3 direction) {
+                vec3 viewSpace = (VeilCamera.ViewMat * vec4(direction, 0.0)).xyz;
+                return viewSpace;
+            }
+                        """;
+    private static final String BARE = """
+            #version 330 core
+
+            layout(location = 0) in vec3 Position;
+
+            float helper(float x) {
+                if (x > 1.0) {
+                    return 1.0;
+                }
+                return x * 2.0;
+            }
+
+            void main() {
+                gl_Position = vec4(Position * helper(0.5), 1.0);
+            }
+                        """;
+    private static final String MOD = """
+            #version 330
+            #include veil:first
+            #include veil:second
+
+            [GET_ATTRIBUTE 0] vec3 Pos;
+            [GET_ATTRIBUTE 3] vec2 Extra;
+
+            [UNIFORM]
+            uniform float Scale;
+
+            [OUTPUT]
+            out vec2 PassExtra;
+
+            [FUNCTION helper TAIL]
+            x = x * Scale;
+
+            [FUNCTION main(0) HEAD]
+            PassExtra = #Extra;
+
+            [FUNCTION main(0) TAIL]
+            gl_Position.xyz *= #Pos;
+                        """;
+
+    private static ShaderModification load(String path, boolean vertex) throws Exception {
+        return ShaderModification.parse(Files.readString(MODIFIERS.resolve(path)), vertex);
+    }
+
+    @Test
+    public void testBundledVertexModifier() throws Exception {
+        ShaderModification modification = load("minecraft/shaders/core/rendertype_solid.vsh.txt", true);
+        Assertions.assertEquals("#version 330\n" +
+                "\n" +
+                "#include veil:camera\n" +
+                "#moj_import <light.glsl>\n" +
+                "\n" +
+                "in vec3 Position;\n" +
+                "in vec4 Color;\n" +
+                "in vec2 UV0;\n" +
+                "in ivec2 UV2;\n" +
+                "in vec3 Normal;\n" +
+                "\n" +
+                "uniform sampler2D Sampler2;\n" +
+                "uniform mat4 ModelViewMat;\n" +
+                "\n" +
+                "uniform sampler2D Sampler8 ;\n" +
+                "out float vertexDistance;\n" +
+                "out vec4 vertexColor;\n" +
+                "\n" +
+                "out vec4 Test; \n" +
+                "out vec3 TestNormal;\n" +
+                "void main() {\n" +
+                "{\n" +
+                "TestNormal = Normal; \n" +
+                "Test = vec4(Position, 1.0);\n" +
+                "}\n" +
+                "    gl_Position = ModelViewMat * vec4(Position, 1.0);\n" +
+                "    vertexColor = Color;\n" +
+                "}\n", modification.inject(VERTEX, ALL_FLAGS));
+    }
+
+    @Test
+    public void testBundledIncludeModifier() throws Exception {
+        ShaderModification modification = load("veil/pinwheel/shaders/include/deferred_utils.glsl.txt", false);
+        Assertions.assertEquals("#include veil:color_utilities\n" +
+                "uniform sampler2D Sampler8 ;\n" +
+                "out vec4 Test; \n" +
+                "out vec3 TestNormal;\n" +
+                "vec3 worldToViewSpaceDirection(vec3 direction) {\n" +
+                "{\n" +
+                "vec3 testCopy = viewSpace;\n" +
+                "}\n" +
+                "    vec3 viewSpace = (VeilCamera.ViewMat * vec4(direction, 0.0)).xyz;\n" +
+                "    return viewSpace;\n" +
+                "}\n", modification.inject(INCLUDE, 0));
+    }
+
+    @Test
+    public void testBundledProgramModifier() throws Exception {
+        ShaderModification modification = load("veil/pinwheel/shaders/program/blit_screen.vsh.txt", true);
+        Assertions.assertEquals("#version 330\n" +
+                "\n" +
+                "#include veil:deferred_utils\n" +
+                "#moj_import <light.glsl>\n" +
+                "\n" +
+                "in vec3 Position;\n" +
+                "in vec4 Color;\n" +
+                "in vec2 UV0;\n" +
+                "in ivec2 UV2;\n" +
+                "in vec3 Normal;\n" +
+                "\n" +
+                "uniform sampler2D Sampler2;\n" +
+                "uniform mat4 ModelViewMat;\n" +
+                "\n" +
+                "out float vertexDistance;\n" +
+                "out vec4 vertexColor;\n" +
+                "\n" +
+                "void main() {\n" +
+                "    gl_Position = ModelViewMat * vec4(Position, 1.0);\n" +
+                "    vertexColor = Color;\n" +
+                "}\n", modification.inject(VERTEX, ALL_FLAGS));
+    }
+
+    @Test
+    public void testFunctionInjection() throws Exception {
+        // Missing attributes are added and tail code is placed before the last return of the function
+        ShaderModification modification = ShaderModification.parse(MOD, true);
+        Assertions.assertEquals("#version 330 core\n" +
+                "\n" +
+                "#include veil:first\n" +
+                "#include veil:second\n" +
+                "layout(location = 0) in vec3 Position;\n" +
+                "\n" +
+                "uniform float Scale;\n" +
+                "out vec2 PassExtra;\n" +
+                "layout(location = 3) in vec2 Extra;\n" +
+                "float helper(float x) {\n" +
+                "    if (x > 1.0) {\n" +
+                "        return 1.0;\n" +
+                "    }\n" +
+                "   \n" +
+                "{\n" +
+                "x = x * Scale;\n" +
+                "} return x * 2.0;\n" +
+                "}\n" +
+                "\n" +
+                "void main() {\n" +
+                "{\n" +
+                "PassExtra = Extra;\n" +
+                "}\n" +
+                "    gl_Position = vec4(Position * helper(0.5), 1.0);\n" +
+                "{\n" +
+                "gl_Position .xyz *= Position;\n" +
+                "}\n" +
+                "}\n", modification.inject(BARE, ALL_FLAGS));
+    }
+
+    @Test
+    public void testPlaceholdersPerThread() throws Exception {
+        SimpleShaderModification modification = (SimpleShaderModification) ShaderModification.parse("#version 330\n[GET_ATTRIBUTE 0] vec3 Pos;\n[OUTPUT]\nout vec3 Pass#Pos;", true);
+        modification.inject(BARE, ALL_FLAGS);
+
+        // Another program with different attribute names is modified at the same time
+        AtomicReference<String> otherOutput = new AtomicReference<>();
+        Thread other = new Thread(() -> {
+            try {
+                modification.inject(BARE.replace("Position", "Vertex"), ALL_FLAGS);
+                otherOutput.set(modification.fillPlaceholders(modification.getOutput()));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        other.start();
+        other.join();
+
+        Assertions.assertEquals("outvec3PassVertex;", otherOutput.get().replaceAll("\\s", ""));
+        Assertions.assertEquals("outvec3PassPosition;", modification.fillPlaceholders(modification.getOutput()).replaceAll("\\s", ""));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        ShaderModification missing = ShaderModification.parse("#version 330\n[FUNCTION missing HEAD]\nint a = 0;", false);
+        Assertions.assertThrows(IOException.class, () -> missing.inject(BARE, ALL_FLAGS));
+    }
+
+    @Test
+    public void testInjectSpeed() throws Exception {
+        StringBuilder source = new StringBuilder("#version 330 core\n\n");
+        for (int i = 0; i < 500; i++) {
+            source.append("in vec4 Input").append(i).append(";\n");
+            source.append("uniform vec4 Uniform").append(i).append(";\n");
+            source.append("out vec4 Output").append(i).append(";\n");
+        }
+        for (int i = 0; i < 500; i++) {
+            source.append("float function").append(i).append("(float x) {\n    x = x * 2.0;\n    return x;\n}\n");
+        }
+        source.append("void main() {\n    gl_Position = vec4(0.0);\n}\n");
+        String shader = source.toString();
+
+        StringBuilder modifier = new StringBuilder("#version 330\n[UNIFORM]\nuniform float Scale;\n[OUTPUT]\nout vec4 Extra;\n");
+        for (int i = 0; i < 100; i++) {
+            modifier.append("[FUNCTION function").append(i * 5).append(" TAIL]\nx += Scale;\n");
+        }
+        ShaderModification modification = ShaderModification.parse(modifier.toString(), false);
+
+        int iterations = 20;
+        for (int i = 0; i < iterations; i++) {
+            modification.inject(shader, ALL_FLAGS);
+        }
+
+        long start = System.nanoTime();
+        String result = null;
+        for (int i = 0; i < iterations; i++) {
+            result = modification.inject(shader, ALL_FLAGS);
+        }
+        long time = System.nanoTime() - start;
+
+        // Each tail injection adds 3 lines, the uniform and output add 1 each
+        Assertions.assertEquals(shader.lines().count() + 302, result.lines().count());
+        System.out.printf("Injected 100 functions into %d lines in %.3f ms%n", shader.lines().count(), time / 1.0E6 / iterations);
+    }
+}
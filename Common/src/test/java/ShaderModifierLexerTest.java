@@ -0,0 +1,153 @@
+import foundry.veil.impl.client.render.shader.modifier.ShaderModifierLexer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.stream.Stream;
+
+public class ShaderModifierLexerTest {
+
+    private static final Path RESOURCES = Path.of("src/main/resources");
+
+    /**
+     * The original regex lexer. Every token type is tested in order at the cursor.
+     */
+    private static List<String> referenceTokens(String input) {
+        String source = input.replace("\t", "");
+        List<String> tokens = new ArrayList<>();
+        int cursor = 0;
+        while (cursor < source.length()) {
+            while (cursor < source.length() && source.charAt(cursor) != '\n' && Character.isWhitespace(source.charAt(cursor))) {
+                cursor++;
+            }
+            if (cursor >= source.length()) {
+                break;
+            }
+
+            String word = source.substring(cursor);
+            String token = null;
+            for (ShaderModifierLexer.TokenType type : ShaderModifierLexer.TokenType.values()) {
+                Matcher matcher = type.getPattern().matcher(word);
+                if (matcher.lookingAt()) {
+                    token = type + "[" + matcher.group() + "]@" + cursor;
+                    cursor += matcher.end();
+                    break;
+                }
+            }
+            Assertions.assertNotNull(token, "Unknown token at " + cursor);
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    private static List<String> tokens(String input) {
+        List<String> tokens = new ArrayList<>();
+        for (ShaderModifierLexer.Token token : ShaderModifierLexer.createTokens(input)) {
+            tokens.add(token + "@" + token.offset());
+        }
+        return tokens;
+    }
+
+    private static String generateModifier(Random random, int lines) {
+        String[] samples = {
+                "#version 330 // required",
+                "#priority -1000",
+                "#include veil:camera",
+                "#include my-mod:some.folder/file_name",
+                "[GET_ATTRIBUTE 0] vec3 InPos; // test",
+                "[GET_ATTRIBUTE 4] mat2x3 Nom ;",
+                "[OUTPUT]",
+                "out vec4 Test;",
+                "[UNIFORM]",
+                "uniform sampler2D Sampler8;",
+                "[FUNCTION main(0) HEAD]",
+                "[FUNCTION worldToView TAIL]",
+                "Test = vec4(#InPos, 1.0);",
+                "\tvec3 copy = normalize(viewSpace.xyz) * -2.5;",
+                "if (x > 0) { return; } /* comment */",
+                "/path/to.thing -name .dot : ( ) [ ]",
+                "HEADER OUTPUTS intx floaty vec3",
+                "   ",
+                ""
+        };
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            builder.append(samples[random.nextInt(samples.length)]).append(random.nextInt(8) == 0 ? "\r\n" : "\n");
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testBundledModifiers() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(RESOURCES)) {
+            files = stream.filter(path -> path.toString().replace('\\', '/').contains("/pinwheel/shader_modifiers/") && Files.isRegularFile(path)).toList();
+        }
+        Assertions.assertFalse(files.isEmpty(), "No bundled shader modifiers found");
+
+        for (Path file : files) {
+            String source = Files.readString(file);
+            Assertions.assertEquals(referenceTokens(source), tokens(source), file.toString());
+        }
+    }
+
+    @Test
+    public void testEdgeCases() {
+        String[] inputs = {
+                "",
+                "\n",
+                "[GET_ATTRIBUTE 0]\tvec3\tInPos;",
+                "float\n  name\n;",
+                "mat2x3 name;mat2 other;",
+                "-12-a-",
+                "veil:path/to/file.glsl",
+                "abc\r\ndef\r\n",
+                "#include\tveil:test\n#replace veil:other",
+                "// just a comment",
+                "@@@ weird code !!!",
+                "HEADHEAD TAILOUTPUTUNIFORM"
+        };
+        for (String input : inputs) {
+            Assertions.assertEquals(referenceTokens(input), tokens(input), input);
+        }
+    }
+
+    @Test
+    public void testGeneratedModifiers() {
+        Random random = new Random(7);
+        for (int i = 0; i < 50; i++) {
+            String source = generateModifier(random, 100);
+            Assertions.assertEquals(referenceTokens(source), tokens(source));
+        }
+    }
+
+    @Test
+    public void testLexerSpeed() {
+        String source = generateModifier(new Random(11), 5000);
+        int iterations = 20;
+        for (int i = 0; i < iterations; i++) {
+            ShaderModifierLexer.createTokens(source);
+        }
+
+        long start = System.nanoTime();
+        int count = 0;
+        for (int i = 0; i < iterations; i++) {
+            count = ShaderModifierLexer.createTokens(source).length;
+        }
+        long time = System.nanoTime() - start;
+
+        long referenceStart = System.nanoTime();
+        int referenceCount = referenceTokens(source).size();
+        long referenceTime = System.nanoTime() - referenceStart;
+
+        Assertions.assertEquals(referenceCount, count);
+        System.out.printf("Lexed 5000 modifier lines into %d tokens in %.3f ms (regex lexer: %.3f ms)%n", count, time / 1.0E6 / iterations, referenceTime / 1.0E6);
+    }
+}
@@ -0,0 +1,167 @@
+import foundry.veil.impl.client.render.shader.ShaderObjectCache;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+public class ShaderObjectCacheTest {
+
+    private static final int VERTEX = 0x8B31;
+    private static final int FRAGMENT = 0x8B30;
+
+    /**
+     * "Aa" and "BB" have the same hash code, so every combination of them has the same hash code and length.
+     */
+    private static List<String> createCollisions(int blocks) {
+        List<String> sources = new ArrayList<>(1 << blocks);
+        for (int i = 0; i < 1 << blocks; i++) {
+            StringBuilder builder = new StringBuilder("#version 150\nuniform float ");
+            for (int j = 0; j < blocks; j++) {
+                builder.append((i & (1 << j)) != 0 ? "Aa" : "BB");
+            }
+            builder.append(";\nvoid main() {\n}\n");
+            sources.add(builder.toString());
+        }
+        return sources;
+    }
+
+    @Test
+    public void testCollisions() {
+        List<String> sources = createCollisions(8);
+        ShaderObjectCache cache = new ShaderObjectCache(shader -> {
+        });
+
+        Set<ShaderObjectCache.Key> keys = new HashSet<>();
+        for (int i = 0; i < sources.size(); i++) {
+            String source = sources.get(i);
+            // The old key was the same for every one of these sources
+            Assertions.assertEquals(Objects.hash(VERTEX, sources.get(0)), Objects.hash(VERTEX, source));
+            Assertions.assertEquals(sources.get(0).length(), source.length());
+
+            ShaderObjectCache.Key key = ShaderObjectCache.key(VERTEX, source);
+            Assertions.assertTrue(keys.add(key));
+            Assertions.assertEquals(0, cache.acquire(key));
+            cache.add(key, i + 1);
+        }
+
+        for (int i = 0; i < sources.size(); i++) {
+            Assertions.assertEquals(i + 1, cache.acquire(ShaderObjectCache.key(VERTEX, sources.get(i))));
+        }
+
+        // The same source is a different shader for every type
+        Assertions.assertNotEquals(ShaderObjectCache.key(VERTEX, sources.get(0)), ShaderObjectCache.key(FRAGMENT, sources.get(0)));
+        Assertions.assertEquals(0, cache.acquire(ShaderObjectCache.key(FRAGMENT, sources.get(0))));
+        Assertions.assertEquals(sources.size(), cache.getHits());
+        Assertions.assertEquals(sources.size() + 1, cache.getMisses());
+    }
+
+    @Test
+    public void testReferences() {
+        IntList deleted = new IntArrayList();
+        ShaderObjectCache cache = new ShaderObjectCache(deleted::add);
+        ShaderObjectCache.Key shared = ShaderObjectCache.key(VERTEX, "#version 150\nvoid main() {\n}\n");
+        ShaderObjectCache.Key single = ShaderObjectCache.key(FRAGMENT, "#version 150\nvoid main() {\n}\n");
+
+        // Two programs use the same vertex shader
+        cache.add(shared, 1);
+        Assertions.assertEquals(1, cache.acquire(shared));
+        cache.add(single, 2);
+        Assertions.assertEquals(2, cache.getReferences(1));
+
+        cache.release(1);
+        cache.release(2);
+        Assertions.assertEquals(1, cache.getUnused());
+        Assertions.assertEquals(1, cache.deleteUnused());
+        Assertions.assertEquals(List.of(2), deleted);
+        Assertions.assertFalse(cache.contains(single));
+
+        // Shaders that are used again before unused shaders are deleted are kept
+        cache.release(1);
+        Assertions.assertEquals(1, cache.getUnused());
+        Assertions.assertEquals(1, cache.acquire(shared));
+        Assertions.assertEquals(0, cache.getUnused());
+        Assertions.assertEquals(0, cache.deleteUnused());
+
+        // Shaders not created by the cache are ignored
+        cache.release(42);
+        cache.release(1);
+        cache.release(1);
+        Assertions.assertEquals(0, cache.getReferences(1));
+        Assertions.assertEquals(1, cache.deleteUnused());
+        Assertions.assertEquals(List.of(2, 1), deleted);
+        Assertions.assertEquals(0, cache.getSize());
+
+        cache.add(shared, 3);
+        cache.free();
+        Assertions.assertEquals(List.of(2, 1, 3), deleted);
+    }
+
+    @Test
+    public void testLookupSpeed() {
+        int programs = 200;
+        int lookups = 50;
+        List<String> sources = new ArrayList<>(programs);
+        for (int i = 0; i < programs; i++) {
+            StringBuilder builder = new StringBuilder("#version 410 core\n");
+            for (int j = 0; j < 300; j++) {
+                builder.append("uniform vec4 Uniform").append(j).append(";\n");
+            }
+            // Most programs share the same source
+            builder.append("void main() {\n    gl_Position = vec4(").append(i % 20).append(".0);\n}\n");
+            sources.add(builder.toString());
+        }
+
+        long sum = 0;
+        long hashTime = 0;
+        long keyTime = 0;
+        long cachedTime = 0;
+        for (int run = 0; run < 2; run++) {
+            Map<Integer, Integer> oldCache = new HashMap<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                for (String source : sources) {
+                    // Strings are copied so the hash code isn't already stored in the string
+                    sum += oldCache.computeIfAbsent(Objects.hash(VERTEX, new String(source)), unused -> oldCache.size() + 1);
+                }
+            }
+            hashTime = System.nanoTime() - start;
+
+            ShaderObjectCache cache = new ShaderObjectCache(shader -> {
+            });
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                for (String source : sources) {
+                    ShaderObjectCache.Key key = ShaderObjectCache.key(VERTEX, new String(source));
+                    int shader = cache.acquire(key);
+                    if (shader == 0) {
+                        shader = cache.getSize() + 1;
+                        cache.add(key, shader);
+                    }
+                    sum += shader;
+                }
+            }
+            keyTime = System.nanoTime() - start;
+
+            // The compiler only creates the key once for each processed shader
+            List<ShaderObjectCache.Key> keys = new ArrayList<>(programs);
+            for (String source : sources) {
+                keys.add(ShaderObjectCache.key(VERTEX, source));
+            }
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                for (ShaderObjectCache.Key key : keys) {
+                    sum += cache.acquire(key);
+                }
+            }
+            cachedTime = System.nanoTime() - start;
+
+            Assertions.assertEquals(20, cache.getSize());
+        }
+
+        Assertions.assertTrue(sum > 0);
+        System.out.printf("%d lookups of %d sources: %.3f ms with Objects.hash, %.3f ms with 128-bit keys, %.3f ms with stored keys%n",
+                lookups, programs, hashTime / 1.0E6, keyTime / 1.0E6, cachedTime / 1.0E6);
+    }
+}
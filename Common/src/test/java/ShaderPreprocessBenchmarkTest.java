@@ -0,0 +1,131 @@
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import foundry.veil.api.client.render.shader.ShaderCompiler;
+import foundry.veil.api.client.render.shader.ShaderManager;
+import foundry.veil.api.client.render.shader.ShaderSourceSet;
+import foundry.veil.api.client.render.shader.definition.ShaderPreDefinitions;
+import foundry.veil.api.client.render.shader.program.ProgramDefinition;
+import foundry.veil.impl.client.render.shader.ProgramPreprocessor;
+import net.minecraft.resources.FileToIdConverter;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.Resource;
+import net.minecraft.server.packs.resources.ResourceProvider;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+public class ShaderPreprocessBenchmarkTest {
+
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(ResourceLocation.class, new ResourceLocation.Serializer())
+            .registerTypeAdapter(ProgramDefinition.class, new ProgramDefinition.Deserializer())
+            .create();
+    // The built-in shaders and the bundled deferred pack, highest priority first
+    private static final List<Path> ROOTS = List.of(
+            Path.of("src/main/resources/resourcepacks/deferred"),
+            Path.of("src/main/resources"));
+
+    private static Optional<Path> find(ResourceLocation location) {
+        for (Path root : ROOTS) {
+            Path file = root.resolve("assets").resolve(location.getNamespace()).resolve(location.getPath());
+            if (Files.isRegularFile(file)) {
+                return Optional.of(file);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Map<ResourceLocation, ProgramDefinition> loadPrograms(ShaderSourceSet sourceSet) throws IOException {
+        FileToIdConverter lister = sourceSet.getShaderDefinitionLister();
+        Map<ResourceLocation, ProgramDefinition> programs = new HashMap<>();
+        for (Path root : ROOTS) {
+            Path assets = root.resolve("assets");
+            if (!Files.isDirectory(assets)) {
+                continue;
+            }
+
+            try (Stream<Path> namespaces = Files.list(assets)) {
+                for (Path namespace : namespaces.toList()) {
+                    Path folder = namespace.resolve(sourceSet.getFolder());
+                    if (!Files.isDirectory(folder)) {
+                        continue;
+                    }
+
+                    try (Stream<Path> files = Files.walk(folder)) {
+                        for (Path file : files.filter(path -> path.toString().endsWith(".json")).toList()) {
+                            ResourceLocation location = new ResourceLocation(namespace.getFileName().toString(), namespace.relativize(file).toString().replace('\\', '/'));
+                            try (Reader reader = Files.newBufferedReader(file)) {
+                                programs.putIfAbsent(lister.fileToId(location), GSON.fromJson(reader, ProgramDefinition.class));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return programs;
+    }
+
+    private static Map<ResourceLocation, ProgramPreprocessor.Result> preprocess(Map<ResourceLocation, ProgramDefinition> programs, ShaderSourceSet sourceSet, Executor executor) {
+        ShaderPreDefinitions definitions = new ShaderPreDefinitions();
+        ResourceProvider provider = location -> find(location).map(file -> new Resource(null, () -> Files.newInputStream(file)));
+        return ProgramPreprocessor.preprocess(programs,
+                definition -> new ShaderCompiler.Context(definitions, sourceSet, definition),
+                () -> ShaderCompiler.direct(provider).addDefaultProcessors(),
+                executor).join();
+    }
+
+    @Test
+    public void testPreprocessSpeed() throws IOException {
+        for (ShaderSourceSet sourceSet : List.of(ShaderManager.PROGRAM_SET, ShaderManager.DEFERRED_SET)) {
+            Map<ResourceLocation, ProgramDefinition> programs = loadPrograms(sourceSet);
+            Assertions.assertFalse(programs.isEmpty(), "No programs found in " + sourceSet.getFolder());
+
+            int iterations = 20;
+            Executor serial = Runnable::run;
+            Executor parallel = ForkJoinPool.commonPool();
+            for (int i = 0; i < 5; i++) {
+                preprocess(programs, sourceSet, serial);
+                preprocess(programs, sourceSet, parallel);
+            }
+
+            long serialStart = System.nanoTime();
+            Map<ResourceLocation, ProgramPreprocessor.Result> serialResults = null;
+            for (int i = 0; i < iterations; i++) {
+                serialResults = preprocess(programs, sourceSet, serial);
+            }
+            long serialTime = System.nanoTime() - serialStart;
+
+            long parallelStart = System.nanoTime();
+            Map<ResourceLocation, ProgramPreprocessor.Result> parallelResults = null;
+            for (int i = 0; i < iterations; i++) {
+                parallelResults = preprocess(programs, sourceSet, parallel);
+            }
+            long parallelTime = System.nanoTime() - parallelStart;
+
+            // Processing on several threads must produce exactly the same sources
+            Assertions.assertEquals(serialResults.keySet(), parallelResults.keySet());
+            int shaders = 0;
+            for (Map.Entry<ResourceLocation, ProgramPreprocessor.Result> entry : serialResults.entrySet()) {
+                ProgramPreprocessor.Result result = entry.getValue();
+                ProgramPreprocessor.Result other = parallelResults.get(entry.getKey());
+                Assertions.assertEquals(result.error() == null, other.error() == null, entry.getKey().toString());
+                Assertions.assertEquals(result.shaders().keySet(), other.shaders().keySet());
+                for (int type : result.shaders().keySet()) {
+                    Assertions.assertEquals(result.shaders().get(type).source(), other.shaders().get(type).source(), entry.getKey() + " " + ShaderManager.getTypeName(type));
+                }
+                shaders += result.shaders().size();
+            }
+
+            System.out.printf("Preprocessed %d programs (%d shaders) from %s: %.3f ms serial, %.3f ms parallel on %d threads%n",
+                    programs.size(), shaders, sourceSet.getFolder(), serialTime / 1.0E6 / iterations, parallelTime / 1.0E6 / iterations, ForkJoinPool.getCommonPoolParallelism());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import foundry.veil.api.client.render.shader.definition.ShaderPreDefinitions;
+import foundry.veil.impl.client.render.shader.ShaderVariantIndex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+public class ShaderVariantIndexTest {
+
+    @Test
+    public void testKeys() {
+        ShaderVariantIndex index = new ShaderVariantIndex();
+        ShaderPreDefinitions definitions = new ShaderPreDefinitions();
+        List<String> dependencies = List.of("shadows", "quality");
+
+        ShaderVariantIndex.Key empty = index.getKey(dependencies, definitions::getDefinition);
+        definitions.define("shadows");
+        ShaderVariantIndex.Key shadows = index.getKey(dependencies, definitions::getDefinition);
+        Assertions.assertNotEquals(empty, shadows);
+
+        // Definitions the program doesn't depend on never change the key
+        definitions.define("unrelated", "4");
+        Assertions.assertEquals(shadows, index.getKey(dependencies, definitions::getDefinition));
+
+        definitions.define("quality", "2");
+        ShaderVariantIndex.Key quality2 = index.getKey(dependencies, definitions::getDefinition);
+        definitions.define("quality", "3");
+        ShaderVariantIndex.Key quality3 = index.getKey(dependencies, definitions::getDefinition);
+        Assertions.assertNotEquals(quality2, quality3);
+        Assertions.assertNotEquals(shadows, quality3);
+
+        // Going back to old values creates the same keys
+        definitions.define("quality", "2");
+        Assertions.assertEquals(quality2, index.getKey(dependencies, definitions::getDefinition));
+        definitions.remove("quality");
+        Assertions.assertEquals(shadows, index.getKey(dependencies, definitions::getDefinition));
+        definitions.remove("shadows");
+        Assertions.assertEquals(empty, index.getKey(dependencies, definitions::getDefinition));
+
+        // The order dependencies are declared in doesn't matter
+        Assertions.assertEquals(empty, index.getKey(List.of("quality", "shadows"), definitions::getDefinition));
+        Assertions.assertEquals(3, index.getSize());
+    }
+
+    @Test
+    public void testNeighbors() {
+        ShaderVariantIndex index = new ShaderVariantIndex();
+        ShaderPreDefinitions definitions = new ShaderPreDefinitions();
+        List<String> dependencies = List.of("shadows", "quality");
+
+        // Nothing is likely before any values have been seen
+        Assertions.assertTrue(index.getNeighbors(dependencies, definitions::getDefinition).isEmpty());
+
+        index.getKey(dependencies, definitions::getDefinition);
+        definitions.define("quality", "1");
+        index.getKey(dependencies, definitions::getDefinition);
+        definitions.define("quality", "2");
+        index.getKey(dependencies, definitions::getDefinition);
+        definitions.define("shadows");
+        ShaderVariantIndex.Key current = index.getKey(dependencies, definitions::getDefinition);
+
+        Set<Map<String, String>> expected = Set.of(
+                Map.of("quality", "#define QUALITY 2"),
+                Map.of("shadows", "#define SHADOWS", "quality", "#define QUALITY 1"),
+                Map.of("shadows", "#define SHADOWS"));
+        Set<Map<String, String>> values = new HashSet<>();
+        for (ShaderVariantIndex.Variant variant : index.getNeighbors(dependencies, definitions::getDefinition)) {
+            Assertions.assertNotEquals(current, variant.key());
+            Assertions.assertEquals(index.getKey(dependencies, variant.values()::get), variant.key());
+            values.add(variant.values());
+        }
+        Assertions.assertEquals(expected, values);
+    }
+
+    @Test
+    public void testCopy() {
+        ShaderPreDefinitions definitions = new ShaderPreDefinitions();
+        List<String> changes = new ArrayList<>();
+        definitions.addListener(changes::add);
+        definitions.define("shadows");
+
+        ShaderPreDefinitions copy = definitions.copy();
+        copy.remove("shadows");
+        copy.define("quality", "2");
+        Assertions.assertEquals("#define SHADOWS", definitions.getDefinition("shadows"));
+        Assertions.assertNull(definitions.getDefinition("quality"));
+        Assertions.assertEquals(List.of("shadows"), changes);
+    }
+
+    @Test
+    public void testSwitchSpeed() {
+        int programs = 500;
+        int toggles = 1000;
+        ShaderVariantIndex index = new ShaderVariantIndex();
+        ShaderPreDefinitions definitions = new ShaderPreDefinitions();
+
+        List<List<String>> dependencies = new ArrayList<>(programs);
+        List<Map<ShaderVariantIndex.Key, Integer>> variants = new ArrayList<>(programs);
+        for (int i = 0; i < programs; i++) {
+            dependencies.add(List.of("shadows", "quality", "feature" + (i % 10)));
+            variants.add(new HashMap<>());
+        }
+
+        // Every program is compiled once for both values of the flag
+        for (int value = 0; value < 2; value++) {
+            definitions.define("shadows", Integer.toString(value));
+            for (int i = 0; i < programs; i++) {
+                variants.get(i).put(index.getKey(dependencies.get(i), definitions::getDefinition), value);
+            }
+        }
+
+        long start = System.nanoTime();
+        int selected = 0;
+        for (int toggle = 0; toggle < toggles; toggle++) {
+            int value = toggle & 1;
+            definitions.define("shadows", Integer.toString(value));
+            for (int i = 0; i < programs; i++) {
+                Integer variant = variants.get(i).get(index.getKey(dependencies.get(i), definitions::getDefinition));
+                Assertions.assertEquals(value, variant);
+                selected++;
+            }
+        }
+        long time = System.nanoTime() - start;
+
+        Assertions.assertEquals(programs * toggles, selected);
+        System.out.printf("Selected variants of %d programs %d times in %.3f ms (%.3f us per toggle)%n", programs, toggles, time / 1.0E6, time / 1.0E3 / toggles);
+    }
+}
@@ -0,0 +1,101 @@
+import foundry.veil.api.client.render.deferred.light.shadow.ShadowAtlas;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ShadowAtlasTest {
+
+    @Test
+    public void testTileSize() {
+        ShadowAtlas atlas = new ShadowAtlas(1024, 64);
+        Assertions.assertEquals(64, atlas.getTileSize(1));
+        Assertions.assertEquals(64, atlas.getTileSize(64));
+        Assertions.assertEquals(128, atlas.getTileSize(65));
+        Assertions.assertEquals(512, atlas.getTileSize(300));
+    }
+
+    @Test
+    public void testFillAndOverflow() {
+        ShadowAtlas atlas = new ShadowAtlas(1024, 64);
+        List<ShadowAtlas.Tile> tiles = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ShadowAtlas.Tile tile = atlas.allocate(512);
+            Assertions.assertNotNull(tile);
+            tiles.add(tile);
+        }
+        Assertions.assertNull(atlas.allocate(64));
+        Assertions.assertEquals(1024 * 1024, atlas.getUsedArea());
+
+        for (int i = 0; i < tiles.size(); i++) {
+            for (int j = i + 1; j < tiles.size(); j++) {
+                Assertions.assertFalse(overlaps(tiles.get(i), tiles.get(j)));
+            }
+        }
+    }
+
+    @Test
+    public void testMixedSizesDoNotOverlap() {
+        ShadowAtlas atlas = new ShadowAtlas(2048, 64);
+        List<ShadowAtlas.Tile> tiles = new ArrayList<>();
+        int[] sizes = {1024, 64, 256, 512, 64, 128, 1024, 256};
+        for (int size : sizes) {
+            ShadowAtlas.Tile tile = atlas.allocate(size);
+            Assertions.assertNotNull(tile, "Failed to allocate " + size);
+            Assertions.assertEquals(size, tile.size());
+            Assertions.assertTrue(tile.x() + tile.size() <= 2048 && tile.y() + tile.size() <= 2048);
+            tiles.add(tile);
+        }
+
+        for (int i = 0; i < tiles.size(); i++) {
+            for (int j = i + 1; j < tiles.size(); j++) {
+                Assertions.assertFalse(overlaps(tiles.get(i), tiles.get(j)), tiles.get(i) + " overlaps " + tiles.get(j));
+            }
+        }
+    }
+
+    @Test
+    public void testFreeMerges() {
+        ShadowAtlas atlas = new ShadowAtlas(1024, 64);
+        List<ShadowAtlas.Tile> tiles = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            tiles.add(atlas.allocate(256));
+        }
+        Assertions.assertNull(atlas.allocate(1024));
+
+        for (ShadowAtlas.Tile tile : tiles) {
+            Assertions.assertTrue(atlas.free(tile));
+        }
+        Assertions.assertEquals(0, atlas.getUsedArea());
+        Assertions.assertEquals(0, atlas.getTileCount());
+        Assertions.assertNotNull(atlas.allocate(1024));
+    }
+
+    @Test
+    public void testDoubleFree() {
+        ShadowAtlas atlas = new ShadowAtlas(1024, 64);
+        ShadowAtlas.Tile tile = atlas.allocate(128);
+        Assertions.assertNotNull(tile);
+        Assertions.assertTrue(atlas.free(tile));
+        Assertions.assertFalse(atlas.free(tile));
+        Assertions.assertFalse(atlas.free(new ShadowAtlas.Tile(512, 512, 128)));
+    }
+
+    @Test
+    public void testPartialNodesFilledFirst() {
+        ShadowAtlas atlas = new ShadowAtlas(1024, 64);
+        atlas.allocate(64);
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertNotNull(atlas.allocate(64));
+        }
+        // The small tiles should all fit in one quadrant, leaving three 512 tiles
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertNotNull(atlas.allocate(512));
+        }
+    }
+
+    private static boolean overlaps(ShadowAtlas.Tile a, ShadowAtlas.Tile b) {
+        return a.x() < b.x() + b.size() && b.x() < a.x() + a.size() && a.y() < b.y() + b.size() && b.y() < a.y() + a.size();
+    }
+}
@@ -0,0 +1,122 @@
+import foundry.veil.api.client.render.deferred.light.shadow.ShadowAtlas;
+import foundry.veil.api.client.render.deferred.light.shadow.ShadowTileCache;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+public class ShadowTileCacheTest {
+
+    @Test
+    public void testNewTilesAreDirty() {
+        ShadowTileCache<String> cache = new ShadowTileCache<>(new ShadowAtlas(1024, 64));
+        Assertions.assertNotNull(cache.track("a", 256));
+        Assertions.assertTrue(cache.isDirty("a"));
+        Assertions.assertFalse(cache.isReady("a"));
+
+        Assertions.assertEquals(List.of("a"), cache.poll(4, 0));
+        Assertions.assertFalse(cache.isDirty("a"));
+        Assertions.assertTrue(cache.isReady("a"));
+        Assertions.assertTrue(cache.poll(4, 1).isEmpty());
+    }
+
+    @Test
+    public void testBoundsInvalidation() {
+        ShadowTileCache<String> cache = new ShadowTileCache<>(new ShadowAtlas(1024, 64));
+        cache.track("a", 128);
+        cache.track("b", 128);
+        cache.setBounds("a", 0, 0, 0, 16, 16, 16);
+        cache.setBounds("b", 100, 0, 100, 116, 16, 116);
+        cache.poll(2, 0);
+
+        // Same bounds should not invalidate
+        cache.setBounds("a", 0, 0, 0, 16, 16, 16);
+        Assertions.assertFalse(cache.isDirty("a"));
+
+        Assertions.assertEquals(1, cache.invalidate(8, 8, 8, 24, 24, 24));
+        Assertions.assertTrue(cache.isDirty("a"));
+        Assertions.assertFalse(cache.isDirty("b"));
+
+        // Touching but not intersecting
+        Assertions.assertEquals(0, cache.invalidate(116, 0, 116, 132, 16, 132));
+
+        cache.setBounds("b", 101, 0, 100, 117, 16, 116);
+        Assertions.assertTrue(cache.isDirty("b"));
+    }
+
+    @Test
+    public void testBudget() {
+        ShadowTileCache<Integer> cache = new ShadowTileCache<>(new ShadowAtlas(1024, 64));
+        for (int i = 0; i < 10; i++) {
+            cache.track(i, 64);
+        }
+
+        Assertions.assertEquals(3, cache.poll(3, 0).size());
+        Assertions.assertEquals(7, cache.getDirtyCount());
+        Assertions.assertEquals(3, cache.poll(3, 1).size());
+        Assertions.assertEquals(3, cache.poll(3, 2).size());
+        Assertions.assertEquals(1, cache.poll(3, 3).size());
+        Assertions.assertEquals(0, cache.getDirtyCount());
+    }
+
+    @Test
+    public void testOldestFirst() {
+        ShadowTileCache<String> cache = new ShadowTileCache<>(new ShadowAtlas(1024, 64));
+        cache.track("a", 64);
+        cache.track("b", 64);
+        cache.poll(1, 0);
+        cache.poll(1, 1);
+
+        // Both dirty again, the one rendered earliest goes first
+        cache.invalidateAll();
+        String first = cache.poll(1, 2).get(0);
+        String second = cache.poll(1, 3).get(0);
+        Assertions.assertNotEquals(first, second);
+
+        cache.invalidateAll();
+        cache.track("c", 64);
+        Assertions.assertEquals("c", cache.poll(1, 4).get(0));
+        Assertions.assertEquals(first, cache.poll(1, 5).get(0));
+    }
+
+    @Test
+    public void testResolutionChangeReallocates() {
+        ShadowAtlas atlas = new ShadowAtlas(1024, 64);
+        ShadowTileCache<String> cache = new ShadowTileCache<>(atlas);
+        ShadowAtlas.Tile tile = cache.track("a", 128);
+        cache.poll(1, 0);
+        Assertions.assertSame(tile, cache.track("a", 100));
+        Assertions.assertFalse(cache.isDirty("a"));
+
+        ShadowAtlas.Tile larger = cache.track("a", 512);
+        Assertions.assertNotNull(larger);
+        Assertions.assertEquals(512, larger.size());
+        Assertions.assertTrue(cache.isDirty("a"));
+        Assertions.assertEquals(512 * 512, atlas.getUsedArea());
+    }
+
+    @Test
+    public void testRetainFreesTiles() {
+        ShadowAtlas atlas = new ShadowAtlas(1024, 64);
+        ShadowTileCache<String> cache = new ShadowTileCache<>(atlas);
+        cache.track("a", 512);
+        cache.track("b", 512);
+        cache.track("c", 512);
+        cache.retain(Set.of("b"));
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertEquals(1, atlas.getTileCount());
+        Assertions.assertNull(cache.getTile("a"));
+        Assertions.assertNotNull(cache.getTile("b"));
+    }
+
+    @Test
+    public void testFullAtlas() {
+        ShadowTileCache<String> cache = new ShadowTileCache<>(new ShadowAtlas(512, 64));
+        Assertions.assertNotNull(cache.track("a", 512));
+        Assertions.assertNull(cache.track("b", 64));
+        Assertions.assertEquals(List.of("a"), cache.poll(4, 0));
+        cache.remove("a");
+        Assertions.assertNotNull(cache.track("b", 64));
+    }
+}
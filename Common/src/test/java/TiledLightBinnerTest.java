@@ -0,0 +1,157 @@
+import foundry.veil.impl.client.render.deferred.light.TiledLightBinner;
+import org.joml.Matrix4f;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class TiledLightBinnerTest {
+
+    private static final Matrix4f PROJECTION = new Matrix4f().perspective((float) Math.toRadians(70.0), 16.0F / 9.0F, 0.05F, 256.0F);
+
+    private static float[] createLights(Random random, int count) {
+        float[] spheres = new float[count * TiledLightBinner.SPHERE_STRIDE];
+        for (int i = 0; i < count; i++) {
+            int offset = i * TiledLightBinner.SPHERE_STRIDE;
+            spheres[offset] = (random.nextFloat() - 0.5F) * 80.0F;
+            spheres[offset + 1] = (random.nextFloat() - 0.5F) * 40.0F;
+            spheres[offset + 2] = -2.0F - random.nextFloat() * 100.0F;
+            spheres[offset + 3] = 0.5F + random.nextFloat() * 6.0F;
+        }
+        return spheres;
+    }
+
+    private static int[] getLights(TiledLightBinner binner, int tileX, int tileY) {
+        int tile = tileX + tileY * binner.getTilesX();
+        int[] offsets = binner.getTileOffsets();
+        return Arrays.copyOfRange(binner.getTileLights(), offsets[tile], offsets[tile + 1]);
+    }
+
+    @Test
+    public void testTileLayout() {
+        TiledLightBinner binner = new TiledLightBinner(32);
+        binner.resize(100, 65);
+        Assertions.assertEquals(4, binner.getTilesX());
+        Assertions.assertEquals(3, binner.getTilesY());
+        Assertions.assertEquals(13, binner.getTileOffsets().length);
+    }
+
+    @Test
+    public void testSingleLight() {
+        TiledLightBinner binner = new TiledLightBinner(16);
+        binner.resize(160, 90);
+
+        // A small light in the middle of the screen
+        binner.bin(PROJECTION, new float[]{0.0F, 0.0F, -20.0F, 0.5F}, 1);
+        Assertions.assertTrue(binner.getActiveTileCount() > 0);
+        Assertions.assertTrue(binner.getActiveTileCount() <= 4);
+        Assertions.assertArrayEquals(new int[]{0}, getLights(binner, 5, 2));
+        Assertions.assertArrayEquals(new int[0], getLights(binner, 0, 0));
+        Assertions.assertEquals(binner.getActiveTileCount(), binner.getTileLightCount());
+    }
+
+    @Test
+    public void testCameraInsideLight() {
+        TiledLightBinner binner = new TiledLightBinner(16);
+        binner.resize(160, 90);
+        binner.bin(PROJECTION, new float[]{0.0F, 0.0F, -1.0F, 4.0F, 100.0F, 0.0F, -20.0F, 1.0F}, 2);
+
+        // The first light surrounds the camera and the second is off-screen
+        Assertions.assertEquals(binner.getTilesX() * binner.getTilesY(), binner.getActiveTileCount());
+        Assertions.assertEquals(binner.getActiveTileCount(), binner.getTileLightCount());
+        for (int y = 0; y < binner.getTilesY(); y++) {
+            for (int x = 0; x < binner.getTilesX(); x++) {
+                Assertions.assertArrayEquals(new int[]{0}, getLights(binner, x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(5);
+        int count = 300;
+        float[] spheres = createLights(random, count);
+
+        TiledLightBinner binner = new TiledLightBinner(32);
+        binner.resize(1280, 720);
+        binner.setParallel(false);
+        binner.bin(PROJECTION, spheres, count);
+
+        // Compare against a simple per-light rectangle test
+        TiledLightBinner single = new TiledLightBinner(32);
+        single.resize(1280, 720);
+        single.setParallel(false);
+        int[][] expected = new int[binner.getTilesX() * binner.getTilesY()][];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = new int[0];
+        }
+        for (int i = 0; i < count; i++) {
+            single.bin(PROJECTION, Arrays.copyOfRange(spheres, i * TiledLightBinner.SPHERE_STRIDE, (i + 1) * TiledLightBinner.SPHERE_STRIDE), 1);
+            for (int j = 0; j < single.getActiveTileCount(); j++) {
+                int tile = single.getActiveTiles()[j];
+                expected[tile] = Arrays.copyOf(expected[tile], expected[tile].length + 1);
+                expected[tile][expected[tile].length - 1] = i;
+            }
+        }
+
+        for (int y = 0; y < binner.getTilesY(); y++) {
+            for (int x = 0; x < binner.getTilesX(); x++) {
+                Assertions.assertArrayEquals(expected[x + y * binner.getTilesX()], getLights(binner, x, y), "Tile " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        Random random = new Random(9);
+        int count = 2000;
+        float[] spheres = createLights(random, count);
+
+        TiledLightBinner sequential = new TiledLightBinner(32);
+        sequential.resize(1920, 1080);
+        sequential.setParallel(false);
+        sequential.bin(PROJECTION, spheres, count);
+
+        TiledLightBinner parallel = new TiledLightBinner(32);
+        parallel.resize(1920, 1080);
+        parallel.bin(PROJECTION, spheres, count);
+
+        Assertions.assertArrayEquals(sequential.getTileOffsets(), parallel.getTileOffsets());
+        Assertions.assertArrayEquals(Arrays.copyOf(sequential.getTileLights(), sequential.getTileLightCount()), Arrays.copyOf(parallel.getTileLights(), parallel.getTileLightCount()));
+        Assertions.assertArrayEquals(Arrays.copyOf(sequential.getActiveTiles(), sequential.getActiveTileCount()), Arrays.copyOf(parallel.getActiveTiles(), parallel.getActiveTileCount()));
+    }
+
+    @Test
+    public void testBinningSpeed() {
+        Random random = new Random(13);
+        int count = 1024;
+        int iterations = 200;
+        float[] spheres = createLights(random, count);
+
+        TiledLightBinner binner = new TiledLightBinner(32);
+        binner.resize(1920, 1080);
+        for (int i = 0; i < iterations; i++) {
+            binner.bin(PROJECTION, spheres, count);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            binner.bin(PROJECTION, spheres, count);
+        }
+        long time = System.nanoTime() - start;
+
+        binner.setParallel(false);
+        for (int i = 0; i < iterations; i++) {
+            binner.bin(PROJECTION, spheres, count);
+        }
+        long sequentialStart = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            binner.bin(PROJECTION, spheres, count);
+        }
+        long sequentialTime = System.nanoTime() - sequentialStart;
+
+        System.out.printf("Tiled binning of %d lights: %.3f ms parallel, %.3f ms sequential, %d entries%n", count, time / 1.0E6 / iterations, sequentialTime / 1.0E6 / iterations, binner.getTileLightCount());
+        Assertions.assertTrue(binner.getTileLightCount() > 0);
+    }
+}
@@ -0,0 +1,192 @@
+import foundry.veil.api.client.render.shader.program.UniformHandle;
+import foundry.veil.api.client.render.shader.program.UniformType;
+import foundry.veil.impl.client.render.shader.ShaderProgramImpl;
+import it.unimi.dsi.fastutil.objects.Object2IntArrayMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.resources.ResourceLocation;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class UniformHandleTest {
+
+    private static final String[] NAMES = new String[40];
+
+    static {
+        for (int i = 0; i < NAMES.length; i++) {
+            NAMES[i] = "Uniform" + i;
+        }
+    }
+
+    /**
+     * A program that resolves uniforms without OpenGL.
+     */
+    private static class TestProgram extends ShaderProgramImpl {
+
+        private final Object2IntMap<CharSequence> locations;
+        private int lookups;
+
+        private TestProgram() {
+            super(new ResourceLocation("veil", "test"));
+            this.locations = new Object2IntOpenHashMap<>();
+            this.locations.defaultReturnValue(-1);
+            for (int i = 0; i < NAMES.length; i++) {
+                this.locations.put(NAMES[i], i);
+            }
+        }
+
+        @Override
+        public int getUniform(CharSequence name) {
+            this.lookups++;
+            return this.locations.getInt(name);
+        }
+
+        @Override
+        public int getProgram() {
+            return 1;
+        }
+    }
+
+    /**
+     * Records uploads instead of sending them to OpenGL.
+     */
+    private static class Uploads {
+
+        private int count;
+        private final UniformType<Vector3fc> vec3 = new UniformType<>("vec3",
+                (shadow, value) -> shadow.equals(value.x(), value.y(), value.z()),
+                (value, shadow) -> shadow != null ? ((Vector3f) shadow).set(value) : new Vector3f(value),
+                (program, location, value) -> this.count++);
+        private final UniformType<Float> floatType = new UniformType<>("float",
+                (shadow, value) -> Float.floatToIntBits(shadow) == Float.floatToIntBits(value),
+                (value, shadow) -> value,
+                (program, location, value) -> this.count++);
+    }
+
+    @Test
+    public void testSkipRedundantUploads() {
+        TestProgram program = new TestProgram();
+        Uploads uploads = new Uploads();
+        UniformHandle<Vector3fc> handle = program.getUniformHandle("Uniform3", uploads.vec3);
+        Assertions.assertSame(handle, program.getUniformHandle("Uniform3", uploads.vec3));
+        Assertions.assertEquals(3, handle.getLocation());
+
+        Vector3f value = new Vector3f(1.0F, 2.0F, 3.0F);
+        handle.set(value);
+        handle.set(value);
+        handle.set(new Vector3f(1.0F, 2.0F, 3.0F));
+        Assertions.assertEquals(1, uploads.count);
+
+        // The handle keeps a copy, so changing the caller's vector is still uploaded
+        value.x = 4.0F;
+        handle.set(value);
+        Assertions.assertEquals(2, uploads.count);
+
+        // Setting the uniform some other way means the shadowed value is unknown
+        program.invalidateUniformHandles(3);
+        handle.set(value);
+        Assertions.assertEquals(3, uploads.count);
+
+        program.invalidateUniformHandles(4);
+        handle.set(value);
+        Assertions.assertEquals(3, uploads.count);
+    }
+
+    @Test
+    public void testRecompile() {
+        TestProgram program = new TestProgram();
+        Uploads uploads = new Uploads();
+        UniformHandle<Float> handle = program.getUniformHandle("Uniform7", uploads.floatType);
+
+        handle.set(1.0F);
+        handle.set(1.0F);
+        Assertions.assertEquals(1, uploads.count);
+        Assertions.assertEquals(1, program.lookups);
+
+        // Freeing or recompiling changes the generation, so the location is looked up again and the value is uploaded
+        program.locations.put("Uniform7", 12);
+        program.free();
+        Assertions.assertEquals(12, handle.getLocation());
+        handle.set(1.0F);
+        Assertions.assertEquals(2, uploads.count);
+        Assertions.assertEquals(2, program.lookups);
+
+        program.locations.removeInt("Uniform7");
+        program.free();
+        Assertions.assertFalse(handle.isValid());
+        handle.set(2.0F);
+        Assertions.assertEquals(2, uploads.count);
+    }
+
+    @Test
+    public void testTypeMismatch() {
+        TestProgram program = new TestProgram();
+        program.getUniformHandle("Uniform0", UniformType.FLOAT);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> program.getUniformHandle("Uniform0", UniformType.INT));
+    }
+
+    @Test
+    public void testSetterSpeed() {
+        int frames = 20_000;
+        float[] values = new float[NAMES.length];
+
+        // The old location cache scanned an array map with string comparisons for every setter
+        Object2IntMap<CharSequence> arrayMap = new Object2IntArrayMap<>();
+        Object2IntMap<CharSequence> hashMap = new Object2IntOpenHashMap<>();
+        for (int i = 0; i < NAMES.length; i++) {
+            arrayMap.put(NAMES[i], i);
+            hashMap.put(NAMES[i], i);
+        }
+
+        TestProgram program = new TestProgram();
+        Uploads uploads = new Uploads();
+        @SuppressWarnings("unchecked")
+        UniformHandle<Float>[] handles = new UniformHandle[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            handles[i] = program.getUniformHandle(NAMES[i], uploads.floatType);
+        }
+
+        long arrayTime = 0;
+        long hashTime = 0;
+        long handleTime = 0;
+        long sum = 0;
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                for (int i = 0; i < NAMES.length; i++) {
+                    sum += arrayMap.getInt(NAMES[NAMES.length - i - 1]);
+                }
+            }
+            arrayTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                for (int i = 0; i < NAMES.length; i++) {
+                    sum += hashMap.getInt(NAMES[NAMES.length - i - 1]);
+                }
+            }
+            hashTime = System.nanoTime() - start;
+
+            uploads.count = 0;
+            start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                for (int i = 0; i < NAMES.length; i++) {
+                    // Only every 10th uniform changes each frame
+                    if (i % 10 == 0) {
+                        values[i] = frame;
+                    }
+                    handles[i].set(values[i]);
+                }
+            }
+            handleTime = System.nanoTime() - start;
+        }
+
+        // Handles were already warmed up in the first run, so only the changing uniforms are uploaded
+        Assertions.assertTrue(sum > 0);
+        Assertions.assertEquals(frames * (NAMES.length / 10), uploads.count);
+        System.out.printf("Set %d uniforms %d times: %.3f ms by name (array map), %.3f ms by name (hash map), %.3f ms with handles (%d uploads)%n",
+                NAMES.length, frames, arrayTime / 1.0E6, hashTime / 1.0E6, handleTime / 1.0E6, uploads.count);
+    }
+}
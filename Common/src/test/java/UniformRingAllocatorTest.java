@@ -0,0 +1,119 @@
+import foundry.veil.impl.client.render.shader.definition.UniformRingAllocator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class UniformRingAllocatorTest {
+
+    private static final int ALIGNMENT = 256;
+    private static final int CAMERA_MATRICES_SIZE = 324;
+
+    @Test
+    public void testAlignment() {
+        UniformRingAllocator allocator = new UniformRingAllocator(1000, ALIGNMENT);
+        Assertions.assertEquals(1024, allocator.getCapacity());
+
+        Assertions.assertEquals(0, allocator.allocate(4));
+        Assertions.assertEquals(256, allocator.allocate(CAMERA_MATRICES_SIZE));
+        Assertions.assertEquals(768, allocator.allocate(256));
+        Assertions.assertEquals(1024, allocator.getUsed());
+
+        Assertions.assertEquals(-1, allocator.allocate(0));
+        Assertions.assertEquals(-1, allocator.allocate(2048));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new UniformRingAllocator(1024, 0));
+
+        // Alignments that aren't a power of two are still respected
+        UniformRingAllocator odd = new UniformRingAllocator(100, 24);
+        Assertions.assertEquals(0, odd.allocate(1));
+        Assertions.assertEquals(24, odd.allocate(30));
+        Assertions.assertEquals(72, odd.allocate(1));
+    }
+
+    @Test
+    public void testFrames() {
+        UniformRingAllocator allocator = new UniformRingAllocator(1024, ALIGNMENT);
+        Assertions.assertFalse(allocator.endFrame());
+        Assertions.assertFalse(allocator.releaseFrame());
+
+        Assertions.assertEquals(0, allocator.allocate(512));
+        Assertions.assertTrue(allocator.endFrame());
+        Assertions.assertEquals(512, allocator.allocate(512));
+        Assertions.assertTrue(allocator.endFrame());
+        Assertions.assertEquals(2, allocator.getFramesInFlight());
+
+        // Memory isn't reused until the frame using it is released
+        Assertions.assertEquals(-1, allocator.allocate(4));
+        Assertions.assertTrue(allocator.releaseFrame());
+        Assertions.assertEquals(512, allocator.getUsed());
+        Assertions.assertEquals(0, allocator.allocate(4));
+        Assertions.assertEquals(256, allocator.allocate(256));
+        Assertions.assertEquals(-1, allocator.allocate(4));
+
+        Assertions.assertTrue(allocator.endFrame());
+        Assertions.assertTrue(allocator.releaseFrame());
+        Assertions.assertTrue(allocator.releaseFrame());
+        Assertions.assertEquals(0, allocator.getUsed());
+        Assertions.assertEquals(0, allocator.getFramesInFlight());
+    }
+
+    @Test
+    public void testWrap() {
+        UniformRingAllocator allocator = new UniformRingAllocator(1024, ALIGNMENT);
+        Assertions.assertEquals(0, allocator.allocate(512));
+        Assertions.assertEquals(512, allocator.allocate(256));
+        allocator.endFrame();
+        allocator.releaseFrame();
+
+        // The end of the ring is skipped when an allocation doesn't fit
+        Assertions.assertEquals(0, allocator.allocate(512));
+        Assertions.assertEquals(768, allocator.getUsed());
+        Assertions.assertEquals(512, allocator.allocate(256));
+        Assertions.assertEquals(-1, allocator.allocate(4));
+        allocator.endFrame();
+        allocator.releaseFrame();
+
+        // Allocations are never split across the end of the ring
+        allocator = new UniformRingAllocator(5000, ALIGNMENT);
+        for (int frame = 0; frame < 100; frame++) {
+            for (int i = 0; i < 3; i++) {
+                long offset = allocator.allocate(CAMERA_MATRICES_SIZE);
+                Assertions.assertNotEquals(-1, offset);
+                Assertions.assertEquals(0, offset % ALIGNMENT);
+                Assertions.assertTrue(offset + CAMERA_MATRICES_SIZE <= allocator.getCapacity());
+            }
+            allocator.endFrame();
+
+            // The previous frame is still in flight
+            if (allocator.getFramesInFlight() > 1) {
+                allocator.releaseFrame();
+            }
+        }
+    }
+
+    @Test
+    public void testAllocationOverhead() {
+        int frames = 1000;
+        int drawsPerFrame = 10_000;
+        int framesInFlight = 3;
+        UniformRingAllocator allocator = new UniformRingAllocator((long) CAMERA_MATRICES_SIZE * drawsPerFrame * (framesInFlight + 1) * 2, ALIGNMENT);
+
+        long sum = 0;
+        long time = 0;
+        for (int run = 0; run < 2; run++) {
+            long start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                for (int i = 0; i < drawsPerFrame; i++) {
+                    sum += allocator.allocate(CAMERA_MATRICES_SIZE);
+                }
+                allocator.endFrame();
+                if (allocator.getFramesInFlight() > framesInFlight) {
+                    allocator.releaseFrame();
+                }
+            }
+            time = System.nanoTime() - start;
+        }
+
+        Assertions.assertTrue(sum > 0);
+        System.out.printf("%d frames of %d allocations: %.3f ms, %.2f ns/allocation%n",
+                frames, drawsPerFrame, time / 1.0E6, (double) time / frames / drawsPerFrame);
+    }
+}
@@ -4,6 +4,7 @@ import foundry.veil.api.client.render.post.PostProcessingManager;
 import foundry.veil.api.event.VeilPostProcessingEvent;
 import net.fabricmc.fabric.api.event.Event;
 import net.fabricmc.fabric.api.event.EventFactory;
+import org.jetbrains.annotations.ApiStatus;
 
 /**
  * <p>Events fired when Veil runs post-processing.</p>
@@ -15,15 +16,18 @@ import net.fabricmc.fabric.api.event.EventFactory;
  */
 public final class FabricVeilPostProcessingEvent {
 
-    public static final Event<VeilPostProcessingEvent.Pre> PRE = EventFactory.createArrayBacked(VeilPostProcessingEvent.Pre.class, (name, pipeline, context) -> {
-    }, events -> (name, pipeline, context) -> {
+    private static final VeilPostProcessingEvent.Pre EMPTY_PRE = (name, pipeline, context) -> {
+    };
+    private static final VeilPostProcessingEvent.Post EMPTY_POST = (name, pipeline, context) -> {
+    };
+
+    public static final Event<VeilPostProcessingEvent.Pre> PRE = EventFactory.createArrayBacked(VeilPostProcessingEvent.Pre.class, EMPTY_PRE, events -> (name, pipeline, context) -> {
         for (VeilPostProcessingEvent.Pre event : events) {
             event.preVeilPostProcessing(name, pipeline, context);
         }
     });
 
-    public static final Event<VeilPostProcessingEvent.Post> POST = EventFactory.createArrayBacked(VeilPostProcessingEvent.Post.class, (name, pipeline, context) -> {
-    }, events -> (name, pipeline, context) -> {
+    public static final Event<VeilPostProcessingEvent.Post> POST = EventFactory.createArrayBacked(VeilPostProcessingEvent.Post.class, EMPTY_POST, events -> (name, pipeline, context) -> {
         for (VeilPostProcessingEvent.Post event : events) {
             event.postVeilPostProcessing(name, pipeline, context);
         }
@@ -31,4 +35,13 @@ public final class FabricVeilPostProcessingEvent {
 
     private FabricVeilPostProcessingEvent() {
     }
+
+    /**
+     * @return Whether any listener is registered to either event
+     */
+    @ApiStatus.Internal
+    public static boolean hasListeners() {
+        // Events without listeners use the empty invoker
+        return PRE.invoker() != EMPTY_PRE || POST.invoker() != EMPTY_POST;
+    }
 }
@@ -18,4 +18,9 @@ public class FabricVeilClientPlatform implements VeilClientPlatform {
     public void postVeilPostProcessing(ResourceLocation name, PostPipeline pipeline, PostPipeline.Context context) {
         FabricVeilPostProcessingEvent.POST.invoker().postVeilPostProcessing(name, pipeline, context);
     }
+
+    @Override
+    public boolean hasVeilPostProcessingListeners() {
+        return FabricVeilPostProcessingEvent.hasListeners();
+    }
 }
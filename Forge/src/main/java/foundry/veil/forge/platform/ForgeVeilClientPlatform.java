@@ -19,4 +19,10 @@ public class ForgeVeilClientPlatform implements VeilClientPlatform {
     public void postVeilPostProcessing(ResourceLocation name, PostPipeline pipeline, PostPipeline.Context context) {
         MinecraftForge.EVENT_BUS.post(new ForgeVeilPostProcessingEvent.Post(name, pipeline, context));
     }
+
+    @Override
+    public boolean hasVeilPostProcessingListeners() {
+        // The event bus has no way to check for listeners, so assume something could be listening
+        return true;
+    }
 }